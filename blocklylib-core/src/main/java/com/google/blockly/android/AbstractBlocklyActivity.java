@@ -333,6 +333,13 @@ public abstract class AbstractBlocklyActivity extends AppCompatActivity {
         mBlocklyActivityHelper.onRestart();
     }
 
+    /** Propagate memory pressure to BlocklyActivityHelper. */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        mBlocklyActivityHelper.onTrimMemory(level);
+    }
+
     /**
      *
      * Returns true if the app should proceed to restore the blockly state from the
@@ -15,6 +15,7 @@
 
 package com.google.blockly.android;
 
+import android.content.ComponentCallbacks2;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -239,6 +240,15 @@ public abstract class AbstractBlocklyFragment extends Fragment {
         mBlocklyActivityHelper.onStop();
     }
 
+    /** Propagate memory pressure to BlocklyActivityHelper. */
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        if (mBlocklyActivityHelper != null) {
+            mBlocklyActivityHelper.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        }
+    }
+
     /**
      * Handles the processing of Blockly's standard toolbar / actionbar menu items for this
      * workspace.
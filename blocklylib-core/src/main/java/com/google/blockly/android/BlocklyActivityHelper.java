@@ -322,6 +322,19 @@ public class BlocklyActivityHelper {
         // Do nothing.
     }
 
+    /**
+     * Lifecycle hook that should be called from {@link Activity#onTrimMemory(int)}. Releases
+     * pooled block views.
+     *
+     * @param level The memory trim level.
+     */
+    public void onTrimMemory(int level) {
+        BlockViewFactory viewFactory = mController.getBlockViewFactory();
+        if (viewFactory != null) {
+            viewFactory.onTrimMemory(level);
+        }
+    }
+
     /**
      * Lifecycle hook that must be called from {@link Activity#onDestroy()}.
      * Does nothing yet, but required for future compatibility.
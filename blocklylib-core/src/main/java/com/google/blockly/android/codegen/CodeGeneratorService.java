@@ -37,57 +37,72 @@ import org.json.JSONException;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 
 /**
- * Background service that uses a WebView to statically load the Web Blockly libraries and use them
+ * Background service that uses WebViews to statically load the Web Blockly libraries and use them
  * to generate code.
+ * <p/>
+ * Each combination of {@link LanguageDefinition}, block definitions, and block generators gets its
+ * own generator context, a WebView with those files already loaded. Up to
+ * {@link #MAX_WARM_CONTEXTS} contexts are kept warm, so apps that switch between generators do not
+ * reload the Blockly libraries on every switch. Requests for different contexts are generated
+ * independently, and requests for the same context are generated in order. A queued request is
+ * dropped if the same callback enqueues a newer request for the same context, so only the latest
+ * workspace is compiled.
  */
 public class CodeGeneratorService extends Service {
     private static final String TAG = "CodeGeneratorService";
     private static final String BLOCKLY_COMPILER_PAGE =
             "file:///android_asset/background_compiler.html";
 
+    /**
+     * The number of idle generator contexts kept loaded. The least recently used idle context is
+     * destroyed when another one is needed.
+     */
+    @VisibleForTesting
+    static final int MAX_WARM_CONTEXTS = 3;
+
+    /**
+     * The number of characters of request XML passed to the WebView per call.
+     */
+    @VisibleForTesting
+    static final int XML_CHUNK_SIZE = 256 * 1024;
+
     // Binder given to clients
     private final IBinder mBinder = new CodeGeneratorBinder();
-    private final ArrayDeque<CodeGenerationRequest> mRequestQueue = new ArrayDeque<>();
-    private boolean mReady = false;
-    private WebView mWebview;
-    private CodeGenerationRequest.CodeGeneratorCallback mCallback;
+    // Access ordered, from least to most recently used. Guarded by this.
+    private final LinkedHashMap<GeneratorKey, GeneratorContext> mContexts =
+            new LinkedHashMap<>(MAX_WARM_CONTEXTS + 1, 0.75f, true);
     private Handler mHandler;
-    private LanguageDefinition mGeneratorLanguage;
-    private List<String> mDefinitions = new ArrayList<>();
-    private List<String> mGenerators = new ArrayList<>();
-    private String mAllBlocks;
+    private boolean mDestroyed = false;
 
     @Override
     public void onCreate() {
         mHandler = new Handler();
-        mWebview = new WebView(this);
-        mWebview.getSettings().setJavaScriptEnabled(true);
-        mWebview.setWebChromeClient(new WebChromeClient());
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
             WebView.setWebContentsDebuggingEnabled(true);
         }
-        mWebview.addJavascriptInterface(new BlocklyJavascriptInterface(),
-                "BlocklyJavascriptInterface");
-
-        mWebview.setWebViewClient(new WebViewClient() {
-            @Override
-            public void onPageFinished(WebView view, String url) {
-                synchronized (this) {
-                    mReady = true;
-                }
-                handleRequest();
-            }
-        });
-        mWebview.loadUrl(BLOCKLY_COMPILER_PAGE);
+    }
+
+    @Override
+    public void onDestroy() {
+        final List<GeneratorContext> contexts;
+        synchronized (this) {
+            mDestroyed = true;
+            contexts = new ArrayList<>(mContexts.values());
+            mContexts.clear();
+        }
+        for (GeneratorContext context : contexts) {
+            context.destroy();
+        }
+        super.onDestroy();
     }
 
     @Nullable
@@ -97,61 +112,53 @@ public class CodeGeneratorService extends Service {
     }
 
     /**
-     * Enqueues a {@link CodeGenerationRequest} and kicks off generation of the first request in the
-     * queue if no request is in progress.
+     * Enqueues a {@link CodeGenerationRequest} and kicks off generation of the first request in its
+     * generator context's queue if no request is in progress in that context. Any request from the
+     * same {@link CodeGenerationRequest.CodeGeneratorCallback callback} still waiting in that
+     * queue is superseded by this request, and will not be generated.
      *
      * @param request The request to add to the queue.
      */
     public void requestCodeGeneration(CodeGenerationRequest request) {
+        if (TextUtils.isEmpty(request.getXml())) {
+            Log.d(TAG, "Request xml was empty, skipping");
+            return;
+        }
+        GeneratorContext context;
         synchronized (this) {
-            mRequestQueue.add(request);
+            if (mDestroyed) {
+                Log.w(TAG, "Code generation requested after service was destroyed.");
+                return;
+            }
+            GeneratorKey key = new GeneratorKey(request);
+            context = mContexts.get(key);
+            if (context == null) {
+                context = new GeneratorContext(request);
+                mContexts.put(key, context);
+                trimContexts();
+            }
+            context.enqueue(request);
         }
-        handleRequest();
+        context.handleRequest();
     }
 
     /**
-     * If no {@link CodeGenerationRequest} instances are already being processed, kicks off
-     * generation of code for the first request in the queue.
+     * Destroys the least recently used idle contexts until at most {@link #MAX_WARM_CONTEXTS}
+     * remain. Contexts with pending requests are kept. Called when a context is created, and when
+     * a context's queue drains. Must be called while holding the service's lock.
      */
-    private void handleRequest() {
-        synchronized (this) {
-            if (mReady && mRequestQueue.size() > 0) {
-                mReady = false;
-                final CodeGenerationRequest request = mRequestQueue.pop();
-                if (TextUtils.isEmpty(request.getXml())) {
-                    Log.d(TAG, "Request xml was empty, skipping");
-                    mHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            handleRequest();
-                        }
-                    });
-                    return;
-                }
-                // Run on the main thread.
+    private void trimContexts() {
+        Iterator<GeneratorContext> iter = mContexts.values().iterator();
+        int excess = mContexts.size() - MAX_WARM_CONTEXTS;
+        while (excess > 0 && iter.hasNext()) {
+            final GeneratorContext context = iter.next();
+            if (context.isIdle()) {
+                iter.remove();
+                --excess;
                 mHandler.post(new Runnable() {
                     @Override
                     public void run() {
-                        mCallback = request.getCallback();
-                        if (!equivalentLists(request.getBlockDefinitionsFilenames(), mDefinitions)
-                                || !equivalentLists(request.getBlockGeneratorsFilenames(),
-                                mGenerators)) {
-                             //Reload the page with the new block definitions.  Push the request
-                             //back onto the queue until the page is loaded.
-                            mDefinitions = request.getBlockDefinitionsFilenames();
-                            mGenerators = request.getBlockGeneratorsFilenames();
-                            mGeneratorLanguage = request.getGeneratorLanguageDefinition();
-                            mAllBlocks = null;
-                            mRequestQueue.addFirst(request);
-                            mWebview.loadUrl(BLOCKLY_COMPILER_PAGE);
-                        } else {
-                            String xml = request.getXml();
-                            String codeGenerationURL = buildCodeGenerationUrl(xml,
-                                    mGeneratorLanguage.mGeneratorRef);
-                            if (codeGenerationURL != null) {
-                                mWebview.loadUrl(codeGenerationURL);
-                            }
-                        }
+                        context.destroy();
                     }
                 });
             }
@@ -159,40 +166,128 @@ public class CodeGeneratorService extends Service {
     }
 
     /**
-     * Builds the javascript: URL that invokes the code generation, given the XML string for the
-     * serialized blocks.
-     *
-     * @param xml
-     * @return The javascript: URL used to invoke code generation.
+     * @return The number of generator contexts currently loaded or loading.
      */
-    @Nullable
     @VisibleForTesting
-    static String buildCodeGenerationUrl(String xml, String generatorObject) {
-        if (Build.VERSION.SDK_INT <= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-            // Prior to KitKat a different WebView was used that didn't handle
-            // special characters passed in to it. We skip the encoding on
-            // later versions to save time.
-            try {
-                String urlEncodedXml = URLEncoder.encode(xml, "UTF-8");
-                urlEncodedXml = urlEncodedXml.replace("+", "%20");
-                return "javascript:generateEscaped('" + urlEncodedXml + "');";
-            } catch (UnsupportedEncodingException e) {
-                Log.e(TAG, "Error encoding", e);
-                return null;
+    synchronized int getContextCount() {
+        return mContexts.size();
+    }
+
+    /**
+     * A WebView with the Blockly libraries, the generator language, block definitions, and block
+     * generators of one {@link GeneratorKey} loaded. All fields are guarded by the service.
+     */
+    private class GeneratorContext {
+        private final LanguageDefinition mGeneratorLanguage;
+        private final List<String> mDefinitions;
+        private final List<String> mGenerators;
+        private final ArrayDeque<CodeGenerationRequest> mRequestQueue = new ArrayDeque<>();
+        private WebView mWebview;
+        private boolean mReady = false;
+        private boolean mDiscarded = false;
+        private CodeGenerationRequest.CodeGeneratorCallback mCallback;
+        private String mPendingXml;
+        private int[] mPendingXmlChunkEnds;
+        private String mAllBlocks;
+
+        GeneratorContext(CodeGenerationRequest request) {
+            mGeneratorLanguage = request.getGeneratorLanguageDefinition();
+            mDefinitions = copyOf(request.getBlockDefinitionsFilenames());
+            mGenerators = copyOf(request.getBlockGeneratorsFilenames());
+
+            // WebViews must be created on the main thread.
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    load();
+                }
+            });
+        }
+
+        /**
+         * Adds a request to the end of the queue, removing any request from the same callback that
+         * has not started.
+         */
+        void enqueue(CodeGenerationRequest request) {
+            CodeGenerationRequest.CodeGeneratorCallback callback = request.getCallback();
+            if (callback != null) {
+                Iterator<CodeGenerationRequest> iter = mRequestQueue.iterator();
+                while (iter.hasNext()) {
+                    if (iter.next().getCallback() == callback) {
+                        iter.remove();
+                    }
+                }
             }
-        } else {
-            String jsEscapedXml = xml.replace("'", "\\'");
-            return "javascript:generate('" + jsEscapedXml + "', " + generatorObject + ");";
+            mRequestQueue.add(request);
         }
-    }
 
-    private class BlocklyJavascriptInterface {
-        @JavascriptInterface
-        public void execute(String program) {
+        boolean isIdle() {
+            return mReady && mRequestQueue.isEmpty();
+        }
+
+        /**
+         * If no {@link CodeGenerationRequest} instance is already being processed in this context,
+         * kicks off generation of code for the first request in its queue.
+         */
+        void handleRequest() {
+            final CodeGenerationRequest request;
+            synchronized (CodeGeneratorService.this) {
+                if (!mReady || mDiscarded || mRequestQueue.isEmpty()) {
+                    return;
+                }
+                mReady = false;
+                request = mRequestQueue.pop();
+                mCallback = request.getCallback();
+                mPendingXml = request.getXml();
+                mPendingXmlChunkEnds = splitIntoChunks(mPendingXml, XML_CHUNK_SIZE);
+            }
+            // Run on the main thread.
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mWebview != null) {
+                        mWebview.loadUrl(
+                                buildCodeGenerationUrl(mGeneratorLanguage.mGeneratorRef));
+                    }
+                }
+            });
+        }
+
+        private void load() {
+            synchronized (CodeGeneratorService.this) {
+                if (mDiscarded) {
+                    return;
+                }
+            }
+            mWebview = new WebView(CodeGeneratorService.this);
+            mWebview.getSettings().setJavaScriptEnabled(true);
+            mWebview.setWebChromeClient(new WebChromeClient());
+            mWebview.addJavascriptInterface(new BlocklyJavascriptInterface(this),
+                    "BlocklyJavascriptInterface");
+            mWebview.setWebViewClient(new WebViewClient() {
+                @Override
+                public void onPageFinished(WebView view, String url) {
+                    synchronized (CodeGeneratorService.this) {
+                        mReady = true;
+                    }
+                    handleRequest();
+                }
+            });
+            mWebview.loadUrl(BLOCKLY_COMPILER_PAGE);
+        }
+
+        private void onFinishCodeGeneration(String program) {
             CodeGenerationRequest.CodeGeneratorCallback cb;
-            synchronized (this) {
+            synchronized (CodeGeneratorService.this) {
                 cb = mCallback;
+                mCallback = null;
+                mPendingXml = null;
+                mPendingXmlChunkEnds = null;
                 mReady = true;
+                if (mRequestQueue.isEmpty()) {
+                    // Contexts that were busy when others were created may now be trimmed.
+                    trimContexts();
+                }
             }
             if (cb != null) {
                 cb.onFinishCodeGeneration(program);
@@ -200,38 +295,172 @@ public class CodeGeneratorService extends Service {
             handleRequest();
         }
 
+        /**
+         * Destroys the WebView. Must be called on the main thread.
+         */
+        void destroy() {
+            synchronized (CodeGeneratorService.this) {
+                mDiscarded = true;
+                mRequestQueue.clear();
+                mCallback = null;
+                mPendingXml = null;
+                mPendingXmlChunkEnds = null;
+            }
+            if (mWebview != null) {
+                mWebview.destroy();
+                mWebview = null;
+            }
+        }
+    }
+
+    /**
+     * Identifies the generator context of a request. The order of the file lists is ignored.
+     */
+    private static class GeneratorKey {
+        private final String mLanguageFilename;
+        private final String mGeneratorRef;
+        private final List<String> mDefinitions;
+        private final List<String> mGenerators;
+
+        GeneratorKey(CodeGenerationRequest request) {
+            LanguageDefinition language = request.getGeneratorLanguageDefinition();
+            mLanguageFilename = language.mLanguageFilename;
+            mGeneratorRef = language.mGeneratorRef;
+            mDefinitions = copyOf(request.getBlockDefinitionsFilenames());
+            mGenerators = copyOf(request.getBlockGeneratorsFilenames());
+            Collections.sort(mDefinitions);
+            Collections.sort(mGenerators);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            GeneratorKey other = (GeneratorKey) o;
+            return mLanguageFilename.equals(other.mLanguageFilename)
+                    && mGeneratorRef.equals(other.mGeneratorRef)
+                    && mDefinitions.equals(other.mDefinitions)
+                    && mGenerators.equals(other.mGenerators);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mLanguageFilename.hashCode();
+            result = 31 * result + mGeneratorRef.hashCode();
+            result = 31 * result + mDefinitions.hashCode();
+            result = 31 * result + mGenerators.hashCode();
+            return result;
+        }
+    }
+
+    /**
+     * Builds the javascript: URL that invokes the code generation. The page pulls the XML of the
+     * request in chunks through the {@link BlocklyJavascriptInterface}, so the XML never needs to
+     * be escaped or copied into the URL.
+     *
+     * @param generatorObject The generator object, such as "Blockly.JavaScript".
+     * @return The javascript: URL used to invoke code generation.
+     */
+    @VisibleForTesting
+    static String buildCodeGenerationUrl(String generatorObject) {
+        return "javascript:generatePending(" + generatorObject + ");";
+    }
+
+    /**
+     * Splits a string into chunks of about {@code chunkSize} characters that can be passed to
+     * JavaScript separately. Surrogate pairs are never split, as a lone surrogate does not survive
+     * the bridge.
+     *
+     * @param str The string to split.
+     * @param chunkSize The maximum size of a chunk, at least 2.
+     * @return The end index of each chunk.
+     */
+    @VisibleForTesting
+    static int[] splitIntoChunks(String str, int chunkSize) {
+        int length = str.length();
+        int[] ends = new int[(length + chunkSize - 2) / (chunkSize - 1)];
+        int count = 0;
+        int end = 0;
+        while (end < length) {
+            end = Math.min(end + chunkSize, length);
+            if (end < length && Character.isHighSurrogate(str.charAt(end - 1))) {
+                --end;
+            }
+            ends[count++] = end;
+        }
+        return count == ends.length ? ends : Arrays.copyOf(ends, count);
+    }
+
+    private class BlocklyJavascriptInterface {
+        private final GeneratorContext mContext;
+
+        BlocklyJavascriptInterface(GeneratorContext context) {
+            mContext = context;
+        }
+
+        @JavascriptInterface
+        public void execute(String program) {
+            mContext.onFinishCodeGeneration(program);
+        }
+
+        @JavascriptInterface
+        public int getPendingXmlChunkCount() {
+            synchronized (CodeGeneratorService.this) {
+                return mContext.mPendingXmlChunkEnds == null
+                        ? 0 : mContext.mPendingXmlChunkEnds.length;
+            }
+        }
+
+        @JavascriptInterface
+        public String getPendingXmlChunk(int index) {
+            synchronized (CodeGeneratorService.this) {
+                int[] ends = mContext.mPendingXmlChunkEnds;
+                if (ends == null || index < 0 || index >= ends.length) {
+                    return "";
+                }
+                return mContext.mPendingXml.substring(index == 0 ? 0 : ends[index - 1],
+                        ends[index]);
+            }
+        }
+
         @JavascriptInterface
         public String getBlockGeneratorsFilenames() {
-            if (mGenerators == null || mGenerators.size() == 0) {
+            List<String> generators = mContext.mGenerators;
+            if (generators.size() == 0) {
                 return "";
             }
-            StringBuilder combined = new StringBuilder(mGenerators.get(0));
-            for (int i = 1; i < mGenerators.size(); i++) {
+            StringBuilder combined = new StringBuilder(generators.get(0));
+            for (int i = 1; i < generators.size(); i++) {
                 combined.append(";");
-                combined.append(mGenerators.get(i));
+                combined.append(generators.get(i));
             }
             return combined.toString();
         }
 
         @JavascriptInterface
         public String getGeneratorLanguageFilename() {
-            if (mGeneratorLanguage == null) {
+            if (mContext.mGeneratorLanguage == null) {
                 throw new IllegalStateException("Generator language not specified!");
             }
-            return mGeneratorLanguage.mLanguageFilename;
+            return mContext.mGeneratorLanguage.mLanguageFilename;
         }
 
         @JavascriptInterface
         public String getBlockDefinitions() {
-            if (mAllBlocks != null) {
-                return mAllBlocks;
+            if (mContext.mAllBlocks != null) {
+                return mContext.mAllBlocks;
             }
-            if (mDefinitions.isEmpty()) {
+            List<String> definitions = mContext.mDefinitions;
+            if (definitions.isEmpty()) {
                 return "";
             }
-            if (mDefinitions.size() == 1) {
+            if (definitions.size() == 1) {
                 // Pass in contents without parsing.
-                String filename = mDefinitions.get(0);
+                String filename = definitions.get(0);
                 try {
                     return loadAssetAsUtf8(filename);
                 } catch (IOException e) {
@@ -243,23 +472,21 @@ public class CodeGeneratorService extends Service {
                 JSONArray allBlocks = new JSONArray();
                 String filename = null;
                 try {
-                    if (mDefinitions != null) {
-                        Iterator<String> iter = mDefinitions.iterator();
-                        while (iter.hasNext()) {
-                            filename = iter.next();
-                            String contents = loadAssetAsUtf8(filename);
-                            JSONArray fileBlocks = new JSONArray(contents);
-                            for (int i = 0; i < fileBlocks.length(); ++i) {
-                                allBlocks.put(fileBlocks.getJSONObject(i));
-                            }
+                    Iterator<String> iter = definitions.iterator();
+                    while (iter.hasNext()) {
+                        filename = iter.next();
+                        String contents = loadAssetAsUtf8(filename);
+                        JSONArray fileBlocks = new JSONArray(contents);
+                        for (int i = 0; i < fileBlocks.length(); ++i) {
+                            allBlocks.put(fileBlocks.getJSONObject(i));
                         }
                     }
                 } catch (IOException|JSONException e) {
                     Log.e(TAG, "Error reading block definitions file \"" + filename + "\"");
                     return "";
                 }
-                mAllBlocks = allBlocks.toString();
-                return mAllBlocks;
+                mContext.mAllBlocks = allBlocks.toString();
+                return mContext.mAllBlocks;
             }
         }
 
@@ -275,14 +502,8 @@ public class CodeGeneratorService extends Service {
         }
     }
 
-    private boolean equivalentLists(List<String> newDefinitions, List<String> oldDefinitions) {
-        LinkedList<String> checkList = new LinkedList<>(oldDefinitions);
-        for (String filename : newDefinitions) {
-            if (!checkList.remove(filename)) {
-                return false;
-            }
-        }
-        return checkList.isEmpty(); // If it is empty, all filenames were found / matched.
+    private static List<String> copyOf(@Nullable List<String> filenames) {
+        return filenames == null ? new ArrayList<String>() : new ArrayList<>(filenames);
     }
 
     private String loadAssetAsUtf8(String filename) throws IOException {
@@ -296,7 +517,7 @@ public class CodeGeneratorService extends Service {
 
             return new String(buffer, "UTF-8");
         } catch (IOException e) {
-            throw new IllegalArgumentException("Couldn't find asset file \"" + mDefinitions + "\"");
+            throw new IllegalArgumentException("Couldn't find asset file \"" + filename + "\"");
         } finally {
             if (input != null) {
                 try {
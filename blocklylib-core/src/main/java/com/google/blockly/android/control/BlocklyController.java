@@ -24,6 +24,7 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 import android.util.Log;
+import android.util.SparseIntArray;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewParent;
@@ -46,6 +47,7 @@ import com.google.blockly.android.ui.WorkspaceHelper;
 import com.google.blockly.android.ui.WorkspaceView;
 import com.google.blockly.android.ui.fieldview.VariableRequestCallback;
 import com.google.blockly.model.Block;
+import com.google.blockly.model.BlockBinarySerializer;
 import com.google.blockly.model.BlockExtension;
 import com.google.blockly.model.BlockFactory;
 import com.google.blockly.model.BlocklyCategory;
@@ -67,9 +69,16 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Controller to coordinate the state among all the major Blockly components: Workspace, Toolbox,
@@ -84,12 +93,18 @@ public class BlocklyController {
 
     private static final String SNAPSHOT_BUNDLE_KEY = "com.google.blockly.snapshot";
     private static final String SERIALIZED_WORKSPACE_KEY = "SERIALIZED_WORKSPACE";
+    private static final String SERIALIZED_WORKSPACE_BINARY_KEY = "SERIALIZED_WORKSPACE_BINARY";
 
     /**
      * Callback interface for {@link BlocklyEvent}s.
      */
     public interface EventsCallback {
         /**
+         * The bitmask is read once, when the callback is registered via
+         * {@link BlocklyController#addCallback} or {@link BlocklyController#addBlockCallback}.
+         * Later changes are ignored. To change the handled types, remove the callback and add it
+         * again.
+         *
          * @return The bitmask of event types handled by this callback.  Must not change.
          */
         @BlocklyEvent.EventType int getTypesBitmask();
@@ -113,7 +128,13 @@ public class BlocklyController {
 
     private final Workspace mWorkspace;
     private final ConnectionManager mConnectionManager;
-    private final ArrayList<EventsCallback> mListeners = new ArrayList<>();
+    private final EventsCallbackRegistry mListeners = new EventsCallbackRegistry();
+    /** Per-block callbacks, indexed by block id. See {@link #addBlockCallback}. */
+    private final Map<String, BlockCallbackRef> mBlockCallbacks = new HashMap<>();
+    /** Enqueues the callbacks of garbage collected blocks, to be removed. */
+    private final ReferenceQueue<Block> mBlockCallbackQueue = new ReferenceQueue<>();
+    /** Number of block callbacks with each types bitmask. */
+    private final SparseIntArray mBlockCallbackMaskCounts = new SparseIntArray();
 
     // Whether the current call stack is actively executing code intended to group and fire events.
     // See groupAndFireEvents(Runnable)
@@ -122,6 +143,8 @@ public class BlocklyController {
     private ArrayList<BlocklyEvent> mPendingEvents;
     private int mPendingEventsMask = 0;
     private int mEventCallbackMask = 0;
+    // Union of the block callback masks.
+    private int mBlockCallbackMask = 0;
 
     private VirtualWorkspaceView mVirtualWorkspaceView;
     private WorkspaceView mWorkspaceView;
@@ -380,7 +403,7 @@ public class BlocklyController {
      */
     public void loadWorkspaceContents(String workspaceXmlString) throws BlockLoadingException {
         mWorkspace.loadWorkspaceContents(workspaceXmlString);
-        initBlockViews();
+        onWorkspaceContentsLoaded();
     }
 
     /**
@@ -392,7 +415,45 @@ public class BlocklyController {
      */
     public void loadWorkspaceContents(InputStream workspaceXmlStream) throws BlockLoadingException {
         mWorkspace.loadWorkspaceContents(workspaceXmlStream);
+        onWorkspaceContentsLoaded();
+    }
+
+    /**
+     * Replaces the workspace with the given root blocks, such as blocks loaded from a
+     * {@link BlockBinarySerializer} stream, and creates their views. All blocks are built before
+     * any are added, and their connections, variables and procedures are indexed in one batch.
+     *
+     * @param rootBlocks The new root blocks, not yet added to any workspace.
+     * @throws BlockLoadingException If the blocks could not be added to the workspace.
+     */
+    public void loadWorkspaceContents(List<Block> rootBlocks) throws BlockLoadingException {
+        mWorkspace.loadWorkspaceContents(rootBlocks);
+        onWorkspaceContentsLoaded();
+    }
+
+    /**
+     * Enables events on the newly loaded root blocks, so later changes to them are reported to
+     * {@link EventsCallback}s like blocks added individually, and creates their views. If any
+     * callback listens for {@link BlocklyEvent#TYPE_CREATE}, the loaded blocks are reported as a
+     * single event group, with one create event per root block.
+     */
+    private void onWorkspaceContentsLoaded() {
+        final List<Block> rootBlocks = mWorkspace.getRootBlocks();
+        for (int i = 0; i < rootBlocks.size(); i++) {
+            rootBlocks.get(i).setEventWorkspaceId(mWorkspace.getId());
+        }
         initBlockViews();
+
+        if (hasCallback(BlocklyEvent.TYPE_CREATE) && !rootBlocks.isEmpty()) {
+            groupAndFireEvents(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < rootBlocks.size(); i++) {
+                        addPendingEvent(new BlocklyEvent.CreateEvent(rootBlocks.get(i)));
+                    }
+                }
+            });
+        }
     }
 
     /**
@@ -406,11 +467,12 @@ public class BlocklyController {
         boolean success;
         Bundle blocklyState = new Bundle();
 
-        // First attempt to save the workspace to a file.
+        // First attempt to save the workspace. The binary form is much smaller than XML, keeping
+        // large workspaces clear of the Binder transaction limit.
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         try {
-            mWorkspace.serializeToXml(out);
-            blocklyState.putByteArray(SERIALIZED_WORKSPACE_KEY, out.toByteArray());
+            mWorkspace.serializeToBinary(out);
+            blocklyState.putByteArray(SERIALIZED_WORKSPACE_BINARY_KEY, out.toByteArray());
             success = true;
         } catch (BlocklySerializerException e) {
             Log.e(TAG, "Error serializing workspace.", e);
@@ -445,7 +507,12 @@ public class BlocklyController {
         if (blocklyState == null) {
             return  false;
         }
-        byte[] bytes = blocklyState.getByteArray(SERIALIZED_WORKSPACE_KEY);
+        byte[] bytes = blocklyState.getByteArray(SERIALIZED_WORKSPACE_BINARY_KEY);
+        boolean isBinary = (bytes != null);
+        if (!isBinary) {
+            // Snapshots saved before the binary format were XML.
+            bytes = blocklyState.getByteArray(SERIALIZED_WORKSPACE_KEY);
+        }
         if (bytes == null) {
             // Ignore all other workspace variables.
             return false;
@@ -454,7 +521,12 @@ public class BlocklyController {
         boolean success = true;
         ByteArrayInputStream in = new ByteArrayInputStream(bytes);
         try {
-            loadWorkspaceContents(in);
+            if (isBinary) {
+                mWorkspace.loadWorkspaceContentsFromBinary(in);
+                onWorkspaceContentsLoaded();
+            } else {
+                loadWorkspaceContents(in);
+            }
         } catch (BlockLoadingException e) {
             Log.e(TAG, "Failed to load snapshot from Bundle.", e);
             success = false;
@@ -505,19 +577,22 @@ public class BlocklyController {
     }
 
     /**
-     * Registers a callback for Blockly events.
+     * Registers a callback for Blockly events. The callback's
+     * {@link EventsCallback#getTypesBitmask() types bitmask} is read once, when it is added.
+     * Callbacks are called in the order they were added. It is safe to call this while events are
+     * being dispatched, but the new callback will not receive the current event group.
      *
      * @param callback The callback to add.
      */
     public void addCallback(EventsCallback callback) {
-        if (!mListeners.contains(callback)) {
-            mListeners.add(callback);
-            mEventCallbackMask |= callback.getTypesBitmask();
+        if (mListeners.add(callback)) {
+            mEventCallbackMask |= mListeners.getTypesMask();
         }
     }
 
     /**
-     * Removes an events callback.
+     * Removes an events callback. It is safe to call this while events are being dispatched. If
+     * the callback has not yet received the current event group, it will not receive it.
      *
      * @param callback The callback to remove.
      * @return True if the callback was found and removed.
@@ -531,11 +606,61 @@ public class BlocklyController {
     }
 
     /**
-     * @return A count of registered {@link EventsCallback}s.
+     * Registers a callback for the events of a single block. Unlike {@link #addCallback}, the
+     * callback only receives event groups that include an event of a requested type naming the
+     * block, either as the event's block id, as one of the block ids of a create or delete event,
+     * or as the old or new parent of a move event. Each block has at most one such callback, so
+     * this replaces any prior callback for the same block id.
+     * <p/>
+     * Block callbacks are called after all callbacks registered via {@link #addCallback}. Among
+     * themselves, they are called in the order their blocks are first named by the group's
+     * events, not in the order they were added.
+     * <p/>
+     * The controller only holds a weak reference to the block. The callback is removed after the
+     * block is garbage collected. Dispatch cost depends on the number of blocks named by the
+     * events, not the number of registered block callbacks.
+     *
+     * @param block The block.
+     * @param callback The callback for the block's events.
+     */
+    public void addBlockCallback(@NonNull Block block, @NonNull EventsCallback callback) {
+        expungeBlockCallbacks();
+        BlockCallbackRef ref = new BlockCallbackRef(block, callback, mBlockCallbackQueue);
+        BlockCallbackRef prior = mBlockCallbacks.put(ref.mBlockId, ref);
+        if (prior != null) {
+            onBlockCallbackRemoved(prior);
+        }
+        mBlockCallbackMaskCounts.put(ref.mTypesMask,
+                mBlockCallbackMaskCounts.get(ref.mTypesMask) + 1);
+        mBlockCallbackMask |= ref.mTypesMask;
+        mEventCallbackMask |= mBlockCallbackMask;
+    }
+
+    /**
+     * Removes a callback registered via {@link #addBlockCallback}. It is safe to call this while
+     * events are being dispatched.
+     *
+     * @param blockId The id of the block.
+     * @param callback The callback to remove.
+     * @return True if the callback was found and removed.
+     */
+    public boolean removeBlockCallback(@NonNull String blockId, @NonNull EventsCallback callback) {
+        BlockCallbackRef ref = mBlockCallbacks.get(blockId);
+        if (ref == null || ref.mCallback != callback) {
+            return false;
+        }
+        mBlockCallbacks.remove(blockId);
+        onBlockCallbackRemoved(ref);
+        return true;
+    }
+
+    /**
+     * @return A count of registered {@link EventsCallback}s, including block callbacks.
      */
     @VisibleForTesting
     public int getCallbackCount() {
-        return mListeners.size();
+        expungeBlockCallbacks();
+        return mListeners.size() + mBlockCallbacks.size();
     }
 
     /**
@@ -569,7 +694,11 @@ public class BlocklyController {
 
     /**
      * Adds {@code event} to the list of pending events. If this is called outside of a call to
-     * {@link #groupAndFireEvents}, the event will be fired immediately, as its own group.
+     * {@link #groupAndFireEvents}, the event will be fired immediately, as its own group. If a
+     * registered callback will receive the event, the event's {@link
+     * BlocklyEvent#captureState() state is captured} before any later changes in the group.
+     * Otherwise, the potentially expensive capture (e.g., the XML of created or deleted blocks)
+     * is skipped entirely.
      * <p/>
      * {@code addPendingEvent()} must be called from the main thread/looper.
      *
@@ -583,6 +712,9 @@ public class BlocklyController {
         if (mPendingEvents == null) {
             mPendingEvents = new ArrayList<>();
         }
+        if (needsCapture(event)) {
+            event.captureState();
+        }
         mPendingEvents.add(event);
         mPendingEventsMask |= event.getTypeId();
 
@@ -1824,20 +1956,26 @@ public class BlocklyController {
     }
 
     private void recalculateListenerEventMask() {
-        mEventCallbackMask = 0;
-        for (EventsCallback listener : mListeners) {
-            mEventCallbackMask |= listener.getTypesBitmask();
-        }
+        mEventCallbackMask = mBlockCallbackMask | mListeners.getTypesMask();
     }
 
     private void firePendingEvents() {
         List<BlocklyEvent> unmodifiableEventList = null;
-        for (EventsCallback listener : mListeners) {
-            if ((mPendingEventsMask & listener.getTypesBitmask()) != 0) {
+        if ((mPendingEventsMask & mListeners.getTypesMask()) != 0) {
+            unmodifiableEventList = Collections.unmodifiableList(mPendingEvents);
+            mListeners.dispatch(mPendingEventsMask, unmodifiableEventList);
+        }
+
+        expungeBlockCallbacks();
+        if (mPendingEvents != null && (mPendingEventsMask & mBlockCallbackMask) != 0) {
+            List<EventsCallback> blockCallbacks = findBlockCallbacks(mPendingEvents);
+            if (!blockCallbacks.isEmpty()) {
                 if (unmodifiableEventList == null) {
                     unmodifiableEventList = Collections.unmodifiableList(mPendingEvents);
                 }
-                listener.onEventGroup(unmodifiableEventList);
+                for (int i = 0; i < blockCallbacks.size(); i++) {
+                    blockCallbacks.get(i).onEventGroup(unmodifiableEventList);
+                }
             }
         }
 
@@ -1845,6 +1983,152 @@ public class BlocklyController {
         mPendingEventsMask = 0;
     }
 
+    /**
+     * @return True if a callback will receive {@code event}, so its state must be captured before
+     *         later changes. Block callbacks only count if one is registered for a block named by
+     *         the event, so create and delete events are not serialized for unrelated blocks.
+     */
+    private boolean needsCapture(BlocklyEvent event) {
+        int type = event.getTypeId();
+        if ((mListeners.getTypesMask() & type) != 0) {
+            return true;
+        }
+        if ((mBlockCallbackMask & type) == 0) {
+            return false;
+        }
+        BlockCallbackCollector collector = new BlockCallbackCollector();
+        collectBlockCallbacks(event, collector);
+        return !collector.mCallbacks.isEmpty();
+    }
+
+    /**
+     * Looks up the block callbacks for every block named by the events. The callbacks are
+     * collected before any are called, so callbacks may be added or removed during dispatch.
+     *
+     * @param events The events to dispatch.
+     * @return The callbacks to notify, in order of first reference, without duplicates.
+     */
+    private List<EventsCallback> findBlockCallbacks(List<BlocklyEvent> events) {
+        BlockCallbackCollector collector = new BlockCallbackCollector();
+        int eventCount = events.size();
+        for (int i = 0; i < eventCount; i++) {
+            collectBlockCallbacks(events.get(i), collector);
+        }
+        return collector.mCallbacks;
+    }
+
+    /**
+     * Adds the block callbacks for the blocks named by {@code event} to {@code collector}. The ids
+     * of the blocks below a created or deleted block are only resolved if a block callback listens
+     * for that type of event, as counted by {@link #mBlockCallbackMaskCounts}.
+     */
+    private void collectBlockCallbacks(BlocklyEvent event, BlockCallbackCollector collector) {
+        int type = event.getTypeId();
+        if ((type & mBlockCallbackMask) == 0) {
+            return;
+        }
+        collectBlockCallback(event.getBlockId(), type, collector);
+        switch (type) {
+            case BlocklyEvent.TYPE_CREATE:
+                List<String> createdIds = ((BlocklyEvent.CreateEvent) event).getIds();
+                for (int j = 0; j < createdIds.size(); j++) {
+                    collectBlockCallback(createdIds.get(j), type, collector);
+                }
+                break;
+            case BlocklyEvent.TYPE_DELETE:
+                List<String> deletedIds = ((BlocklyEvent.DeleteEvent) event).getIds();
+                for (int j = 0; j < deletedIds.size(); j++) {
+                    collectBlockCallback(deletedIds.get(j), type, collector);
+                }
+                break;
+            case BlocklyEvent.TYPE_MOVE:
+                BlocklyEvent.MoveEvent move = (BlocklyEvent.MoveEvent) event;
+                collectBlockCallback(move.getOldParentId(), type, collector);
+                collectBlockCallback(move.getNewParentId(), type, collector);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void collectBlockCallback(
+            @Nullable String blockId, int eventType, BlockCallbackCollector collector) {
+        if (blockId == null) {
+            return;
+        }
+        BlockCallbackRef ref = mBlockCallbacks.get(blockId);
+        if (ref != null && (ref.mTypesMask & eventType) != 0) {
+            collector.add(ref.mCallback);
+        }
+    }
+
+    /**
+     * Removes the block callbacks of blocks that have been garbage collected.
+     */
+    private void expungeBlockCallbacks() {
+        Reference<? extends Block> stale;
+        while ((stale = mBlockCallbackQueue.poll()) != null) {
+            BlockCallbackRef ref = (BlockCallbackRef) stale;
+            if (mBlockCallbacks.get(ref.mBlockId) == ref) {
+                mBlockCallbacks.remove(ref.mBlockId);
+                onBlockCallbackRemoved(ref);
+            }
+        }
+    }
+
+    /**
+     * Updates the block callback masks after a block callback was removed from the map.
+     */
+    private void onBlockCallbackRemoved(BlockCallbackRef ref) {
+        int count = mBlockCallbackMaskCounts.get(ref.mTypesMask) - 1;
+        if (count > 0) {
+            mBlockCallbackMaskCounts.put(ref.mTypesMask, count);
+            return;
+        }
+        mBlockCallbackMaskCounts.delete(ref.mTypesMask);
+        mBlockCallbackMask = 0;
+        for (int i = 0; i < mBlockCallbackMaskCounts.size(); i++) {
+            mBlockCallbackMask |= mBlockCallbackMaskCounts.keyAt(i);
+        }
+        recalculateListenerEventMask();
+    }
+
+    /**
+     * A weak reference to a block with a callback, remembering the block id and the callback's
+     * types bitmask, so the callback can be found and removed after the block is collected.
+     */
+    private static class BlockCallbackRef extends WeakReference<Block> {
+        final String mBlockId;
+        final EventsCallback mCallback;
+        final int mTypesMask;
+
+        BlockCallbackRef(Block block, EventsCallback callback, ReferenceQueue<Block> queue) {
+            super(block, queue);
+            mBlockId = block.getId();
+            mCallback = callback;
+            mTypesMask = callback.getTypesBitmask();
+        }
+    }
+
+    /**
+     * Collects block callbacks in order of first reference, skipping duplicates by identity in
+     * constant time.
+     */
+    private static class BlockCallbackCollector {
+        List<EventsCallback> mCallbacks = Collections.emptyList();
+        private Set<EventsCallback> mSeen;
+
+        void add(EventsCallback callback) {
+            if (mSeen == null) {
+                mSeen = Collections.newSetFromMap(new IdentityHashMap<EventsCallback, Boolean>());
+                mCallbacks = new ArrayList<>();
+            }
+            if (mSeen.add(callback)) {
+                mCallbacks.add(callback);
+            }
+        }
+    }
+
     /**
      * Builder for configuring a new controller and workspace.
      */
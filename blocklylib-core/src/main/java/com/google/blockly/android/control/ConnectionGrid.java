@@ -0,0 +1,225 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.control;
+
+import android.support.annotation.VisibleForTesting;
+import android.util.LongSparseArray;
+
+import com.google.blockly.model.Connection;
+import com.google.blockly.model.WorkspacePoint;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link ConnectionIndex} that buckets connections into a uniform grid of square cells, keyed on
+ * both x and y. Moving a connection within its cell is O(1), and moving it to another cell only
+ * touches the two cells involved. Range queries only visit the cells overlapping the search area,
+ * so connections far away on the x axis are never considered.
+ */
+public class ConnectionGrid implements ConnectionIndex {
+    /**
+     * Default cell size, in workspace units. This is a bit over twice the default snap radius, so
+     * most searches visit at most four cells.
+     */
+    public static final float DEFAULT_CELL_SIZE = 64f;
+
+    /** Factory for grids with the {@link #DEFAULT_CELL_SIZE}. */
+    public static final Factory FACTORY = new Factory() {
+        @Override
+        public ConnectionIndex newIndex() {
+            return new ConnectionGrid(DEFAULT_CELL_SIZE);
+        }
+    };
+
+    private final float mCellSize;
+    /** Non-empty cells, keyed by {@link #cellKey(int, int)}. */
+    private final LongSparseArray<Cell> mCells = new LongSparseArray<>();
+    /** The cell each connection is currently filed under. */
+    private final Map<Connection, Cell> mCellOfConnection = new HashMap<>();
+
+    /**
+     * @param cellSize The width and height of each grid cell, in workspace units.
+     */
+    public ConnectionGrid(float cellSize) {
+        if (!(cellSize > 0) || Float.isInfinite(cellSize)) {
+            throw new IllegalArgumentException("Cell size must be a positive, finite number.");
+        }
+        mCellSize = cellSize;
+    }
+
+    @Override
+    public void addConnection(Connection conn) {
+        if (mCellOfConnection.containsKey(conn)) {
+            throw new IllegalArgumentException("Already added.");
+        }
+        WorkspacePoint position = conn.getPosition();
+        insert(conn, cellIndex(position.x), cellIndex(position.y));
+    }
+
+    @Override
+    public void addConnections(List<Connection> conns) {
+        for (int i = 0; i < conns.size(); i++) {
+            addConnection(conns.get(i));
+        }
+    }
+
+    @Override
+    public void removeConnection(Connection conn) {
+        Cell cell = mCellOfConnection.remove(conn);
+        if (cell != null) {
+            removeFromCell(cell, conn);
+        }
+    }
+
+    @Override
+    public void moveConnection(Connection conn, float newX, float newY) {
+        int column = cellIndex(newX);
+        int row = cellIndex(newY);
+        Cell cell = mCellOfConnection.get(conn);
+        conn.setPosition(newX, newY);
+        if (cell != null) {
+            if (cell.mColumn == column && cell.mRow == row) {
+                return;  // Same cell. Nothing to re-index.
+            }
+            mCellOfConnection.remove(conn);
+            removeFromCell(cell, conn);
+        }
+        insert(conn, column, row);
+    }
+
+    @Override
+    public void getConnectionsInBounds(float centerX, float centerY, double halfSize,
+                                       List<Connection> result) {
+        if (mCells.size() == 0) {
+            return;
+        }
+        float minX = (float) (centerX - halfSize);
+        float maxX = (float) (centerX + halfSize);
+        float minY = (float) (centerY - halfSize);
+        float maxY = (float) (centerY + halfSize);
+        int minColumn = cellIndex(minX);
+        int maxColumn = cellIndex(maxX);
+        int minRow = cellIndex(minY);
+        int maxRow = cellIndex(maxY);
+
+        long cellsInBounds = ((long) maxColumn - minColumn + 1) * ((long) maxRow - minRow + 1);
+        if (cellsInBounds > mCells.size()) {
+            // Cheaper to visit every occupied cell than to probe each cell in the bounds.
+            for (int i = 0; i < mCells.size(); i++) {
+                Cell cell = mCells.valueAt(i);
+                if (cell.mColumn >= minColumn && cell.mColumn <= maxColumn
+                        && cell.mRow >= minRow && cell.mRow <= maxRow) {
+                    cell.collectInBounds(minX, minY, maxX, maxY, result);
+                }
+            }
+            return;
+        }
+        for (int column = minColumn; column <= maxColumn; column++) {
+            for (int row = minRow; row <= maxRow; row++) {
+                Cell cell = mCells.get(cellKey(column, row));
+                if (cell != null) {
+                    cell.collectInBounds(minX, minY, maxX, maxY, result);
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean contains(Connection conn) {
+        return mCellOfConnection.containsKey(conn);
+    }
+
+    @Override
+    public int size() {
+        return mCellOfConnection.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return mCellOfConnection.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        mCells.clear();
+        mCellOfConnection.clear();
+    }
+
+    /**
+     * @return The number of non-empty cells in the grid.
+     */
+    @VisibleForTesting
+    int getCellCount() {
+        return mCells.size();
+    }
+
+    private void insert(Connection conn, int column, int row) {
+        long key = cellKey(column, row);
+        Cell cell = mCells.get(key);
+        if (cell == null) {
+            cell = new Cell(column, row);
+            mCells.put(key, cell);
+        }
+        cell.mConnections.add(conn);
+        mCellOfConnection.put(conn, cell);
+    }
+
+    private void removeFromCell(Cell cell, Connection conn) {
+        cell.mConnections.remove(conn);
+        if (cell.mConnections.isEmpty()) {
+            mCells.remove(cellKey(cell.mColumn, cell.mRow));
+        }
+    }
+
+    private int cellIndex(float coordinate) {
+        return (int) Math.floor(coordinate / mCellSize);
+    }
+
+    private static long cellKey(int column, int row) {
+        return ((long) column << 32) | (row & 0xFFFFFFFFL);
+    }
+
+    /**
+     * The connections filed under one grid cell. Connections are kept in a set, since newly loaded
+     * blocks start with all of their connections in the same cell, at the origin, until they are
+     * laid out and moved one by one.
+     */
+    private static class Cell {
+        final int mColumn;
+        final int mRow;
+        final Set<Connection> mConnections = new LinkedHashSet<>();
+
+        Cell(int column, int row) {
+            mColumn = column;
+            mRow = row;
+        }
+
+        void collectInBounds(float minX, float minY, float maxX, float maxY,
+                             List<Connection> result) {
+            for (Connection conn : mConnections) {
+                WorkspacePoint position = conn.getPosition();
+                if (position.x >= minX && position.x <= maxX
+                        && position.y >= minY && position.y <= maxY) {
+                    result.add(conn);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.control;
+
+import com.google.blockly.model.Connection;
+
+import java.util.List;
+
+/**
+ * Spatial index over the {@link Connection}s of a single connection type. The
+ * {@link ConnectionManager} keeps one index per type and uses it to find the candidates near a
+ * connection. Compatibility checks are left to the {@link ConnectionManager}.
+ */
+public interface ConnectionIndex {
+    /**
+     * Adds a connection to the index at its current position.
+     *
+     * @param conn The connection to add.
+     * @throws IllegalArgumentException If the connection is already in the index.
+     */
+    void addConnection(Connection conn);
+
+    /**
+     * Adds many connections at once, each at its current position, such as when loading a
+     * workspace. Implementations may index them more efficiently than repeated calls to
+     * {@link #addConnection}.
+     *
+     * @param conns The connections to add.
+     * @throws IllegalArgumentException If any connection is already in the index, or is listed
+     *                                  twice.
+     */
+    void addConnections(List<Connection> conns);
+
+    /**
+     * Removes a connection from the index. Does nothing if the connection is not in the index.
+     *
+     * @param conn The connection to remove.
+     */
+    void removeConnection(Connection conn);
+
+    /**
+     * Updates the position of a connection, along with its location in the index. If the
+     * connection is not yet in the index, it is added at the new position.
+     *
+     * @param conn The connection to move.
+     * @param newX The new x position, in workspace coordinates.
+     * @param newY The new y position, in workspace coordinates.
+     */
+    void moveConnection(Connection conn, float newX, float newY);
+
+    /**
+     * Appends every indexed connection with a position inside the square centered on
+     * ({@code centerX}, {@code centerY}) with sides {@code 2 * halfSize} long. Callers are
+     * expected to apply their own distance test on the results.
+     *
+     * @param centerX The x position of the center of the search area.
+     * @param centerY The y position of the center of the search area.
+     * @param halfSize Half the width of the search area.
+     * @param result The list to append matching connections to.
+     */
+    void getConnectionsInBounds(float centerX, float centerY, double halfSize,
+                                List<Connection> result);
+
+    /**
+     * @param conn The connection to look for.
+     * @return True if the connection is in the index.
+     */
+    boolean contains(Connection conn);
+
+    /**
+     * @return The number of connections in the index.
+     */
+    int size();
+
+    /**
+     * @return True if the index has no connections.
+     */
+    boolean isEmpty();
+
+    /**
+     * Removes all connections from the index.
+     */
+    void clear();
+
+    /**
+     * Constructs new {@link ConnectionIndex} instances for a {@link ConnectionManager}.
+     */
+    interface Factory {
+        /**
+         * @return A new, empty index.
+         */
+        ConnectionIndex newIndex();
+    }
+}
@@ -17,32 +17,68 @@ package com.google.blockly.android.control;
 
 import android.support.annotation.VisibleForTesting;
 import android.util.Pair;
+import android.util.SparseArray;
 
 import com.google.blockly.model.Block;
 import com.google.blockly.model.Connection;
 import com.google.blockly.model.WorkspacePoint;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 /**
- * Controller for Connections.
+ * Controller for Connections. Connections are kept in one {@link ConnectionIndex} per connection
+ * type, which by default are {@link ConnectionGrid}s.
  */
 public class ConnectionManager {
     private static final String TAG = "ConnectionManager";
 
-    private final YSortedList mPreviousConnections = new YSortedList();
-    private final YSortedList mNextConnections = new YSortedList();
-    private final YSortedList mInputConnections = new YSortedList();
-    private final YSortedList mOutputConnections = new YSortedList();
+    private final ConnectionIndex mPreviousConnections;
+    private final ConnectionIndex mNextConnections;
+    private final ConnectionIndex mInputConnections;
+    private final ConnectionIndex mOutputConnections;
 
     // If updating this, also update Connection.java's OPPOSITE_TYPES array.
     // The arrays are indexed by connection type codes (conn.getType()).
-    private final YSortedList[] matchingLists = new YSortedList[]{
-            mPreviousConnections, mNextConnections, mInputConnections, mOutputConnections};
-    private final YSortedList[] oppositeLists = new YSortedList[]{
-            mNextConnections, mPreviousConnections, mOutputConnections, mInputConnections
-    };
+    private final ConnectionIndex[] matchingLists;
+    private final ConnectionIndex[] oppositeLists;
+
+    /** Reused list of candidates returned by the indices. */
+    private final List<Connection> mTempCandidates = new ArrayList<>();
+
+    /**
+     * Incremented whenever a connection is added to, removed from or moved within the indices, so
+     * a {@link DragSession} can tell when its cached candidates are stale.
+     */
+    private int mModCount = 0;
+
+    /**
+     * Constructs a new ConnectionManager that indexes connections in {@link ConnectionGrid}s.
+     */
+    public ConnectionManager() {
+        this(ConnectionGrid.FACTORY);
+    }
+
+    /**
+     * Constructs a new ConnectionManager with a custom spatial index.
+     *
+     * @param indexFactory The factory for the index of each connection type.
+     */
+    public ConnectionManager(ConnectionIndex.Factory indexFactory) {
+        mPreviousConnections = indexFactory.newIndex();
+        mNextConnections = indexFactory.newIndex();
+        mInputConnections = indexFactory.newIndex();
+        mOutputConnections = indexFactory.newIndex();
+
+        matchingLists = new ConnectionIndex[]{
+                mPreviousConnections, mNextConnections, mInputConnections, mOutputConnections};
+        oppositeLists = new ConnectionIndex[]{
+                mNextConnections, mPreviousConnections, mOutputConnections, mInputConnections};
+    }
 
     /**
      * Figure out which list the connection belongs in; insert it.
@@ -51,6 +87,31 @@ public class ConnectionManager {
      */
     public void addConnection(Connection conn) {
         matchingLists[conn.getType()].addConnection(conn);
+        ++mModCount;
+    }
+
+    /**
+     * Inserts many connections at once, each into the index for its type. This is faster than
+     * adding the connections one at a time, such as when loading a workspace.
+     *
+     * @param conns The connections to add.
+     */
+    public void addConnections(List<Connection> conns) {
+        SparseArray<List<Connection>> byType = new SparseArray<>(matchingLists.length);
+        for (int i = 0; i < conns.size(); i++) {
+            Connection conn = conns.get(i);
+            int type = conn.getType();
+            List<Connection> typeConns = byType.get(type);
+            if (typeConns == null) {
+                typeConns = new ArrayList<>();
+                byType.put(type, typeConns);
+            }
+            typeConns.add(conn);
+        }
+        for (int i = 0; i < byType.size(); i++) {
+            matchingLists[byType.keyAt(i)].addConnections(byType.valueAt(i));
+        }
+        ++mModCount;
     }
 
     /**
@@ -60,6 +121,7 @@ public class ConnectionManager {
      */
     public void removeConnection(Connection conn) {
         matchingLists[conn.getType()].removeConnection(conn);
+        ++mModCount;
     }
 
     /**
@@ -83,6 +145,7 @@ public class ConnectionManager {
         mOutputConnections.clear();
         mPreviousConnections.clear();
         mNextConnections.clear();
+        ++mModCount;
     }
 
     /**
@@ -98,8 +161,7 @@ public class ConnectionManager {
             // Don't offer to connect when already connected.
             return null;
         }
-        YSortedList compatibleList = oppositeLists[conn.getType()];
-        return compatibleList.searchForClosest(conn, maxRadius);
+        return searchForClosest(oppositeLists[conn.getType()], conn, maxRadius);
     }
 
     /**
@@ -113,8 +175,7 @@ public class ConnectionManager {
      */
     public void getNeighbors(Connection conn, int maxRadius, List<Connection> result) {
         result.clear();
-        YSortedList compatibleList = oppositeLists[conn.getType()];
-        compatibleList.getNeighbours(conn, maxRadius, result);
+        getNeighbours(oppositeLists[conn.getType()], conn, maxRadius, result);
     }
 
     /**
@@ -125,17 +186,83 @@ public class ConnectionManager {
      * @param newY The y location to move to.
      */
     private void moveConnectionTo(Connection conn, float newX, float newY) {
-        // Avoid list traversals if it's not actually moving.
+        // Avoid index updates if it's not actually moving.
         if (conn.getPosition().equals(newX, newY)) {
             return;
         }
         if (conn.inDragMode()) {
             conn.setPosition(newX, newY);
         } else {
-            removeConnection(conn);
-            conn.setPosition(newX, newY);
-            addConnection(conn);
+            matchingLists[conn.getType()].moveConnection(conn, newX, newY);
+            ++mModCount;
+        }
+    }
+
+    /**
+     * Finds the closest connection in {@code index} that {@code conn} is allowed to connect to.
+     *
+     * @param index The index of candidate connections.
+     * @param conn The base connection for the search.
+     * @param maxRadius How far out to search for compatible connections.
+     * @return The closest compatible connection, or null if none are within range.
+     */
+    @VisibleForTesting
+    Connection searchForClosest(ConnectionIndex index, Connection conn, double maxRadius) {
+        // Don't bother.
+        if (index.isEmpty()) {
+            return null;
+        }
+
+        List<Connection> candidates = mTempCandidates;
+        candidates.clear();
+        WorkspacePoint position = conn.getPosition();
+        index.getConnectionsInBounds(position.x, position.y, maxRadius, candidates);
+
+        Connection bestConnection = null;
+        double bestRadius = maxRadius;
+        for (int i = 0; i < candidates.size(); i++) {
+            Connection temp = candidates.get(i);
+            if (isConnectionAllowed(conn, temp, bestRadius, false)) {
+                bestConnection = temp;
+                bestRadius = temp.distanceFrom(conn);
+            }
         }
+        candidates.clear();
+        return bestConnection;
+    }
+
+    /**
+     * Appends all connections in {@code index} within {@code maxRadius} of {@code conn} that could
+     * be confused with a connection to it.
+     *
+     * @param index The index of candidate connections.
+     * @param conn The base connection for the search.
+     * @param maxRadius How far out to search for neighbours.
+     * @param neighbours The list to append neighbours to.
+     */
+    @VisibleForTesting
+    void getNeighbours(ConnectionIndex index, Connection conn, int maxRadius,
+                       List<Connection> neighbours) {
+        // Don't bother.
+        if (index.isEmpty()) {
+            return;
+        }
+
+        List<Connection> candidates = mTempCandidates;
+        candidates.clear();
+        WorkspacePoint position = conn.getPosition();
+        index.getConnectionsInBounds(position.x, position.y, maxRadius, candidates);
+
+        // If both connections are connected, that's probably fine.  But if
+        // either one of them is unconnected, then there could be confusion.
+        for (int i = 0; i < candidates.size(); i++) {
+            Connection temp = candidates.get(i);
+            if ((!conn.isConnected() || !temp.isConnected())
+                    && isConnectionAllowed(conn, temp, maxRadius, true)) {
+                neighbours.add(temp);
+            }
+        }
+        candidates.clear();
     }
 
     /**
@@ -252,19 +379,177 @@ public class ConnectionManager {
         return new Pair<>(potentialBlockConnection, potentialCompatibleConnection);
     }
 
+    /**
+     * Starts tracking the candidate connections around a dragged block. The connections of the
+     * dragged block must already be removed from this manager.
+     *
+     * @param block The root block being dragged.
+     * @param radiusConnectionWS The maximum distance between viable connections in workspace units.
+     * @return A new session that finds the best connection for the block as it moves.
+     */
+    public DragSession startDragSession(Block block, float radiusConnectionWS) {
+        return new DragSession(block, radiusConnectionWS);
+    }
+
+    /**
+     * Finds the best connection for a dragged block, like
+     * {@link #findBestConnection(Block, float)}, while caching the candidate connections in a
+     * region around the block. While the block stays inside that region, and no connections in
+     * the manager are added, removed or moved, each search only tests the cached candidates. When
+     * the block leaves the region, the candidates are queried again around its new position.
+     */
+    public class DragSession {
+        /**
+         * How far the cached region extends beyond the area that can be reached by the block's
+         * connections, in multiples of the snap radius.
+         */
+        private static final float MARGIN_RADII = 4f;
+
+        private final Block mBlock;
+        private final float mRadius;
+        /** Cached candidates, indexed by the type of the dragged connections they could match. */
+        private final List<List<Connection>> mCandidates =
+                new ArrayList<>(matchingLists.length);
+
+        private boolean mHasRegion = false;
+        private float mRegionCenterX, mRegionCenterY, mRegionHalfSize;
+        private int mRegionModCount;
+        private int mRegionQueryCount = 0;
+
+        private DragSession(Block block, float radiusConnectionWS) {
+            mBlock = block;
+            mRadius = radiusConnectionWS;
+            for (int i = 0; i < matchingLists.length; i++) {
+                mCandidates.add(new ArrayList<Connection>());
+            }
+        }
+
+        /**
+         * @return The block being dragged.
+         */
+        public Block getBlock() {
+            return mBlock;
+        }
+
+        /**
+         * Iterate over all of the connections on the dragged block and find the one that is closest
+         * to a valid connection on another block.
+         *
+         * @return A pair of connections, where the first is a connection on the dragged block and
+         *     the second is the closest compatible connection, or null if none are in range.
+         */
+        public Pair<Connection, Connection> findBestConnection() {
+            List<Connection> blockConnections = mBlock.getAllConnections();
+            if (blockConnections.isEmpty()) {
+                return null;
+            }
+            updateRegion(blockConnections);
+
+            Connection potentialBlockConnection = null;
+            Connection potentialCompatibleConnection = null;
+            double maxSearchRadius = mRadius;
+            for (int i = 0; i < blockConnections.size(); i++) {
+                Connection conn = blockConnections.get(i);
+                if (conn.isConnected()) {
+                    continue;  // Don't offer to connect when already connected.
+                }
+                List<Connection> candidates = mCandidates.get(conn.getType());
+                for (int j = 0; j < candidates.size(); j++) {
+                    Connection candidate = candidates.get(j);
+                    if (isConnectionAllowed(conn, candidate, maxSearchRadius, false)) {
+                        potentialBlockConnection = conn;
+                        potentialCompatibleConnection = candidate;
+                        maxSearchRadius = conn.distanceFrom(candidate);
+                    }
+                }
+            }
+            if (potentialBlockConnection == null) {
+                return null;
+            }
+            return new Pair<>(potentialBlockConnection, potentialCompatibleConnection);
+        }
+
+        /**
+         * @return The number of times the candidates have been queried from the indices.
+         */
+        @VisibleForTesting
+        int getRegionQueryCount() {
+            return mRegionQueryCount;
+        }
+
+        /**
+         * Queries the candidates again if the area within snapping distance of the block's
+         * connections is no longer inside the cached region, or the indices have changed.
+         */
+        private void updateRegion(List<Connection> blockConnections) {
+            float minX = Float.MAX_VALUE;
+            float minY = Float.MAX_VALUE;
+            float maxX = -Float.MAX_VALUE;
+            float maxY = -Float.MAX_VALUE;
+            for (int i = 0; i < blockConnections.size(); i++) {
+                WorkspacePoint position = blockConnections.get(i).getPosition();
+                minX = Math.min(minX, position.x);
+                minY = Math.min(minY, position.y);
+                maxX = Math.max(maxX, position.x);
+                maxY = Math.max(maxY, position.y);
+            }
+            if (mHasRegion && mRegionModCount == mModCount
+                    && minX - mRadius >= mRegionCenterX - mRegionHalfSize
+                    && maxX + mRadius <= mRegionCenterX + mRegionHalfSize
+                    && minY - mRadius >= mRegionCenterY - mRegionHalfSize
+                    && maxY + mRadius <= mRegionCenterY + mRegionHalfSize) {
+                return;  // Still valid.
+            }
+
+            mRegionCenterX = (minX + maxX) / 2;
+            mRegionCenterY = (minY + maxY) / 2;
+            mRegionHalfSize = Math.max(maxX - minX, maxY - minY) / 2 + mRadius * (1 + MARGIN_RADII);
+            for (int type = 0; type < mCandidates.size(); type++) {
+                mCandidates.get(type).clear();
+            }
+            int queriedTypes = 0;
+            for (int i = 0; i < blockConnections.size(); i++) {
+                int type = blockConnections.get(i).getType();
+                if ((queriedTypes & (1 << type)) == 0) {
+                    queriedTypes |= 1 << type;
+                    oppositeLists[type].getConnectionsInBounds(
+                            mRegionCenterX, mRegionCenterY, mRegionHalfSize, mCandidates.get(type));
+                }
+            }
+            mHasRegion = true;
+            mRegionModCount = mModCount;
+            ++mRegionQueryCount;
+        }
+    }
+
     @VisibleForTesting
-    YSortedList getConnections(int connectionType) {
+    ConnectionIndex getConnections(int connectionType) {
         return matchingLists[connectionType];
     }
 
     /**
-     * List of connections ordered by y position.  This is optimized
-     * for quickly finding the nearest connection when dragging a block around.
+     * List of connections ordered by y position.  This was the original {@link ConnectionIndex},
+     * optimized for quickly finding the nearest connection when dragging a block around.
      * Connections are not ordered by their x position and multiple connections may be at the same
-     * y position.
+     * y position.  Moving a connection costs O(n) array shifting, so prefer
+     * {@link ConnectionGrid} for large workspaces.
      */
-    @VisibleForTesting
-    class YSortedList {
+    public static class YSortedList implements ConnectionIndex {
+        /** Factory for {@link YSortedList} indices. */
+        public static final Factory FACTORY = new Factory() {
+            @Override
+            public ConnectionIndex newIndex() {
+                return new YSortedList();
+            }
+        };
+
+        private static final Comparator<Connection> Y_ORDER = new Comparator<Connection>() {
+            @Override
+            public int compare(Connection a, Connection b) {
+                return Float.compare(a.getPosition().y, b.getPosition().y);
+            }
+        };
+
         private final List<Connection> mConnections = new ArrayList<>();
 
         /**
@@ -272,6 +557,7 @@ public class ConnectionManager {
          *
          * @param conn The connection to insert.
          */
+        @Override
         public void addConnection(Connection conn) {
             int position = findPositionForConnection(conn);
             if (position < mConnections.size() && conn == mConnections.get(position)) {
@@ -280,11 +566,54 @@ public class ConnectionManager {
             mConnections.add(position, conn);
         }
 
+        /**
+         * Sorts the given connections and merges them into the list in one pass, instead of
+         * shifting the list for each insertion. Only the new connections are checked for
+         * duplicates, so the cost is O(k log k + k log n) plus the shift of the merged range.
+         *
+         * @param conns The connections to insert.
+         */
+        @Override
+        public void addConnections(List<Connection> conns) {
+            int count = conns.size();
+            if (count == 0) {
+                return;
+            }
+            Set<Connection> added =
+                    Collections.newSetFromMap(new IdentityHashMap<Connection, Boolean>(count));
+            for (int i = 0; i < count; i++) {
+                Connection conn = conns.get(i);
+                if (!added.add(conn) || findConnection(conn) != -1) {
+                    throw new IllegalArgumentException("Already added.");
+                }
+            }
+            List<Connection> sorted = new ArrayList<>(conns);
+            Collections.sort(sorted, Y_ORDER);
+
+            // Merge from the end, so each existing connection moves at most once.
+            int oldSize = mConnections.size();
+            for (int i = 0; i < count; i++) {
+                mConnections.add(null);
+            }
+            int existing = oldSize - 1;
+            int next = count - 1;
+            int dest = oldSize + count - 1;
+            while (next >= 0) {
+                if (existing >= 0
+                        && Y_ORDER.compare(mConnections.get(existing), sorted.get(next)) > 0) {
+                    mConnections.set(dest--, mConnections.get(existing--));
+                } else {
+                    mConnections.set(dest--, sorted.get(next--));
+                }
+            }
+        }
+
         /**
          * Remove the given connection from this list.
          *
          * @param conn The connection to remove.
          */
+        @Override
         public void removeConnection(Connection conn) {
             int removalIndex = findConnection(conn);
             if (removalIndex != -1) {
@@ -292,6 +621,48 @@ public class ConnectionManager {
             }
         }
 
+        @Override
+        public void moveConnection(Connection conn, float newX, float newY) {
+            removeConnection(conn);
+            conn.setPosition(newX, newY);
+            addConnection(conn);
+        }
+
+        @Override
+        public void getConnectionsInBounds(float centerX, float centerY, double halfSize,
+                                           List<Connection> result) {
+            // Don't bother.
+            if (mConnections.isEmpty()) {
+                return;
+            }
+
+            // findPositionForConnection finds an index for insertion, which is always after any
+            // block with the same y index.  We want to search both forward and back, so search
+            // on both sides of the index.
+            int closestIndex = findPositionForY(centerY);
+
+            // Walk forward and back on the y axis looking for the closest x,y point.
+            int pointerMin = closestIndex - 1;
+            while (pointerMin >= 0 && isInYRange(pointerMin, centerY, halfSize)) {
+                Connection temp = mConnections.get(pointerMin);
+                if (Math.abs(temp.getPosition().x - centerX) <= halfSize) {
+                    result.add(temp);
+                }
+                pointerMin--;
+            }
+
+            int pointerMax = closestIndex;
+            while (pointerMax < mConnections.size()
+                    && isInYRange(pointerMax, centerY, halfSize)) {
+                Connection temp = mConnections.get(pointerMax);
+                if (Math.abs(temp.getPosition().x - centerX) <= halfSize) {
+                    result.add(temp);
+                }
+                pointerMax++;
+            }
+        }
+
+        @Override
         public void clear() {
             mConnections.clear();
         }
@@ -353,12 +724,15 @@ public class ConnectionManager {
          */
         @VisibleForTesting
         int findPositionForConnection(Connection conn) {
+            return findPositionForY(conn.getPosition().y);
+        }
+
+        private int findPositionForY(float yPos) {
             if (mConnections.isEmpty()) {
                 return 0;
             }
             int pointerMin = 0;
             int pointerMax = mConnections.size();
-            float yPos = conn.getPosition().y;
             while (pointerMin < pointerMax) {
                 int pointerMid = (pointerMin + pointerMax) / 2;
                 float pointerY = mConnections.get(pointerMid).getPosition().y;
@@ -374,96 +748,18 @@ public class ConnectionManager {
             return pointerMin;
         }
 
-        @VisibleForTesting
-        Connection searchForClosest(Connection conn, double maxRadius) {
-            // Don't bother.
-            if (mConnections.isEmpty()) {
-                return null;
-            }
-
-            float baseY = conn.getPosition().y;
-            // findPositionForConnection finds an index for insertion, which is always after any
-            // block with the same y index.  We want to search both forward and back, so search
-            // on both sides of the index.
-            int closestIndex = findPositionForConnection(conn);
-
-            Connection bestConnection = null;
-            double bestRadius = maxRadius;
-
-            // Walk forward and back on the y axis looking for the closest x,y point.
-            int pointerMin = closestIndex - 1;
-            while (pointerMin >= 0 && isInYRange(pointerMin, baseY, maxRadius)) {
-                Connection temp = mConnections.get(pointerMin);
-                if (isConnectionAllowed(conn, temp, bestRadius, false)) {
-                    bestConnection = temp;
-                    bestRadius = temp.distanceFrom(conn);
-                }
-                pointerMin--;
-            }
-
-            int pointerMax = closestIndex;
-            while (pointerMax < mConnections.size() && isInYRange(pointerMax, baseY, maxRadius)) {
-                Connection temp = mConnections.get(pointerMax);
-                if (isConnectionAllowed(conn, temp, bestRadius, false)) {
-                    bestConnection = temp;
-                    bestRadius = temp.distanceFrom(conn);
-                }
-                pointerMax++;
-            }
-
-            return bestConnection;
-        }
-
-        @VisibleForTesting
-        void getNeighbours(Connection conn, int maxRadius, List<Connection> neighbours) {
-            // Don't bother.
-            if (mConnections.isEmpty()) {
-                return;
-            }
-
-            float baseY = conn.getPosition().y;
-            // findPositionForConnection finds an index for insertion, which is always after any
-            // block with the same y index.  We want to search both forward and back, so search
-            // on both sides of the index.
-            int closestIndex = findPositionForConnection(conn);
-
-            // Walk forward and back on the y axis looking for the closest x,y point.
-            // If both connections are connected, that's probably fine.  But if
-            // either one of them is unconnected, then there could be confusion.
-            int pointerMin = closestIndex - 1;
-            while (pointerMin >= 0 && isInYRange(pointerMin, baseY, maxRadius)) {
-                Connection temp = mConnections.get(pointerMin);
-                if ((!conn.isConnected() || !temp.isConnected())
-                        && isConnectionAllowed(conn, temp, maxRadius, true)) {
-                    neighbours.add(temp);
-                }
-                pointerMin--;
-            }
-
-            int pointerMax = closestIndex;
-            while (pointerMax < mConnections.size() && isInYRange(pointerMax, baseY, maxRadius)) {
-                Connection temp = mConnections.get(pointerMax);
-                if ((!conn.isConnected() || !temp.isConnected())
-                        && isConnectionAllowed(conn, temp, maxRadius, true)) {
-                    neighbours.add(temp);
-                }
-                pointerMax++;
-            }
-            return;
-        }
-
-        @VisibleForTesting
-        boolean isEmpty() {
+        @Override
+        public boolean isEmpty() {
             return mConnections.isEmpty();
         }
 
-        @VisibleForTesting
-        int size() {
+        @Override
+        public int size() {
             return mConnections.size();
         }
 
-        @VisibleForTesting
-        boolean contains(Connection conn) {
+        @Override
+        public boolean contains(Connection conn) {
             return findConnection(conn) != -1;
         }
 
@@ -0,0 +1,200 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.control;
+
+import android.util.SparseArray;
+
+import com.google.blockly.model.BlocklyEvent;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@link BlocklyController.EventsCallback}s registered via
+ * {@link BlocklyController#addCallback}. Callbacks are bucketed by their
+ * {@link BlocklyController.EventsCallback#getTypesBitmask() types bitmask}, read once when the
+ * callback is added, so adding and removing callbacks take constant time, and dispatch only visits
+ * the callbacks interested in the group's event types. Each callback is assigned a sequence number
+ * when added, and dispatch merges the interested buckets by sequence number, so callbacks are
+ * always called in the order they were added.
+ * <p/>
+ * Callbacks may be added or removed while a group is dispatched. Callbacks added during dispatch
+ * are not called for the current group, and callbacks removed during dispatch are not called if
+ * they have not been called already.
+ */
+class EventsCallbackRegistry {
+    /** The types bitmask of each registered callback. */
+    private final Map<BlocklyController.EventsCallback, Integer> mCallbackMasks = new HashMap<>();
+    /** The registered callbacks, keyed by types bitmask. Empty buckets are removed. */
+    private final SparseArray<Bucket> mBuckets = new SparseArray<>();
+    /** Union of all registered callbacks' types bitmasks. */
+    private int mTypesMask = 0;
+    /** The sequence number of the next callback added. */
+    private long mNextSequence = 0;
+
+    /**
+     * @param callback The callback to add.
+     * @return True if the callback was added, or false if it was already registered.
+     */
+    boolean add(BlocklyController.EventsCallback callback) {
+        if (mCallbackMasks.containsKey(callback)) {
+            return false;
+        }
+        int typesMask = callback.getTypesBitmask();
+        mCallbackMasks.put(callback, typesMask);
+        Bucket bucket = mBuckets.get(typesMask);
+        if (bucket == null) {
+            bucket = new Bucket();
+            mBuckets.put(typesMask, bucket);
+        }
+        bucket.add(callback, mNextSequence++);
+        mTypesMask |= typesMask;
+        return true;
+    }
+
+    /**
+     * @param callback The callback to remove.
+     * @return True if the callback was found and removed.
+     */
+    boolean remove(BlocklyController.EventsCallback callback) {
+        Integer typesMask = mCallbackMasks.remove(callback);
+        if (typesMask == null) {
+            return false;
+        }
+        Bucket bucket = mBuckets.get(typesMask);
+        bucket.remove(callback);
+        if (bucket.isEmpty()) {
+            mBuckets.remove(typesMask);
+            mTypesMask = 0;
+            for (int i = 0; i < mBuckets.size(); i++) {
+                mTypesMask |= mBuckets.keyAt(i);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of registered callbacks.
+     */
+    int size() {
+        return mCallbackMasks.size();
+    }
+
+    /**
+     * @return The union of the types bitmasks of all registered callbacks.
+     */
+    @BlocklyEvent.EventType int getTypesMask() {
+        return mTypesMask;
+    }
+
+    /**
+     * Calls every registered callback interested in at least one of the event types in
+     * {@code eventsMask}, in the order the callbacks were added.
+     *
+     * @param eventsMask The union of the event types in the group.
+     * @param events The group of events.
+     */
+    void dispatch(int eventsMask, List<BlocklyEvent> events) {
+        if ((mTypesMask & eventsMask) == 0) {
+            return;
+        }
+        // Collect the interested buckets first, as callbacks may add or remove buckets.
+        int bucketCount = mBuckets.size();
+        Bucket.Snapshot[] snapshots = new Bucket.Snapshot[bucketCount];
+        int snapshotCount = 0;
+        for (int i = 0; i < bucketCount; i++) {
+            if ((mBuckets.keyAt(i) & eventsMask) != 0) {
+                snapshots[snapshotCount++] = mBuckets.valueAt(i).getSnapshot();
+            }
+        }
+        // Merge the buckets by sequence number. There are only a few distinct bitmasks, so a
+        // linear scan for the next callback is cheaper than a heap.
+        int[] positions = new int[snapshotCount];
+        while (true) {
+            int next = -1;
+            long nextSequence = Long.MAX_VALUE;
+            for (int i = 0; i < snapshotCount; i++) {
+                Bucket.Snapshot snapshot = snapshots[i];
+                if (positions[i] < snapshot.mSequences.length
+                        && snapshot.mSequences[positions[i]] < nextSequence) {
+                    next = i;
+                    nextSequence = snapshot.mSequences[positions[i]];
+                }
+            }
+            if (next < 0) {
+                return;
+            }
+            BlocklyController.EventsCallback callback =
+                    snapshots[next].mCallbacks[positions[next]++];
+            if (mCallbackMasks.containsKey(callback)) {  // Not removed during dispatch.
+                callback.onEventGroup(events);
+            }
+        }
+    }
+
+    /**
+     * The callbacks with one types bitmask, in the order they were added.
+     */
+    private static class Bucket {
+        private final LinkedHashMap<BlocklyController.EventsCallback, Long> mCallbacks =
+                new LinkedHashMap<>();
+        /** Copy of mCallbacks for dispatch. Rebuilt after the bucket changes. */
+        private Snapshot mSnapshot = null;
+
+        void add(BlocklyController.EventsCallback callback, long sequence) {
+            mCallbacks.put(callback, sequence);
+            mSnapshot = null;
+        }
+
+        void remove(BlocklyController.EventsCallback callback) {
+            mCallbacks.remove(callback);
+            mSnapshot = null;
+        }
+
+        boolean isEmpty() {
+            return mCallbacks.isEmpty();
+        }
+
+        Snapshot getSnapshot() {
+            if (mSnapshot == null) {
+                mSnapshot = new Snapshot(mCallbacks);
+            }
+            return mSnapshot;
+        }
+
+        /**
+         * The callbacks of a bucket and their sequence numbers, both in ascending sequence order.
+         */
+        static class Snapshot {
+            final BlocklyController.EventsCallback[] mCallbacks;
+            final long[] mSequences;
+
+            Snapshot(LinkedHashMap<BlocklyController.EventsCallback, Long> callbacks) {
+                mCallbacks = new BlocklyController.EventsCallback[callbacks.size()];
+                mSequences = new long[callbacks.size()];
+                int i = 0;
+                for (Map.Entry<BlocklyController.EventsCallback, Long> entry
+                        : callbacks.entrySet()) {
+                    mCallbacks[i] = entry.getKey();
+                    mSequences[i] = entry.getValue();
+                    i++;
+                }
+            }
+        }
+    }
+}
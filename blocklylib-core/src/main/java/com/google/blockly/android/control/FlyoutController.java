@@ -118,6 +118,8 @@ public class FlyoutController {
             if (mTrashUi.isOpen()) {
                 closeTrash();
             } else {
+                // Show all of the trash, including older blocks in compact storage.
+                mController.getWorkspace().restoreCompactTrash();
                 mTrashUi.setCurrentCategory(mTrashCategory);
                 closeToolbox();
             }
@@ -215,6 +217,7 @@ public class FlyoutController {
     public void setTrashContents(BlocklyCategory trashContents) {
         mTrashCategory = trashContents;
         if (mTrashUi != null && mTrashUi.isOpen()) {
+            mController.getWorkspace().restoreCompactTrash();
             mTrashUi.setCurrentCategory(trashContents);
         }
     }
@@ -306,6 +309,10 @@ public class FlyoutController {
         if (isTrashCloseable() && mTrashUi != null) {
             didClose = mTrashUi.closeUi();
         }
+        if (didClose) {
+            // Blocks restored when the trash was shown no longer need to be kept live.
+            mController.getWorkspace().compactTrash();
+        }
         return didClose;
     }
 }
@@ -0,0 +1,485 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.control;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import com.google.blockly.model.Block;
+import com.google.blockly.model.BlockBinarySerializer;
+import com.google.blockly.model.BlockFactory;
+import com.google.blockly.model.BlocklyEvent;
+import com.google.blockly.utils.BlockLoadingException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Autosaves a workspace incrementally, rewriting only the top-level block stacks that changed.
+ * <p/>
+ * The store is a directory holding one chunk file per root block, in the
+ * {@link BlockBinarySerializer} format, and a manifest listing the root blocks in order. Chunks are
+ * never modified: a changed stack is written to a new chunk, then the manifest is atomically
+ * replaced by renaming a temporary file over it, and only then are unreferenced chunks deleted.
+ * A crash at any point leaves the previously saved workspace intact.
+ * <p/>
+ * Once {@link #start() started}, the autosave listens for model events, marking the stacks they
+ * touch as dirty, and saves them after {@link #getDelayMs() a delay}, coalescing bursts of edits
+ * (like dragging a block) into one save. Call {@link #flush()} to save immediately, such as from
+ * {@link android.app.Activity#onPause()}. Only events from the controller's workspace are tracked;
+ * flyout and trash events are ignored.
+ * <p/>
+ * Connecting one stack into another reports no event. The save finds the stack by the root block
+ * that disappeared, and rewrites it along with the dirty stacks.
+ * <p/>
+ * All methods must be called on the main thread.
+ */
+public class IncrementalAutosave implements BlocklyController.EventsCallback {
+    private static final String TAG = "IncrementalAutosave";
+
+    /** Default delay between the first unsaved change and the save. */
+    public static final long DEFAULT_DELAY_MS = 2000;
+
+    private static final int MANIFEST_MAGIC = 0x424B4D46;  // "BKMF"
+    private static final int MANIFEST_VERSION = 1;
+    private static final String MANIFEST_FILENAME = "manifest";
+    private static final String CHUNK_SUFFIX = ".chunk";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int EVENT_TYPES = BlocklyEvent.TYPE_CREATE | BlocklyEvent.TYPE_DELETE
+            | BlocklyEvent.TYPE_CHANGE | BlocklyEvent.TYPE_MOVE;
+
+    private final BlocklyController mController;
+    private final File mDirectory;
+    private final long mDelayMs;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mFlushScheduled = false;
+            try {
+                flush();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to autosave workspace.", e);
+            }
+        }
+    };
+
+    /** Ids of root blocks that changed since they were last saved. */
+    private final Set<String> mDirtyRootIds = new HashSet<>();
+    /** The saved chunk of each root block, in workspace order. */
+    private List<SavedRoot> mSavedRoots = Collections.emptyList();
+    /** Chunk number of the next chunk to write. */
+    private int mNextChunk = 0;
+    private boolean mFlushScheduled = false;
+    private boolean mStarted = false;
+    private int mChunksWritten = 0;
+
+    /**
+     * @param controller The controller of the workspace to save.
+     * @param directory The directory to store the workspace in. It is created if needed, and
+     *                  should not be used for anything else.
+     */
+    public IncrementalAutosave(BlocklyController controller, File directory) {
+        this(controller, directory, DEFAULT_DELAY_MS);
+    }
+
+    /**
+     * @param controller The controller of the workspace to save.
+     * @param directory The directory to store the workspace in. It is created if needed, and
+     *                  should not be used for anything else.
+     * @param delayMs The delay between the first unsaved change and the save.
+     */
+    public IncrementalAutosave(BlocklyController controller, File directory, long delayMs) {
+        if (delayMs < 0) {
+            throw new IllegalArgumentException("Delay must not be negative.");
+        }
+        mController = controller;
+        mDirectory = directory;
+        mDelayMs = delayMs;
+    }
+
+    /**
+     * @return The delay between the first unsaved change and the save, in milliseconds.
+     */
+    public long getDelayMs() {
+        return mDelayMs;
+    }
+
+    /**
+     * Starts listening for changes to the workspace.
+     */
+    public void start() {
+        if (!mStarted) {
+            mStarted = true;
+            mController.addCallback(this);
+        }
+    }
+
+    /**
+     * Stops listening for changes to the workspace, and cancels any scheduled save. Call
+     * {@link #flush()} first to save any pending changes.
+     */
+    public void stop() {
+        if (mStarted) {
+            mStarted = false;
+            mController.removeCallback(this);
+            cancelScheduledFlush();
+        }
+    }
+
+    /**
+     * @return True if a saved workspace exists in the directory.
+     */
+    public boolean hasSavedWorkspace() {
+        return new File(mDirectory, MANIFEST_FILENAME).exists();
+    }
+
+    /**
+     * @return True if changes are waiting to be saved.
+     */
+    public boolean hasUnsavedChanges() {
+        return !mDirtyRootIds.isEmpty() || mFlushScheduled;
+    }
+
+    /**
+     * Replaces the workspace contents with the saved workspace.
+     *
+     * @return True if the workspace was loaded. False if there was no saved workspace.
+     * @throws IOException If the store could not be read.
+     * @throws BlockLoadingException If the saved blocks could not be loaded.
+     */
+    public boolean load() throws IOException, BlockLoadingException {
+        Manifest manifest;
+        try {
+            manifest = readManifest();
+        } catch (FileNotFoundException e) {
+            return false;
+        }
+
+        BlockFactory factory = mController.getBlockFactory();
+        List<Block> rootBlocks = new ArrayList<>(manifest.mChunks.length);
+        for (int chunk : manifest.mChunks) {
+            InputStream in = new FileInputStream(chunkFile(chunk));
+            try {
+                rootBlocks.addAll(BlockBinarySerializer.loadFromBinary(in, factory));
+            } finally {
+                in.close();
+            }
+        }
+        mController.loadWorkspaceContents(rootBlocks);
+
+        // The loaded blocks match the store, so nothing is dirty.
+        List<SavedRoot> savedRoots = new ArrayList<>(rootBlocks.size());
+        for (int i = 0; i < rootBlocks.size(); i++) {
+            savedRoots.add(new SavedRoot(rootBlocks.get(i), manifest.mChunks[i]));
+        }
+        mSavedRoots = savedRoots;
+        mNextChunk = manifest.mNextChunk;
+        mDirtyRootIds.clear();
+        cancelScheduledFlush();
+        return true;
+    }
+
+    /**
+     * Saves all unsaved changes immediately. Only the root blocks that changed since the last save
+     * are written.
+     *
+     * @throws IOException If the store could not be written. The previously saved workspace is
+     *                     left intact, and the changes remain unsaved.
+     */
+    public void flush() throws IOException {
+        cancelScheduledFlush();
+
+        List<Block> rootBlocks = mController.getWorkspace().getRootBlocks();
+        Map<String, SavedRoot> savedById = new HashMap<>();
+        for (int i = 0; i < mSavedRoots.size(); i++) {
+            SavedRoot saved = mSavedRoots.get(i);
+            savedById.put(saved.mRootId, saved);
+        }
+        markAttachedStacksDirty(rootBlocks, savedById);
+
+        boolean changed = rootBlocks.size() != mSavedRoots.size();
+        int nextChunk = mNextChunk;
+        List<SavedRoot> newSavedRoots = new ArrayList<>(rootBlocks.size());
+        List<Integer> newChunks = new ArrayList<>();
+        try {
+            for (int i = 0; i < rootBlocks.size(); i++) {
+                Block root = rootBlocks.get(i);
+                SavedRoot saved = savedById.get(root.getId());
+                if (saved == null || saved.mBlockRef.get() != root
+                        || mDirtyRootIds.contains(root.getId())) {
+                    int chunk = nextChunk++;
+                    newChunks.add(chunk);
+                    writeAtomically(chunkFile(chunk),
+                            BlockBinarySerializer.writeToBinary(Collections.singletonList(root)));
+                    saved = new SavedRoot(root, chunk);
+                    changed = true;
+                } else if (!changed && mSavedRoots.get(i) != saved) {
+                    changed = true;  // Reordered.
+                }
+                newSavedRoots.add(saved);
+            }
+            if (!changed) {
+                mDirtyRootIds.clear();
+                return;
+            }
+            writeManifest(newSavedRoots, nextChunk);
+        } catch (IOException e) {
+            // The manifest still references the prior chunks. Clean up the orphans.
+            for (int chunk : newChunks) {
+                deleteFile(chunkFile(chunk));
+            }
+            throw e;
+        }
+
+        // The new manifest is in place. Chunks no longer referenced can go.
+        Set<Integer> referenced = new HashSet<>();
+        for (int i = 0; i < newSavedRoots.size(); i++) {
+            referenced.add(newSavedRoots.get(i).mChunk);
+        }
+        for (int i = 0; i < mSavedRoots.size(); i++) {
+            int chunk = mSavedRoots.get(i).mChunk;
+            if (!referenced.contains(chunk)) {
+                deleteFile(chunkFile(chunk));
+            }
+        }
+
+        mChunksWritten += newChunks.size();
+        mSavedRoots = newSavedRoots;
+        mNextChunk = nextChunk;
+        mDirtyRootIds.clear();
+    }
+
+    /**
+     * Deletes the saved workspace, and forgets what was saved, so the next {@link #flush()} will
+     * write every root block.
+     */
+    public void clear() {
+        cancelScheduledFlush();
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.equals(MANIFEST_FILENAME) || name.endsWith(CHUNK_SUFFIX)
+                        || name.endsWith(TEMP_SUFFIX)) {
+                    deleteFile(file);
+                }
+            }
+        }
+        mSavedRoots = Collections.emptyList();
+        mNextChunk = 0;
+        mDirtyRootIds.clear();
+    }
+
+    @Override
+    public int getTypesBitmask() {
+        return EVENT_TYPES;
+    }
+
+    @Override
+    public void onEventGroup(List<BlocklyEvent> events) {
+        BlockFactory factory = mController.getBlockFactory();
+        String workspaceId = mController.getWorkspace().getId();
+        boolean marked = false;
+        for (int i = 0; i < events.size(); i++) {
+            BlocklyEvent event = events.get(i);
+            if (!workspaceId.equals(event.getWorkspaceId())) {
+                continue;  // A flyout or trash block.
+            }
+            marked = true;
+            markRootDirty(factory, event.getBlockId());
+            if (event instanceof BlocklyEvent.MoveEvent) {
+                // The stack the block left changed, too.
+                markRootDirty(factory, ((BlocklyEvent.MoveEvent) event).getOldParentId());
+            }
+        }
+        // Deleted stacks are not found above, but are dropped when the root list is compared.
+        if (marked && !mFlushScheduled) {
+            mFlushScheduled = true;
+            mHandler.postDelayed(mFlushRunnable, mDelayMs);
+        }
+    }
+
+    /**
+     * @return The number of chunks written by {@link #flush()} since construction.
+     */
+    @VisibleForTesting
+    int getChunksWritten() {
+        return mChunksWritten;
+    }
+
+    private void markRootDirty(BlockFactory factory, String blockId) {
+        if (blockId == null) {
+            return;
+        }
+        Block block = factory.getBlock(blockId);
+        if (block != null) {
+            mDirtyRootIds.add(block.getRootBlock().getId());
+        }
+    }
+
+    /**
+     * Marks dirty the stacks that absorbed a former root block. Connecting a root block into
+     * another stack reports no event, so the stack is found through the block: either a saved root
+     * or a dirty root that is no longer a root, but is still part of the workspace.
+     */
+    private void markAttachedStacksDirty(List<Block> rootBlocks, Map<String, SavedRoot> savedById) {
+        Set<String> rootIds = new HashSet<>(rootBlocks.size());
+        for (int i = 0; i < rootBlocks.size(); i++) {
+            rootIds.add(rootBlocks.get(i).getId());
+        }
+        List<String> formerRootIds = new ArrayList<>();
+        for (String id : savedById.keySet()) {
+            if (!rootIds.contains(id)) {
+                formerRootIds.add(id);
+            }
+        }
+        for (String id : mDirtyRootIds) {
+            if (!rootIds.contains(id)) {
+                formerRootIds.add(id);
+            }
+        }
+        BlockFactory factory = mController.getBlockFactory();
+        for (int i = 0; i < formerRootIds.size(); i++) {
+            Block block = factory.getBlock(formerRootIds.get(i));
+            if (block != null && rootIds.contains(block.getRootBlock().getId())) {
+                mDirtyRootIds.add(block.getRootBlock().getId());
+            }
+        }
+    }
+
+    private void cancelScheduledFlush() {
+        if (mFlushScheduled) {
+            mFlushScheduled = false;
+            mHandler.removeCallbacks(mFlushRunnable);
+        }
+    }
+
+    private File chunkFile(int chunk) {
+        return new File(mDirectory, chunk + CHUNK_SUFFIX);
+    }
+
+    private Manifest readManifest() throws IOException, BlockLoadingException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(new File(mDirectory, MANIFEST_FILENAME))));
+        try {
+            if (in.readInt() != MANIFEST_MAGIC || in.readInt() != MANIFEST_VERSION) {
+                throw new BlockLoadingException("Unrecognized autosave manifest.");
+            }
+            Manifest manifest = new Manifest();
+            manifest.mNextChunk = in.readInt();
+            int count = in.readInt();
+            if (count < 0) {
+                throw new BlockLoadingException("Invalid autosave manifest.");
+            }
+            manifest.mChunks = new int[count];
+            for (int i = 0; i < count; i++) {
+                manifest.mChunks[i] = in.readInt();
+            }
+            return manifest;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void writeManifest(List<SavedRoot> savedRoots, int nextChunk) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MANIFEST_MAGIC);
+        out.writeInt(MANIFEST_VERSION);
+        out.writeInt(nextChunk);
+        out.writeInt(savedRoots.size());
+        for (int i = 0; i < savedRoots.size(); i++) {
+            out.writeInt(savedRoots.get(i).mChunk);
+        }
+        out.flush();
+        writeAtomically(new File(mDirectory, MANIFEST_FILENAME), bytes.toByteArray());
+    }
+
+    /**
+     * Writes {@code data} to a temporary file, syncs it to disk, and renames it to {@code file}, so
+     * {@code file} either has its prior contents or all of {@code data}.
+     */
+    private void writeAtomically(File file, byte[] data) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Unable to create directory " + mDirectory);
+        }
+        File temp = new File(mDirectory, file.getName() + TEMP_SUFFIX);
+        FileOutputStream fileOut = new FileOutputStream(temp);
+        try {
+            BufferedOutputStream out = new BufferedOutputStream(fileOut);
+            out.write(data);
+            out.flush();
+            fileOut.getFD().sync();
+        } catch (IOException e) {
+            fileOut.close();
+            deleteFile(temp);
+            throw e;
+        }
+        fileOut.close();
+        if (!temp.renameTo(file)) {
+            deleteFile(temp);
+            throw new IOException("Unable to rename " + temp + " to " + file);
+        }
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Unable to delete " + file);
+        }
+    }
+
+    /** The chunk holding a saved root block. */
+    private static class SavedRoot {
+        final String mRootId;
+        /** The block instance that was saved, to detect blocks replaced with the same id. */
+        final WeakReference<Block> mBlockRef;
+        final int mChunk;
+
+        SavedRoot(Block root, int chunk) {
+            mRootId = root.getId();
+            mBlockRef = new WeakReference<>(root);
+            mChunk = chunk;
+        }
+    }
+
+    /** The contents of the manifest file. */
+    private static class Manifest {
+        int mNextChunk;
+        int[] mChunks;
+    }
+}
@@ -31,6 +31,7 @@ import com.google.blockly.model.mutator.ProcedureCallMutator;
 import com.google.blockly.model.mutator.ProcedureDefinitionMutator;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
@@ -340,6 +341,11 @@ public class ProcedureManager extends Observable<ProcedureManager.Observer> {
      * Updates all blocks related to a specific procedure with respect to name, arguments, and
      * whether the definition can contain a statement sequence. If any of the optional arguments are
      * null, the existing values from the blocks are used.
+     * <p/>
+     * All blocks are updated in a single event group. Argument values that keep their index stay
+     * connected to the call blocks, so renaming a procedure or its arguments only relabels the
+     * call blocks, without rebuilding their views. Only values that move to a different index are
+     * disconnected and reconnected.
      *
      * @param originalProcedureName The name of the procedure, before this method.
      * @param updatedProcedureInfo The info with which to update procedure mutators.
@@ -401,30 +407,36 @@ public class ProcedureManager extends Observable<ProcedureManager.Observer> {
                     mProcedureReferences.remove(originalCanonical);
                     mProcedureReferences.put(newCanonicalName, procedureCalls);
                 }
+                int[] newArgIndices = getNewArgumentIndices(
+                        oldProcInfo.getArgumentNames().size(), argIndexUpdates);
                 for (Block procRef : procedureCalls) {
                     ProcedureCallMutator callMutator =
                             (ProcedureCallMutator) procRef.getMutator();
                     assert callMutator != null;
                     int oldArgCount = callMutator.getArgumentNameList().size();
-                    Block[] oldValues = new Block[oldArgCount];  // Initially all null
+                    Block[] movedValues = new Block[oldArgCount];  // Initially all null
 
-                    // Disconnect prior value blocks
+                    // Disconnect value blocks that do not keep their argument index. The call
+                    // mutator reuses the argument inputs, so the other values stay connected
+                    // without any view or event updates.
                     for (int i = 0; i < oldArgCount; ++i) {
                         Input argInput = callMutator.getArgumentInput(i);
                         Block valueBlock = argInput.getConnectedBlock();
-                        if (valueBlock != null) {
-                            oldValues[i] = valueBlock;
+                        if (valueBlock != null
+                                && (i >= newArgIndices.length || newArgIndices[i] != i)) {
+                            movedValues[i] = valueBlock;
                             mController.extractBlockAsRoot(valueBlock);
                         }
                     }
 
                     callMutator.mutate(updatedProcedureInfo);
 
-                    // Reconnect any blocks to original inputs
+                    // Reconnect moved blocks to their new inputs
                     if (argIndexUpdates != null) {
                         for (int i = 0; i < argIndexUpdates.size(); ++i) {
                             ArgumentIndexUpdate argumentIndexUpdate = argIndexUpdates.get(i);
-                            Block originalValue = oldValues[argumentIndexUpdate.before];
+                            Block originalValue = argumentIndexUpdate.before < oldArgCount
+                                    ? movedValues[argumentIndexUpdate.before] : null;
                             if (originalValue != null) {
                                 Input argInput =
                                         callMutator.getArgumentInput(argumentIndexUpdate.after);
@@ -503,6 +515,28 @@ public class ProcedureManager extends Observable<ProcedureManager.Observer> {
         return mCountOfDefinitionsWithReturn > 0;
     }
 
+    /**
+     * Maps each original argument index to its index after a mutation.
+     *
+     * @param oldArgCount The argument count before the mutation.
+     * @param argIndexUpdates The argument index updates of the mutation, if any.
+     * @return The new index of each original argument, or -1 if the argument was removed.
+     */
+    private static int[] getNewArgumentIndices(
+            int oldArgCount, @Nullable List<ArgumentIndexUpdate> argIndexUpdates) {
+        int[] newIndices = new int[oldArgCount];
+        Arrays.fill(newIndices, -1);
+        if (argIndexUpdates != null) {
+            for (int i = 0; i < argIndexUpdates.size(); ++i) {
+                ArgumentIndexUpdate update = argIndexUpdates.get(i);
+                if (update.before < oldArgCount) {
+                    newIndices[update.before] = update.after;
+                }
+            }
+        }
+        return newIndices;
+    }
+
     /**
      * Helper method to retrieve a required procedure name.
      * @param block The block queried.
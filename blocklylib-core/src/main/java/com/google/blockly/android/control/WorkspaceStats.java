@@ -19,6 +19,7 @@ import android.support.annotation.Nullable;
 import android.support.v4.util.SimpleArrayMap;
 
 import com.google.blockly.model.Block;
+import com.google.blockly.model.BlockTreeIterator;
 import com.google.blockly.model.Connection;
 import com.google.blockly.model.Field;
 import com.google.blockly.model.FieldVariable;
@@ -32,6 +33,7 @@ import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.WeakHashMap;
 
 /**
  * Tracks information about the Workspace that we want fast access to.
@@ -114,6 +116,8 @@ public class WorkspaceStats {
     };
 
     private final List<Connection> mTempConnecitons = new ArrayList<>();
+    /** Connections found by {@link #collectStats}, indexed together once all are found. */
+    private final List<Connection> mCollectedConnections = new ArrayList<>();
 
     public WorkspaceStats(NameManager variableManager, ProcedureManager procedureManager,
                           ConnectionManager connectionManager) {
@@ -148,7 +152,9 @@ public class WorkspaceStats {
 
     /**
      * Walks through a list of block and records all Connections, variable references, procedure
-     * definitions and procedure calls.
+     * definitions and procedure calls. The connections of all blocks are added to the
+     * {@link ConnectionManager} in one batch, so loading many blocks is not slowed by repeated
+     * index updates.
      *
      * @param blocks The list of blocks to inspect.
      * @param recursive Whether to recursively collect stats for all descendants of the current
@@ -175,9 +181,14 @@ public class WorkspaceStats {
         }
 
 
-        for (int i = 0; i < count; ++i) {
-            Block block = blocks.get(i);
-            collectConnectionStatsAndProcedureReferences(block, recursive);
+        try {
+            for (int i = 0; i < count; ++i) {
+                Block block = blocks.get(i);
+                collectConnectionStatsAndProcedureReferences(block, recursive);
+            }
+            mConnectionManager.addConnections(mCollectedConnections);
+        } finally {
+            mCollectedConnections.clear();
         }
     }
 
@@ -199,6 +210,16 @@ public class WorkspaceStats {
      * @param block The starting block to cleanup stats for.
      */
     public void cleanupStats(Block block) {
+        BlockTreeIterator iter = new BlockTreeIterator(block);
+        while (iter.hasNext()) {
+            cleanupBlockStats(iter.next());
+        }
+    }
+
+    /**
+     * Removes the connections and variable references of a single block.
+     */
+    private void cleanupBlockStats(Block block) {
         block.getAllConnections(mTempConnecitons);
         for (int i = 0; i < mTempConnecitons.size(); i++) {
             mConnectionManager.removeConnection(mTempConnecitons.get(i));
@@ -214,12 +235,6 @@ public class WorkspaceStats {
                     removeVarField((FieldVariable) field);
                 }
             }
-            if (input.getConnection() != null && input.getConnection().getTargetBlock() != null) {
-                cleanupStats(input.getConnection().getTargetBlock());
-            }
-        }
-        if (block.getNextBlock() != null) {
-            cleanupStats(block.getNextBlock());
         }
     }
 
@@ -234,6 +249,21 @@ public class WorkspaceStats {
     private void collectConnectionStatsAndProcedureReferences(Block block, boolean recursive)
             throws BlockLoadingException
     {
+        if (!recursive) {
+            collectBlockStats(block);
+            return;
+        }
+        // Walk the descendants with an explicit stack, so long sequences do not deepen the stack.
+        BlockTreeIterator iter = new BlockTreeIterator(block);
+        while (iter.hasNext()) {
+            collectBlockStats(iter.next());
+        }
+    }
+
+    /**
+     * Records the connections, variable references and procedure references of a single block.
+     */
+    private void collectBlockStats(Block block) throws BlockLoadingException {
         if (ProcedureManager.isReference(block)) {
             String procName = ProcedureManager.getProcedureName(block);
             if (mProcedureManager.containsDefinition(block)) {
@@ -259,26 +289,17 @@ public class WorkspaceStats {
                     varField.registerObserver(mVariableObserver);
                 }
             }
-            collectConnectionStats(input.getConnection(), recursive);
+            collectConnectionStats(input.getConnection());
         }
 
-        collectConnectionStats(block.getNextConnection(), recursive);
-        // Don't recurse on outputs or previous connections--that's effectively walking back up
-        // the tree.
-        collectConnectionStats(block.getPreviousConnection(), false);
-        collectConnectionStats(block.getOutputConnection(), false);
+        collectConnectionStats(block.getNextConnection());
+        collectConnectionStats(block.getPreviousConnection());
+        collectConnectionStats(block.getOutputConnection());
     }
 
-    private void collectConnectionStats(Connection conn, boolean recursive)
-            throws BlockLoadingException {
+    private void collectConnectionStats(Connection conn) {
         if (conn != null) {
-            mConnectionManager.addConnection(conn);
-            if (recursive) {
-                Block recursiveTarget = conn.getTargetBlock();
-                if (recursiveTarget != null) {
-                    collectConnectionStatsAndProcedureReferences(recursiveTarget, true);
-                }
-            }
+            mCollectedConnections.add(conn);
         }
     }
 
@@ -316,6 +337,8 @@ public class WorkspaceStats {
         final String mDisplayName;
         /** FieldVariables that are set to the variable. */
         ArrayList<WeakReference<FieldVariable>> mFields = null;
+        /** The same fields as {@link #mFields}, for constant time duplicate checks. */
+        WeakHashMap<FieldVariable, Boolean> mFieldSet = null;
         /** Procedures that use the variable as an argument. */
         SimpleArraySet<String> mProcedures = null;
 
@@ -326,7 +349,8 @@ public class WorkspaceStats {
 
         @Override
         public int getUsageCount() {
-            return (mFields == null ? 0 : mFields.size()) + getCountOfProceduresUsages();
+            // The weak set drops collected fields, while mFields may still hold cleared references.
+            return (mFieldSet == null ? 0 : mFieldSet.size()) + getCountOfProceduresUsages();
         }
 
         @Override
@@ -342,27 +366,28 @@ public class WorkspaceStats {
         void addField(FieldVariable newField) {
             if (mFields == null) {
                 mFields = new ArrayList<>();
-                mFields.add(new WeakReference<>(newField));
-                return;
+                mFieldSet = new WeakHashMap<>();
+            } else if (mFieldSet.containsKey(newField)) {
+                return;  // Already present.
+            } else if (mFields.size() >= 2 * mFieldSet.size()) {
+                // At least half of the references were cleared. Pruning only then keeps adds
+                // amortized constant time.
+                pruneClearedFields();
             }
+            mFields.add(new WeakReference<>(newField));
+            mFieldSet.put(newField, Boolean.TRUE);
+        }
 
-            // Search for existing reference to avoid duplicates
+        private void pruneClearedFields() {
             int count = mFields.size();
-            int i = 0;
-            while (i < count) {
-                FieldVariable field = mFields.get(i).get();
-                if (field == newField) {
-                    return;  // Already present.
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                WeakReference<FieldVariable> ref = mFields.get(i);
+                if (ref.get() != null) {
+                    mFields.set(kept++, ref);
                 }
-                if (field == null) {
-                    mFields.remove(i);
-                    --count;
-                    continue;  // Don't increment i
-                }
-                ++i;
             }
-            // Not found. Add the new field.
-            mFields.add(new WeakReference(newField));
+            mFields.subList(kept, count).clear();
         }
 
         boolean removeField(FieldVariable fieldToRemove) {
@@ -379,12 +404,14 @@ public class WorkspaceStats {
                 }
                 if (field == fieldToRemove) {
                     mFields.remove(i);
+                    mFieldSet.remove(fieldToRemove);
                     return true;
                 }
                 ++i;
             }
             if (mFields.isEmpty()) {
                 mFields = null;
+                mFieldSet = null;
             }
             return false;
         }
@@ -22,6 +22,7 @@ import android.view.ViewGroup;
 
 import com.google.blockly.android.ui.fieldview.FieldView;
 import com.google.blockly.model.Block;
+import com.google.blockly.model.Field;
 import com.google.blockly.model.Input;
 
 import java.util.ArrayList;
@@ -127,11 +128,17 @@ public abstract class AbstractInputView extends NonPropagatingViewGroup implemen
      */
     @Override
     public void unlinkModel() {
+        BlockViewFactory<?, ?> factory = mHelper.getBlockViewFactory();
         int max = mFieldViews.size();
         for (int i = 0; i < max; ++i) {
             FieldView fieldView = mFieldViews.get(i);
+            Field field = fieldView.getField();
             fieldView.unlinkField();
+            if (factory != null && field != null) {
+                factory.recycleFieldView(field.getType(), fieldView);
+            }
         }
+        mFieldViews.clear();
         if (mConnectedGroup != null) {
             mConnectedGroup.unlinkModel();
             mConnectedGroup = null;
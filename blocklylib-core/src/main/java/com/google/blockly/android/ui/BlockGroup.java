@@ -32,6 +32,12 @@ public class BlockGroup extends NonPropagatingViewGroup {
 
     private int mNextBlockVerticalOffset;
 
+    // Layout state of root groups, managed by the WorkspaceView.
+    private final WorkspacePoint mLaidOutPosition = new WorkspacePoint();
+    private boolean mHasLaidOutPosition = false;
+    private boolean mCulled = false;
+    private boolean mHiddenByCulling = false;
+
     /**
      * Creates a BlockGroup to wrap one or more BlockViews. App developers should not call this
      * constructor directly.  Instead, use {@link BlockViewFactory#buildBlockGroupTree}.
@@ -217,6 +223,58 @@ public class BlockGroup extends NonPropagatingViewGroup {
         removeAllViews();
     }
 
+    /**
+     * Records the workspace position of the first block used for the last layout by the
+     * {@link WorkspaceView}.
+     */
+    void setLaidOutPosition(WorkspacePoint position) {
+        mLaidOutPosition.setFrom(position);
+        mHasLaidOutPosition = true;
+    }
+
+    /**
+     * Checks whether this group can be moved to a new location without laying it out again. This
+     * is true if neither its size, the position of its first block, nor any of its children have
+     * changed since the last layout, such as when only the workspace is scrolled.
+     *
+     * @param position The current workspace position of the first block.
+     * @param width The new width of this view.
+     * @param height The new height of this view.
+     * @return True if the layout of this group is still valid.
+     */
+    boolean isLayoutValidAt(WorkspacePoint position, int width, int height) {
+        return mHasLaidOutPosition && !isLayoutRequested()
+                && position.equals(mLaidOutPosition.x, mLaidOutPosition.y)
+                && getWidth() == width && getHeight() == height;
+    }
+
+    /**
+     * Marks this root group as outside the visible area of the {@link WorkspaceView}. Culled groups
+     * are hidden, and are not laid out until they are visible again.
+     */
+    void setCulled(boolean culled) {
+        if (culled == mCulled) {
+            return;
+        }
+        mCulled = culled;
+        if (culled) {
+            if (getVisibility() == VISIBLE) {
+                setVisibility(INVISIBLE);
+                mHiddenByCulling = true;
+            }
+        } else if (mHiddenByCulling) {
+            mHiddenByCulling = false;
+            setVisibility(VISIBLE);
+        }
+    }
+
+    /**
+     * @return True if this group is outside the visible area of the {@link WorkspaceView}.
+     */
+    boolean isCulled() {
+        return mCulled;
+    }
+
     /**
      * @return The vertical offset from the top of this view to the position of the next block
      * <em>below</em> this group.
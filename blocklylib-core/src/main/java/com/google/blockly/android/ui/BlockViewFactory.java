@@ -96,6 +96,11 @@ public abstract class BlockViewFactory<BlockView extends com.google.blockly.andr
     protected final Map<String,WeakReference<BlockView>> mBlockIdToView
             = Collections.synchronizedMap(new HashMap<String, WeakReference<BlockView>>());
 
+    /**
+     * Unused {@link FieldView}s, available to be bound to new fields.
+     */
+    protected final ViewPool mViewPool = new ViewPool();
+
     protected BlockViewFactory(Context context, WorkspaceHelper helper) {
         mContext = context;
         mHelper = helper;
@@ -125,6 +130,23 @@ public abstract class BlockViewFactory<BlockView extends com.google.blockly.andr
         return mHelper;
     }
 
+    /**
+     * @return The pool of unused views, reused when building new view trees.
+     */
+    public ViewPool getViewPool() {
+        return mViewPool;
+    }
+
+    /**
+     * Releases pooled views in response to memory pressure. Typically called from
+     * {@link android.content.ComponentCallbacks2#onTrimMemory(int)}.
+     *
+     * @param level The memory trim level.
+     */
+    public void onTrimMemory(int level) {
+        mViewPool.onTrimMemory(level);
+    }
+
     /**
      * Set the {@link NameManager} being used to track variables in the workspace.
      *
@@ -353,7 +375,10 @@ public abstract class BlockViewFactory<BlockView extends com.google.blockly.andr
      *     {@link VariableRequestCallback} set on them. {@link #mVariableCallback} may be used for
      *     this purpose.</li>
      * </ul>
-     *
+     * <p/>
+     * Views are only recycled through the {@link ViewPool} if
+     * {@link #isFieldViewPoolingEnabled()}. Factories that enable pooling and override this
+     * method must build the same view class for every field of a given type.
      *
      * @param field The {@link Field} to build a view for.
      * @return The new {@link FieldView}.
@@ -432,6 +457,56 @@ public abstract class BlockViewFactory<BlockView extends com.google.blockly.andr
         return mVariableAdapter;
     }
 
+    /**
+     * Returns a view for {@code field}, rebinding an unused view from the {@link ViewPool} if one
+     * is available and pooling is enabled, or calling {@link #buildFieldView} otherwise.
+     *
+     * @param field The {@link Field} to get a view for.
+     * @return A {@link FieldView} bound to {@code field}.
+     */
+    protected FieldView obtainFieldView(Field field) {
+        if (!isFieldViewPoolingEnabled()) {
+            return buildFieldView(field);
+        }
+        FieldView fieldView = mViewPool.obtainFieldView(field.getType());
+        if (fieldView == null) {
+            return buildFieldView(field);
+        }
+        fieldView.setField(field);
+        return fieldView;
+    }
+
+    /**
+     * Returns a view that is no longer used to the {@link ViewPool}, to be rebound by a later
+     * {@link #obtainFieldView} call. This is called by {@link AbstractInputView#unlinkModel()}.
+     * If field view pooling is disabled the view is only detached from its parent.
+     *
+     * @param fieldType The {@link Field.FieldType} of the field the view was bound to.
+     * @param fieldView The unlinked view.
+     */
+    public void recycleFieldView(@Field.FieldType int fieldType, FieldView fieldView) {
+        View view = (View) fieldView;
+        ViewParent parent = view.getParent();
+        if (parent != null) {
+            ((ViewGroup) parent).removeView(view);
+        }
+        if (isFieldViewPoolingEnabled()) {
+            mViewPool.recycleFieldView(fieldType, fieldView);
+        }
+    }
+
+    /**
+     * Pooled views are keyed only by field type, so they may only be reused when every view built
+     * for a field type is interchangeable. Pooling is disabled by default. Factories that build a
+     * single view class per field type can override this to return true. Their subclasses that
+     * override {@link #buildFieldView} must return false again, unless they keep that guarantee.
+     *
+     * @return Whether unlinked {@link FieldView}s are pooled and rebound to new fields.
+     */
+    protected boolean isFieldViewPoolingEnabled() {
+        return false;
+    }
+
     @NonNull
     protected List<InputView> buildInputViews(
             Block block, ConnectionManager connectionManager, BlockTouchHandler touchHandler) {
@@ -443,7 +518,7 @@ public abstract class BlockViewFactory<BlockView extends com.google.blockly.andr
             List<Field> fields = input.getFields();
             List<FieldView> fieldViews = new ArrayList<>(fields.size());
             for (int  j = 0; j < fields.size(); j++) {
-                fieldViews.add(buildFieldView(fields.get(j)));
+                fieldViews.add(obtainFieldView(fields.get(j)));
             }
             InputView inputView = buildInputView(input, fieldViews);
 
@@ -19,6 +19,7 @@ import android.content.ClipData;
 import android.graphics.Canvas;
 import android.graphics.Point;
 import android.os.Handler;
+import android.os.Trace;
 import android.support.annotation.IntDef;
 import android.support.annotation.Nullable;
 import android.support.annotation.Size;
@@ -26,6 +27,7 @@ import android.support.annotation.VisibleForTesting;
 import android.support.v4.view.ViewCompat;
 import android.util.Log;
 import android.util.Pair;
+import android.view.Choreographer;
 import android.view.DragEvent;
 import android.view.MotionEvent;
 import android.view.View;
@@ -120,6 +122,7 @@ public class Dragger {
     private final WorkspacePoint mTempWorkspacePoint = new WorkspacePoint();
 
     private Handler mMainHandler;
+    private Choreographer mChoreographer;  // Obtained on the first drag.
     private final BlocklyController mController;
     private final WorkspaceHelper mViewHelper;
     private final BlockClipDataHelper mClipHelper;
@@ -133,6 +136,8 @@ public class Dragger {
     private boolean mWithinOnTouchBlockImpl = false;
 
     private PendingDrag mPendingDrag;
+    /** Caches the candidate connections near the dragged block. Null when not dragging. */
+    private ConnectionManager.DragSession mDragSession;
     private Runnable mLogPending = (LOG_TOUCH_EVENTS || LOG_DRAG_EVENTS) ? new Runnable() {
         @Override
         public void run() {
@@ -146,6 +151,27 @@ public class Dragger {
     // Which {@link BlockView} was touched, and possibly may be being dragged.
     private WorkspaceView mWorkspaceView;
     private WeakReference<BlockView> mHighlightedBlockViewRef = new WeakReference<>(null);
+
+    /**
+     * Applies the drag updates received since the last frame: highlights the best connection and
+     * requests a single layout of the drag group. Drag events can arrive faster than the display
+     * refreshes, so this runs at most once per frame.
+     */
+    private final Choreographer.FrameCallback mDragFrameCallback =
+            new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    mDragFramePosted = false;
+                    if (mPendingDrag == null || !mPendingDrag.isDragging()) {
+                        return;
+                    }
+                    Trace.beginSection("Dragger.doFrame");
+                    updateDragFrame();
+                    Trace.endSection();
+                }
+            };
+    private boolean mDragFramePosted = false;
+
     //The square of the required touch slop before starting a drag, precomputed to avoid
     // square root operations at runtime.
     private float mTouchSlopSquared = 0.0f;
@@ -213,6 +239,7 @@ public class Dragger {
                         // Finalize dragging and reset dragging state flags.
                         // These state flags are still used in the initial phase of figuring out if
                         // a drag has started.
+                        flushDragFrame();
                         maybeConnectDragGroup();
                         finishDragging(FINISH_BEHAVIOR_DROP);
                         return true;    // The drop succeeded.
@@ -321,7 +348,21 @@ public class Dragger {
      */
     private void continueDragging(DragEvent event) {
         updateBlockPosition(event);
+        if (!mDragFramePosted) {
+            if (mChoreographer == null) {
+                mChoreographer = Choreographer.getInstance();
+            }
+            mDragFramePosted = true;
+            mChoreographer.postFrameCallback(mDragFrameCallback);
+        }
+    }
 
+    /**
+     * Highlights the best connection for the dragged block and requests a layout of the drag
+     * group, which updates the locations of its connectors. Called once per frame while the block
+     * is moving.
+     */
+    private void updateDragFrame() {
         // highlight as we go
         BlockView highlightedBlockView = mHighlightedBlockViewRef.get();
         if (highlightedBlockView != null) {
@@ -338,6 +379,21 @@ public class Dragger {
         mPendingDrag.getDragGroup().requestLayout();
     }
 
+    /**
+     * Cancels the pending frame update, if any. If the block moved since the last frame, the drag
+     * group's connectors are moved to the block's latest position immediately, so the drop
+     * connects where the block was released.
+     */
+    private void flushDragFrame() {
+        if (mDragFramePosted) {
+            mChoreographer.removeFrameCallback(mDragFrameCallback);
+            mDragFramePosted = false;
+            if (mPendingDrag != null && mPendingDrag.getDragGroup() != null) {
+                mPendingDrag.getDragGroup().updateAllConnectorLocations();
+            }
+        }
+    }
+
     /**
      * Attempts to connect a dropped drag group with nearby connections
      */
@@ -378,6 +434,11 @@ public class Dragger {
             }
         }
         mDraggedConnections.clear();
+        mDragSession = null;
+        if (mDragFramePosted) {
+            mChoreographer.removeFrameCallback(mDragFrameCallback);
+            mDragFramePosted = false;
+        }
 
         BlockView highlightedBlockView = mHighlightedBlockViewRef.get();
         if (highlightedBlockView != null) {
@@ -623,12 +684,15 @@ public class Dragger {
             mConnectionManager.removeConnection(conn);
             conn.setDragMode(true);
         }
+        mDragSession =
+                mConnectionManager.startDragSession(block, mViewHelper.getMaxSnapDistance());
     }
 
     /**
      * Move the currently dragged block in response to a new {@link MotionEvent}.
      * <p/>
-     * All of the child blocks move with the root block based on its position during layout.
+     * All of the child blocks move with the root block based on its position during layout, which
+     * is requested by the next frame update.
      *
      * @param event The {@link MotionEvent} to react to.
      */
@@ -648,10 +712,12 @@ public class Dragger {
         WorkspacePoint blockOrigPosition = mPendingDrag.getOriginalBlockPosition();
         mPendingDrag.getRootDraggedBlock().setPosition(blockOrigPosition.x + workspaceDeltaX,
                                                 blockOrigPosition.y + workspaceDeltaY);
-        mPendingDrag.getDragGroup().requestLayout();
     }
 
     private Pair<Connection, Connection> findBestConnection(Block block) {
+        if (mDragSession != null && mDragSession.getBlock() == block) {
+            return mDragSession.findBestConnection();
+        }
         return mConnectionManager.findBestConnection(block, mViewHelper.getMaxSnapDistance());
     }
 
@@ -0,0 +1,154 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.ui;
+
+import android.content.ComponentCallbacks2;
+import android.support.annotation.Nullable;
+import android.util.SparseArray;
+
+import com.google.blockly.android.ui.fieldview.FieldView;
+import com.google.blockly.model.Field;
+
+import java.util.ArrayDeque;
+
+/**
+ * Pool of unused {@link FieldView}s, keyed by {@link Field.FieldType field type}, so views can be
+ * rebound to new fields instead of inflated again when blocks are rebuilt, such as when scrolling
+ * a flyout or reloading the workspace. Each type holds at most {@link #getMaxViewsPerType()}
+ * views. The pool is not thread safe, and should only be used on the main thread.
+ */
+public class ViewPool {
+    public static final int DEFAULT_MAX_VIEWS_PER_TYPE = 32;
+
+    private final SparseArray<ArrayDeque<FieldView>> mFieldViews = new SparseArray<>();
+    private int mMaxViewsPerType;
+
+    public ViewPool() {
+        this(DEFAULT_MAX_VIEWS_PER_TYPE);
+    }
+
+    /**
+     * @param maxViewsPerType The maximum number of views kept for each field type.
+     */
+    public ViewPool(int maxViewsPerType) {
+        setMaxViewsPerType(maxViewsPerType);
+    }
+
+    /**
+     * Sets the maximum number of views kept for each field type, discarding any views above the
+     * new limit.
+     *
+     * @param maxViewsPerType The maximum number of views kept for each field type.
+     */
+    public void setMaxViewsPerType(int maxViewsPerType) {
+        if (maxViewsPerType < 0) {
+            throw new IllegalArgumentException("Pool size must not be negative.");
+        }
+        mMaxViewsPerType = maxViewsPerType;
+        trimToSize(maxViewsPerType);
+    }
+
+    /**
+     * @return The maximum number of views kept for each field type.
+     */
+    public int getMaxViewsPerType() {
+        return mMaxViewsPerType;
+    }
+
+    /**
+     * Removes an unused view from the pool.
+     *
+     * @param fieldType The {@link Field.FieldType} of the field the view will be bound to.
+     * @return A view previously built for a field of the same type, or null if none is available.
+     *         The view is not bound to any field.
+     */
+    @Nullable
+    public FieldView obtainFieldView(@Field.FieldType int fieldType) {
+        ArrayDeque<FieldView> views = mFieldViews.get(fieldType);
+        return views == null ? null : views.pollLast();
+    }
+
+    /**
+     * Adds an unused view to the pool. The view must already be unlinked from its field and
+     * removed from its parent.
+     *
+     * @param fieldType The {@link Field.FieldType} of the field the view was built for.
+     * @param view The unused view.
+     * @return True if the view was added, or false if the pool for the type is full.
+     */
+    public boolean recycleFieldView(@Field.FieldType int fieldType, FieldView view) {
+        if (view.getField() != null) {
+            throw new IllegalArgumentException("FieldView is still bound to a field.");
+        }
+        ArrayDeque<FieldView> views = mFieldViews.get(fieldType);
+        if (views == null) {
+            if (mMaxViewsPerType == 0) {
+                return false;
+            }
+            views = new ArrayDeque<>();
+            mFieldViews.put(fieldType, views);
+        } else if (views.size() >= mMaxViewsPerType) {
+            return false;
+        }
+        views.addLast(view);
+        return true;
+    }
+
+    /**
+     * @param fieldType The {@link Field.FieldType} to count.
+     * @return The number of unused views available for the given field type.
+     */
+    public int getPooledViewCount(@Field.FieldType int fieldType) {
+        ArrayDeque<FieldView> views = mFieldViews.get(fieldType);
+        return views == null ? 0 : views.size();
+    }
+
+    /**
+     * Discards unused views until each field type has at most {@code maxViewsPerType} views. The
+     * maximum for future recycled views is not changed.
+     *
+     * @param maxViewsPerType The number of views to keep for each field type.
+     */
+    public void trimToSize(int maxViewsPerType) {
+        for (int i = 0; i < mFieldViews.size(); i++) {
+            ArrayDeque<FieldView> views = mFieldViews.valueAt(i);
+            while (views.size() > maxViewsPerType) {
+                views.pollFirst();
+            }
+        }
+    }
+
+    /**
+     * Releases pooled views in response to memory pressure. The pool is halved when memory is
+     * running low, and emptied when it is critical or the UI is no longer visible.
+     *
+     * @param level The memory trim level from {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(mMaxViewsPerType / 2);
+        }
+    }
+
+    /**
+     * Discards all pooled views.
+     */
+    public void clear() {
+        mFieldViews.clear();
+    }
+}
@@ -23,6 +23,7 @@ import android.view.View;
 import android.view.ViewConfiguration;
 
 import com.google.blockly.android.control.BlocklyController;
+import com.google.blockly.model.WorkspacePoint;
 
 /**
  * Handles updating the viewport into the workspace and is the parent view for all blocks. This view
@@ -44,6 +45,7 @@ public class WorkspaceView extends NonPropagatingViewGroup {
     private BlocklyController mController = null;
     private WorkspaceHelper mHelper = null;
     private Dragger mDragger;
+    private boolean mCullingEnabled = false;
 
     public WorkspaceView(Context context) {
         this(context, null);
@@ -89,6 +91,10 @@ public class WorkspaceView extends NonPropagatingViewGroup {
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
         int childCount = getChildCount();
+        int width = r - l;
+        int height = b - t;
+        int cullMarginX = width / 2;
+        int cullMarginY = height / 2;
 
         for (int i = 0; i < childCount; i++) {
             View child = getChildAt(i);
@@ -97,21 +103,74 @@ public class WorkspaceView extends NonPropagatingViewGroup {
             }
             if (child instanceof BlockGroup) {
                 BlockGroup bg = (BlockGroup) child;
+                WorkspacePoint position = bg.getFirstBlockPosition();
+                int childWidth = bg.getMeasuredWidth();
+                int childHeight = bg.getMeasuredHeight();
 
                 // Get view coordinates of child from its workspace coordinates. Note that unlike
                 // onMeasure() above, workspaceToVirtualViewCoordinates() must be used for
                 // conversion here, so view scroll offset is properly applied for positioning.
-                mHelper.workspaceToVirtualViewCoordinates(bg.getFirstBlockPosition(), mTemp);
+                mHelper.workspaceToVirtualViewCoordinates(position, mTemp);
                 if (mHelper.useRtl()) {
-                    mTemp.x -= bg.getMeasuredWidth();
+                    mTemp.x -= childWidth;
                 }
 
-                child.layout(mTemp.x, mTemp.y,
-                        mTemp.x + bg.getMeasuredWidth(), mTemp.y + bg.getMeasuredHeight());
+                if (mCullingEnabled && (mTemp.x + childWidth < -cullMarginX
+                        || mTemp.x > width + cullMarginX
+                        || mTemp.y + childHeight < -cullMarginY
+                        || mTemp.y > height + cullMarginY)) {
+                    // Far enough outside the visible area to skip until scrolled closer.
+                    bg.setCulled(true);
+                    continue;
+                }
+                bg.setCulled(false);
+
+                if (bg.isLayoutValidAt(position, childWidth, childHeight)) {
+                    // Only the scroll offset changed. Move the group without laying out all of
+                    // its blocks and connections again.
+                    bg.offsetLeftAndRight(mTemp.x - bg.getLeft());
+                    bg.offsetTopAndBottom(mTemp.y - bg.getTop());
+                } else {
+                    bg.layout(mTemp.x, mTemp.y, mTemp.x + childWidth, mTemp.y + childHeight);
+                    bg.setLaidOutPosition(position);
+                }
             }
         }
     }
 
+    /**
+     * Enables or disables culling of root {@link BlockGroup}s far outside the visible area of the
+     * workspace. Culled groups are hidden and are not laid out again until they are scrolled back
+     * toward the visible area, so scrolling and zooming cost is proportional to the visible blocks.
+     * Culled groups are still measured, so {@link #getBlocksBoundingBox} and the scroll range
+     * include them.
+     *
+     * @param enabled Whether to cull groups outside the visible area.
+     */
+    public void setCullingEnabled(boolean enabled) {
+        if (enabled == mCullingEnabled) {
+            return;
+        }
+        mCullingEnabled = enabled;
+        if (!enabled) {
+            int childCount = getChildCount();
+            for (int i = 0; i < childCount; i++) {
+                View child = getChildAt(i);
+                if (child instanceof BlockGroup) {
+                    ((BlockGroup) child).setCulled(false);
+                }
+            }
+        }
+        requestLayout();
+    }
+
+    /**
+     * @return True if root groups outside the visible area are culled.
+     */
+    public boolean isCullingEnabled() {
+        return mCullingEnabled;
+    }
+
     /**
      * Sets the workspace this view should display.
      *
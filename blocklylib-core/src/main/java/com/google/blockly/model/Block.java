@@ -16,7 +16,6 @@
 package com.google.blockly.model;
 
 import android.database.Observable;
-import android.os.Handler;
 import android.os.Looper;
 import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
@@ -100,6 +99,8 @@ public class Block extends Observable<Block.Observer> {
     // Set by BlockFactory.applyMutator(). May only be set once.
     private Mutator mMutator = null;
     private String mMutation = null;
+    // The last state set by setMutationState(). mMutation is written from it when first requested.
+    private Mutator.State mMutationState = null;
 
     // These values can be changed after creating the block
     private int mColor = ColorUtils.DEFAULT_BLOCK_COLOR;
@@ -220,7 +221,7 @@ public class Block extends Observable<Block.Observer> {
      * {@link BlocklyEvent#WORKSPACE_ID_TRASH}, respectively. When the block is detached, the event
      * workspace should be set to {@code null}.
      *
-     * Setting this values recursively sets the value on all child blocks.
+     * Setting this values sets the value on all child blocks.
      *
      * @param eventWorkspaceId The workspace id, as defined by event framework.
      */
@@ -234,19 +235,11 @@ public class Block extends Observable<Block.Observer> {
                     "setEventWorkspaceId(..) must be called from main thread.");
         }
 
-        mEventWorkspaceId = eventWorkspaceId;
-
-        for (Input input : mInputList) {
-            Block child = input.getConnectedBlock();
-            if (child != null) {
-                child.setEventWorkspaceId(eventWorkspaceId);
-            }
-        }
-        if (mNextConnection != null) {
-            Block child = mNextConnection.getTargetBlock();
-            if (child != null) {
-                child.setEventWorkspaceId(eventWorkspaceId);
-            }
+        BlockTreeIterator iter = new BlockTreeIterator(this);
+        while (iter.hasNext()) {
+            Block block = iter.next();
+            block.mEventWorkspaceId = eventWorkspaceId;
+            block.mFactory.onEventWorkspaceIdChanged(block);
         }
     }
 
@@ -257,20 +250,9 @@ public class Block extends Observable<Block.Observer> {
      * @param outList List of ids to add to.
      */
     public void addAllBlockIds(List<String> outList) {
-        outList.add(getId());
-        int inputCount = mInputList.size();
-        for (int i = 0; i < inputCount; ++i) {
-            Input input = mInputList.get(i);
-            Block connectedBlock = input.getConnectedBlock();
-            if (connectedBlock != null) {
-                connectedBlock.addAllBlockIds(outList);
-            }
-        }
-        if (mNextConnection != null) {
-            Block next = mNextConnection.getTargetBlock();
-            if (next != null) {
-                next.addAllBlockIds(outList);
-            }
+        BlockTreeIterator iter = new BlockTreeIterator(this);
+        while (iter.hasNext()) {
+            outList.add(iter.next().getId());
         }
     }
 
@@ -483,16 +465,9 @@ public class Block extends Observable<Block.Observer> {
      * @param addTo The list to update.
      */
     public void getAllConnectionsRecursive(List<Connection> addTo) {
-        getAllConnections(addTo);
-        for (int i = 0; i < mConnectionList.size(); i++) {
-            Connection conn = mConnectionList.get(i);
-            int type = conn.getType();
-            Block target = conn.getTargetBlock();
-            if (type != Connection.CONNECTION_TYPE_OUTPUT
-                    && type != Connection.CONNECTION_TYPE_PREVIOUS
-                    && target != null) {
-                target.getAllConnectionsRecursive(addTo);
-            }
+        BlockTreeIterator iter = new BlockTreeIterator(this);
+        while (iter.hasNext()) {
+            iter.next().getAllConnections(addTo);
         }
     }
 
@@ -707,12 +682,10 @@ public class Block extends Observable<Block.Observer> {
     @NonNull
     public Block deepCopy() {
         try {
-            String xml = BlocklyXmlHelper.writeBlockToXml(this,
-                    IOOptions.WRITE_ALL_BLOCKS_WITHOUT_ID);
-            return BlocklyXmlHelper.loadOneBlockFromXml(xml, mFactory);
-        } catch (BlocklySerializerException | BlockLoadingException e) {
-            // This error indicates something is very wrong with the serialization / deserialization
-            // framework.  Allow this to bubble up as a RuntimeException.
+            return mFactory.copyBlockTree(this);
+        } catch (BlockLoadingException e) {
+            // This error indicates the block cannot be recreated by its own factory (e.g., the
+            // definition was not registered).  Allow this to bubble up as a RuntimeException.
             throw new IllegalStateException("Failed to copy blocks.", e);
         }
     }
@@ -727,6 +700,41 @@ public class Block extends Observable<Block.Observer> {
      */
     public void serialize(XmlSerializer serializer, boolean rootBlock, IOOptions options)
             throws IOException {
+        // The next sequence is written iteratively, so long statement lists do not deepen the
+        // stack. Each <next> and block end tag is written after the end of the sequence.
+        List<Block> sequence = null;
+        Block block = this;
+        while (true) {
+            block.serializeContents(serializer, rootBlock, options);
+            rootBlock = false;
+
+            Block next = options.isBlockChildWritten() ? block.getNextBlock() : null;
+            if (next == null) {
+                break;
+            }
+            if (sequence == null) {
+                sequence = new ArrayList<>();
+            }
+            sequence.add(block);
+            serializer.startTag(null, "next");
+            block = next;
+        }
+
+        serializer.endTag(null, block.mIsShadow ? "shadow" : "block");
+        if (sequence != null) {
+            for (int i = sequence.size() - 1; i >= 0; --i) {
+                serializer.endTag(null, "next");
+                serializer.endTag(null, sequence.get(i).mIsShadow ? "shadow" : "block");
+            }
+        }
+    }
+
+    /**
+     * Writes the start tag, attributes, mutation and inputs of this block, without the next block
+     * or the end tag.
+     */
+    private void serializeContents(XmlSerializer serializer, boolean rootBlock, IOOptions options)
+            throws IOException {
         serializer.startTag(null, mIsShadow ? "shadow" : "block")
                 .attribute(null, "type", mType);
         if (options.isBlockIdWritten()) {
@@ -774,14 +782,6 @@ public class Block extends Observable<Block.Observer> {
                 mInputList.get(i).serialize(serializer, options);
             }
         }
-
-        if (options.isBlockChildWritten() && getNextBlock() != null) {
-            serializer.startTag(null, "next");
-            getNextBlock().serialize(serializer, false, options);
-            serializer.endTag(null, "next");
-        }
-
-        serializer.endTag(null, mIsShadow ? "shadow" : "block");
     }
 
     /**
@@ -884,17 +884,19 @@ public class Block extends Observable<Block.Observer> {
 
     /**
      * Sets an event callback that will receive {@link BlocklyEvent}s for the lifetime of the block.
+     * The callback only receives event groups with an event that names this block.
      * @param callback The block's callback, or null to unset.
+     * @see BlocklyController#addBlockCallback(Block, BlocklyController.EventsCallback)
      */
     public void setEventCallback(@Nullable BlocklyController.EventsCallback callback) {
         if (mMemSafeCallback != null) {
-            mController.removeCallback(mMemSafeCallback);
+            mController.removeBlockCallback(mId, mMemSafeCallback);
             mMemSafeCallback = null;
         }
         mEventCallback = callback;
         if (mEventCallback != null) {
             mMemSafeCallback = new MemSafeEventsCallback(this);
-            mController.addCallback(mMemSafeCallback);
+            mController.addBlockCallback(this, mMemSafeCallback);
         }
     }
 
@@ -969,7 +971,7 @@ public class Block extends Observable<Block.Observer> {
         if (mMutator == null) {
             throw new IllegalStateException("No mutator attached.");
         }
-        final String oldValue = mMutation;
+        final String oldValue = getMutation();
         if (oldValue == newValue || (oldValue != null && oldValue.equals(newValue))) {
             return;
         }
@@ -980,6 +982,7 @@ public class Block extends Observable<Block.Observer> {
                 try {
                     BlocklyXmlHelper.updateMutator(Block.this, mMutator, newValue);
                     mMutation = newValue;
+                    mMutationState = null;
                     mController.addPendingEvent(new BlocklyEvent.ChangeEvent(
                             BlocklyEvent.ELEMENT_MUTATE, Block.this, /* field */ null,
                             oldValue, newValue));
@@ -993,11 +996,51 @@ public class Block extends Observable<Block.Observer> {
         }
     }
 
+    /**
+     * Updates the mutation state of the block from an immutable {@link Mutator.State}, without
+     * writing or parsing the &lt;mutation&gt; XML. The XML form of the state is only written if
+     * requested, via {@link #getMutation()}, the change event, or serialization of the block.
+     *
+     * @param newState The new mutation state, usually constructed by the block's mutator.
+     * @throws BlockLoadingException If the mutator is not able to apply the state.
+     */
+    public final void setMutationState(@NonNull final Mutator.State newState)
+            throws BlockLoadingException {
+        if (mMutator == null) {
+            throw new IllegalStateException("No mutator attached.");
+        }
+        final Mutator.State oldState = mMutator.getState();
+        if (newState.equals(oldState)) {
+            return;
+        }
+        final BlockLoadingException[] loadingException = {null};
+        mController.groupAndFireEvents(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mMutator.applyState(newState);
+                    mMutation = null;
+                    mMutationState = newState;
+                    mController.addPendingEvent(BlocklyEvent.ChangeEvent.newMutateEvent(
+                            Block.this, oldState, newState));
+                } catch (BlockLoadingException e) {
+                    loadingException[0] = e; // Runnable interface does not support exceptions
+                }
+            }
+        });
+        if (loadingException[0] != null) {
+            throw loadingException[0];
+        }
+    }
+
     /**
      * @return The string form of the mutation.
      */
     @Nullable
     public final String getMutation() {
+        if (mMutation == null && mMutationState != null) {
+            mMutation = Mutator.writeState(mMutationState);
+        }
         return mMutation;
     }
 
@@ -1140,6 +1183,28 @@ public class Block extends Observable<Block.Observer> {
         mutator.attachToBlock(this);
     }
 
+    /**
+     * Serializes the current state of the block's {@link Mutator}, exactly as it is written in the
+     * block's XML.
+     *
+     * @return The {@code <mutation>} element in string form, or null if the block does not have a
+     *         mutator or the mutator did not write any state.
+     * @throws IOException If the mutator failed to serialize.
+     */
+    @Nullable
+    /* package private */ String serializeMutatorState() throws IOException {
+        if (mMutator == null) {
+            return null;
+        }
+        String mutation = BlocklyXmlHelper.writeXml(new BlocklyXmlHelper.XmlContentWriter() {
+            @Override
+            public void write(XmlSerializer serializer) throws IOException {
+                mMutator.serialize(serializer);
+            }
+        });
+        return TextUtils.isEmpty(mutation) ? null : mutation;
+    }
+
     /**
      * Connects to given child and shadow (even if occluded), or throws a descriptive
      * BlockLoadingException for an invalid connection.
@@ -1386,11 +1451,13 @@ public class Block extends Observable<Block.Observer> {
      */
     private static class MemSafeEventsCallback implements BlocklyController.EventsCallback {
         private final BlocklyController mController;
+        private final String mBlockId;
         private final WeakReference<Block> mBlockRef;
         // Do not refer to the inner callback directly.
 
         MemSafeEventsCallback(@NonNull Block block) {
             mController = block.getController();
+            mBlockId = block.getId();
             mBlockRef = new WeakReference<Block>(block);
         }
 
@@ -1418,13 +1485,8 @@ public class Block extends Observable<Block.Observer> {
         }
 
         private void removeSelf() {
-            // Don't change the listener while the listener list is being processed.
-            new Handler().post(new Runnable() {
-                @Override
-                public void run() {
-                    mController.removeCallback(MemSafeEventsCallback.this);
-                }
-            });
+            // Block callbacks are looked up by id, so it is safe to remove during dispatch.
+            mController.removeBlockCallback(mBlockId, this);
         }
     }
 }
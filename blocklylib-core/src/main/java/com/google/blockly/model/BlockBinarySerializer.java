@@ -0,0 +1,485 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.model;
+
+import android.support.annotation.NonNull;
+
+import com.google.blockly.utils.BlockLoadingException;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Compact binary encoding of block trees, used where the blocks are only ever read back by this
+ * library, such as the {@link com.google.blockly.android.control.BlocklyController} instance state
+ * snapshot. It stores the same state as {@link com.google.blockly.utils.BlocklyXmlHelper}'s XML
+ * (plus block comments), but is several times smaller and faster to read and write.
+ * <p/>
+ * The stream starts with {@link #MAGIC} and a {@link #VERSION}, followed by a table of every
+ * distinct string used by the blocks: types, ids, field names and values, input names, mutations
+ * and comments. Block records refer to strings by their varint index into that table, so repeated
+ * block types and field values are only stored once, and block ids in UUID form, such as those
+ * generated by {@link BlockIdGenerator#UUID_GENERATOR}, are stored in their 16 byte binary form.
+ */
+public final class BlockBinarySerializer {
+    /** The first four bytes of every stream: "BKLY". */
+    public static final int MAGIC = 0x424B4C59;
+    /** The format version written by this class. */
+    public static final int VERSION = 1;
+
+    // Block record flags.
+    private static final int FLAG_SHADOW = 1;
+    private static final int FLAG_COLLAPSED = 1 << 1;
+    private static final int FLAG_DISABLED = 1 << 2;
+    private static final int FLAG_NOT_DELETABLE = 1 << 3;
+    private static final int FLAG_NOT_EDITABLE = 1 << 4;
+    private static final int FLAG_NOT_MOVABLE = 1 << 5;
+    private static final int FLAG_INLINE_MODIFIED = 1 << 6;
+    private static final int FLAG_INLINE = 1 << 7;
+    private static final int FLAG_POSITION = 1 << 8;
+    private static final int FLAG_MUTATION = 1 << 9;
+    private static final int FLAG_COMMENT = 1 << 10;
+
+    // String table entries start with the UTF-8 byte length shifted left by one, or this value for
+    // a UUID stored as two longs.
+    private static final int STRING_UUID = 1;
+
+    // Connection record flags, written for each input with children and for every next connection.
+    private static final int CHILD_SHADOW = 1;
+    private static final int CHILD_BLOCK = 1 << 1;
+
+    private BlockBinarySerializer() {}
+
+    /**
+     * Serializes the given root blocks and all of their descendants.
+     *
+     * @param rootBlocks The root blocks to serialize.
+     * @param os The stream to write to. It is not closed.
+     * @throws BlocklySerializerException If the blocks could not be serialized or written.
+     */
+    public static void writeToBinary(@NonNull List<Block> rootBlocks, @NonNull OutputStream os)
+            throws BlocklySerializerException {
+        try {
+            // The string table precedes the blocks, so encode the blocks first.
+            Writer writer = new Writer();
+            writer.mOut.writeVarint(rootBlocks.size());
+            for (int i = 0; i < rootBlocks.size(); i++) {
+                writer.writeSequence(rootBlocks.get(i), true);
+            }
+
+            DataOutputStream out = new DataOutputStream(os);
+            out.writeInt(MAGIC);
+            VarintOutputStream header = new VarintOutputStream();
+            header.writeVarint(VERSION);
+            header.writeVarint(writer.mStrings.size());
+            for (int i = 0; i < writer.mStrings.size(); i++) {
+                String str = writer.mStrings.get(i);
+                if (isCanonicalUuid(str)) {
+                    // Generated block ids are stored as 16 bytes instead of 36 characters.
+                    UUID uuid = UUID.fromString(str);
+                    header.writeVarint(STRING_UUID);
+                    header.writeLong(uuid.getMostSignificantBits());
+                    header.writeLong(uuid.getLeastSignificantBits());
+                } else {
+                    byte[] utf8 = str.getBytes("UTF-8");
+                    header.writeVarint(utf8.length << 1);
+                    header.write(utf8);
+                }
+            }
+            header.writeTo(out);
+            writer.mOut.writeTo(out);
+            out.flush();
+        } catch (IOException e) {
+            throw new BlocklySerializerException(e);
+        }
+    }
+
+    /**
+     * Serializes the given root blocks and all of their descendants.
+     *
+     * @param rootBlocks The root blocks to serialize.
+     * @return The serialized blocks.
+     * @throws BlocklySerializerException If the blocks could not be serialized.
+     */
+    public static byte[] writeToBinary(@NonNull List<Block> rootBlocks)
+            throws BlocklySerializerException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeToBinary(rootBlocks, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Loads the root blocks written by {@link #writeToBinary}, with all of their descendants.
+     *
+     * @param is The stream to read from.
+     * @param factory The factory used to construct the blocks.
+     * @return The loaded root blocks.
+     * @throws BlockLoadingException If the stream is not in this format, is truncated, or any of
+     *                               the blocks fail to load. It may wrap an IOException.
+     */
+    public static List<Block> loadFromBinary(@NonNull InputStream is,
+                                             @NonNull BlockFactory factory)
+            throws BlockLoadingException {
+        try {
+            Reader reader = new Reader(is, factory);
+            int rootCount = reader.readVarint();
+            List<Block> result = new ArrayList<>(Math.min(rootCount, 64));
+            for (int i = 0; i < rootCount; i++) {
+                result.add(reader.readSequence());
+            }
+            return result;
+        } catch (EOFException e) {
+            throw new BlockLoadingException("Unexpected end of serialized blocks.", e);
+        } catch (IOException e) {
+            throw new BlockLoadingException(e);
+        }
+    }
+
+    /**
+     * @return Whether {@code str} is exactly the lowercase form written by
+     *         {@link UUID#toString()}, and can be restored from its 16 bytes.
+     */
+    private static boolean isCanonicalUuid(String str) {
+        if (str.length() != 36) {
+            return false;
+        }
+        for (int i = 0; i < 36; i++) {
+            char c = str.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+            } else if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Encodes block sequences into a buffer, interning every string as it goes. */
+    private static class Writer {
+        final VarintOutputStream mOut = new VarintOutputStream();
+        final List<String> mStrings = new ArrayList<>();
+        final Map<String, Integer> mStringIndices = new HashMap<>();
+
+        /**
+         * Writes {@code block} and the blocks that follow it. The next sequence is written
+         * iteratively, so long statement lists do not deepen the stack.
+         */
+        void writeSequence(Block block, boolean isRoot) throws IOException {
+            while (block != null) {
+                writeBlock(block, isRoot);
+                isRoot = false;
+
+                Connection next = block.getNextConnection();
+                Block nextShadow = next == null ? null : next.getShadowBlock();
+                Block nextChild = next == null ? null : next.getTargetBlock();
+                if (nextChild == nextShadow) {
+                    nextChild = null;
+                }
+                writeChildFlags(nextShadow, nextChild);
+                if (nextShadow != null) {
+                    writeSequence(nextShadow, false);
+                }
+                block = nextChild;
+            }
+        }
+
+        private void writeBlock(Block block, boolean isRoot) throws IOException {
+            String mutation = block.serializeMutatorState();
+            String comment = block.getComment();
+
+            int flags = 0;
+            if (block.isShadow()) {
+                flags |= FLAG_SHADOW;
+            } else {
+                flags |= block.isDeletable() ? 0 : FLAG_NOT_DELETABLE;
+                flags |= block.isMovable() ? 0 : FLAG_NOT_MOVABLE;
+            }
+            flags |= block.isCollapsed() ? FLAG_COLLAPSED : 0;
+            flags |= block.isDisabled() ? FLAG_DISABLED : 0;
+            flags |= block.isEditable() ? 0 : FLAG_NOT_EDITABLE;
+            if (block.getInputsInlineModified()) {
+                flags |= FLAG_INLINE_MODIFIED | (block.getInputsInline() ? FLAG_INLINE : 0);
+            }
+            flags |= isRoot ? FLAG_POSITION : 0;
+            flags |= mutation != null ? FLAG_MUTATION : 0;
+            flags |= comment != null ? FLAG_COMMENT : 0;
+
+            writeString(block.getType());
+            writeString(block.getId());
+            mOut.writeVarint(flags);
+            if (isRoot) {
+                WorkspacePoint position = block.getPosition();
+                mOut.writeFloat(position.x);
+                mOut.writeFloat(position.y);
+            }
+            if (mutation != null) {
+                writeString(mutation);
+            }
+            if (comment != null) {
+                writeString(comment);
+            }
+
+            List<Input> inputs = block.getInputs();
+            int fieldCount = 0;
+            for (int i = 0; i < inputs.size(); i++) {
+                List<Field> fields = inputs.get(i).getFields();
+                for (int j = 0; j < fields.size(); j++) {
+                    if (isSerialized(fields.get(j))) {
+                        ++fieldCount;
+                    }
+                }
+            }
+            mOut.writeVarint(fieldCount);
+            for (int i = 0; i < inputs.size(); i++) {
+                List<Field> fields = inputs.get(i).getFields();
+                for (int j = 0; j < fields.size(); j++) {
+                    Field field = fields.get(j);
+                    if (isSerialized(field)) {
+                        writeString(field.getName());
+                        writeString(field.getSerializedValue());
+                    }
+                }
+            }
+
+            int childInputCount = 0;
+            for (int i = 0; i < inputs.size(); i++) {
+                if (hasChildren(inputs.get(i))) {
+                    ++childInputCount;
+                }
+            }
+            mOut.writeVarint(childInputCount);
+            for (int i = 0; i < inputs.size(); i++) {
+                Input input = inputs.get(i);
+                if (!hasChildren(input)) {
+                    continue;
+                }
+                Connection connection = input.getConnection();
+                Block shadow = connection.getShadowBlock();
+                Block child = connection.getTargetBlock();
+                if (child == shadow) {
+                    child = null;
+                }
+                writeString(input.getName());
+                writeChildFlags(shadow, child);
+                if (shadow != null) {
+                    writeSequence(shadow, false);
+                }
+                if (child != null) {
+                    writeSequence(child, false);
+                }
+            }
+        }
+
+        private void writeChildFlags(Block shadow, Block child) throws IOException {
+            int flags = (shadow == null ? 0 : CHILD_SHADOW) | (child == null ? 0 : CHILD_BLOCK);
+            mOut.writeVarint(flags);
+        }
+
+        private void writeString(String str) throws IOException {
+            Integer index = mStringIndices.get(str);
+            if (index == null) {
+                index = mStrings.size();
+                mStrings.add(str);
+                mStringIndices.put(str, index);
+            }
+            mOut.writeVarint(index);
+        }
+
+        private static boolean isSerialized(Field field) {
+            int type = field.getType();
+            return type != Field.TYPE_LABEL && type != Field.TYPE_IMAGE && field.getName() != null;
+        }
+
+        private static boolean hasChildren(Input input) {
+            Connection connection = input.getConnection();
+            return connection != null
+                    && (connection.isConnected() || connection.getShadowBlock() != null);
+        }
+    }
+
+    /** Decodes block sequences, after reading and validating the header and string table. */
+    private static class Reader {
+        final DataInputStream mIn;
+        final BlockFactory mFactory;
+        final String[] mStrings;
+
+        Reader(InputStream is, BlockFactory factory) throws IOException, BlockLoadingException {
+            mIn = new DataInputStream(
+                    is instanceof BufferedInputStream ? is : new BufferedInputStream(is));
+            mFactory = factory;
+
+            if (mIn.readInt() != MAGIC) {
+                throw new BlockLoadingException("Not a serialized block stream.");
+            }
+            int version = readVarint();
+            if (version != VERSION) {
+                throw new BlockLoadingException(
+                        "Unsupported serialized block version " + version + ".");
+            }
+            int stringCount = readVarint();
+            mStrings = new String[stringCount];
+            byte[] buffer = new byte[64];
+            for (int i = 0; i < stringCount; i++) {
+                int stringHeader = readVarint();
+                if (stringHeader == STRING_UUID) {
+                    mStrings[i] = new UUID(mIn.readLong(), mIn.readLong()).toString();
+                    continue;
+                }
+                int length = stringHeader >>> 1;
+                if (length > buffer.length) {
+                    buffer = new byte[Math.max(length, buffer.length * 2)];
+                }
+                mIn.readFully(buffer, 0, length);
+                mStrings[i] = new String(buffer, 0, length, "UTF-8");
+            }
+        }
+
+        /** Reads a block and the blocks that follow it, as written by Writer.writeSequence(). */
+        Block readSequence() throws IOException, BlockLoadingException {
+            Block first = readBlock();
+            Block block = first;
+            while (block != null) {
+                int childFlags = readVarint();
+                Block nextShadow = (childFlags & CHILD_SHADOW) == 0 ? null : readSequence();
+                Block nextChild = (childFlags & CHILD_BLOCK) == 0 ? null : readBlock();
+                if (nextShadow != null || nextChild != null) {
+                    Connection connection = block.getNextConnection();
+                    if (connection == null) {
+                        throw new BlockLoadingException(
+                                block + " does not have a connection for next child.");
+                    }
+                    block.connectOrThrow("next", connection, nextChild, nextShadow);
+                }
+                block = nextChild;
+            }
+            return first;
+        }
+
+        private Block readBlock() throws IOException, BlockLoadingException {
+            BlockTemplate template = new BlockTemplate()
+                    .ofType(readString())
+                    .withId(readString());
+            int flags = readVarint();
+            boolean isShadow = (flags & FLAG_SHADOW) != 0;
+            template.shadow(isShadow);
+            if (!isShadow) {
+                template.deletable((flags & FLAG_NOT_DELETABLE) == 0)
+                        .movable((flags & FLAG_NOT_MOVABLE) == 0);
+            }
+            template.collapsed((flags & FLAG_COLLAPSED) != 0)
+                    .disabled((flags & FLAG_DISABLED) != 0)
+                    .editable((flags & FLAG_NOT_EDITABLE) == 0);
+            if ((flags & FLAG_INLINE_MODIFIED) != 0) {
+                template.withInlineInputs((flags & FLAG_INLINE) != 0);
+            }
+            if ((flags & FLAG_POSITION) != 0) {
+                template.atPosition(mIn.readFloat(), mIn.readFloat());
+            }
+            if ((flags & FLAG_MUTATION) != 0) {
+                template.withMutation(readString());
+            }
+            if ((flags & FLAG_COMMENT) != 0) {
+                template.withComment(readString());
+            }
+            int fieldCount = readVarint();
+            for (int i = 0; i < fieldCount; i++) {
+                template.withFieldValue(readString(), readString());
+            }
+
+            Block block = mFactory.obtainBlockFrom(template);
+
+            int childInputCount = readVarint();
+            for (int i = 0; i < childInputCount; i++) {
+                String inputName = readString();
+                int childFlags = readVarint();
+                Block shadow = (childFlags & CHILD_SHADOW) == 0 ? null : readSequence();
+                Block child = (childFlags & CHILD_BLOCK) == 0 ? null : readSequence();
+
+                Input input = block.getInputByName(inputName);
+                if (input == null || input.getConnection() == null) {
+                    throw new BlockLoadingException(
+                            block + ": No input with name \"" + inputName + "\"");
+                }
+                block.connectOrThrow(
+                        input.getType() == Input.TYPE_STATEMENT ? "statement" : "value",
+                        input.getConnection(), child, shadow);
+            }
+            return block;
+        }
+
+        private String readString() throws IOException, BlockLoadingException {
+            int index = readVarint();
+            if (index >= mStrings.length) {
+                throw new BlockLoadingException("String index " + index + " out of range.");
+            }
+            return mStrings[index];
+        }
+
+        /** Reads an unsigned LEB128 varint. */
+        int readVarint() throws IOException, BlockLoadingException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = mIn.readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    if (value < 0) {
+                        break;
+                    }
+                    return value;
+                }
+            }
+            throw new BlockLoadingException("Malformed varint.");
+        }
+    }
+
+    /** Byte buffer with unsigned LEB128 varint support. */
+    private static class VarintOutputStream extends ByteArrayOutputStream {
+        final DataOutputStream mData = new DataOutputStream(this);
+
+        VarintOutputStream() {
+            super(1024);
+        }
+
+        void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+
+        void writeFloat(float value) throws IOException {
+            mData.writeFloat(value);
+        }
+
+        void writeLong(long value) throws IOException {
+            mData.writeLong(value);
+        }
+    }
+}
@@ -43,17 +43,22 @@ public final class BlockDefinition {
         return !TextUtils.isEmpty(typeName);
     }
 
-    // TODO(#542): Parse into List<InputDefinition> and discard JSON. Include FieldDropdown.Options.
-    private final @NonNull JSONObject mJson;  // Saved to parse inputs and field at creation time.
+    // Saved to compile the input prototypes, and to recompile them when translations change.
+    private final @NonNull JSONObject mJson;
+    private @Nullable List<Input> mInputPrototypes;
+    private @Nullable BlockFactory mPrototypeFactory;  // The factory that loaded the prototypes.
+    private int mPrototypeLangGeneration;  // LangUtils.getGeneration() of the prototypes.
+    // A factory that loads fields which cannot be cloned. Blocks are parsed from the JSON instead.
+    private @Nullable BlockFactory mJsonOnlyFactory;
     private final @Nullable JSONObject mStyle; // Ideally, this would be immutable.
     private final @NonNull String mTypeName;
     private final int mColor;
     private final boolean mHasOutput;
     private final boolean mHasPrevious;
     private final boolean mHasNext;
-    private final @Nullable String[] mOutputChecks;
-    private final @Nullable String[] mPreviousChecks;
-    private final @Nullable String[] mNextChecks;
+    private final @Nullable ConnectionChecks mOutputChecks;
+    private final @Nullable ConnectionChecks mPreviousChecks;
+    private final @Nullable ConnectionChecks mNextChecks;
     private final boolean mInputsInlineDefault;
 
     private final @Nullable String mMutatorName;
@@ -77,7 +82,7 @@ public final class BlockDefinition {
         mJson = json;
 
         // Validate or create type id.
-        String tmpName = mJson.optString("type");
+        String tmpName = json.optString("type");
         String logPrefix = "";
         if (tmpName == null) {
             // Generate definition name that will be consistent across runs
@@ -94,17 +99,23 @@ public final class BlockDefinition {
         try {
             // A block can have either an output connection or previous connection, but it can always
             // have a next connection.
-            mHasOutput = mJson.has("output");
-            mHasPrevious = mJson.has("previousStatement");
-            mHasNext = mJson.has("nextStatement");
+            mHasOutput = json.has("output");
+            mHasPrevious = json.has("previousStatement");
+            mHasNext = json.has("nextStatement");
             if (mHasOutput && mHasPrevious) {
                 throw new BlockLoadingException(
                         logPrefix + "Block cannot have both \"output\" and \"previousStatement\".");
             }
-            // Each connection may have a list of allow connection checks / types.
-            mOutputChecks = mHasOutput ? Input.getChecksFromJson(mJson, "output") : null;
-            mPreviousChecks = mHasPrevious ? Input.getChecksFromJson(mJson, "previousStatement") : null;
-            mNextChecks = mHasNext ? Input.getChecksFromJson(mJson, "nextStatement") : null;
+            // Each connection may have a list of allow connection checks / types, interned once
+            // so connection compatibility tests do not compare strings.
+            mOutputChecks = mHasOutput
+                    ? ConnectionChecks.intern(Input.getChecksFromJson(mJson, "output")) : null;
+            mPreviousChecks = mHasPrevious
+                    ? ConnectionChecks.intern(Input.getChecksFromJson(mJson, "previousStatement"))
+                    : null;
+            mNextChecks = mHasNext
+                    ? ConnectionChecks.intern(Input.getChecksFromJson(mJson, "nextStatement"))
+                    : null;
 
             mColor = parseColour(logPrefix, mJson);
             mInputsInlineDefault = parseInputsInline(logPrefix, mJson);
@@ -116,7 +127,7 @@ public final class BlockDefinition {
                     "Cannot load BlockDefinition \"" + mTypeName + "\" from JSON.", e);
         }
 
-        mStyle = mJson.optJSONObject("style");
+        mStyle = json.optJSONObject("style");
     }
 
     /**
@@ -142,7 +153,7 @@ public final class BlockDefinition {
     @Nullable
     protected Connection createOutputConnection() {
         return !mHasOutput ? null :
-                new Connection(Connection.CONNECTION_TYPE_OUTPUT, mOutputChecks);
+                Connection.withInternedChecks(Connection.CONNECTION_TYPE_OUTPUT, mOutputChecks);
     }
 
     /**
@@ -152,7 +163,7 @@ public final class BlockDefinition {
     @Nullable
     protected Connection createPreviousConnection() {
         return !mHasPrevious ? null :
-                new Connection(Connection.CONNECTION_TYPE_PREVIOUS, mPreviousChecks);
+                Connection.withInternedChecks(Connection.CONNECTION_TYPE_PREVIOUS, mPreviousChecks);
     }
 
     /**
@@ -162,25 +173,125 @@ public final class BlockDefinition {
     @Nullable
     protected Connection createNextConnection() {
         return !mHasNext ? null :
-                new Connection(Connection.CONNECTION_TYPE_NEXT, mNextChecks);
+                Connection.withInternedChecks(Connection.CONNECTION_TYPE_NEXT, mNextChecks);
     }
 
     /**
      * @return A new list of {@link Input} objects for a new block of this type, complete with
-     *         fields.
+     *         fields. These are cloned from prototypes compiled by the first block, unless a field
+     *         does not {@link Field#clone() override clone()}.
      */
     protected ArrayList<Input> createInputList(BlockFactory factory) throws BlockLoadingException {
+        if (factory == mJsonOnlyFactory) {
+            return compileInputs(factory);
+        }
+        int langGeneration = LangUtils.getGeneration();
+        if (mInputPrototypes == null || factory != mPrototypeFactory
+                || langGeneration != mPrototypeLangGeneration) {
+            ArrayList<Input> inputs = compileInputs(factory);
+            if (!canCloneFields(inputs)) {
+                // Clones could share the fields' state. Give each block its own parsed fields.
+                mInputPrototypes = null;
+                mJsonOnlyFactory = factory;
+                return inputs;
+            }
+            mInputPrototypes = Collections.unmodifiableList(inputs);
+            mPrototypeFactory = factory;
+            mPrototypeLangGeneration = langGeneration;
+        }
+
+        ArrayList<Input> inputs = new ArrayList<>(mInputPrototypes.size());
+        for (int i = 0; i < mInputPrototypes.size(); i++) {
+            Input input = mInputPrototypes.get(i).clone();
+            List<Field> fields = input.getFields();
+            for (int j = 0; j < fields.size(); j++) {
+                if (fields.get(j) instanceof FieldDropdown) {
+                    // Like a dropdown parsed from JSON, each block gets its own options.
+                    FieldDropdown dropdown = (FieldDropdown) fields.get(j);
+                    dropdown.setOptions(dropdown.getOptions().clone());
+                    factory.registerDropdownOptions(mTypeName, dropdown);
+                }
+            }
+            inputs.add(input);
+        }
+        return inputs;
+    }
+
+    /**
+     * @return True if new blocks begin with inputs inlined. Otherwise, false.
+     */
+    public boolean isInputsInlineDefault() {
+        return mInputsInlineDefault;
+    }
+
+    /**
+     * @return The name of the {@link BlockExtension} (if any) which will add a {@link Mutator}
+     *         to all Block instances of this type. Otherwise, null.
+     */
+    @Nullable
+    public String getMutatorId() {
+        return mMutatorName;
+    }
+
+    /**
+     * @return A list of extension names to apply to all instances of this BlockDefinition.
+     */
+    @NonNull
+    public List<String> getExtensionNames() {
+        return mExtensionNames;
+    }
+
+    /**
+     * @return The style definition JSON for this block type.
+     */
+    @Nullable
+    public JSONObject getStyleJson() {
+        return mStyle;
+    }
+
+    /**
+     * @return True if every field overrides {@link Field#clone()}, so clones of the fields do not
+     *         share state. The default implementation is a shallow copy.
+     */
+    private static boolean canCloneFields(List<Input> inputs) {
+        for (int i = 0; i < inputs.size(); i++) {
+            List<Field> fields = inputs.get(i).getFields();
+            for (int j = 0; j < fields.size(); j++) {
+                Class<?> fieldClass = fields.get(j).getClass();
+                try {
+                    if (fieldClass.getMethod("clone").getDeclaringClass() != fieldClass) {
+                        return false;
+                    }
+                } catch (NoSuchMethodException e) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the message and args attributes of the JSON into inputs, interpolating the current
+     * translations. The result is either used as the input prototypes, cloned for each new block,
+     * or given to a single block.
+     *
+     * @param factory The factory used to load fields.
+     * @return The inputs, with their fields.
+     * @throws BlockLoadingException If the messages or args are malformed.
+     */
+    private ArrayList<Input> compileInputs(BlockFactory factory) throws BlockLoadingException {
+        JSONObject json = mJson;
         ArrayList<Input> inputs = new ArrayList<>();
         ArrayList<Field> fields = new ArrayList<>();
         for (int i = 0; ; i++) {
             String messageKey = "message" + i;
             String argsKey = "args" + i;
             String lastDummyAlignKey = "lastDummyAlign" + i;
-            if (!mJson.has(messageKey)) {
+            if (!json.has(messageKey)) {
                 break;
             }
-            String message = LangUtils.interpolate(mJson.optString(messageKey));
-            JSONArray args = mJson.optJSONArray(argsKey);
+            String message = LangUtils.interpolate(json.optString(messageKey));
+            JSONArray args = json.optJSONArray(argsKey);
             if (args == null) {
                 // If there's no args for this message use an empty array.
                 args = new JSONArray();
@@ -252,7 +363,7 @@ public final class BlockDefinition {
             }
             // If there were leftover fields we need to add a dummy input to hold them.
             if (fields.size() != 0) {
-                String align = mJson.optString(lastDummyAlignKey, Input.ALIGN_LEFT_STRING);
+                String align = json.optString(lastDummyAlignKey, Input.ALIGN_LEFT_STRING);
                 Input input = new Input.InputDummy(null, fields, align);
                 inputs.add(input);
                 fields.clear();
@@ -262,38 +373,6 @@ public final class BlockDefinition {
         return inputs;
     }
 
-    /**
-     * @return True if new blocks begin with inputs inlined. Otherwise, false.
-     */
-    public boolean isInputsInlineDefault() {
-        return mInputsInlineDefault;
-    }
-
-    /**
-     * @return The name of the {@link BlockExtension} (if any) which will add a {@link Mutator}
-     *         to all Block instances of this type. Otherwise, null.
-     */
-    @Nullable
-    public String getMutatorId() {
-        return mMutatorName;
-    }
-
-    /**
-     * @return A list of extension names to apply to all instances of this BlockDefinition.
-     */
-    @NonNull
-    public List<String> getExtensionNames() {
-        return mExtensionNames;
-    }
-
-    /**
-     * @return The style definition JSON for this block type.
-     */
-    @Nullable
-    public JSONObject getStyleJson() {
-        return mStyle;
-    }
-
     /**
      * Attempts to parse a string as JSON.
      * @throws BlockLoadingException If the string is not valid JSON.
@@ -39,7 +39,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
-import java.util.UUID;
 
 /**
  * The BlockFactory is responsible for managing the set of BlockDefinitions, and instantiating
@@ -63,7 +62,8 @@ public class BlockFactory {
     private final Map<String, BlockDefinition> mDefinitions = new HashMap<>();
     private final Map<String, Mutator.Factory> mMutatorFactories = new HashMap<>();
     private final Map<String, BlockExtension> mExtensions = new HashMap<>();
-    private final Map<String, WeakReference<Block>> mBlockRefs = new HashMap<>();
+    private final BlockRegistry mBlockRefs = new BlockRegistry();
+    private BlockIdGenerator mIdGenerator = new BlockIdGenerator.SessionCounter();
 
     protected BlocklyController mController;
 
@@ -86,13 +86,50 @@ public class BlockFactory {
         mController = controller;
     }
 
+    /**
+     * Sets the generator of ids for blocks created without an id, or with an id already in use.
+     *
+     * @param idGenerator The new id generator.
+     */
+    public void setBlockIdGenerator(BlockIdGenerator idGenerator) {
+        if (idGenerator == null) {
+            throw new IllegalArgumentException("Block id generator cannot be null.");
+        }
+        mIdGenerator = idGenerator;
+    }
+
+    /**
+     * @return The generator of ids for blocks created without an id.
+     */
+    public BlockIdGenerator getBlockIdGenerator() {
+        return mIdGenerator;
+    }
+
+    /**
+     * Updates the block's entry in the factory's workspace index. Called by
+     * {@link Block#setEventWorkspaceId} for each block whose event workspace id changed.
+     *
+     * @param block The block that moved to another event workspace.
+     */
+    /* package private */ void onEventWorkspaceIdChanged(Block block) {
+        mBlockRefs.onEventWorkspaceIdChanged(block);
+    }
+
     /**
      * @param id The id to check.
      * @returns True if a block with the given id exists. Otherwise, false.
      */
     public boolean isBlockIdInUse(String id) {
-        WeakReference<Block> priorBlockRef = mBlockRefs.get(id);
-        return priorBlockRef != null && priorBlockRef.get() != null;
+        return mBlockRefs.get(id) != null;
+    }
+
+    /**
+     * @param id The id of the block to look up.
+     * @return The block with the given id, if it is still referenced. Otherwise null.
+     */
+    @Nullable
+    public Block getBlock(String id) {
+        return mBlockRefs.get(id);
     }
 
     /**
@@ -300,17 +337,9 @@ public class BlockFactory {
         boolean isShadow = (template.mIsShadow == null) ? false : template.mIsShadow;
         Block block;
         if (template.mCopySource != null) {
-            try {
-                // TODO: Improve copy overhead. Template from copy to avoid XML I/O?
-                String xml = BlocklyXmlHelper.writeBlockToXml(template.mCopySource,
-                        IOOptions.WRITE_ROOT_ONLY_WITHOUT_ID);
-                String escapedId = BlocklyXmlHelper.escape(id);
-                xml = xml.replace("<block", "<block id=\"" + escapedId + "\"");
-                block = BlocklyXmlHelper.loadOneBlockFromXml(xml, this);
-            } catch (BlocklySerializerException e) {
-                throw new BlockLoadingException(
-                        "Failed to serialize original " + template.mCopySource, e);
-            }
+            block = copyBlockState(template.mCopySource, id);
+            WorkspacePoint position = template.mCopySource.getPosition();
+            block.setPosition(position.x, position.y);
         } else {
             // Start a new block from a block definition.
             if (template.mDefinition != null) {
@@ -334,7 +363,7 @@ public class BlockFactory {
 
         // Apply mutable state last.
         template.applyMutableState(block);
-        mBlockRefs.put(block.getId(), new WeakReference<>(block));
+        mBlockRefs.put(block);
 
         return block;
     }
@@ -392,14 +421,7 @@ public class BlockFactory {
                 break;
             case Field.TYPE_DROPDOWN_STRING:
                 field = FieldDropdown.fromJson(json);
-                String fieldName = field.getName();
-                if (!TextUtils.isEmpty(blockType) && !TextUtils.isEmpty(fieldName)) {
-                    // While block type names should be unique, if there is a collision, the latest
-                    // block and its option type wins.
-                    mDropdownOptions.put(
-                            new BlockTypeFieldName(blockType, fieldName),
-                            new WeakReference<>(((FieldDropdown) field).getOptions()));
-                }
+                registerDropdownOptions(blockType, (FieldDropdown) field);
                 break;
             case Field.TYPE_IMAGE_STRING:
                 field = FieldImage.fromJson(json);
@@ -414,6 +436,24 @@ public class BlockFactory {
         return field;
     }
 
+    /**
+     * Registers the options of a dropdown loaded from a block definition, so they can be updated
+     * via {@link #updateDropdownOptions}.
+     *
+     * @param blockType The type id of the block containing the field.
+     * @param field The dropdown field, usually from the definition's prototype inputs.
+     */
+    /* package private */ void registerDropdownOptions(String blockType, FieldDropdown field) {
+        String fieldName = field.getName();
+        if (!TextUtils.isEmpty(blockType) && !TextUtils.isEmpty(fieldName)) {
+            // While block type names should be unique, if there is a collision, the latest
+            // block and its option type wins.
+            mDropdownOptions.put(
+                    new BlockTypeFieldName(blockType, fieldName),
+                    new WeakReference<>(field.getOptions()));
+        }
+    }
+
     /**
      * Applies the named mutator to the provided block.
      */
@@ -446,7 +486,9 @@ public class BlockFactory {
     }
 
     /**
-     * Load a block and all of its children from XML.
+     * Load a block and all of its children from XML. Child blocks are read iteratively, with an
+     * explicit stack of partially read blocks, so long statement sequences and deeply nested
+     * inputs do not deepen the Java stack.
      *
      * @param parser An XmlPullParser pointed at the start tag of this block.
      * @return The loaded block.
@@ -454,137 +496,89 @@ public class BlockFactory {
      *                               XmlPullParserException or IOException as a root cause.
      */
     public Block fromXml(XmlPullParser parser) throws BlockLoadingException {
-        int startLine = parser.getLineNumber();
-        BlockLoadingException childException = null;
-        final XmlBlockTemplate template = new XmlBlockTemplate();
+        XmlBlockState state = new XmlBlockState(null, parser.getLineNumber());
         try {
-            String type = parser.getAttributeValue(null, "type");   // prototype name
-            if (type == null || (type = type.trim()).isEmpty()) {
-                throw new BlockLoadingException("Block is missing a type.");
-            }
-            template.ofType(type);
-            template.withId(parser.getAttributeValue(null, "id"));
-            // If the id was empty the BlockFactory will just generate one.
-
-            String collapsedString = parser.getAttributeValue(null, "collapsed");
-            if (collapsedString != null) {
-                template.collapsed(Boolean.parseBoolean(collapsedString));
-            }
-
-            String deletableString = parser.getAttributeValue(null, "deletable");
-            if (deletableString != null) {
-                template.deletable(Boolean.parseBoolean(deletableString));
-            }
-
-            String disabledString = parser.getAttributeValue(null, "disabled");
-            if (disabledString != null) {
-                template.disabled(Boolean.parseBoolean(disabledString));
-            }
-
-            String editableString = parser.getAttributeValue(null, "editable");
-            if (editableString != null) {
-                template.editable(Boolean.parseBoolean(editableString));
-            }
-
-            String inputsInlineString = parser.getAttributeValue(null, "inline");
-            if (inputsInlineString != null) {
-                template.withInlineInputs(Boolean.parseBoolean(inputsInlineString));
-            }
-
-            String movableString = parser.getAttributeValue(null, "movable");
-            if (movableString != null) {
-                template.movable(Boolean.parseBoolean(movableString));
-            }
-
-            // Set position.  Only if this is a top level block.
-            String x = parser.getAttributeValue(null, "x");
-            String y = parser.getAttributeValue(null, "y");
-            if (x != null && y != null) {
-                template.atPosition(Float.parseFloat(x), Float.parseFloat(y));
-            }
+            readXmlAttributes(parser, state.mTemplate);
 
             int eventType = parser.next();
-            String text = "";
-            String fieldName = "";
-            Block childBlock = null;
-            Block childShadow = null;
-            String inputName = null;
-
             while (eventType != XmlPullParser.END_DOCUMENT) {
                 String tagname = parser.getName();
                 switch (eventType) {
                     case XmlPullParser.START_TAG:
-                        text = ""; // Ignore text from parent (or prior) block.
-                        if (tagname.equalsIgnoreCase("block")) {
-                            try {
-                                childBlock = fromXml(parser);
-                            } catch (BlockLoadingException e) {
-                                childException = e;  // Save reference to pass through outer catch
-                                throw e;
-                            }
-                        } else if (tagname.equalsIgnoreCase("shadow")) {
-                            try {
-                                childShadow = fromXml(parser);
-                            } catch (BlockLoadingException e) {
-                                childException = e;  // Save reference to pass through outer catch
-                                throw e;
-                            }
+                        state.mText = ""; // Ignore text from parent (or prior) block.
+                        if (tagname.equalsIgnoreCase("block")
+                                || tagname.equalsIgnoreCase("shadow")) {
+                            state = new XmlBlockState(state, parser.getLineNumber());
+                            readXmlAttributes(parser, state.mTemplate);
                         } else if (tagname.equalsIgnoreCase("field")) {
-                            fieldName = parser.getAttributeValue(null, "name");
+                            state.mFieldName = parser.getAttributeValue(null, "name");
                         } else if (tagname.equalsIgnoreCase("value")
                                 || tagname.equalsIgnoreCase("statement")) {
-                            inputName = parser.getAttributeValue(null, "name");
-                            if (TextUtils.isEmpty(inputName)) {
+                            state.mInputName = parser.getAttributeValue(null, "name");
+                            if (TextUtils.isEmpty(state.mInputName)) {
                                 throw new BlockLoadingException(
                                         "<" + tagname + "> must have a name attribute.");
                             }
                         } else if (tagname.equalsIgnoreCase("mutation")) {
                             String elementStr = BlocklyXmlHelper.captureElement(parser);
-                            template.withMutation(elementStr);
+                            state.mTemplate.withMutation(elementStr);
                         }
                         break;
 
                     case XmlPullParser.TEXT:
-                        text = parser.getText();
+                        state.mText = parser.getText();
                         break;
 
                     case XmlPullParser.END_TAG:
-                        if (tagname.equalsIgnoreCase("block")) {
-                            return obtainBlockFrom(template);
-                        } else if (tagname.equalsIgnoreCase("shadow")) {
-                            template.shadow();
-                            return obtainBlockFrom(template);
+                        if (tagname.equalsIgnoreCase("block")
+                                || tagname.equalsIgnoreCase("shadow")) {
+                            boolean isShadow = tagname.equalsIgnoreCase("shadow");
+                            if (isShadow) {
+                                state.mTemplate.shadow();
+                            }
+                            Block block = obtainBlockFrom(state.mTemplate);
+                            if (state.mParent == null) {
+                                return block;
+                            }
+                            state = state.mParent;
+                            if (isShadow) {
+                                state.mChildShadow = block;
+                            } else {
+                                state.mChildBlock = block;
+                            }
                         } else if (tagname.equalsIgnoreCase("field")) {
-                            if (TextUtils.isEmpty(fieldName)) {
+                            if (TextUtils.isEmpty(state.mFieldName)) {
                                 Log.w(TAG, "Ignoring unnamed field in " +
-                                        template.toString("block"));
+                                        state.mTemplate.toString("block"));
                             } else {
-                                template.withFieldValue(fieldName, text);
+                                state.mTemplate.withFieldValue(state.mFieldName, state.mText);
                             }
-                            fieldName = null;
-                            text = "";
+                            state.mFieldName = null;
+                            state.mText = "";
                         } else if (tagname.equalsIgnoreCase("comment")) {
-                            template.withComment(text);
-                            text = "";
+                            state.mTemplate.withComment(state.mText);
+                            state.mText = "";
                         } else if (tagname.equalsIgnoreCase("value") ||
                                 tagname.equalsIgnoreCase("statement")) {
-                            if (inputName == null) {
+                            if (state.mInputName == null) {
                                 // Start tag missing input name. Should catch this above.
                                 throw new BlockLoadingException("Missing inputName.");
                             }
                             try {
-                                template.withInputValue(inputName, childBlock, childShadow);
+                                state.mTemplate.withInputValue(
+                                        state.mInputName, state.mChildBlock, state.mChildShadow);
                             } catch (IllegalArgumentException e) {
-                                throw new BlockLoadingException(template.toString("Block")
-                                        + " input \"" + inputName + "\": " + e.getMessage());
+                                throw new BlockLoadingException(state.mTemplate.toString("Block")
+                                        + " input \"" + state.mInputName + "\": "
+                                        + e.getMessage());
                             }
-                            childBlock = null;
-                            childShadow = null;
-                            inputName = null;
+                            state.mChildBlock = null;
+                            state.mChildShadow = null;
+                            state.mInputName = null;
                         } else if (tagname.equalsIgnoreCase("next")) {
-                            template.withNextChild(childBlock, childShadow);
-                            childBlock = null;
-                            childShadow = null;
+                            state.mTemplate.withNextChild(state.mChildBlock, state.mChildShadow);
+                            state.mChildBlock = null;
+                            state.mChildShadow = null;
                         }
                         break;
 
@@ -595,24 +589,76 @@ public class BlockFactory {
             }
             throw new BlockLoadingException("Reached the END_DOCUMENT before end of block.");
         } catch (BlockLoadingException | XmlPullParserException | IOException e) {
-            if (e == childException) {
-                throw (BlockLoadingException) e; // Pass through unchanged.
-            }
-
+            // Report the error against the innermost block being read.
             String msg = "Error";
             int errorLine = parser.getLineNumber();
             if (errorLine > -1) {
                 int errorCol = parser.getColumnNumber();
                 msg += " at line " + errorLine + ", col " + errorCol;
             }
-            msg += " loading " + template.toString("block");
-            if (startLine > -1) {
-                msg += " starting at line " + startLine;
+            msg += " loading " + state.mTemplate.toString("block");
+            if (state.mStartLine > -1) {
+                msg += " starting at line " + state.mStartLine;
             }
             throw new BlockLoadingException(msg + ": " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Reads the attributes of a {@code <block>} or {@code <shadow>} start tag into a template.
+     *
+     * @param parser An XmlPullParser pointed at the start tag of the block.
+     * @param template The template to update.
+     * @throws BlockLoadingException If the block is missing a type.
+     */
+    private static void readXmlAttributes(XmlPullParser parser, XmlBlockTemplate template)
+            throws BlockLoadingException {
+        String type = parser.getAttributeValue(null, "type");   // prototype name
+        if (type == null || (type = type.trim()).isEmpty()) {
+            throw new BlockLoadingException("Block is missing a type.");
+        }
+        template.ofType(type);
+        template.withId(parser.getAttributeValue(null, "id"));
+        // If the id was empty the BlockFactory will just generate one.
+
+        String collapsedString = parser.getAttributeValue(null, "collapsed");
+        if (collapsedString != null) {
+            template.collapsed(Boolean.parseBoolean(collapsedString));
+        }
+
+        String deletableString = parser.getAttributeValue(null, "deletable");
+        if (deletableString != null) {
+            template.deletable(Boolean.parseBoolean(deletableString));
+        }
+
+        String disabledString = parser.getAttributeValue(null, "disabled");
+        if (disabledString != null) {
+            template.disabled(Boolean.parseBoolean(disabledString));
+        }
+
+        String editableString = parser.getAttributeValue(null, "editable");
+        if (editableString != null) {
+            template.editable(Boolean.parseBoolean(editableString));
+        }
+
+        String inputsInlineString = parser.getAttributeValue(null, "inline");
+        if (inputsInlineString != null) {
+            template.withInlineInputs(Boolean.parseBoolean(inputsInlineString));
+        }
+
+        String movableString = parser.getAttributeValue(null, "movable");
+        if (movableString != null) {
+            template.movable(Boolean.parseBoolean(movableString));
+        }
+
+        // Set position.  Only if this is a top level block.
+        String x = parser.getAttributeValue(null, "x");
+        String y = parser.getAttributeValue(null, "y");
+        if (x != null && y != null) {
+            template.atPosition(Float.parseFloat(x), Float.parseFloat(y));
+        }
+    }
+
     /**
      * Updates the list of options used by dropdowns in select block types. These fields must be
      * derived from the prototype blocks loaded via JSON (via {@link #obtainBlock}), and where
@@ -653,17 +699,192 @@ public class BlockFactory {
      * a cleanup of known block instances.
      */
     public void clearWorkspaceBlockReferences(String workspaceId) {
-        List<String> idsToRemove = new ArrayList<>(mBlockRefs.size());
-        for (String blockId : mBlockRefs.keySet()) {
-            WeakReference<Block> ref = mBlockRefs.get(blockId);
-            Block block = ref.get();
-            if (block == null || workspaceId.equals(block.getEventWorkspaceId())) {
-                idsToRemove.add(blockId);
+        mBlockRefs.removeWorkspace(workspaceId);
+    }
+
+    /**
+     * Removes the references to {@code rootBlock} and its descendants, so the same ids can be used
+     * when the blocks are loaded again, such as from the workspace's compact trash storage.
+     *
+     * @param rootBlock The root of the blocks that are no longer in use.
+     */
+    /* package private */ void removeBlockReferences(Block rootBlock) {
+        List<String> ids = new ArrayList<>();
+        rootBlock.addAllBlockIds(ids);
+        for (int i = 0; i < ids.size(); i++) {
+            mBlockRefs.remove(ids.get(i));
+        }
+    }
+
+    /**
+     * Creates a copy of {@code source} and all of its descendant blocks, each with a new id. The
+     * copy is built directly from the source blocks, without an XML round trip.
+     *
+     * @param source The root of the blocks to copy.
+     * @return The root of the new block tree.
+     * @throws BlockLoadingException If a block in the tree cannot be recreated by this factory.
+     */
+    /* package private */ Block copyBlockTree(Block source) throws BlockLoadingException {
+        if (mController == null) {
+            throw new IllegalStateException("Must set BlockController before creating block.");
+        }
+        Block copy = copyRegisteredBlock(source);
+        WorkspacePoint position = source.getPosition();
+        copy.setPosition(position.x, position.y);
+        copyChildBlocks(source, copy);
+        return copy;
+    }
+
+    /**
+     * Constructs a new block of the same type as {@code source}, with the same mutation, field
+     * values and block flags. Child blocks and position are not copied, and the new block is not
+     * registered.
+     *
+     * @param source The block to copy.
+     * @param id The id of the new block.
+     * @return The new block.
+     * @throws BlockLoadingException If the source type is not defined, or its state cannot be
+     *                               applied to the new block.
+     */
+    private Block copyBlockState(Block source, String id) throws BlockLoadingException {
+        BlockDefinition definition = mDefinitions.get(source.getType());
+        if (definition == null) {
+            throw new BlockLoadingException("Block definition named \""
+                    + source.getType() + "\" not found.");
+        }
+        Block copy = new Block(mController, this, definition, id, source.isShadow());
+
+        // Apply the mutation first, so the inputs and fields match the source before the values
+        // are copied. Typed mutation state is shared as is, without writing and parsing XML.
+        Mutator.State mutationState =
+                (source.getMutator() == null) ? null : source.getMutator().getState();
+        if (copy.getMutator() != null && mutationState != null) {
+            copy.setMutationState(mutationState);
+        } else if (copy.getMutator() != null) {
+            String mutation;
+            try {
+                mutation = source.serializeMutatorState();
+            } catch (IOException e) {
+                throw new BlockLoadingException("Failed to serialize mutation of " + source, e);
+            }
+            if (mutation != null) {
+                copy.setMutation(mutation);
+            }
+        }
+
+        List<Input> inputs = source.getInputs();
+        for (int i = 0; i < inputs.size(); i++) {
+            List<Field> fields = inputs.get(i).getFields();
+            for (int j = 0; j < fields.size(); j++) {
+                Field field = fields.get(j);
+                int fieldType = field.getType();
+                if (fieldType == Field.TYPE_LABEL || fieldType == Field.TYPE_IMAGE
+                        || field.getName() == null) {
+                    continue;  // Not serialized, so not copied.
+                }
+                Field copyField = copy.getFieldByName(field.getName());
+                if (copyField == null) {
+                    Log.w(TAG, "Ignoring non-existent field \"" + field.getName() + "\" in "
+                            + copy);
+                } else if (!copyField.setFromString(field.getSerializedValue())) {
+                    throw new BlockLoadingException("Failed to copy the value of field \""
+                            + field.getName() + "\" from " + source);
+                }
+            }
+        }
+
+        copy.setCollapsed(source.isCollapsed());
+        copy.setDisabled(source.isDisabled());
+        copy.setEditable(source.isEditable());
+        if (!source.isShadow()) {
+            copy.setDeletable(source.isDeletable());
+            copy.setMovable(source.isMovable());
+        }
+        if (source.getInputsInlineModified()) {
+            copy.setInputsInline(source.getInputsInline());
+        }
+        copy.setComment(source.getComment());
+        return copy;
+    }
+
+    /**
+     * Copies the blocks connected to the inputs and next connections of {@code source} onto the
+     * matching connections of {@code copy}. The next sequence is walked iteratively, so long
+     * statement lists do not deepen the stack.
+     *
+     * @param source The block to copy children from.
+     * @param copy The block to connect the copied children to.
+     * @throws BlockLoadingException If a child cannot be copied or connected.
+     */
+    private void copyChildBlocks(Block source, Block copy) throws BlockLoadingException {
+        while (source != null) {
+            List<Input> inputs = source.getInputs();
+            for (int i = 0; i < inputs.size(); i++) {
+                Input input = inputs.get(i);
+                Connection connection = input.getConnection();
+                if (connection == null) {
+                    continue;
+                }
+                Block shadow = connection.getShadowBlock();
+                Block child = connection.getTargetBlock();
+                if (child == shadow) {
+                    child = null;
+                }
+                if (child == null && shadow == null) {
+                    continue;
+                }
+                Input copyInput = copy.getInputByName(input.getName());
+                if (copyInput == null || copyInput.getConnection() == null) {
+                    throw new BlockLoadingException(
+                            copy + ": No input with name \"" + input.getName() + "\"");
+                }
+                copy.connectOrThrow(
+                        input.getType() == Input.TYPE_STATEMENT ? "statement" : "value",
+                        copyInput.getConnection(), copySubtree(child), copySubtree(shadow));
+            }
+
+            Connection next = source.getNextConnection();
+            Block nextShadow = next == null ? null : next.getShadowBlock();
+            Block nextChild = next == null ? null : next.getTargetBlock();
+            if (nextChild == nextShadow) {
+                nextChild = null;
             }
+            Block nextChildCopy = null;
+            if (nextChild != null || nextShadow != null) {
+                if (copy.getNextConnection() == null) {
+                    throw new BlockLoadingException(
+                            copy + " does not have a connection for next child.");
+                }
+                nextChildCopy = nextChild == null ? null : copyRegisteredBlock(nextChild);
+                copy.connectOrThrow("next", copy.getNextConnection(),
+                        nextChildCopy, copySubtree(nextShadow));
+            }
+            source = nextChild;
+            copy = nextChildCopy;
         }
-        for (String id : idsToRemove) {
-            mBlockRefs.remove(id);
+    }
+
+    /**
+     * @param source The root of the blocks to copy, possibly null.
+     * @return A registered copy of {@code source} with all of its descendants, or null.
+     */
+    private Block copySubtree(@Nullable Block source) throws BlockLoadingException {
+        if (source == null) {
+            return null;
         }
+        Block copy = copyRegisteredBlock(source);
+        copyChildBlocks(source, copy);
+        return copy;
+    }
+
+    /**
+     * @param source The block to copy.
+     * @return A copy of the block's own state with a new id, registered with this factory.
+     */
+    private Block copyRegisteredBlock(Block source) throws BlockLoadingException {
+        Block copy = copyBlockState(source, getCheckedId(null));
+        mBlockRefs.put(copy);
+        return copy;
     }
 
     /**
@@ -678,9 +899,9 @@ public class BlockFactory {
                 return requested;
             }
         }
-        String id = UUID.randomUUID().toString();
-        while(mBlockRefs.containsKey(id)) {  // Exceptionally unlikely, but...
-            id = UUID.randomUUID().toString();
+        String id = mIdGenerator.generateId();
+        while(mBlockRefs.containsId(id)) {  // Exceptionally unlikely, but...
+            id = mIdGenerator.generateId();
         }
         return id;
     }
@@ -705,6 +926,29 @@ public class BlockFactory {
         }
     }
 
+    /**
+     * The state of a block partially read by {@link #fromXml(XmlPullParser)}, including the child
+     * blocks read so far for the current input or next connection.
+     */
+    private class XmlBlockState {
+        /** The state of the enclosing block, or null for the outermost block. */
+        final XmlBlockState mParent;
+        /** The line of the block's start tag, for error messages. */
+        final int mStartLine;
+        final XmlBlockTemplate mTemplate = new XmlBlockTemplate();
+
+        String mText = "";
+        String mFieldName = "";
+        String mInputName = null;
+        Block mChildBlock = null;
+        Block mChildShadow = null;
+
+        XmlBlockState(XmlBlockState parent, int startLine) {
+            mParent = parent;
+            mStartLine = startLine;
+        }
+    }
+
     /**
      * Extension of BlockTemplate that includes child blocks. This class is private, because child
      * block references in templates are strictly limited to one use, and this class in not intended
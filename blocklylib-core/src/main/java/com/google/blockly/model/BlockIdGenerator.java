@@ -0,0 +1,87 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.model;
+
+import java.security.SecureRandom;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates ids for blocks created without one. The {@link BlockFactory} still checks each
+ * generated id against the blocks it has created, and asks for another id if it is in use.
+ *
+ * @see BlockFactory#setBlockIdGenerator(BlockIdGenerator)
+ */
+public interface BlockIdGenerator {
+    /**
+     * Generates {@link UUID#randomUUID() random UUIDs}, as used by earlier versions of Blockly
+     * for Android.
+     */
+    BlockIdGenerator UUID_GENERATOR = new BlockIdGenerator() {
+        @Override
+        public String generateId() {
+            return UUID.randomUUID().toString();
+        }
+    };
+
+    /**
+     * @return A new block id, which is unlikely to have been generated before.
+     */
+    String generateId();
+
+    /**
+     * The default generator. Ids are 20 characters drawn from the same alphabet as web Blockly's
+     * {@code Blockly.utils.genUid()}. The first {@link #PREFIX_LENGTH} characters are chosen
+     * randomly once per generator, and the remaining characters count up from there, so ids are
+     * unique within a session without generating any random numbers per id, and are unlikely to
+     * collide with ids from other sessions.
+     */
+    class SessionCounter implements BlockIdGenerator {
+        /**
+         * Web Blockly's id alphabet. Excludes characters that need escaping in XML attributes.
+         */
+        static final String ALPHABET = "!#$%()*+,-./:;=?@[]^_`{|}~"
+                + "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+        static final int ID_LENGTH = 20;
+        static final int PREFIX_LENGTH = 12;
+
+        private final char[] mPrefix = new char[PREFIX_LENGTH];
+        private final AtomicLong mCount = new AtomicLong();
+
+        public SessionCounter() {
+            SecureRandom random = new SecureRandom();
+            for (int i = 0; i < PREFIX_LENGTH; i++) {
+                mPrefix[i] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+            }
+        }
+
+        @Override
+        public String generateId() {
+            long count = mCount.getAndIncrement();
+            // Counts beyond ALPHABET.length()^8 (over 10^15) lengthen the id instead of wrapping.
+            char[] id = new char[ID_LENGTH + 8];
+            int start = id.length;
+            int radix = ALPHABET.length();
+            while (count > 0 || start > PREFIX_LENGTH + 8) {
+                id[--start] = ALPHABET.charAt((int) (count % radix));
+                count /= radix;
+            }
+            start -= PREFIX_LENGTH;
+            System.arraycopy(mPrefix, 0, id, start, PREFIX_LENGTH);
+            return new String(id, start, id.length - start);
+        }
+    }
+}
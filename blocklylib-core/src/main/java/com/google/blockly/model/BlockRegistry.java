@@ -0,0 +1,198 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.model;
+
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Weak references to the blocks created by a {@link BlockFactory}, by block id. References to
+ * garbage collected blocks are registered with a {@link ReferenceQueue}, and are removed a few at
+ * a time as the registry is used, so the registry does not grow with every block ever created.
+ * <p/>
+ * References are also indexed by each block's {@link Block#getEventWorkspaceId() event workspace
+ * id}, so the references of one workspace can be removed without visiting every reference.
+ */
+class BlockRegistry {
+    private final ReferenceQueue<Block> mQueue = new ReferenceQueue<>();
+    private final Map<String, BlockRef> mRefs = new HashMap<>();
+    private final Map<String, Set<BlockRef>> mRefsByWorkspace = new HashMap<>();
+
+    /**
+     * Registers a block by its id, replacing any prior block with the same id.
+     *
+     * @param block The block to register.
+     */
+    void put(Block block) {
+        expungeStaleEntries();
+        BlockRef ref = new BlockRef(block, mQueue);
+        BlockRef prior = mRefs.put(ref.mBlockId, ref);
+        if (prior != null) {
+            unindex(prior);
+        }
+        index(ref);
+    }
+
+    /**
+     * @param id The id of the block to look up.
+     * @return The block with the given id, if it is still referenced. Otherwise null.
+     */
+    @Nullable
+    Block get(String id) {
+        expungeStaleEntries();
+        BlockRef ref = mRefs.get(id);
+        return ref == null ? null : ref.get();
+    }
+
+    /**
+     * @param id The id to check.
+     * @return True if the id is registered, even if the block was garbage collected and the
+     *         reference has not been removed yet.
+     */
+    boolean containsId(String id) {
+        expungeStaleEntries();
+        return mRefs.containsKey(id);
+    }
+
+    /**
+     * Removes the reference for a block id.
+     *
+     * @param id The id of the block to forget.
+     */
+    void remove(String id) {
+        BlockRef ref = mRefs.remove(id);
+        if (ref != null) {
+            unindex(ref);
+        }
+    }
+
+    /**
+     * Removes the references of all blocks in a workspace, and of any garbage collected blocks.
+     *
+     * @param workspaceId The event workspace id of the blocks to forget.
+     */
+    void removeWorkspace(String workspaceId) {
+        expungeStaleEntries();
+        Set<BlockRef> refs = mRefsByWorkspace.remove(workspaceId);
+        if (refs == null) {
+            return;
+        }
+        for (BlockRef ref : refs) {
+            if (mRefs.get(ref.mBlockId) == ref) {
+                mRefs.remove(ref.mBlockId);
+            }
+        }
+    }
+
+    /**
+     * Updates the workspace index after a block's event workspace id changed.
+     *
+     * @param block The block that moved.
+     */
+    void onEventWorkspaceIdChanged(Block block) {
+        BlockRef ref = mRefs.get(block.getId());
+        if (ref == null || ref.get() != block) {
+            return;
+        }
+        unindex(ref);
+        ref.mWorkspaceId = block.getEventWorkspaceId();
+        index(ref);
+    }
+
+    boolean isEmpty() {
+        return mRefs.isEmpty();
+    }
+
+    void clear() {
+        mRefs.clear();
+        mRefsByWorkspace.clear();
+        while (mQueue.poll() != null) {
+            // Discard the references of blocks already forgotten.
+        }
+    }
+
+    @VisibleForTesting
+    int size() {
+        return mRefs.size();
+    }
+
+    /**
+     * @return The registered reference for a block id, so tests can enqueue it.
+     */
+    @VisibleForTesting
+    WeakReference<Block> getReference(String id) {
+        return mRefs.get(id);
+    }
+
+    /**
+     * Removes the references that have been enqueued since garbage collection cleared them.
+     */
+    private void expungeStaleEntries() {
+        Reference<? extends Block> stale;
+        while ((stale = mQueue.poll()) != null) {
+            BlockRef ref = (BlockRef) stale;
+            if (mRefs.get(ref.mBlockId) == ref) {
+                mRefs.remove(ref.mBlockId);
+            }
+            unindex(ref);
+        }
+    }
+
+    private void index(BlockRef ref) {
+        if (ref.mWorkspaceId == null) {
+            return;
+        }
+        Set<BlockRef> refs = mRefsByWorkspace.get(ref.mWorkspaceId);
+        if (refs == null) {
+            refs = new HashSet<>();
+            mRefsByWorkspace.put(ref.mWorkspaceId, refs);
+        }
+        refs.add(ref);
+    }
+
+    private void unindex(BlockRef ref) {
+        if (ref.mWorkspaceId == null) {
+            return;
+        }
+        Set<BlockRef> refs = mRefsByWorkspace.get(ref.mWorkspaceId);
+        if (refs != null && refs.remove(ref) && refs.isEmpty()) {
+            mRefsByWorkspace.remove(ref.mWorkspaceId);
+        }
+    }
+
+    /**
+     * A weak reference to a block that remembers the block's id and indexed workspace id, which
+     * are needed to remove the reference after the block is collected.
+     */
+    private static class BlockRef extends WeakReference<Block> {
+        final String mBlockId;
+        String mWorkspaceId;
+
+        BlockRef(Block block, ReferenceQueue<Block> queue) {
+            super(block, queue);
+            mBlockId = block.getId();
+            mWorkspaceId = block.getEventWorkspaceId();
+        }
+    }
+}
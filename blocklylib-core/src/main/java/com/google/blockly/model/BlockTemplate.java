@@ -247,9 +247,10 @@ public class BlockTemplate {
     }
 
     /**
-     * Sets a block as an example to copy. The source will be serialized and deserialized in the
-     * copy process. No additional data (e.g., block definition or mutable state) will be stored in
-     * this template.
+     * Sets a block as an example to copy. The new block will have the source's type, mutation,
+     * field values and block flags, but none of its child blocks. The source is read when the
+     * block is obtained, so no additional data (e.g., block definition or mutable state) will be
+     * stored in this template.
      *
      * <pre>
      * {@code blockFactory.obtainBlockFrom(new BlockTemplate().copyOf(otherBlock));}
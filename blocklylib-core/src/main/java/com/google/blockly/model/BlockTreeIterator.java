@@ -0,0 +1,85 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.model;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Iterates over a block and all of its descendants, using an explicit stack instead of recursion
+ * so that long statement sequences and deeply nested inputs do not deepen the Java stack.
+ * <p/>
+ * Blocks are returned in the same order as a recursive walk: the block itself, then the blocks
+ * connected to each of its inputs (with all of their descendants) in input order, and finally the
+ * next block and its descendants. Occluded shadow blocks are not included. The tree must not be
+ * modified while iterating.
+ */
+public class BlockTreeIterator implements Iterator<Block> {
+    private final ArrayDeque<Block> mStack = new ArrayDeque<>();
+
+    /**
+     * @param root The first block to return, or null for an empty iteration.
+     */
+    public BlockTreeIterator(@Nullable Block root) {
+        reset(root);
+    }
+
+    /**
+     * Restarts the iteration from a new root, so the iterator can be reused without allocating.
+     *
+     * @param root The first block to return, or null for an empty iteration.
+     * @return This iterator.
+     */
+    public BlockTreeIterator reset(@Nullable Block root) {
+        mStack.clear();
+        if (root != null) {
+            mStack.push(root);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !mStack.isEmpty();
+    }
+
+    @Override
+    public Block next() {
+        Block block = mStack.pop();
+
+        // Push in reverse order, so the input children are returned before the next block.
+        Block nextBlock = block.getNextBlock();
+        if (nextBlock != null) {
+            mStack.push(nextBlock);
+        }
+        List<Input> inputs = block.getInputs();
+        for (int i = inputs.size() - 1; i >= 0; --i) {
+            Block child = inputs.get(i).getConnectedBlock();
+            if (child != null) {
+                mStack.push(child);
+            }
+        }
+        return block;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Blocks cannot be removed by the iterator.");
+    }
+}
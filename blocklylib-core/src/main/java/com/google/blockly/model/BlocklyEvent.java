@@ -263,6 +263,16 @@ public abstract class BlocklyEvent {
         return out.toString();
     }
 
+    /**
+     * Captures any state this event otherwise reads from the model on demand, such as the XML of
+     * the blocks in a {@link CreateEvent} or {@link DeleteEvent}. Later changes to those blocks
+     * will not be reflected in the event. {@link BlocklyController} calls this when an event is
+     * added to a group that will be delivered to at least one callback.
+     */
+    public void captureState() {
+        // Most events capture all state at construction.
+    }
+
     protected void setGroupId(String groupId) {
         this.mGroupId = groupId;
     }
@@ -327,14 +337,33 @@ public abstract class BlocklyEvent {
             return new ChangeEvent(ELEMENT_MUTATE, block, null, oldValue, newValue);
         }
 
+        /**
+         * Creates a ChangeEvent reflecting a change in the block's mutation state. The states are
+         * not written as XML until the old or new value is first requested.
+         *
+         * @param block The block where the state changed.
+         * @param oldState The prior mutation state, if known.
+         * @param newState The updated mutation state.
+         * @return The new ChangeEvent.
+         */
+        public static ChangeEvent newMutateEvent(@NonNull Block block,
+                @Nullable Mutator.State oldState, @NonNull Mutator.State newState) {
+            return new ChangeEvent(block, oldState, newState);
+        }
+
         @NonNull @ChangeElement
         private final String mElementChanged;
         @Nullable
         private final String mFieldName;
         @NonNull
-        private final String mOldValue;
+        private String mOldValue;
         @NonNull
-        private final String mNewValue;
+        private String mNewValue;
+        // Mutation states not yet written to mOldValue and mNewValue.
+        @Nullable
+        private Mutator.State mOldState = null;
+        @Nullable
+        private Mutator.State mNewState = null;
 
         /**
          * Constructs a ChangeEvent, signifying {@code block}'s value changed.
@@ -359,6 +388,15 @@ public abstract class BlocklyEvent {
             mNewValue = newValue;
         }
 
+        private ChangeEvent(@NonNull Block block, @Nullable Mutator.State oldState,
+                            @NonNull Mutator.State newState) {
+            super(TYPE_CHANGE, block.getEventWorkspaceId(), null, block.getId());
+            mElementChanged = ELEMENT_MUTATE;
+            mFieldName = null;
+            mOldState = oldState;
+            mNewState = newState;
+        }
+
         /**
          * Constructs a ChangeEvent from the JSON serialized representation.
          *
@@ -391,10 +429,18 @@ public abstract class BlocklyEvent {
         }
 
         public String getOldValue() {
+            if (mOldState != null) {
+                mOldValue = Mutator.writeState(mOldState);
+                mOldState = null;
+            }
             return mOldValue;
         }
 
         public String getNewValue() {
+            if (mNewState != null) {
+                mNewValue = Mutator.writeState(mNewState);
+                mNewState = null;
+            }
             return mNewValue;
         }
 
@@ -405,8 +451,8 @@ public abstract class BlocklyEvent {
             if (mFieldName != null) {
                 sb.append(", field \"").append(mFieldName).append("\"");
             }
-            sb.append(", old=\"").append(mOldValue)
-                    .append("\", new=\"").append(mNewValue).append("\"}");
+            sb.append(", old=\"").append(getOldValue())
+                    .append("\", new=\"").append(getNewValue()).append("\"}");
             return sb.toString();
         }
 
@@ -418,7 +464,7 @@ public abstract class BlocklyEvent {
                 out.value(mFieldName);
             }
             out.key("newValue");
-            out.value(mNewValue);
+            out.value(getNewValue());
         }
     }
 
@@ -427,25 +473,17 @@ public abstract class BlocklyEvent {
      * and next blocks.
      */
     public static final class CreateEvent extends BlocklyEvent {
-        private final String mXml;
-        private final List<String> mIds;
+        private final BlockTreeCapture mCapture;
 
         /**
-         * Constructs a {@code CreateEvent} for the given block.
+         * Constructs a {@code CreateEvent} for the given block. The XML and block ids are not
+         * captured until first requested, or until {@link #captureState()} is called.
          *
          * @param block The newly created block.
          */
         public CreateEvent(@NonNull Block block) {
             super(TYPE_CREATE, block.getEventWorkspaceId(), null, block.getId());
-            try {
-                mXml = BlocklyXmlHelper.writeBlockToXml(block, IOOptions.WRITE_ALL_DATA);
-            } catch (BlocklySerializerException e) {
-                throw new IllegalArgumentException("Invalid block for event serialization");
-            }
-
-            List<String> ids = new ArrayList<>();
-            block.addAllBlockIds(ids);
-            mIds = Collections.unmodifiableList(ids);
+            mCapture = new BlockTreeCapture(block);
         }
 
         /**
@@ -459,7 +497,7 @@ public abstract class BlocklyEvent {
             if (mBlockId == null) {
                 throw new JSONException(JSON_BLOCK_ID + " must be assigned.");
             }
-            mXml = json.getString(JSON_XML);
+            String xml = json.getString(JSON_XML);
 
             JSONArray jsonIds = json.getJSONArray("ids");
             int count = jsonIds.length();
@@ -467,30 +505,35 @@ public abstract class BlocklyEvent {
             for (int i = 0; i < count; ++i) {
                 ids.add(jsonIds.getString(i));
             }
-            mIds = Collections.unmodifiableList(ids);
+            mCapture = new BlockTreeCapture(xml, Collections.unmodifiableList(ids));
         }
 
         /**
          * @return The XML serialization of all blocks created by this event.
          */
         public String getXml() {
-            return mXml;
+            return mCapture.getXml();
         }
 
         /**
          * @return The list of all block ids for all blocks created by this event.
          */
         public List<String> getIds() {
-            return mIds;
+            return mCapture.getIds();
+        }
+
+        @Override
+        public void captureState() {
+            mCapture.capture();
         }
 
         @Override
         protected void writeJsonAttributes(JSONStringer out) throws JSONException {
             out.key("xml");
-            out.value(mXml);
+            out.value(getXml());
             out.key("ids");
             out.array();
-            for (String id : mIds) {
+            for (String id : getIds()) {
                 out.value(id);
             }
             out.endArray();
@@ -501,8 +544,7 @@ public abstract class BlocklyEvent {
      * Event fired when a block is removed from the workspace.
      */
     public static final class DeleteEvent extends BlocklyEvent {
-        private final String mOldXml;
-        private final List<String> mIds;
+        private final BlockTreeCapture mCapture;
 
         /**
          * Constructs a {@code DeleteEvent}, signifying the removal of a block from the workspace.
@@ -510,18 +552,12 @@ public abstract class BlocklyEvent {
          * @param workspaceId The id of the workspace or similar block container (toolbox, trash)
          *                    from which the block was deleted.
          * @param block The root deleted block (or to-be-deleted block), with all children attached.
+         *              The XML and block ids are not captured until first requested, or until
+         *              {@link #captureState()} is called.
          */
         public DeleteEvent(@NonNull String workspaceId, @NonNull Block block) {
             super(TYPE_DELETE, workspaceId, null, block.getId());
-            try {
-                mOldXml = BlocklyXmlHelper.writeBlockToXml(block, IOOptions.WRITE_ALL_DATA);
-            } catch (BlocklySerializerException e) {
-                throw new IllegalArgumentException("Invalid block for event serialization");
-            }
-
-            List<String> ids = new ArrayList<>();
-            block.addAllBlockIds(ids);
-            mIds = Collections.unmodifiableList(ids);
+            mCapture = new BlockTreeCapture(block);
         }
 
         /**
@@ -536,35 +572,40 @@ public abstract class BlocklyEvent {
                 throw new JSONException(TYPENAME_DELETE + " requires " + JSON_BLOCK_ID);
             }
 
-            mOldXml = json.optString(JSON_OLD_VALUE); // Not usually used.
+            String oldXml = json.optString(JSON_OLD_VALUE); // Not usually used.
             JSONArray ids = json.getJSONArray(JSON_IDS);
             int count = ids.length();
             List<String> temp = new ArrayList<>(count);
             for (int i = 0; i < count; ++i) {
                 temp.add(ids.getString(i));
             }
-            mIds = Collections.unmodifiableList(temp);
+            mCapture = new BlockTreeCapture(oldXml, Collections.unmodifiableList(temp));
         }
 
         /**
          * @return The XML serialization of all blocks deleted by this event.
          */
         public String getXml() {
-            return mOldXml;
+            return mCapture.getXml();
         }
 
         /**
          * @return The list of all block ids for all blocks deleted by this event.
          */
         public List<String> getIds() {
-            return mIds;
+            return mCapture.getIds();
+        }
+
+        @Override
+        public void captureState() {
+            mCapture.capture();
         }
 
         @Override
         protected void writeJsonAttributes(JSONStringer out) throws JSONException {
             out.key("ids");
             out.array();
-            for (String id : mIds) {
+            for (String id : getIds()) {
                 out.value(id);
             }
             out.endArray();
@@ -935,4 +976,55 @@ public abstract class BlocklyEvent {
                 throw new IllegalArgumentException("Unrecognized UI element: " + uiElement);
         }
     }
+
+    /**
+     * The XML and block ids of a block tree, captured on first use. Until then, only a reference
+     * to the root block is held, so events that are never delivered cost nothing in the size of
+     * the tree.
+     */
+    private static final class BlockTreeCapture {
+        private Block mBlock;
+        private String mXml;
+        private List<String> mIds;
+
+        BlockTreeCapture(@NonNull Block block) {
+            mBlock = block;
+        }
+
+        BlockTreeCapture(String xml, List<String> ids) {
+            mXml = xml;
+            mIds = ids;
+        }
+
+        String getXml() {
+            capture();
+            return mXml;
+        }
+
+        /**
+         * Captures only the block ids, if not yet captured. This is much cheaper than the XML, so
+         * listeners can look up the affected blocks without forcing {@link #capture()}.
+         */
+        List<String> getIds() {
+            if (mIds == null) {
+                List<String> ids = new ArrayList<>();
+                mBlock.addAllBlockIds(ids);
+                mIds = Collections.unmodifiableList(ids);
+            }
+            return mIds;
+        }
+
+        void capture() {
+            if (mBlock == null) {
+                return;  // Already captured.
+            }
+            try {
+                mXml = BlocklyXmlHelper.writeBlockToXml(mBlock, IOOptions.WRITE_ALL_DATA);
+            } catch (BlocklySerializerException e) {
+                throw new IllegalArgumentException("Invalid block for event serialization");
+            }
+            getIds();
+            mBlock = null;
+        }
+    }
 }
@@ -18,7 +18,6 @@ package com.google.blockly.model;
 import android.support.annotation.IntDef;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
-import android.text.TextUtils;
 
 import com.google.blockly.android.ui.InputView;
 
@@ -72,6 +71,8 @@ public class Connection implements Cloneable {
     @ConnectionType
     private final int mConnectionType;
     private final String[] mConnectionChecks;
+    /** The interned form of mConnectionChecks, compared when testing compatibility. */
+    private final ConnectionChecks mChecks;
 
     /**
      * Position of the connection in the workspace, used by the connection manager. The position is
@@ -91,6 +92,26 @@ public class Connection implements Cloneable {
     public Connection(@ConnectionType int type, @Nullable String[] checks) {
         mConnectionType = type;
         mConnectionChecks = checks;
+        mChecks = ConnectionChecks.intern(checks);
+    }
+
+    private Connection(@ConnectionType int type, @Nullable ConnectionChecks checks) {
+        mConnectionType = type;
+        mConnectionChecks = checks == null ? null : checks.getChecks();
+        mChecks = checks;
+    }
+
+    /**
+     * Constructs a connection with previously interned checks, avoiding the lookup of the check
+     * strings.
+     *
+     * @param type The type of connection.
+     * @param checks The interned checks, or null if the connection accepts any connection.
+     * @return The new connection.
+     */
+    /* package private */ static Connection withInternedChecks(
+            @ConnectionType int type, @Nullable ConnectionChecks checks) {
+        return new Connection(type, checks);
     }
 
     /**
@@ -99,7 +120,7 @@ public class Connection implements Cloneable {
      */
     @Override
     public Connection clone() {
-        return new Connection(this.getType(), this.getConnectionChecks());
+        return new Connection(this.getType(), mChecks);
     }
 
     /**
@@ -395,19 +416,7 @@ public class Connection implements Cloneable {
     }
 
     private boolean checksMatch(Connection target) {
-        if (mConnectionChecks == null || target.mConnectionChecks == null) {
-            return true;
-        }
-        // The list of checks is expected to be very small (1 or 2 items usually), so the
-        // n^2 approach should be fine.
-        for (int i = 0; i < mConnectionChecks.length; i++) {
-            for (int j = 0; j < target.mConnectionChecks.length; j++) {
-                if (TextUtils.equals(mConnectionChecks[i], target.mConnectionChecks[j])) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return ConnectionChecks.isCompatible(mChecks, target.mChecks);
     }
 
 
@@ -421,20 +430,7 @@ public class Connection implements Cloneable {
      * @return check result
      */
     public static boolean checksMatch(Connection source,Connection target){
-        if(source.mConnectionChecks == null || target.mConnectionChecks == null) {
-            return true;
-        }
-
-        for (int i = 0; i < source.mConnectionChecks.length; i++){
-            for (int j = 0; j < target.mConnectionChecks.length; j++) {
-                if (TextUtils.equals(source.mConnectionChecks[i], target.mConnectionChecks[j])) {
-                    return true;
-                }
-            }
-
-        }
-
-        return false;
+        return ConnectionChecks.isCompatible(source.mChecks, target.mChecks);
     }
 
     public static Connection cloneConnection(Connection conn) {
@@ -0,0 +1,215 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.model;
+
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An interned set of {@link Connection} checks. Each check string is assigned an integer type id,
+ * and each set of checks is stored as a bitset of those ids, so two sets of checks can be compared
+ * with a bitwise AND instead of comparing strings. For up to 64 distinct check strings, the
+ * comparison is a single {@code long} operation.
+ * <p/>
+ * Instances are shared by all connections with the same checks, and are obtained via
+ * {@link #intern(String[])}, usually once per {@link BlockDefinition} or {@link Input} prototype.
+ * Connections cloned from those prototypes reuse the instance without another lookup.
+ * <p/>
+ * The intern table is process wide, so the checks of any two connections remain comparable, but
+ * it only holds weak references. An instance lives as long as a connection, definition or input
+ * prototype refers to it. Once it is garbage collected, its entry is removed by a later
+ * {@link #intern} call, and the type ids of check strings no longer used by any instance are
+ * released for reuse. The table is therefore bounded by the checks of the live definitions and
+ * blocks, not by every set of checks ever seen. Lookups of live instances do not take a lock.
+ */
+public final class ConnectionChecks {
+    private static final Object LOCK = new Object();
+    private static final ConcurrentHashMap<List<String>, InternedRef> INTERNED =
+            new ConcurrentHashMap<>();
+    private static final ReferenceQueue<ConnectionChecks> QUEUE = new ReferenceQueue<>();
+    // Guarded by LOCK.
+    private static final Map<String, TypeId> TYPE_IDS = new HashMap<>();
+    private static final BitSet USED_TYPE_IDS = new BitSet();
+
+    private final String[] mChecks;
+    private final long[] mTypeBits;
+
+    private ConnectionChecks(String[] checks, long[] typeBits) {
+        mChecks = checks;
+        mTypeBits = typeBits;
+    }
+
+    /**
+     * @param checks The check strings of a connection, or null if the connection accepts any
+     *               connection.
+     * @return The shared instance for the checks, or null if {@code checks} is null.
+     */
+    @Nullable
+    public static ConnectionChecks intern(@Nullable String[] checks) {
+        if (checks == null) {
+            return null;
+        }
+        List<String> key = Arrays.asList(checks);
+        ConnectionChecks interned = get(key);
+        if (interned != null) {
+            return interned;
+        }
+        synchronized (LOCK) {
+            expungeStaleEntries();
+            interned = get(key);
+            if (interned == null) {
+                String[] copy = checks.clone();
+                interned = new ConnectionChecks(copy, acquireTypeBits(copy));
+                List<String> copyKey = Arrays.asList(copy);
+                INTERNED.put(copyKey, new InternedRef(interned, copyKey, QUEUE));
+            }
+            return interned;
+        }
+    }
+
+    /**
+     * Two sets of checks are compatible if either is null (accepting any connection), or if they
+     * share at least one check.
+     *
+     * @param a The checks of one connection.
+     * @param b The checks of the other connection.
+     * @return True if the connections' checks are compatible.
+     */
+    public static boolean isCompatible(@Nullable ConnectionChecks a, @Nullable ConnectionChecks b) {
+        return a == null || b == null || a.sharesCheckWith(b);
+    }
+
+    /**
+     * @return The check strings. Must not be modified.
+     */
+    public String[] getChecks() {
+        return mChecks;
+    }
+
+    private boolean sharesCheckWith(ConnectionChecks other) {
+        long[] otherBits = other.mTypeBits;
+        int words = Math.min(mTypeBits.length, otherBits.length);
+        for (int i = 0; i < words; i++) {
+            if ((mTypeBits[i] & otherBits[i]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param check A check string.
+     * @return Whether the check string is currently assigned a type id, i.e. whether it is part of
+     *         any interned instance that has not been collected and removed.
+     */
+    @VisibleForTesting
+    static boolean hasTypeId(String check) {
+        synchronized (LOCK) {
+            expungeStaleEntries();
+            return TYPE_IDS.containsKey(check);
+        }
+    }
+
+    @Nullable
+    private static ConnectionChecks get(List<String> key) {
+        InternedRef ref = INTERNED.get(key);
+        return ref == null ? null : ref.get();
+    }
+
+    /**
+     * Removes the entries of collected instances, and releases the type ids they held. Must be
+     * called while holding {@link #LOCK}.
+     */
+    private static void expungeStaleEntries() {
+        Reference<? extends ConnectionChecks> stale;
+        while ((stale = QUEUE.poll()) != null) {
+            InternedRef ref = (InternedRef) stale;
+            // The key may have been interned again since the reference was cleared.
+            INTERNED.remove(ref.mKey, ref);
+            for (int i = 0; i < ref.mKey.size(); i++) {
+                String check = ref.mKey.get(i);
+                TypeId typeId = TYPE_IDS.get(check);
+                if (--typeId.mRefCount == 0) {
+                    TYPE_IDS.remove(check);
+                    USED_TYPE_IDS.clear(typeId.mId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Assigns type ids to any new check strings, counts the new reference to each check's id, and
+     * returns the bitset of the checks' ids. Must be called while holding {@link #LOCK}.
+     */
+    private static long[] acquireTypeBits(String[] checks) {
+        long[] bits = new long[0];
+        for (int i = 0; i < checks.length; i++) {
+            TypeId typeId = TYPE_IDS.get(checks[i]);
+            if (typeId == null) {
+                // Reuse the lowest released id, keeping the bitsets short.
+                typeId = new TypeId(USED_TYPE_IDS.nextClearBit(0));
+                USED_TYPE_IDS.set(typeId.mId);
+                TYPE_IDS.put(checks[i], typeId);
+            }
+            ++typeId.mRefCount;
+            int word = typeId.mId / 64;
+            if (word >= bits.length) {
+                bits = Arrays.copyOf(bits, word + 1);
+            }
+            bits[word] |= 1L << (typeId.mId % 64);
+        }
+        return bits;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(mChecks);
+    }
+
+    /** A type id, and the number of interned instances whose checks include its string. */
+    private static class TypeId {
+        final int mId;
+        int mRefCount = 0;
+
+        TypeId(int id) {
+            mId = id;
+        }
+    }
+
+    /**
+     * A weak reference to an interned instance that remembers its key, which is needed to remove
+     * the entry and release its type ids after the instance is collected.
+     */
+    private static class InternedRef extends WeakReference<ConnectionChecks> {
+        final List<String> mKey;
+
+        InternedRef(ConnectionChecks checks, List<String> key,
+                    ReferenceQueue<ConnectionChecks> queue) {
+            super(checks, queue);
+            mKey = key;
+        }
+    }
+}
@@ -88,6 +88,15 @@ public abstract class Field extends Observable<Field.Observer> implements Clonea
         mType = type;
     }
 
+    /**
+     * Creates a copy of this field, for a new block. The default implementation is a shallow copy,
+     * which shares any mutable state, like lists and observers, with this field. Subclasses should
+     * override this to copy their state. {@link BlockDefinition}s only clone fields whose class
+     * overrides this method, and otherwise load the fields from JSON for each block.
+     *
+     * @return A copy of this field, not attached to any block.
+     * @throws CloneNotSupportedException If the field cannot be cloned.
+     */
     @Override
     public Field clone() throws CloneNotSupportedException {
         return (Field) super.clone();
@@ -154,14 +154,16 @@ public abstract class Input implements Cloneable {
      */
     private Input(Input in) throws IllegalStateException {
         List<Field> inputFields = in.getFields();
+        List<Field> fieldCopies = new ArrayList<>(inputFields.size());
         for (int i = 0; i < inputFields.size(); i++) {
             try {
-                mFields.add(inputFields.get(i).clone());
+                fieldCopies.add(inputFields.get(i).clone());
             } catch (CloneNotSupportedException e) {
                 throw new IllegalStateException("Error cloning field "
                         + inputFields.get(i).getName() + " in Input " + in.getName() + ".");
             }
         }
+        mFields = Collections.unmodifiableList(fieldCopies);
 
         mName = in.getName();
         mType = in.getType();
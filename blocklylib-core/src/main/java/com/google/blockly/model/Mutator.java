@@ -14,10 +14,13 @@
  */
 package com.google.blockly.model;
 
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.text.TextUtils;
 
 import com.google.blockly.android.control.BlocklyController;
 import com.google.blockly.utils.BlockLoadingException;
+import com.google.blockly.utils.BlocklyXmlHelper;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
@@ -56,6 +59,47 @@ public abstract class Mutator {
         String getMutatorId();
     }
 
+    /**
+     * An immutable snapshot of a mutator's state, applied with
+     * {@link Block#setMutationState(State)}. Mutators that expose their state this way can be
+     * mutated and copied without writing and parsing {@code <mutation>} XML. States are compared
+     * with {@link Object#equals(Object)}, and equal states must serialize to the same XML.
+     */
+    public interface State {
+        /**
+         * Writes the state as a {@code <mutation>} element, exactly as the mutator's
+         * {@link Mutator#serialize(XmlSerializer)} would.
+         *
+         * @param serializer The XML serializer.
+         * @throws IOException If the backing output stream encounters an issue.
+         */
+        void serialize(XmlSerializer serializer) throws IOException;
+    }
+
+    /**
+     * Writes a mutator state as a {@code <mutation>} element in string form.
+     *
+     * @param state The state to write.
+     * @return The XML string, or null if the state is null or does not write any XML.
+     */
+    @Nullable
+    public static String writeState(@Nullable final State state) {
+        if (state == null) {
+            return null;
+        }
+        try {
+            String mutation = BlocklyXmlHelper.writeXml(new BlocklyXmlHelper.XmlContentWriter() {
+                @Override
+                public void write(XmlSerializer serializer) throws IOException {
+                    state.serialize(serializer);
+                }
+            });
+            return TextUtils.isEmpty(mutation) ? null : mutation;
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to write mutation string.", e);
+        }
+    }
+
     protected Block mBlock;
 
     private final String mMutatorId;
@@ -146,4 +190,29 @@ public abstract class Mutator {
      */
     public abstract void update(XmlPullParser parser)
             throws BlockLoadingException, IOException, XmlPullParserException;
+
+    /**
+     * @return The current state of this mutator as an immutable {@link State}, or null if this
+     *         mutator only supports {@code <mutation>} XML.
+     */
+    @Nullable
+    public State getState() {
+        return null;
+    }
+
+    /**
+     * Updates the mutator from a {@link State} previously returned by {@link #getState()} on a
+     * mutator of the same type. This should never be called directly. Use
+     * {@link Block#setMutationState(State)}, which fires the related change event.
+     * <p/>
+     * By default, the state is written as {@code <mutation>} XML and passed to
+     * {@link #update(XmlPullParser)}. Mutators that return a {@link State} from {@link #getState()}
+     * should override this to apply it directly.
+     *
+     * @param state The new state.
+     * @throws BlockLoadingException If the state is not valid for this mutator's block.
+     */
+    protected void applyState(@NonNull State state) throws BlockLoadingException {
+        BlocklyXmlHelper.updateMutator(mBlock, this, writeState(state));
+    }
 }
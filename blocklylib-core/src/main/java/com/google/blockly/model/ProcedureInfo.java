@@ -79,6 +79,24 @@ public class ProcedureInfo {
         return mDefinitionHasStatementBody;
     }
 
+    @Override
+    public boolean equals(Object other) {
+        if (other == null || other.getClass() != getClass()) {
+            return false;
+        }
+        ProcedureInfo otherInfo = (ProcedureInfo) other;
+        return TextUtils.equals(mName, otherInfo.mName)
+                && mArguments.equals(otherInfo.mArguments)
+                && mDefinitionHasStatementBody == otherInfo.mDefinitionHasStatementBody;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = (mName == null) ? 0 : mName.hashCode();
+        hash = 31 * hash + mArguments.hashCode();
+        return 31 * hash + (mDefinitionHasStatementBody ? 1 : 0);
+    }
+
     /**
      * Serializes a procedure as a XML &lt;mutation&gt; tag.
      * @param serializer The serailizer to output to.
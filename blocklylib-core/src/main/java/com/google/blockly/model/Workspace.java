@@ -18,6 +18,7 @@ package com.google.blockly.model;
 import android.content.Context;
 import android.support.annotation.Nullable;
 import android.support.annotation.RawRes;
+import android.util.Log;
 
 import com.google.blockly.android.control.BlocklyController;
 import com.google.blockly.android.control.ConnectionManager;
@@ -30,7 +31,11 @@ import com.google.blockly.utils.BlocklyXmlHelper;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
@@ -41,12 +46,20 @@ import java.util.UUID;
 public class Workspace {
     private static final String TAG = "Workspace";
 
+    /** Trash limit for keeping every trashed root block. This is the default. */
+    public static final int UNLIMITED_TRASH_ENTRIES = Integer.MAX_VALUE;
+    /** The default number of recently trashed root blocks kept as {@link Block}s. */
+    public static final int DEFAULT_MAX_LIVE_TRASH_ENTRIES = 10;
+
     private final Context mContext;
     private final BlocklyController mController;
     private BlockFactory mBlockFactory;
     private String mId;
 
-    private final ArrayList<Block> mRootBlocks = new ArrayList<>();
+    /** The root blocks, in the order they were added, with constant time lookup and removal. */
+    private final LinkedHashSet<Block> mRootBlocks = new LinkedHashSet<>();
+    /** Read-only copy of {@link #mRootBlocks}, or null if the root blocks changed since. */
+    private RootBlockList mRootBlockList = null;
     private final ProcedureManager mProcedureManager;
     private final NameManager mVariableNameManager = new NameManager.VariableNameManager();
     private final ConnectionManager mConnectionManager = new ConnectionManager();
@@ -54,6 +67,10 @@ public class Workspace {
 
     private BlocklyCategory mFlyoutCategory;
     private BlocklyCategory mTrashCategory = new BlocklyCategory();
+    /** Older trashed blocks, serialized by {@link BlockBinarySerializer}. Newest first. */
+    private final ArrayDeque<byte[]> mCompactTrash = new ArrayDeque<>();
+    private int mMaxTrashEntries = UNLIMITED_TRASH_ENTRIES;
+    private int mMaxLiveTrashEntries = DEFAULT_MAX_LIVE_TRASH_ENTRIES;
 
     /**
      * Create a workspace.
@@ -99,10 +116,10 @@ public class Workspace {
         if (block.getPreviousBlock() != null) {
             throw new IllegalArgumentException("Root blocks may not have a previous block");
         }
-        if (mRootBlocks.contains(block)) {
+        if (!mRootBlocks.add(block)) {
             throw new IllegalArgumentException("Block is already a root block.");
         }
-        mRootBlocks.add(block);
+        mRootBlockList = null;
         if (isNewBlock) {
             block.setEventWorkspaceId(getId());
             try {
@@ -124,6 +141,7 @@ public class Workspace {
     public boolean removeRootBlock(Block block, boolean cleanupStats) {
         boolean foundAndRemoved = mRootBlocks.remove(block);
         if (foundAndRemoved) {
+            mRootBlockList = null;
             block.setEventWorkspaceId(null);
             if (cleanupStats) {
                 mStats.cleanupStats(block);
@@ -133,7 +151,12 @@ public class Workspace {
     }
 
     /**
-     * Add a root block to the trash.
+     * Add a root block to the trash. Blocks beyond the
+     * {@link #getMaxLiveTrashEntries() most recent} are removed from the
+     * {@link #getTrashCategory() trash category} and kept in a compact serialized form until
+     * {@link #restoreCompactTrash()} is called. The trash keeps every block unless a
+     * {@link #setTrashLimits limit} is set, in which case the least recently trashed block is
+     * discarded when the trash is full.
      *
      * @param block The block to put in the trash, possibly with descendants attached.
      */
@@ -142,6 +165,80 @@ public class Workspace {
         BlocklyCategory.BlockItem blockItem = new BlocklyCategory.BlockItem(block);
         blockItem.getBlock().setEventWorkspaceId(BlocklyEvent.WORKSPACE_ID_TRASH);
         mTrashCategory.addItem(0, blockItem);
+        trimTrash();
+    }
+
+    /**
+     * Sets the limits on the blocks kept in the trash, discarding or compacting the oldest trashed
+     * blocks as needed.
+     *
+     * @param maxEntries The maximum number of root blocks kept in the trash, or
+     *                   {@link #UNLIMITED_TRASH_ENTRIES} to keep them all.
+     * @param maxLiveEntries The number of most recently trashed root blocks kept as {@link Block}s
+     *                       in the trash category. Older blocks are serialized.
+     */
+    public void setTrashLimits(int maxEntries, int maxLiveEntries) {
+        if (maxEntries < 0 || maxLiveEntries < 0) {
+            throw new IllegalArgumentException("Trash limits must not be negative.");
+        }
+        mMaxTrashEntries = maxEntries;
+        mMaxLiveTrashEntries = maxLiveEntries;
+        trimTrash();
+    }
+
+    /**
+     * @return The maximum number of root blocks kept in the trash, or
+     *         {@link #UNLIMITED_TRASH_ENTRIES} if trashed blocks are never discarded.
+     */
+    public int getMaxTrashEntries() {
+        return mMaxTrashEntries;
+    }
+
+    /**
+     * @return The number of most recently trashed root blocks kept as {@link Block}s.
+     */
+    public int getMaxLiveTrashEntries() {
+        return mMaxLiveTrashEntries;
+    }
+
+    /**
+     * @return The number of root blocks in the trash, including those in compact storage.
+     */
+    public int getTrashEntryCount() {
+        return countTrashedBlockItems() + mCompactTrash.size();
+    }
+
+    /**
+     * Loads all trashed blocks in compact storage back into the end of the
+     * {@link #getTrashCategory() trash category}, oldest last, such as when the trash is about to
+     * be shown. They stay loaded until {@link #compactTrash()} is called, such as when the trash
+     * is hidden again, or until more blocks are trashed.
+     */
+    public void restoreCompactTrash() {
+        while (!mCompactTrash.isEmpty()) {
+            byte[] serialized = mCompactTrash.pollFirst();
+            List<Block> blocks;
+            try {
+                blocks = BlockBinarySerializer.loadFromBinary(
+                        new ByteArrayInputStream(serialized), mBlockFactory);
+            } catch (BlockLoadingException e) {
+                Log.w(TAG, "Discarding trashed block that failed to load.", e);
+                continue;
+            }
+            for (int i = 0; i < blocks.size(); i++) {
+                Block block = blocks.get(i);
+                block.setEventWorkspaceId(BlocklyEvent.WORKSPACE_ID_TRASH);
+                mTrashCategory.addItem(new BlocklyCategory.BlockItem(block));
+            }
+        }
+    }
+
+    /**
+     * Moves the oldest trashed blocks beyond the {@link #getMaxLiveTrashEntries() live limit} back
+     * into compact storage, such as after {@link #restoreCompactTrash()} when the trash is hidden.
+     */
+    public void compactTrash() {
+        trimTrash();
     }
 
     /**
@@ -157,6 +254,7 @@ public class Workspace {
             throw new IllegalArgumentException("trashedBlock not found in mTrashCategory");
         }
         mRootBlocks.add(trashedBlock);
+        mRootBlockList = null;
         trashedBlock.setEventWorkspaceId(getId());
     }
 
@@ -212,6 +310,8 @@ public class Workspace {
      */
     public void loadTrashContents(InputStream source) throws BlockLoadingException {
         mTrashCategory = BlocklyXmlHelper.loadToolboxFromXml(source, mBlockFactory, BlocklyEvent.WORKSPACE_ID_TRASH);
+        mCompactTrash.clear();
+        trimTrash();
     }
 
     /**
@@ -237,8 +337,28 @@ public class Workspace {
      *                               BlockLoadingException.
      */
     public void loadWorkspaceContents(InputStream is) throws BlockLoadingException {
-        List<Block> newBlocks = BlocklyXmlHelper.loadFromXml(is, mBlockFactory);
+        loadWorkspaceContents(BlocklyXmlHelper.loadFromXml(is, mBlockFactory));
+    }
+
+    /**
+     * Reads the workspace in from a stream written by {@link #serializeToBinary}. This will clear
+     * the workspace and replace it with the contents of the stream.
+     *
+     * @param is The input stream to read from.
+     * @throws BlockLoadingException If workspace was not loaded. May wrap an IOException.
+     */
+    public void loadWorkspaceContentsFromBinary(InputStream is) throws BlockLoadingException {
+        loadWorkspaceContents(BlockBinarySerializer.loadFromBinary(is, mBlockFactory));
+    }
 
+    /**
+     * Replaces the workspace contents with newly deserialized root blocks. Like the other
+     * {@code loadWorkspaceContents} methods, this will clear the workspace first.
+     *
+     * @param newBlocks The deserialized root blocks, not yet added to any workspace.
+     * @throws BlockLoadingException If the blocks could not be added to the workspace.
+     */
+    public void loadWorkspaceContents(List<Block> newBlocks) throws BlockLoadingException {
         // Successfully deserialized.  Update workspace.
         // TODO: (#22) Add proper variable support.
         // For now just save and restore the list of variables.
@@ -249,6 +369,7 @@ public class Workspace {
         }
 
         mRootBlocks.addAll(newBlocks);
+        mRootBlockList = null;
         mStats.collectStats(newBlocks, true /* recursive */);
     }
 
@@ -298,7 +419,20 @@ public class Workspace {
      * @throws BlocklySerializerException if there was a failure while serializing.
      */
     public void serializeToXml(OutputStream os) throws BlocklySerializerException {
-        BlocklyXmlHelper.writeToXml(mRootBlocks, os, IOOptions.WRITE_ALL_DATA);
+        BlocklyXmlHelper.writeToXml(getRootBlocks(), os, IOOptions.WRITE_ALL_DATA);
+    }
+
+    /**
+     * Outputs the workspace in the compact binary format of {@link BlockBinarySerializer}. This is
+     * much smaller and faster than XML, but can only be read back by
+     * {@link #loadWorkspaceContentsFromBinary}, so it is intended for transient state like
+     * instance state snapshots.
+     *
+     * @param os The output stream to write to.
+     * @throws BlocklySerializerException if there was a failure while serializing.
+     */
+    public void serializeToBinary(OutputStream os) throws BlocklySerializerException {
+        BlockBinarySerializer.writeToBinary(getRootBlocks(), os);
     }
 
     /**
@@ -308,25 +442,40 @@ public class Workspace {
     public void resetWorkspace() {
         mBlockFactory.clearWorkspaceBlockReferences(getId());
         mRootBlocks.clear();
+        mRootBlockList = null;
         mStats.clear();
         mTrashCategory.clear();
+        mCompactTrash.clear();
     }
 
     public boolean hasDeletedBlocks() {
-        return !mTrashCategory.getItems().isEmpty();
+        return !mTrashCategory.getItems().isEmpty() || !mCompactTrash.isEmpty();
     }
 
     public BlocklyCategory getToolboxContents() {
         return mFlyoutCategory;
     }
 
+    /**
+     * @return The category of recently trashed blocks. Older trashed blocks are only included after
+     *         {@link #restoreCompactTrash()}.
+     */
     public BlocklyCategory getTrashCategory() {
         return mTrashCategory;
     }
 
 
+    /**
+     * The returned list is read-only and is not updated when the root blocks change. Use
+     * {@link #addRootBlock} and {@link #removeRootBlock} to change them.
+     *
+     * @return The root blocks, in the order they were added.
+     */
     public ArrayList<Block> getRootBlocks() {
-        return mRootBlocks;
+        if (mRootBlockList == null) {
+            mRootBlockList = new RootBlockList(mRootBlocks);
+        }
+        return mRootBlockList;
     }
 
     public boolean isRootBlock(Block block) {
@@ -337,7 +486,7 @@ public class Workspace {
      * @return if the workspace currently has any blocks.
      */
     public boolean hasBlocks() {
-        return getRootBlocks().size() > 0;
+        return !mRootBlocks.isEmpty();
     }
 
     /**
@@ -359,4 +508,126 @@ public class Workspace {
     public String addVariable(String requestedName, boolean allowRename) {
         return mStats.addVariable(requestedName, allowRename);
     }
+
+    /**
+     * Discards the least recently trashed blocks beyond {@link #mMaxTrashEntries}, then compacts
+     * the oldest trashed blocks beyond {@link #mMaxLiveTrashEntries}.
+     */
+    private void trimTrash() {
+        int liveCount = countTrashedBlockItems();
+        while (liveCount + mCompactTrash.size() > mMaxTrashEntries) {
+            if (!mCompactTrash.isEmpty()) {
+                mCompactTrash.pollLast();
+            } else {
+                mBlockFactory.removeBlockReferences(removeOldestTrashedBlock());
+                --liveCount;
+            }
+        }
+        while (liveCount > mMaxLiveTrashEntries) {
+            Block oldest = removeOldestTrashedBlock();
+            --liveCount;
+            try {
+                // Newer than any entry already in compact storage.
+                mCompactTrash.addFirst(
+                        BlockBinarySerializer.writeToBinary(Collections.singletonList(oldest)));
+            } catch (BlocklySerializerException e) {
+                Log.w(TAG, "Discarding trashed block that failed to serialize.", e);
+            }
+            // Allow the block ids to be reused when restored.
+            mBlockFactory.removeBlockReferences(oldest);
+        }
+    }
+
+    private int countTrashedBlockItems() {
+        List<BlocklyCategory.CategoryItem> items = mTrashCategory.getItems();
+        int count = 0;
+        for (int i = 0; i < items.size(); i++) {
+            if (items.get(i).getType() == BlocklyCategory.CategoryItem.TYPE_BLOCK) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    private Block removeOldestTrashedBlock() {
+        List<BlocklyCategory.CategoryItem> items = mTrashCategory.getItems();
+        for (int i = items.size() - 1; i >= 0; i--) {
+            BlocklyCategory.CategoryItem item = items.get(i);
+            if (item.getType() == BlocklyCategory.CategoryItem.TYPE_BLOCK) {
+                mTrashCategory.removeItem(i);
+                return ((BlocklyCategory.BlockItem) item).getBlock();
+            }
+        }
+        throw new IllegalStateException("No blocks in the trash.");
+    }
+
+    /**
+     * Read-only copy of the root blocks. It remains an {@link ArrayList} so
+     * {@link #getRootBlocks()} keeps its signature.
+     */
+    private static final class RootBlockList extends ArrayList<Block> {
+        RootBlockList(Collection<Block> rootBlocks) {
+            super(rootBlocks);
+        }
+
+        @Override
+        public Block set(int index, Block element) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean add(Block block) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void add(int index, Block element) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Block remove(int index) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends Block> c) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean addAll(int index, Collection<? extends Block> c) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void removeRange(int fromIndex, int toIndex) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> c) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Block> subList(int fromIndex, int toIndex) {
+            return Collections.unmodifiableList(super.subList(fromIndex, toIndex));
+        }
+    }
 }
@@ -116,7 +116,36 @@ public abstract class AbstractProcedureMutator<Info extends ProcedureInfo> exten
     @Override
     public void update(final XmlPullParser parser)
             throws BlockLoadingException, IOException, XmlPullParserException {
-        mProcedureInfo = parseAndValidateMutationXml(parser);
+        updateProcedureInfo(parseAndValidateMutationXml(parser));
+    }
+
+    /**
+     * Updates the block from a {@link ProcedureState}, without writing or parsing XML.
+     *
+     * @param state The new {@link ProcedureState}.
+     * @throws BlockLoadingException If the procedure info is not valid for this mutator.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void applyState(@NonNull State state) throws BlockLoadingException {
+        Info info = (Info) ((ProcedureState) state).getProcedureInfo();
+        updateProcedureInfo(validateProcedureInfo(info));
+    }
+
+    /**
+     * Validates procedure info from either a {@code <mutation>} or a {@link ProcedureState},
+     * possibly filling in missing values from the block.
+     *
+     * @param info The procedure info to validate.
+     * @return The procedure info to apply.
+     * @throws BlockLoadingException If the info is not valid for this mutator.
+     */
+    protected Info validateProcedureInfo(Info info) throws BlockLoadingException {
+        return info;
+    }
+
+    private void updateProcedureInfo(Info info) {
+        mProcedureInfo = info;
         mController.groupAndFireEvents(new Runnable() {
             @Override
             public void run() {
@@ -164,11 +193,15 @@ public abstract class AbstractProcedureMutator<Info extends ProcedureInfo> exten
             throws BlockLoadingException, IOException, XmlPullParserException;
 
     /**
-     * Applies the mutation to {@code mBlock}.
+     * Applies the mutation to {@code mBlock}. The block is only reshaped if the inputs changed,
+     * avoiding a rebuild of the block's views when only labels were updated.
      */
     protected void updateBlock() {
         if (mProcedureInfo != null) {
-            mBlock.reshape(buildUpdatedInputs());
+            List<Input> newInputs = buildUpdatedInputs();
+            if (!newInputs.equals(mBlock.getInputs())) {
+                mBlock.reshape(newInputs);
+            }
         }
     }
 
@@ -177,4 +210,47 @@ public abstract class AbstractProcedureMutator<Info extends ProcedureInfo> exten
      *         block during mutation.
      */
     protected abstract List<Input> buildUpdatedInputs();
+
+    /**
+     * The immutable mutation state of procedure blocks. Procedure definitions and calls share the
+     * same {@link ProcedureInfo}, but serialize different parts of it.
+     */
+    public static final class ProcedureState implements State {
+        private final ProcedureInfo mProcedureInfo;
+        private final boolean mAsDefinition;
+
+        /**
+         * @param info The procedure info.
+         * @param asDefinition Whether the state is for a procedure definition's mutator, or
+         *                     otherwise a calling mutator.
+         */
+        public ProcedureState(@NonNull ProcedureInfo info, boolean asDefinition) {
+            mProcedureInfo = info;
+            mAsDefinition = asDefinition;
+        }
+
+        public ProcedureInfo getProcedureInfo() {
+            return mProcedureInfo;
+        }
+
+        @Override
+        public void serialize(XmlSerializer serializer) throws IOException {
+            ProcedureInfo.serialize(serializer, mProcedureInfo, mAsDefinition);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof ProcedureState)) {
+                return false;
+            }
+            ProcedureState otherState = (ProcedureState) other;
+            return mAsDefinition == otherState.mAsDefinition
+                    && mProcedureInfo.equals(otherState.mProcedureInfo);
+        }
+
+        @Override
+        public int hashCode() {
+            return 2 * mProcedureInfo.hashCode() + (mAsDefinition ? 1 : 0);
+        }
+    }
 }
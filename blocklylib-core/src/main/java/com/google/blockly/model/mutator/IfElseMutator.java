@@ -1,6 +1,7 @@
 package com.google.blockly.model.mutator;
 
 import android.content.Context;
+import android.support.annotation.NonNull;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -111,6 +112,17 @@ public class IfElseMutator extends Mutator {
         IfElseMutator.serializeImpl(serializer, mElseIfCount, mElseStatement);
     }
 
+    @Override
+    public IfElseState getState() {
+        return new IfElseState(mElseIfCount, mElseStatement);
+    }
+
+    @Override
+    protected void applyState(@NonNull State state) {
+        IfElseState ifElseState = (IfElseState) state;
+        updateImpl(ifElseState.mElseIfCount, ifElseState.mHasElse);
+    }
+
     @Override
     public void update(XmlPullParser parser) throws IOException, XmlPullParserException {
         int elseIfCount = 0;
@@ -158,11 +170,10 @@ public class IfElseMutator extends Mutator {
      */
     public void mutate(int elseIfCount, boolean hasElse) {
         if (mBlock != null) {
-            String mutation = writeMutationString(elseIfCount, hasElse);
             try {
-                mBlock.setMutation(mutation);
+                mBlock.setMutationState(new IfElseState(elseIfCount, hasElse));
             } catch (BlockLoadingException e) {
-                throw new IllegalStateException("Failed to update from new mutation XML.", e);
+                throw new IllegalStateException("Failed to apply new mutation state.", e);
             }
         } else {
             mElseIfCount = elseIfCount;
@@ -256,4 +267,48 @@ public class IfElseMutator extends Mutator {
                 .attribute(null, "else", hasElseStatement ? "1" : "0");
         serializer.endTag(null, "mutation");
     }
+
+    /**
+     * The immutable mutation state of an if/else block.
+     */
+    public static final class IfElseState implements State {
+        private final int mElseIfCount;
+        private final boolean mHasElse;
+
+        /**
+         * @param elseIfCount The count of {@code else if <test> <statement>} sections.
+         * @param hasElse Whether the block has a final else statement.
+         */
+        public IfElseState(int elseIfCount, boolean hasElse) {
+            mElseIfCount = elseIfCount;
+            mHasElse = hasElse;
+        }
+
+        public int getElseIfCount() {
+            return mElseIfCount;
+        }
+
+        public boolean hasElse() {
+            return mHasElse;
+        }
+
+        @Override
+        public void serialize(XmlSerializer serializer) throws IOException {
+            serializeImpl(serializer, mElseIfCount, mHasElse);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof IfElseState)) {
+                return false;
+            }
+            IfElseState otherState = (IfElseState) other;
+            return mElseIfCount == otherState.mElseIfCount && mHasElse == otherState.mHasElse;
+        }
+
+        @Override
+        public int hashCode() {
+            return 2 * mElseIfCount + (mHasElse ? 1 : 0);
+        }
+    }
 }
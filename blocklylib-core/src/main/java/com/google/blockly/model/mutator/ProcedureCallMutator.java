@@ -44,6 +44,7 @@ public class ProcedureCallMutator extends AbstractProcedureMutator<ProcedureInfo
     public static final String CALLRETURN_MUTATOR_ID = "procedures_callreturn_mutator";
 
     public static final String NAME_FIELD_NAME = "NAME";
+    public static final String ARGUMENT_INPUT_PREFIX = "ARG";
 
     public static final Mutator.Factory<ProcedureCallMutator> CALLNORETURN_FACTORY =
             new Factory(CALLNORETURN_MUTATOR_ID);
@@ -78,17 +79,25 @@ public class ProcedureCallMutator extends AbstractProcedureMutator<ProcedureInfo
      */
     public void mutate(ProcedureInfo procedureInfo) {
         if (mBlock != null) {
-            String mutation = writeMutationString(procedureInfo);
             try {
-                mBlock.setMutation(mutation);
+                mBlock.setMutationState(new ProcedureState(procedureInfo, false));
             } catch (BlockLoadingException e) {
-                throw new IllegalStateException("Failed to update from new mutation XML.", e);
+                throw new IllegalStateException("Failed to apply new mutation state.", e);
             }
         } else {
             mProcedureInfo = procedureInfo;
         }
     }
 
+    /**
+     * @return The current procedure info as a {@link ProcedureState}, or null if no procedure
+     *         info has been applied.
+     */
+    @Override
+    public ProcedureState getState() {
+        return (mProcedureInfo == null) ? null : new ProcedureState(mProcedureInfo, false);
+    }
+
     /**
      * Updates the ProcedureInfo with a new name, and updates the name field. This should never be
      * called directly. Use {@link #setProcedureName(String)} or {@link #mutate(ProcedureInfo)}.
@@ -117,25 +126,37 @@ public class ProcedureCallMutator extends AbstractProcedureMutator<ProcedureInfo
     }
 
     /**
-     * @return A new set of {@link Input Inputs} reflecting the current ProcedureInfo state.
+     * Builds the inputs for the current ProcedureInfo state. Existing argument inputs are reused,
+     * relabeled if the argument was renamed, so blocks connected to them stay connected. Inputs
+     * of removed arguments must be disconnected before the mutation.
+     *
+     * @return A set of {@link Input Inputs} reflecting the current ProcedureInfo state.
      */
     @Override
     protected List<Input> buildUpdatedInputs() {
         List<String> arguments = mProcedureInfo.getArgumentNames();
         final int argCount = arguments.size();
+        List<Input> oldInputs = mBlock.getInputs();
         List<Input> inputs = new ArrayList<>(argCount + 1);
 
         // Header (TOPROW)
-        Input topRow = mBlock.getInputs().get(0);
+        Input topRow = oldInputs.get(0);
         inputs.add(topRow);  // First row does not change shape.
 
         // Argument inputs
         for (int i = 0; i < argCount; ++i) {
-            FieldLabel label = new FieldLabel(null, arguments.get(i));
-            inputs.add(new Input.InputValue("ARG" + i,
-                    Collections.<Field>singletonList(label),
-                    Input.ALIGN_RIGHT,
-                    null));
+            String inputName = ARGUMENT_INPUT_PREFIX + i;
+            Input argInput = (i + 1 < oldInputs.size()) ? oldInputs.get(i + 1) : null;
+            if (argInput != null && inputName.equals(argInput.getName())) {
+                ((FieldLabel) argInput.getFields().get(0)).setText(arguments.get(i));
+                inputs.add(argInput);
+            } else {
+                FieldLabel label = new FieldLabel(null, arguments.get(i));
+                inputs.add(new Input.InputValue(inputName,
+                        Collections.<Field>singletonList(label),
+                        Input.ALIGN_RIGHT,
+                        null));
+            }
         }
 
         return inputs;
@@ -152,7 +173,17 @@ public class ProcedureCallMutator extends AbstractProcedureMutator<ProcedureInfo
      */
     protected ProcedureInfo parseAndValidateMutationXml(XmlPullParser parser)
             throws BlockLoadingException, IOException, XmlPullParserException {
-        ProcedureInfo info = ProcedureInfo.parseImpl(parser);
+        return validateProcedureInfo(ProcedureInfo.parseImpl(parser));
+    }
+
+    /**
+     * @param info The procedure info for the mutation.
+     * @return The same procedure info.
+     * @throws BlockLoadingException If the info lacks a procedure name.
+     */
+    @Override
+    protected ProcedureInfo validateProcedureInfo(ProcedureInfo info)
+            throws BlockLoadingException {
         if (info.getProcedureName() == null) {
             throw new BlockLoadingException(
                     "No procedure name specified in mutation for " + mBlock);
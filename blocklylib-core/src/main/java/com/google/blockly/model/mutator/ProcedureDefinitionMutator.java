@@ -108,10 +108,9 @@ public class ProcedureDefinitionMutator extends AbstractProcedureMutator<Procedu
     public void mutate(ProcedureInfo newProcedureInfo) {
         if (mBlock != null) {
             try {
-                String mutation = writeMutationString(newProcedureInfo);
-                mBlock.setMutation(mutation);
+                mBlock.setMutationState(new ProcedureState(newProcedureInfo, true));
             } catch (BlockLoadingException e) {
-                throw new IllegalStateException("Failed to update from new mutation XML.", e);
+                throw new IllegalStateException("Failed to apply new mutation state.", e);
             }
         } else {
             mProcedureInfo = newProcedureInfo;
@@ -129,16 +128,34 @@ public class ProcedureDefinitionMutator extends AbstractProcedureMutator<Procedu
     @Override
     public ProcedureInfo parseAndValidateMutationXml(XmlPullParser parser)
             throws BlockLoadingException, IOException, XmlPullParserException {
-        ProcedureInfo xmlInfo = ProcedureInfo.parseImpl(parser);
+        return validateProcedureInfo(ProcedureInfo.parseImpl(parser));
+    }
+
+    /**
+     * @param info The procedure info for the mutation.
+     * @return The procedure info, using the name on the block's name field if the info does not
+     *         specify a name.
+     */
+    @Override
+    protected ProcedureInfo validateProcedureInfo(ProcedureInfo info) {
         FieldInput nameField = getNameField();
-        if (TextUtils.isEmpty(xmlInfo.getProcedureName()) && nameField != null) {
+        if (TextUtils.isEmpty(info.getProcedureName()) && nameField != null) {
             // Use the name on the field when not specified in the info.
             return new ProcedureInfo(
                     nameField.getText(),
-                    xmlInfo.getArgumentNames(),
-                    xmlInfo.getDefinitionHasStatementBody());
+                    info.getArgumentNames(),
+                    info.getDefinitionHasStatementBody());
         }
-        return xmlInfo;
+        return info;
+    }
+
+    /**
+     * @return The current procedure info as a {@link ProcedureState}, or null if no procedure
+     *         info has been applied.
+     */
+    @Override
+    public ProcedureState getState() {
+        return (mProcedureInfo == null) ? null : new ProcedureState(mProcedureInfo, true);
     }
 
     /**
@@ -1,11 +1,13 @@
 package com.google.blockly.utils;
 
 import android.content.Context;
+import android.support.annotation.VisibleForTesting;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -37,22 +39,64 @@ public class LangUtils {
     }
 
     /**
-     * A Map Containing Translations
+     * Start of a message reference, such as {@code %{BKY_CONTROLS_IF_MSG_IF}}.
+     */
+    private static final String REFERENCE_START = "%{BKY_";
+    /**
+     * How deep references within message values are resolved.
+     */
+    private static final int MAX_REFERENCE_DEPTH = 8;
+
+    /**
+     * A Map Containing Translations, keyed by message name without the {@code %{BKY_} prefix
      */
     private static Map<String, String> langMap = new HashMap<>();
 
+    /**
+     * The translations of each language loaded so far, with aliases already resolved.
+     */
+    private static final Map<String, Map<String, String>> LANG_TABLES = new HashMap<>();
+
+    /**
+     * Incremented each time the translations are replaced. See {@link #getGeneration()}.
+     */
+    private static int generation = 0;
+
+    /**
+     * Memoized results of {@link #interpolate}, for the current translations. Only strings with
+     * message references are stored; these come from block definitions and other static text.
+     */
+    private static final Map<String, String> INTERPOLATED = new HashMap<>();
+
     /**
      * Replace Translation String with localized text using Blockly Web's translation files.
      * @param value Input Value
      * @return Translated String
      */
     public static String interpolate(String value) {
-        for (Map.Entry<String, String> entry : langMap.entrySet()) {
-            while (value.contains(entry.getKey())) {
-                value = value.replace(entry.getKey(), entry.getValue());
+        if (value.indexOf(REFERENCE_START) < 0) {
+            return value;
+        }
+        synchronized (INTERPOLATED) {
+            String result = INTERPOLATED.get(value);
+            if (result == null) {
+                result = resolveReferences(value, 0);
+                INTERPOLATED.put(value, result);
             }
+            return result;
+        }
+    }
+
+    /**
+     * @return A number that changes each time the translations are replaced, such as by
+     *         {@link #generateLang}. Text interpolated earlier, like the labels of
+     *         {@link com.google.blockly.model.BlockDefinition} prototypes, is stale if the
+     *         generation changed since.
+     */
+    public static int getGeneration() {
+        synchronized (INTERPOLATED) {
+            return generation;
         }
-        return value;
     }
 
     /**
@@ -60,19 +104,86 @@ public class LangUtils {
      * @param context Context
      */
     public static void generateLang(Context context) {
-        generateLang(context, getLang());
+        setLangMap(getLangTable(context, getLang()));
+    }
+
+    /**
+     * Replaces the current translations and clears the memoized results of {@link #interpolate}.
+     * @param messages Translations keyed by message name
+     */
+    @VisibleForTesting
+    static void setLangMap(Map<String, String> messages) {
+        synchronized (INTERPOLATED) {
+            if (langMap == messages) {
+                return;  // Tables are cached per language, so this is the same language.
+            }
+            langMap = messages;
+            INTERPOLATED.clear();
+            ++generation;
+        }
+    }
+
+    /**
+     * Scans the string once for message references, replacing each reference with its translation.
+     * References to unknown messages are left as is.
+     */
+    private static String resolveReferences(String value, int depth) {
+        StringBuilder out = null;
+        int copiedTo = 0;
+        int start = value.indexOf(REFERENCE_START);
+        while (start >= 0) {
+            int nameStart = start + REFERENCE_START.length();
+            int end = value.indexOf('}', nameStart);
+            if (end < 0) {
+                break;
+            }
+            String message = langMap.get(value.substring(nameStart, end));
+            if (message == null) {
+                start = value.indexOf(REFERENCE_START, nameStart);
+                continue;
+            }
+            if (depth < MAX_REFERENCE_DEPTH && message.indexOf(REFERENCE_START) >= 0) {
+                message = resolveReferences(message, depth + 1);
+            }
+            if (out == null) {
+                out = new StringBuilder(value.length() + message.length());
+            }
+            out.append(value, copiedTo, start).append(message);
+            copiedTo = end + 1;
+            start = value.indexOf(REFERENCE_START, copiedTo);
+        }
+        if (out == null) {
+            return value;
+        }
+        return out.append(value, copiedTo, value.length()).toString();
     }
 
     /**
-     * Generate Map of translations.
      * @param context Context
+     * @param lang Language
+     * @return The translations for the language, loaded once per language.
      */
-    private static void generateLang(Context context, String lang) {
-        if (!lang.equals("en")) {
-            generateLang(context, "en");
+    private static Map<String, String> getLangTable(Context context, String lang) {
+        synchronized (LANG_TABLES) {
+            Map<String, String> table = LANG_TABLES.get(lang);
+            if (table == null) {
+                // Missing values will default to English.
+                table = lang.equals("en") ? new HashMap<String, String>()
+                        : new HashMap<>(getLangTable(context, "en"));
+                parseMessages(readMessages(context, lang), table);
+                LANG_TABLES.put(lang, table);
+            }
+            return table;
         }
+    }
 
-        // Attempt to override language string table. Missing values will default to English loaded above.
+    /**
+     * Reads the message file of a language.
+     * @param context Context
+     * @param lang Language
+     * @return The contents of the file, or an empty string if it could not be read.
+     */
+    private static String readMessages(Context context, String lang) {
         StringBuilder out = new StringBuilder();
         BufferedReader reader = null;
         try {
@@ -96,7 +207,20 @@ public class LangUtils {
             }
         }
 
-        String[] lines = out.toString().split("\n");
+        return out.toString();
+    }
+
+    /**
+     * Parses the {@code Blockly.Msg} assignments of a message file into a map of translations.
+     * Aliases to other messages are resolved after the whole file is read, so an alias may refer
+     * to a message defined later in the file.
+     * @param js The contents of the message file
+     * @param messages The map to add translations to, keyed by message name
+     */
+    @VisibleForTesting
+    static void parseMessages(String js, Map<String, String> messages) {
+        Map<String, String> aliases = new LinkedHashMap<>();
+        String[] lines = js.split("\n");
         for (int i = 0; i < lines.length; i++) {
             lines[i] = lines[i].trim();
             if (lines[i].startsWith("Blockly.Msg[\"")) {
@@ -112,16 +236,23 @@ public class LangUtils {
                 }
                 String value = lines[i].substring(1, lines[i].lastIndexOf('"'));
                 if (alias) {
-                    if (langMap.get("%{BKY_" + value + "}") == null) {
-                        throw new RuntimeException(value + " is not defined.");
-                    } else {
-                        value = langMap.get("%{BKY_" + value + "}");
-                    }
-                }
-                if (value != null) {
-                    langMap.put("%{BKY_" + name + "}", value);
+                    aliases.put(name, value);
+                } else {
+                    messages.put(name, value);
                 }
             }
         }
+
+        for (Map.Entry<String, String> entry : aliases.entrySet()) {
+            String target = entry.getValue();
+            for (int hops = 0; aliases.containsKey(target) && hops < aliases.size(); hops++) {
+                target = aliases.get(target);
+            }
+            String value = messages.get(target);
+            if (value == null) {
+                throw new RuntimeException(target + " is not defined.");
+            }
+            messages.put(entry.getKey(), value);
+        }
     }
 }
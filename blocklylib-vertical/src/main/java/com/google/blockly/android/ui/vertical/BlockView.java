@@ -27,7 +27,9 @@ import android.graphics.drawable.Drawable;
 import android.graphics.drawable.NinePatchDrawable;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 import android.util.Log;
+import android.util.SparseArray;
 
 import com.google.blockly.android.control.ConnectionManager;
 import com.google.blockly.android.ui.Dragger;
@@ -41,6 +43,7 @@ import com.google.blockly.model.Input;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -95,6 +98,16 @@ public class BlockView extends AbstractBlockView<InputView> {
     private final boolean mUseCap;
     private int mBlockTopPadding;
 
+    // Patch drawables and fill rects from the last layout, reused by the next layout instead of
+    // inflating new drawables. Patch drawables are keyed by resource id.
+    private final SparseArray<ArrayList<NinePatchDrawable>> mPatchesInUse = new SparseArray<>();
+    private final SparseArray<ArrayList<NinePatchDrawable>> mRecycledPatches =
+            new SparseArray<>();
+    private final ArrayList<Rect> mRecycledRects = new ArrayList<>();
+    // The measurements the current patches were laid out for. See computeLayoutShape().
+    private int[] mPatchLayoutShape = null;
+    private int[] mTempLayoutShape = null;
+
     private final Rect tempRect = new Rect(); // Only use in main thread functions.
 
     /**
@@ -241,7 +254,9 @@ public class BlockView extends AbstractBlockView<InputView> {
                     rowTop + inputView.getMeasuredHeight());
         }
 
-        layoutPatchesAndConnectors();
+        if (computeLayoutShape()) {
+            layoutPatchesAndConnectors();
+        }
         updateConnectorLocations();
     }
 
@@ -259,6 +274,22 @@ public class BlockView extends AbstractBlockView<InputView> {
         return mUseCap;
     }
 
+    /**
+     * @return The patches drawn for the block's shape in the current layout.
+     */
+    @VisibleForTesting
+    List<Drawable> getBlockPatches() {
+        return mBlockPatches;
+    }
+
+    /**
+     * @return The rects filling the block's content area in the current layout.
+     */
+    @VisibleForTesting
+    List<Rect> getFillRects() {
+        return mFillRects;
+    }
+
     /**
      * Called when a block's inputs, fields, comment, or mutator is/are updated, and thus the
      * shape may have changed.
@@ -701,10 +732,67 @@ public class BlockView extends AbstractBlockView<InputView> {
         mFillPaint.setStyle(Paint.Style.FILL);
     }
 
+    /**
+     * Collects every measurement used by {@link #layoutPatchesAndConnectors()} into an array
+     * describing the shape of the block. Block views with the same shape have the same patch and
+     * connector geometry, so the patches only need to be laid out again when the shape changes,
+     * for example when a field's size changes, but not when a field's value changes without
+     * changing its size, or when the block is only moved.
+     *
+     * @return True if the shape differs from the shape the patches were last laid out for.
+     */
+    private boolean computeLayoutShape() {
+        int size = 13 + mInlineRowWidth.size() + 9 * mInputCount;
+        int[] shape = mTempLayoutShape;
+        if (shape == null || shape.length != size) {
+            shape = new int[size];
+        }
+
+        int n = 0;
+        shape[n++] = mHelper.useRtl() ? 1 : 0;
+        shape[n++] = mBlock.getInputsInline() ? 1 : 0;
+        shape[n++] = mBlockViewSize.x;
+        shape[n++] = mBlockViewSize.y;
+        shape[n++] = mBlockContentWidth;
+        shape[n++] = mBlockContentHeight;
+        shape[n++] = mBlockTopPadding;
+        shape[n++] = mOutputConnectorMargin;
+        shape[n++] = mNextBlockVerticalOffset;
+        shape[n++] = mIconsView == null ? -1 : mIconsView.getTop();
+        shape[n++] = mIconsView == null ? -1 : mIconsView.getWidth();
+        shape[n++] = mIconsView == null ? -1 : mIconsView.getHeight();
+        shape[n++] = mInlineRowWidth.size();
+        for (int i = 0; i < mInlineRowWidth.size(); i++) {
+            shape[n++] = mInlineRowWidth.get(i);
+        }
+        for (int i = 0; i < mInputCount; i++) {
+            InputView inputView = mInputViews.get(i);
+            ViewPoint origin = mInputLayoutOrigins.get(i);
+            shape[n++] = origin.x;
+            shape[n++] = origin.y;
+            shape[n++] = inputView.getMeasuredWidth();
+            shape[n++] = inputView.getMeasuredHeight();
+            shape[n++] = inputView.getFieldLayoutWidth();
+            shape[n++] = inputView.getRowHeight();
+            shape[n++] = inputView.getTotalChildWidth();
+            shape[n++] = inputView.getTotalChildHeight();
+            shape[n++] = inputView.getInlineInputX();
+        }
+
+        if (Arrays.equals(shape, mPatchLayoutShape)) {
+            mTempLayoutShape = shape;
+            return false;
+        }
+        mTempLayoutShape = mPatchLayoutShape;
+        mPatchLayoutShape = shape;
+        return true;
+    }
+
     /**
      * Position patches for block rendering and connectors.
      */
     private void layoutPatchesAndConnectors() {
+        recyclePatchesAndRects();
         mBlockPatches.clear();
         mBlockBorderPatches.clear();
         mFillRects.clear();
@@ -835,7 +923,7 @@ public class BlockView extends AbstractBlockView<InputView> {
         final NinePatchDrawable bottomStartDrawable =
                 getColoredPatchDrawable(bottomStartResourceId);
         final NinePatchDrawable bottomStartBorderDrawable =
-                mPatchManager.getPatchDrawable(bottomStartBorderResourceId);
+                obtainPatchDrawable(bottomStartBorderResourceId);
 
         mHelper.setRtlAwareBounds(tempRect,
                 /* this width */ mBlockViewSize.x,
@@ -848,7 +936,7 @@ public class BlockView extends AbstractBlockView<InputView> {
 
         if (mBlock.getNextConnection() != null) {
             mNextConnectionHighlightPatch =
-                    mPatchManager.getPatchDrawable(R.drawable.bottom_start_next_connection);
+                    obtainPatchDrawable(R.drawable.bottom_start_next_connection);
             mNextConnectionHighlightPatch.setBounds(tempRect);
         }
 
@@ -879,27 +967,27 @@ public class BlockView extends AbstractBlockView<InputView> {
             topStartDrawable = getColoredPatchDrawable(isShadow
                     ? R.drawable.top_start_previous_shadow : R.drawable.top_start_previous);
             topStartBorderDrawable =
-                    mPatchManager.getPatchDrawable(R.drawable.top_start_previous_border);
+                    obtainPatchDrawable(R.drawable.top_start_previous_border);
             mPreviousConnectorHighlightPatch =
-                    mPatchManager.getPatchDrawable(R.drawable.top_start_previous_connection);
+                    obtainPatchDrawable(R.drawable.top_start_previous_connection);
         } else if (mBlock.getOutputConnection() != null) {
             mHelper.setPointMaybeFlip(mOutputConnectorOffset, mOutputConnectorMargin, yTop);
             topStartDrawable = getColoredPatchDrawable(
                     isShadow ? R.drawable.top_start_output_shadow : R.drawable.top_start_output);
             topStartBorderDrawable =
-                    mPatchManager.getPatchDrawable(R.drawable.top_start_output_border);
+                    obtainPatchDrawable(R.drawable.top_start_output_border);
             mOutputConnectorHighlightPatch =
-                    mPatchManager.getPatchDrawable(R.drawable.top_start_output_connection);
+                    obtainPatchDrawable(R.drawable.top_start_output_connection);
         } else if (mUseCap) {
             topStartDrawable = getColoredPatchDrawable(
                     isShadow ? R.drawable.top_start_hat_shadow : R.drawable.top_start_hat);
             topStartBorderDrawable =
-                    mPatchManager.getPatchDrawable(R.drawable.top_start_hat_border);
+                    obtainPatchDrawable(R.drawable.top_start_hat_border);
         } else {
             topStartDrawable = getColoredPatchDrawable(
                     isShadow ? R.drawable.top_start_default_shadow : R.drawable.top_start_default);
             topStartBorderDrawable =
-                    mPatchManager.getPatchDrawable(R.drawable.top_start_default_border);
+                    obtainPatchDrawable(R.drawable.top_start_default_border);
         }
         mHelper.setRtlAwareBounds(tempRect,
                 /* this width */ mBlockViewSize.x,
@@ -937,7 +1025,7 @@ public class BlockView extends AbstractBlockView<InputView> {
         final NinePatchDrawable inputDrawable = getColoredPatchDrawable(
                 isShadow ? R.drawable.dummy_input_shadow : R.drawable.dummy_input);
         final NinePatchDrawable inputBorderDrawable =
-                mPatchManager.getPatchDrawable(R.drawable.dummy_input_border);
+                obtainPatchDrawable(R.drawable.dummy_input_border);
         int width = inputDrawable.getIntrinsicWidth();
         if (mHasValueInput) {
             // Stretch the patch horizontally if this block has at least one value
@@ -979,9 +1067,9 @@ public class BlockView extends AbstractBlockView<InputView> {
         final NinePatchDrawable inputDrawable = getColoredPatchDrawable(isShadow
                 ? R.drawable.value_input_external_shadow : R.drawable.value_input_external);
         final NinePatchDrawable inputBorderDrawable =
-                mPatchManager.getPatchDrawable(R.drawable.value_input_external_border);
+                obtainPatchDrawable(R.drawable.value_input_external_border);
         final NinePatchDrawable connectionHighlightDrawable =
-                mPatchManager.getPatchDrawable(R.drawable.value_input_external_connection);
+                obtainPatchDrawable(R.drawable.value_input_external_connection);
 
         int patchLeft = xTo - inputDrawable.getIntrinsicWidth();
         int patchRight = xTo;
@@ -1010,7 +1098,7 @@ public class BlockView extends AbstractBlockView<InputView> {
             final NinePatchDrawable boundaryGapDrawable =
                     getColoredPatchDrawable(R.drawable.dummy_input);
             final NinePatchDrawable boundaryGapBorderDrawable =
-                    mPatchManager.getPatchDrawable(R.drawable.dummy_input_border);
+                    obtainPatchDrawable(R.drawable.dummy_input_border);
             mHelper.setRtlAwareBounds(tempRect,
                     /* this width */  mBlockViewSize.x,
                     /* LTR start */ patchLeft,
@@ -1065,7 +1153,7 @@ public class BlockView extends AbstractBlockView<InputView> {
         final NinePatchDrawable inputDrawable = getColoredPatchDrawable(
                 isShadow ? R.drawable.value_input_inline_shadow : R.drawable.value_input_inline);
         final NinePatchDrawable connectionHighlightDrawable =
-                mPatchManager.getPatchDrawable(R.drawable.value_input_inline_connection);
+                obtainPatchDrawable(R.drawable.value_input_inline_connection);
         mHelper.setRtlAwareBounds(tempRect,
                 /* this width */  mBlockViewSize.x,
                 /* LTR start */ cutoutX,
@@ -1105,7 +1193,7 @@ public class BlockView extends AbstractBlockView<InputView> {
             final NinePatchDrawable blockFillDrawable = getColoredPatchDrawable(
                     isShadow ? R.drawable.dummy_input_shadow : R.drawable.dummy_input);
             final NinePatchDrawable blockFillBorderDrawable =
-                    mPatchManager.getPatchDrawable(R.drawable.dummy_input_border);
+                    obtainPatchDrawable(R.drawable.dummy_input_border);
 
             mHelper.setRtlAwareBounds(tempRect,
                     /* this width */  mBlockViewSize.x,
@@ -1151,9 +1239,9 @@ public class BlockView extends AbstractBlockView<InputView> {
         final NinePatchDrawable statementTopDrawable = getColoredPatchDrawable(
                 isShadow ? R.drawable.statementinput_top_shadow : R.drawable.statementinput_top);
         final NinePatchDrawable statementTopBorderDrawable =
-                mPatchManager.getPatchDrawable(R.drawable.statementinput_top_border);
+                obtainPatchDrawable(R.drawable.statementinput_top_border);
         final NinePatchDrawable statementConnectionHighlight =
-                mPatchManager.getPatchDrawable(R.drawable.statementinput_top_connection);
+                obtainPatchDrawable(R.drawable.statementinput_top_connection);
 
         mHelper.setRtlAwareBounds(tempRect,
                 /* this width */  mBlockViewSize.x,
@@ -1176,7 +1264,7 @@ public class BlockView extends AbstractBlockView<InputView> {
         final NinePatchDrawable statementBottomDrawable = getColoredPatchDrawable(isShadow ?
                 R.drawable.statementinput_bottom_shadow : R.drawable.statementinput_bottom);
         final NinePatchDrawable statementBottomBorderDrawable =
-                mPatchManager.getPatchDrawable(R.drawable.statementinput_bottom_border);
+                obtainPatchDrawable(R.drawable.statementinput_bottom_border);
 
         final int connectorHeight =
                 Math.max(inputView.getTotalChildHeight(),
@@ -1232,7 +1320,10 @@ public class BlockView extends AbstractBlockView<InputView> {
             }
         }
 
-        mNextFillRect = new Rect(left, top, right, bottom);
+        int recycledCount = mRecycledRects.size();
+        mNextFillRect = recycledCount == 0 ? new Rect()
+                : mRecycledRects.remove(recycledCount - 1);
+        mNextFillRect.set(left, top, right, bottom);
     }
 
     /**
@@ -1286,8 +1377,48 @@ public class BlockView extends AbstractBlockView<InputView> {
 
     private NinePatchDrawable getColoredPatchDrawable(int id) {
         // TODO: (#161) Use flat 9-patches for shadow blocks
-        NinePatchDrawable drawable = mPatchManager.getPatchDrawable(id);
+        NinePatchDrawable drawable = obtainPatchDrawable(id);
         drawable.setColorFilter(mBlockColorFilter);
         return drawable;
     }
+
+    /**
+     * @param id The resource id of the patch.
+     * @return A patch drawable recycled from the previous layout, or a new one from the
+     * {@link PatchManager} if none is available.
+     */
+    private NinePatchDrawable obtainPatchDrawable(int id) {
+        NinePatchDrawable drawable;
+        ArrayList<NinePatchDrawable> recycled = mRecycledPatches.get(id);
+        if (recycled != null && !recycled.isEmpty()) {
+            drawable = recycled.remove(recycled.size() - 1);
+        } else {
+            drawable = mPatchManager.getPatchDrawable(id);
+        }
+        ArrayList<NinePatchDrawable> inUse = mPatchesInUse.get(id);
+        if (inUse == null) {
+            inUse = new ArrayList<>();
+            mPatchesInUse.put(id, inUse);
+        }
+        inUse.add(drawable);
+        return drawable;
+    }
+
+    /**
+     * Makes the patch drawables and fill rects of the previous layout available for reuse.
+     */
+    private void recyclePatchesAndRects() {
+        for (int i = 0; i < mPatchesInUse.size(); i++) {
+            int id = mPatchesInUse.keyAt(i);
+            ArrayList<NinePatchDrawable> inUse = mPatchesInUse.valueAt(i);
+            ArrayList<NinePatchDrawable> recycled = mRecycledPatches.get(id);
+            if (recycled == null) {
+                recycled = new ArrayList<>(inUse.size());
+                mRecycledPatches.put(id, recycled);
+            }
+            recycled.addAll(inUse);
+            inUse.clear();
+        }
+        mRecycledRects.addAll(mFillRects);
+    }
 }
@@ -167,6 +167,15 @@ public class VerticalBlockViewFactory extends BlockViewFactory<BlockView, InputV
         return fieldView;
     }
 
+    /**
+     * Each field type is inflated from a single layout, so field views can be pooled. Subclasses
+     * that override {@link #buildFieldView} with other view classes must disable pooling.
+     */
+    @Override
+    protected boolean isFieldViewPoolingEnabled() {
+        return true;
+    }
+
     @Override
     protected SpinnerAdapter getVariableAdapter(AppCompatSpinner mSpinner) {
         if (mVariableNameManager == null) {
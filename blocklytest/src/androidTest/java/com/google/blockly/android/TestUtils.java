@@ -16,6 +16,7 @@
 package com.google.blockly.android;
 
 import android.content.Context;
+import android.support.test.InstrumentationRegistry;
 import android.view.View;
 import android.view.ViewGroup;
 
@@ -33,6 +34,8 @@ import com.google.blockly.model.Field;
 import com.google.blockly.model.Mutator;
 import com.google.blockly.utils.BlockLoadingException;
 
+import org.junit.Assume;
+
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
@@ -41,6 +44,13 @@ import java.util.Map;
  * Utils for setting up blocks during testing.
  */
 public final class TestUtils {
+    /**
+     * Instrumentation argument that enables the benchmarks, which are skipped by default. Pass it
+     * to the runner, as in {@code -Pandroid.testInstrumentationRunnerArguments.benchmark=true}.
+     * The benchmarks are also annotated {@code @LargeTest}, so adding the {@code size=large}
+     * argument runs only them.
+     */
+    public static final String BENCHMARK_ARGUMENT = "benchmark";
 
     private TestUtils() {
     }
@@ -96,6 +106,15 @@ public final class TestUtils {
         return null;  // Not found.
     }
 
+    /**
+     * Skips the calling test unless benchmarks were enabled with the {@link #BENCHMARK_ARGUMENT}
+     * instrumentation argument. Call it first thing in a benchmark's setup.
+     */
+    public static void assumeBenchmarksEnabled() {
+        String enabled = InstrumentationRegistry.getArguments().getString(BENCHMARK_ARGUMENT);
+        Assume.assumeTrue("Benchmarks are disabled.", Boolean.parseBoolean(enabled));
+    }
+
     /**
      * Loads the block definitions, mutators, and mutator UIs associated with procedure blocks.
      */
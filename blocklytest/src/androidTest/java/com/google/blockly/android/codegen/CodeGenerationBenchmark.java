@@ -0,0 +1,169 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.codegen;
+
+import android.support.test.filters.LargeTest;
+import android.support.test.rule.ActivityTestRule;
+import android.util.Log;
+
+import com.google.blockly.android.BlocklyTestActivity;
+import com.google.blockly.android.BlocklyTestCase;
+import com.google.blockly.android.TestUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Measures handing a 10k block workspace to the {@link CodeGeneratorService}. Compares the cost of
+ * preparing the chunked hand-off against building the escaped javascript: URLs previously used to
+ * pass the XML, and times the complete generation. Results are written to the log under
+ * {@link #TAG}. Runs only when enabled with {@link TestUtils#BENCHMARK_ARGUMENT}.
+ */
+@LargeTest
+public class CodeGenerationBenchmark extends BlocklyTestCase {
+    private static final String TAG = "CodeGenerationBench";
+
+    private static final int STACK_COUNT = 500;
+    private static final int PRINTS_PER_STACK = 10;  // Each with a text block.
+    private static final int RUNS = 5;
+
+    private CodeGeneratorManager mManager;
+
+    @Rule
+    public final ActivityTestRule<BlocklyTestActivity> mActivityRule =
+            new ActivityTestRule<>(BlocklyTestActivity.class, false, false);
+
+    @Before
+    public void setUp() throws Exception {
+        TestUtils.assumeBenchmarksEnabled();
+        configureForUIThread();
+        testTimeoutMs = 300000L;
+
+        mManager = new CodeGeneratorManager(mActivityRule.launchActivity(null));
+        mManager.onResume();
+    }
+
+    @After
+    public void tearDown() {
+        if (mManager != null) {
+            mManager.onPause();
+        }
+    }
+
+    @Test
+    public void benchmarkHandOff() throws Exception {
+        String xml = buildWorkspaceXml();
+
+        long escapedNanos = 0;
+        long encodedNanos = 0;
+        long chunkedNanos = 0;
+        int urlLength = 0;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            String url = "javascript:generate('" + xml.replace("'", "\\'") + "', "
+                    + LanguageDefinition.JAVASCRIPT_LANGUAGE_DEFINITION.mGeneratorRef + ");";
+            escapedNanos += System.nanoTime() - start;
+            urlLength = url.length();
+
+            start = System.nanoTime();
+            url = "javascript:generateEscaped('"
+                    + URLEncoder.encode(xml, "UTF-8").replace("+", "%20") + "');";
+            encodedNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int[] ends =
+                    CodeGeneratorService.splitIntoChunks(xml, CodeGeneratorService.XML_CHUNK_SIZE);
+            int chunkStart = 0;
+            int chunkedLength = 0;
+            for (int end : ends) {
+                // As requested by the page, one chunk at a time.
+                chunkedLength += xml.substring(chunkStart, end).length();
+                chunkStart = end;
+            }
+            chunkedNanos += System.nanoTime() - start;
+            assertThat(chunkedLength).isEqualTo(xml.length());
+        }
+
+        long generationNanos = 0;
+        String code = generate(xml);  // Warm up the generator context.
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            code = generate(xml);
+            generationNanos += System.nanoTime() - start;
+        }
+
+        Log.i(TAG, (STACK_COUNT * PRINTS_PER_STACK * 2) + " blocks, " + xml.length()
+                + " chars of XML: escaped URL (" + urlLength + " chars) "
+                + toMillis(escapedNanos) + "ms, URL encoded " + toMillis(encodedNanos)
+                + "ms, chunked " + toMillis(chunkedNanos) + "ms; complete generation "
+                + toMillis(generationNanos) + "ms");
+
+        assertThat(code.split("window.alert\\(", -1)).hasLength(STACK_COUNT * PRINTS_PER_STACK + 1);
+    }
+
+    private String generate(String xml) throws InterruptedException {
+        final StringBuilder callbackData = new StringBuilder();
+        final CountDownLatch latch = new CountDownLatch(1);
+        mManager.requestCodeGeneration(new CodeGenerationRequest(xml,
+                new CodeGenerationRequest.CodeGeneratorCallback() {
+                    @Override
+                    public void onFinishCodeGeneration(String generatedCode) {
+                        callbackData.append(generatedCode);
+                        latch.countDown();
+                    }
+                },
+                LanguageDefinition.JAVASCRIPT_LANGUAGE_DEFINITION,
+                Collections.singletonList("default/test_blocks.json"),
+                Collections.singletonList("generators/test_javascript.js")));
+        latch.await();
+        return callbackData.toString();
+    }
+
+    /**
+     * Builds stacks of print blocks, each printing a text block with characters that need escaping.
+     */
+    private static String buildWorkspaceXml() {
+        StringBuilder sb = new StringBuilder("<xml xmlns=\"http://www.w3.org/1999/xhtml\">");
+        for (int stack = 0; stack < STACK_COUNT; stack++) {
+            sb.append("<block type=\"text_print\" x=\"").append(stack * 20)
+                    .append("\" y=\"").append(stack * 300).append("\">");
+            for (int i = 0; i < PRINTS_PER_STACK; i++) {
+                if (i > 0) {
+                    sb.append("<next><block type=\"text_print\">");
+                }
+                sb.append("<value name=\"TEXT\"><block type=\"text\"><field name=\"TEXT\">")
+                        .append("Line ").append(i).append(" of stack ").append(stack)
+                        .append(", it's 100% &lt;done&gt;</field></block></value>");
+            }
+            for (int i = PRINTS_PER_STACK - 1; i >= 0; i--) {
+                sb.append(i > 0 ? "</block></next>" : "</block>");
+            }
+        }
+        return sb.append("</xml>").toString();
+    }
+
+    private static long toMillis(long totalNanos) {
+        return totalNanos / RUNS / 1000000;
+    }
+}
@@ -1,6 +1,10 @@
 package com.google.blockly.android.codegen;
 
-import android.os.Build;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.IBinder;
 import android.support.test.rule.ActivityTestRule;
 
 import com.google.blockly.android.BlocklyTestActivity;
@@ -20,10 +24,10 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertEquals;
@@ -171,52 +175,198 @@ public class CodeGeneratorServiceTest extends BlocklyTestCase {
         assertEquals("main() {\n  'test';\n}", callbackData.toString().trim());
     }
 
-    /**
-     *
-     * Since the serialized blocks are passed to the generator via a string in a JavaScript call,
-     * all characters must be escaped correctly. Chromium is relaxed enough, we only really care
-     * about the quote character.
-     */
     @Test
-    public void testEscapeFieldDataForChromium() throws BlockLoadingException {
-        if (Build.VERSION.SDK_INT <= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-            return;  // See testEscapeFieldDataForAndroidWebView()
+    public void testSupersededRequestsAreCollapsed() throws InterruptedException {
+        final List<String> results = new ArrayList<>();
+        CodeGenerationRequest.CodeGeneratorCallback callback =
+                new CodeGenerationRequest.CodeGeneratorCallback() {
+                    @Override
+                    public void onFinishCodeGeneration(String generatedCode) {
+                        synchronized (results) {
+                            results.add(generatedCode.trim());
+                        }
+                    }
+                };
+        // Queued while the generator context loads, so only the last request is generated.
+        for (String text : new String[] {"first", "second", "third"}) {
+            mManager.requestCodeGeneration(newJavascriptRequest(textWorkspaceXml(text), callback));
         }
 
-        Block block = mBlockFactory.obtainBlockFrom(new BlockTemplate().ofType("text"));
-        block.getFieldByName("TEXT").setFromString("apostrophe ' end");
+        // Requests in one context complete in order, so this one completes last.
+        final CountDownLatch latch = new CountDownLatch(1);
+        mManager.requestCodeGeneration(newJavascriptRequest(SIMPLE_WORKSPACE_XML,
+                new CodeGenerationRequest.CodeGeneratorCallback() {
+                    @Override
+                    public void onFinishCodeGeneration(String generatedCode) {
+                        latch.countDown();
+                    }
+                }));
+        latch.await();
+        synchronized (results) {
+            assertThat(results).containsExactly("'third';");
+        }
+    }
 
-        String xml = toXml(block);
-        String url = CodeGeneratorService.buildCodeGenerationUrl(xml, "Blockly.JavaScript");
+    @Test
+    public void testSwitchingGenerators() throws InterruptedException {
+        final List<String> results = new ArrayList<>();
+        final CountDownLatch loaded = new CountDownLatch(2);
+        CodeGenerationRequest.CodeGeneratorCallback javascriptCallback =
+                new CodeGenerationRequest.CodeGeneratorCallback() {
+                    @Override
+                    public void onFinishCodeGeneration(String generatedCode) {
+                        synchronized (results) {
+                            results.add(generatedCode.trim());
+                        }
+                        loaded.countDown();
+                    }
+                };
+        // A request for one generator does not supersede a request for another from the same
+        // callback.
+        mManager.requestCodeGeneration(newJavascriptRequest(SIMPLE_WORKSPACE_XML,
+                javascriptCallback));
+        mManager.requestCodeGeneration(new CodeGenerationRequest(SIMPLE_WORKSPACE_XML,
+                javascriptCallback, LanguageDefinition.LUA_LANGUAGE_DEFINITION,
+                Collections.singletonList("default/test_blocks.json"),
+                Collections.singletonList("generators/test_lua.js")));
+        loaded.await();
 
-        Matcher matcher = Pattern.compile("javascript:generate\\('(.*)', Blockly.JavaScript\\);",
-                Pattern.DOTALL | Pattern.MULTILINE).matcher(url);
-        assertThat(matcher.matches()).isTrue();
-        String jsString = matcher.group(1);
-        assertThat(jsString.contains("apostrophe \\' end")).isTrue();
+        // Switching back to a warm generator context.
+        final CountDownLatch done = new CountDownLatch(1);
+        mManager.requestCodeGeneration(newJavascriptRequest(SIMPLE_WORKSPACE_XML,
+                new CodeGenerationRequest.CodeGeneratorCallback() {
+                    @Override
+                    public void onFinishCodeGeneration(String generatedCode) {
+                        synchronized (results) {
+                            results.add(generatedCode.trim());
+                        }
+                        done.countDown();
+                    }
+                }));
+        done.await();
+        synchronized (results) {
+            assertThat(results).containsExactly("'test';", "local _ = 'test'", "'test';");
+        }
     }
 
     /**
-     * Since the serialized blocks are passed to the generator via a string in a JavaScript call,
-     * all characters must be escaped correctly. The pre-Chromium WebView requires a fully escaped
-     * URL, using %20 for spaces (not +'s).
+     * The serialized blocks are passed to the generator through the JavaScript interface, so no
+     * characters need escaping.
      */
     @Test
-    public void testEscapeFieldDataForAndroidWebView() throws BlockLoadingException {
-        if (Build.VERSION.SDK_INT > Build.VERSION_CODES.JELLY_BEAN_MR2) {
-            return;  // See testEscapeFieldDataForChromium()
+    public void testSpecialCharactersReachTheGenerator() throws Exception {
+        Block block = mBlockFactory.obtainBlockFrom(new BlockTemplate().ofType("text"));
+        block.getFieldByName("TEXT").setFromString("apostrophe ' back\\slash %20 \u6F22");
+        String xml = toXml(block);
+
+        final StringBuilder callbackData = new StringBuilder();
+        final CountDownLatch latch = new CountDownLatch(1);
+        mManager.requestCodeGeneration(newJavascriptRequest(xml,
+                new CodeGenerationRequest.CodeGeneratorCallback() {
+                    @Override
+                    public void onFinishCodeGeneration(String generatedCode) {
+                        callbackData.append(generatedCode);
+                        latch.countDown();
+                    }
+                }));
+        latch.await();
+        assertEquals("'apostrophe \\' back\\\\slash %20 \u6F22';",
+                callbackData.toString().trim());
+    }
+
+    /** Contexts that were busy when more were created are trimmed once they go idle. */
+    @Test
+    public void testIdleContextsTrimmedAfterQueuesDrain() throws InterruptedException {
+        final CodeGeneratorService[] service = new CodeGeneratorService[1];
+        final CountDownLatch bound = new CountDownLatch(1);
+        ServiceConnection connection = new ServiceConnection() {
+            @Override
+            public void onServiceConnected(ComponentName name, IBinder binder) {
+                service[0] = ((CodeGeneratorService.CodeGeneratorBinder) binder).getService();
+                bound.countDown();
+            }
+
+            @Override
+            public void onServiceDisconnected(ComponentName name) {}
+        };
+        mActivity.bindService(new Intent(mActivity, CodeGeneratorService.class), connection,
+                Context.BIND_AUTO_CREATE);
+        try {
+            bound.await();
+            LanguageDefinition[] languages = new LanguageDefinition[] {
+                    LanguageDefinition.JAVASCRIPT_LANGUAGE_DEFINITION,
+                    LanguageDefinition.LUA_LANGUAGE_DEFINITION,
+                    LanguageDefinition.PYTHON_LANGUAGE_DEFINITION,
+                    LanguageDefinition.PHP_LANGUAGE_DEFINITION,
+                    LanguageDefinition.DART_LANGUAGE_DEFINITION};
+            String[] generators = new String[] {"generators/test_javascript.js",
+                    "generators/test_lua.js", "generators/test_python.js",
+                    "generators/test_php.js", "generators/test_dart.js"};
+            assertThat(languages.length).isGreaterThan(CodeGeneratorService.MAX_WARM_CONTEXTS);
+
+            // All contexts are loading, so none can be trimmed as they are created.
+            final CountDownLatch done = new CountDownLatch(languages.length);
+            CodeGenerationRequest.CodeGeneratorCallback callback =
+                    new CodeGenerationRequest.CodeGeneratorCallback() {
+                        @Override
+                        public void onFinishCodeGeneration(String generatedCode) {
+                            done.countDown();
+                        }
+                    };
+            for (int i = 0; i < languages.length; i++) {
+                service[0].requestCodeGeneration(new CodeGenerationRequest(SIMPLE_WORKSPACE_XML,
+                        callback, languages[i],
+                        Collections.singletonList("default/test_blocks.json"),
+                        Collections.singletonList(generators[i])));
+            }
+            done.await();
+
+            assertThat(service[0].getContextCount())
+                    .isAtMost(CodeGeneratorService.MAX_WARM_CONTEXTS);
+        } finally {
+            mActivity.unbindService(connection);
         }
+    }
 
-        Block block = mBlockFactory.obtainBlockFrom(new BlockTemplate().ofType("text"));
-        block.getFieldByName("TEXT").setFromString("apostrophe ' end");
+    @Test
+    public void testBuildCodeGenerationUrl() {
+        assertEquals("javascript:generatePending(Blockly.JavaScript);",
+                CodeGeneratorService.buildCodeGenerationUrl("Blockly.JavaScript"));
+    }
 
-        String xml = toXml(block);
-        String url = CodeGeneratorService.buildCodeGenerationUrl(xml, "Blockly.JavaScript");
+    @Test
+    public void testSplitIntoChunks() {
+        assertThat(CodeGeneratorService.splitIntoChunks("", 4)).isEmpty();
+        assertThat(CodeGeneratorService.splitIntoChunks("abcdefghij", 4))
+                .isEqualTo(new int[] {4, 8, 10});
+        assertThat(CodeGeneratorService.splitIntoChunks("abcdefgh", 4)).isEqualTo(new int[] {4, 8});
+
+        // Surrogate pairs are kept in one chunk.
+        String emoji = "\uD83D\uDE00";
+        String str = "abc" + emoji + "d" + emoji + emoji;
+        int[] ends = CodeGeneratorService.splitIntoChunks(str, 4);
+        assertThat(ends).isEqualTo(new int[] {3, 6, 10});
+        StringBuilder joined = new StringBuilder();
+        int start = 0;
+        for (int end : ends) {
+            joined.append(str.substring(start, end));
+            start = end;
+        }
+        assertThat(joined.toString()).isEqualTo(str);
+    }
+
+    private static CodeGenerationRequest newJavascriptRequest(
+            String xml, CodeGenerationRequest.CodeGeneratorCallback callback) {
+        return new CodeGenerationRequest(xml, callback,
+                LanguageDefinition.JAVASCRIPT_LANGUAGE_DEFINITION,
+                Collections.singletonList("default/test_blocks.json"),
+                Collections.singletonList("generators/test_javascript.js"));
+    }
 
-        Pattern urlPattern = Pattern.compile("javascript:generate\\('(.*)', Blockly.JavaScript\\);");
-        assertThat(url).matches(urlPattern);
-        String jsString = urlPattern.matcher(url).group(1);
-        assertThat(jsString.contains("apostrophe%20%27%20end")).isTrue();
+    private static String textWorkspaceXml(String text) {
+        return "<xml xmlns=\"http://www.w3.org/1999/xhtml\">"
+                + "<block type=\"text\"><field name=\"TEXT\">" + text + "</field></block>"
+                + "</xml>";
     }
 
     private String toXml(Block block) {
@@ -16,7 +16,9 @@
 package com.google.blockly.android.control;
 
 import android.support.test.InstrumentationRegistry;
+import android.util.Pair;
 
+import com.google.blockly.model.Block;
 import com.google.blockly.model.BlockFactory;
 import com.google.blockly.model.BlockTemplate;
 import com.google.blockly.model.Connection;
@@ -33,6 +35,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
 
 /**
  * Tests for {@link ConnectionManager}
@@ -42,6 +45,7 @@ public class ConnectionManagerTest {
 
     private BlockFactory factory;
     private ConnectionManager manager;
+    private ConnectionManager ySortedManager;
 
     @Before
     public void setUp() throws IOException, BlockLoadingException {
@@ -53,6 +57,7 @@ public class ConnectionManagerTest {
                 .open("default/test_blocks.json"));
         factory.setController(mMockController);
         manager = new ConnectionManager();
+        ySortedManager = new ConnectionManager(ConnectionManager.YSortedList.FACTORY);
     }
 
     @Test
@@ -78,6 +83,85 @@ public class ConnectionManagerTest {
                 .isTrue();
     }
 
+    @Test
+    public void testAddConnections() {
+        checkAddConnections(manager);
+        checkAddConnections(ySortedManager);
+    }
+
+    private void checkAddConnections(ConnectionManager manager) {
+        List<Connection> conns = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            conns.add(createConnection(i * 100, 900 - i * 100,
+                    Connection.CONNECTION_TYPE_PREVIOUS, /* shadow */ false));
+            conns.add(createConnection(i * 100, 0,
+                    Connection.CONNECTION_TYPE_OUTPUT, /* shadow */ false));
+        }
+        manager.addConnections(conns);
+
+        ConnectionIndex previous = manager.getConnections(Connection.CONNECTION_TYPE_PREVIOUS);
+        ConnectionIndex output = manager.getConnections(Connection.CONNECTION_TYPE_OUTPUT);
+        assertThat(previous.size()).isEqualTo(10);
+        assertThat(output.size()).isEqualTo(10);
+        for (int i = 0; i < conns.size(); i++) {
+            assertThat(manager.getConnections(conns.get(i).getType()).contains(conns.get(i)))
+                    .isTrue();
+        }
+        if (previous instanceof ConnectionManager.YSortedList) {
+            ConnectionManager.YSortedList list = (ConnectionManager.YSortedList) previous;
+            for (int i = 1; i < list.size(); i++) {
+                assertThat(list.get(i).getPosition().y >= list.get(i - 1).getPosition().y)
+                        .isTrue();
+            }
+        }
+
+        // The batch is indexed like individually added connections.
+        Connection near = searchList(manager, previous, 310, 590, 20);
+        assertThat(near).isSameAs(conns.get(6));
+
+        try {
+            manager.addConnections(conns.subList(0, 1));
+            fail("Connections already in the index must not be added again.");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testYSortedListMergesBatchIntoExistingConnections() {
+        ConnectionManager.YSortedList list = new ConnectionManager.YSortedList();
+        for (int i = 0; i < 5; i++) {
+            list.addConnection(createConnection(0, i * 100,
+                    Connection.CONNECTION_TYPE_PREVIOUS, /* shadow */ false));
+        }
+        List<Connection> batch = new ArrayList<>();
+        batch.add(createConnection(0, 450, Connection.CONNECTION_TYPE_PREVIOUS, false));
+        batch.add(createConnection(0, -50, Connection.CONNECTION_TYPE_PREVIOUS, false));
+        batch.add(createConnection(0, 200, Connection.CONNECTION_TYPE_PREVIOUS, false));
+        batch.add(createConnection(0, 150, Connection.CONNECTION_TYPE_PREVIOUS, false));
+        list.addConnections(batch);
+
+        assertThat(list.size()).isEqualTo(9);
+        for (int i = 1; i < list.size(); i++) {
+            assertThat(list.get(i).getPosition().y >= list.get(i - 1).getPosition().y).isTrue();
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            assertThat(list.findConnection(batch.get(i))).isAtLeast(0);
+        }
+
+        try {
+            List<Connection> duplicates = new ArrayList<>();
+            Connection conn = createConnection(0, 600, Connection.CONNECTION_TYPE_PREVIOUS, false);
+            duplicates.add(conn);
+            duplicates.add(conn);
+            list.addConnections(duplicates);
+            fail("A batch must not contain the same connection twice.");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        assertThat(list.size()).isEqualTo(9);
+    }
+
     @Test
     public void testMoveTo() {
         float offsetX = 10;
@@ -189,8 +273,8 @@ public class ConnectionManagerTest {
     // Test YSortedList
     @Test
     public void testFindPosition() {
-        ConnectionManager.YSortedList list =
-                manager.getConnections(Connection.CONNECTION_TYPE_PREVIOUS);
+        ConnectionManager.YSortedList list = (ConnectionManager.YSortedList)
+                ySortedManager.getConnections(Connection.CONNECTION_TYPE_PREVIOUS);
         list.addConnection(createConnection(0, 0,
                 Connection.CONNECTION_TYPE_PREVIOUS, /* shadow */ false));
         list.addConnection(createConnection(0, 1,
@@ -211,8 +295,8 @@ public class ConnectionManagerTest {
     // Test YSortedList
     @Test
     public void testFind() {
-        ConnectionManager.YSortedList previous = manager.getConnections(
-                Connection.CONNECTION_TYPE_PREVIOUS);
+        ConnectionManager.YSortedList previous = (ConnectionManager.YSortedList)
+                ySortedManager.getConnections(Connection.CONNECTION_TYPE_PREVIOUS);
         for (int i = 0; i < 10; i++) {
             previous.addConnection(createConnection(i, 0,
                     Connection.CONNECTION_TYPE_PREVIOUS, /* shadow */ false));
@@ -231,8 +315,8 @@ public class ConnectionManagerTest {
 
     @Test
     public void testOrdered() {
-        ConnectionManager.YSortedList list = manager.getConnections(
-                Connection.CONNECTION_TYPE_PREVIOUS);
+        ConnectionManager.YSortedList list = (ConnectionManager.YSortedList)
+                ySortedManager.getConnections(Connection.CONNECTION_TYPE_PREVIOUS);
         for (int i = 0; i < 10; i++) {
             list.addConnection(createConnection(0, 9 - i, Connection.CONNECTION_TYPE_PREVIOUS,
                     /* shadow */ false));
@@ -266,97 +350,209 @@ public class ConnectionManagerTest {
         }
     }
 
-    // Test YSortedList
     @Test
     public void testSearchForClosest() {
-        ConnectionManager.YSortedList list =
-                manager.getConnections(Connection.CONNECTION_TYPE_PREVIOUS);
+        checkSearchForClosest(manager);
+        checkSearchForClosest(ySortedManager);
+    }
+
+    private void checkSearchForClosest(ConnectionManager manager) {
+        ConnectionIndex list = manager.getConnections(Connection.CONNECTION_TYPE_PREVIOUS);
 
         // search an empty list
-        assertThat(searchList(list, 10 /* x */, 10 /* y */, 100 /* radius */)).isNull();
+        assertThat(searchList(manager, list, 10 /* x */, 10 /* y */, 100 /* radius */)).isNull();
 
         list.addConnection(createConnection(100, 0,
                 Connection.CONNECTION_TYPE_PREVIOUS, /* shadow */ false));
-        assertThat(searchList(list, 0, 0, 5)).isNull();
+        assertThat(searchList(manager, list, 0, 0, 5)).isNull();
         list.clear();
 
+        Connection[] column = new Connection[10];
         for (int i = 0; i < 10; i++) {
-            list.addConnection(createConnection(0, i,
-                    Connection.CONNECTION_TYPE_PREVIOUS, /* shadow */ false));
+            column[i] = createConnection(0, i, Connection.CONNECTION_TYPE_PREVIOUS, false);
+            list.addConnection(column[i]);
         }
 
-        // should be at 0, 9
-        Connection last = list.get(list.size() - 1);
-        // correct connection is last in list; many connections in radius
-        assertThat(searchList(list, 0, 10, 15)).isEqualTo(last);
+        // correct connection is at 0, 9; many connections in radius
+        assertThat(searchList(manager, list, 0, 10, 15)).isEqualTo(column[9]);
         // Nothing nearby.
-        assertThat(searchList(list, 100, 100, 3)).isNull();
+        assertThat(searchList(manager, list, 100, 100, 3)).isNull();
         // first in list, exact match
-        assertThat(searchList(list, 0, 0, 0)).isEqualTo(list.get(0));
+        assertThat(searchList(manager, list, 0, 0, 0)).isEqualTo(column[0]);
 
         list.addConnection(createConnection(6, 6,
                 Connection.CONNECTION_TYPE_PREVIOUS, /* shadow */ false));
         list.addConnection(createConnection(5, 5,
                 Connection.CONNECTION_TYPE_PREVIOUS, /* shadow */ false));
 
-        Connection result = searchList(list, 4, 6, 3);
+        Connection result = searchList(manager, list, 4, 6, 3);
         assertThat(result.getPosition().x).isEqualTo(5f);
         assertThat(result.getPosition().y).isEqualTo(5f);
     }
 
+    @Test
+    public void testDragSessionReusesCandidates() throws BlockLoadingException {
+        Connection target = createConnection(0, 0, Connection.CONNECTION_TYPE_NEXT, false);
+        manager.addConnection(target);
+        Connection farTarget = createConnection(500, 500, Connection.CONNECTION_TYPE_NEXT, false);
+        manager.addConnection(farTarget);
+
+        Block dragged = factory.obtainBlockFrom(new BlockTemplate().ofType("statement_no_input"));
+        moveBlockConnections(dragged, 10, 10);
+        ConnectionManager.DragSession session = manager.startDragSession(dragged, 25);
+
+        Pair<Connection, Connection> best = session.findBestConnection();
+        assertThat(best.first).isSameAs(dragged.getPreviousConnection());
+        assertThat(best.second).isSameAs(target);
+        assertThat(session.getRegionQueryCount()).isEqualTo(1);
+
+        // Small moves reuse the cached candidates, and agree with a full search.
+        moveBlockConnections(dragged, 40, 20);
+        assertThat(session.findBestConnection()).isNull();
+        assertThat(manager.findBestConnection(dragged, 25)).isNull();
+        moveBlockConnections(dragged, 5, -5);
+        assertThat(session.findBestConnection().second).isSameAs(target);
+        assertThat(session.getRegionQueryCount()).isEqualTo(1);
+
+        // Leaving the region queries again.
+        moveBlockConnections(dragged, 490, 510);
+        assertThat(session.findBestConnection().second).isSameAs(farTarget);
+        assertThat(session.getRegionQueryCount()).isEqualTo(2);
+
+        // Changes to the indices invalidate the cached candidates.
+        Connection closerTarget =
+                createConnection(495, 505, Connection.CONNECTION_TYPE_NEXT, false);
+        manager.addConnection(closerTarget);
+        assertThat(session.findBestConnection().second).isSameAs(closerTarget);
+        assertThat(session.getRegionQueryCount()).isEqualTo(3);
+    }
+
+    /** Positions a statement block's previous connection at (x, y) and next connection below. */
+    private void moveBlockConnections(Block block, float x, float y) {
+        block.getPreviousConnection().setPosition(x, y);
+        block.getNextConnection().setPosition(x, y + 50);
+    }
+
     @Test
     public void testGetNeighbours() {
-        ConnectionManager.YSortedList list =
-                manager.getConnections(Connection.CONNECTION_TYPE_PREVIOUS);
+        checkGetNeighbours(manager);
+        checkGetNeighbours(ySortedManager);
+    }
+
+    private void checkGetNeighbours(ConnectionManager manager) {
+        ConnectionIndex list = manager.getConnections(Connection.CONNECTION_TYPE_PREVIOUS);
 
         // Search an empty list
-        assertThat(getNeighbourHelper(list, 10 /* x */, 10 /* y */, 100 /* radius */).isEmpty())
-                .isTrue();
+        assertThat(getNeighbourHelper(manager, list, 10 /* x */, 10 /* y */, 100 /* radius */)
+                .isEmpty()).isTrue();
 
         // Make a list
+        Connection[] column = new Connection[10];
         for (int i = 0; i < 10; i++) {
-            list.addConnection(createConnection(0, i,
-                    Connection.CONNECTION_TYPE_PREVIOUS, /* shadow */ false));
+            column[i] = createConnection(0, i, Connection.CONNECTION_TYPE_PREVIOUS, false);
+            list.addConnection(column[i]);
         }
 
         // Test block belongs at beginning
-        List<Connection> result = getNeighbourHelper(list, 0, 0, 4);
+        List<Connection> result = getNeighbourHelper(manager, list, 0, 0, 4);
         assertThat(result.size()).isEqualTo(5);
         for (int i = 0; i < result.size(); i++) {
-            assertThat(result.contains(list.get(i))).isTrue();
+            assertThat(result.contains(column[i])).isTrue();
         }
 
         // Test block belongs at middle
-        result = getNeighbourHelper(list, 0, 4, 2);
+        result = getNeighbourHelper(manager, list, 0, 4, 2);
         assertThat(result.size()).isEqualTo(5);
         for (int i = 0; i < result.size(); i++) {
-            assertThat(result.contains(list.get(i + 2))).isTrue();
+            assertThat(result.contains(column[i + 2])).isTrue();
         }
 
         // Test block belongs at end
-        result = getNeighbourHelper(list, 0, 9, 4);
+        result = getNeighbourHelper(manager, list, 0, 9, 4);
         assertThat(result.size()).isEqualTo(5);
         for (int i = 0; i < result.size(); i++) {
-            assertThat(result.contains(list.get(i + 5))).isTrue();
+            assertThat(result.contains(column[i + 5])).isTrue();
         }
 
         // Test block has no neighbours due to being out of range in the x direction
-        result = getNeighbourHelper(list, 10, 9, 4);
+        result = getNeighbourHelper(manager, list, 10, 9, 4);
         assertThat(result.isEmpty()).isTrue();
 
         // Test block has no neighbours due to being out of range in the y direction
-        result = getNeighbourHelper(list, 0, 19, 4);
+        result = getNeighbourHelper(manager, list, 0, 19, 4);
         assertThat(result.isEmpty()).isTrue();
 
         // Test block has no neighbours due to being out of range diagonally
-        result = getNeighbourHelper(list, -2, -2, 2);
+        result = getNeighbourHelper(manager, list, -2, -2, 2);
         assertThat(result.isEmpty()).isTrue();
     }
 
-    private List<Connection> getNeighbourHelper(ConnectionManager.YSortedList list, int x, int y,
-                                                int radius) {
+    @Test
+    public void testGridMoveConnection() {
+        ConnectionGrid grid = new ConnectionGrid(10f);
+        Connection conn = createConnection(1, 1, Connection.CONNECTION_TYPE_PREVIOUS, false);
+        grid.addConnection(conn);
+        assertThat(grid.getCellCount()).isEqualTo(1);
+
+        // Within the same cell.
+        grid.moveConnection(conn, 9, 9);
+        assertThat(conn.getPosition().x).isEqualTo(9f);
+        assertThat(conn.getPosition().y).isEqualTo(9f);
+        assertThat(grid.contains(conn)).isTrue();
+        assertThat(grid.getCellCount()).isEqualTo(1);
+
+        // Into a new cell, including negative coordinates. Empty cells are dropped.
+        grid.moveConnection(conn, -25, 42);
+        assertThat(grid.contains(conn)).isTrue();
+        assertThat(grid.size()).isEqualTo(1);
+        assertThat(grid.getCellCount()).isEqualTo(1);
+
+        List<Connection> result = new ArrayList<>();
+        grid.getConnectionsInBounds(0, 0, 5, result);
+        assertThat(result).isEmpty();
+        grid.getConnectionsInBounds(-24, 40, 5, result);
+        assertThat(result).containsExactly(conn);
+
+        // Moving a connection that is not in the grid adds it.
+        Connection other = createConnection(0, 0, Connection.CONNECTION_TYPE_PREVIOUS, false);
+        grid.moveConnection(other, 100, 100);
+        assertThat(grid.contains(other)).isTrue();
+        assertThat(grid.size()).isEqualTo(2);
+
+        grid.removeConnection(conn);
+        grid.removeConnection(other);
+        assertThat(grid.isEmpty()).isTrue();
+        assertThat(grid.getCellCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testGridBoundsIgnoresDistantColumns() {
+        ConnectionGrid grid = new ConnectionGrid(ConnectionGrid.DEFAULT_CELL_SIZE);
+        // Two wide columns of connections sharing the same y positions.
+        for (int i = 0; i < 100; i++) {
+            grid.addConnection(createConnection(0, i * 10, Connection.CONNECTION_TYPE_NEXT,
+                    false));
+            grid.addConnection(createConnection(5000, i * 10, Connection.CONNECTION_TYPE_NEXT,
+                    false));
+        }
+
+        List<Connection> result = new ArrayList<>();
+        grid.getConnectionsInBounds(5000, 500, 24, result);
+        assertThat(result.size()).isEqualTo(5);
+        for (Connection conn : result) {
+            assertThat(conn.getPosition().x).isEqualTo(5000f);
+        }
+
+        // A search area wider than the occupied cells still finds everything in range.
+        result.clear();
+        grid.getConnectionsInBounds(0, 0, 100000, result);
+        assertThat(result.size()).isEqualTo(200);
+    }
+
+    private List<Connection> getNeighbourHelper(ConnectionManager manager, ConnectionIndex list,
+                                                int x, int y, int radius) {
         List<Connection> result = new ArrayList<>();
-        list.getNeighbours(
+        manager.getNeighbours(list,
                 createConnection(x, y, Connection.CONNECTION_TYPE_NEXT, /* shadow */ false),
                 radius,
                 result);
@@ -364,9 +560,10 @@ public class ConnectionManagerTest {
     }
 
     // Helper
-    private Connection searchList(ConnectionManager.YSortedList list, int x, int y, int radius) {
-        return list.searchForClosest(createConnection(x, y, Connection.CONNECTION_TYPE_NEXT, false),
-                radius);
+    private Connection searchList(ConnectionManager manager, ConnectionIndex list, int x, int y,
+                                  int radius) {
+        return manager.searchForClosest(list,
+                createConnection(x, y, Connection.CONNECTION_TYPE_NEXT, false), radius);
     }
 
     private Connection createConnection(float x, float y, int connectionType, boolean shadow) {
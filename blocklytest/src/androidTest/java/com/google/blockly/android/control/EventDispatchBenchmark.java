@@ -0,0 +1,120 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.control;
+
+import android.support.test.filters.LargeTest;
+import android.util.Log;
+
+import com.google.blockly.android.BlocklyTestCase;
+import com.google.blockly.android.TestUtils;
+import com.google.blockly.model.Block;
+import com.google.blockly.model.BlockFactory;
+import com.google.blockly.model.BlockTemplate;
+import com.google.blockly.model.BlocklyEvent;
+import com.google.blockly.utils.BlockLoadingException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Measures the cost of dispatching a block's change events when many blocks have
+ * {@link Block#setEventCallback block event callbacks}. Timings are written to the log under
+ * {@link #TAG}. The dispatch cost should stay flat as the number of blocks with callbacks grows.
+ * <p/>
+ * Runs only when enabled with {@link TestUtils#BENCHMARK_ARGUMENT}.
+ */
+@LargeTest
+public class EventDispatchBenchmark extends BlocklyTestCase {
+    private static final String TAG = "EventDispatchBenchmark";
+
+    private static final int[] CALLBACK_BLOCK_COUNTS = {10, 1000, 5000};
+    private static final int EVENTS_PER_RUN = 2000;
+
+    private BlocklyController mController;
+    private BlockFactory mBlockFactory;
+
+    @Before
+    public void setUp() throws Exception {
+        TestUtils.assumeBenchmarksEnabled();
+        configureForUIThread();
+        testTimeoutMs = 60000L;
+
+        mController = new BlocklyController.Builder(getContext())
+                .addBlockDefinitionsFromAsset("default/test_blocks.json")
+                .build();
+        mBlockFactory = mController.getBlockFactory();
+    }
+
+    @Test
+    public void benchmarkChangeEventDispatch() {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                for (int blockCount : CALLBACK_BLOCK_COUNTS) {
+                    runDispatch(blockCount);
+                }
+            }
+        });
+    }
+
+    private void runDispatch(int blockCount) {
+        List<Block> blocks = new ArrayList<>(blockCount);
+        final int[] callCounts = new int[blockCount];
+        try {
+            for (int i = 0; i < blockCount; i++) {
+                Block block = mBlockFactory.obtainBlockFrom(new BlockTemplate().ofType("text"));
+                block.setEventWorkspaceId("benchmark");
+                final int index = i;
+                block.setEventCallback(new BlocklyController.EventsCallback() {
+                    @Override
+                    public int getTypesBitmask() {
+                        return BlocklyEvent.TYPE_CHANGE;
+                    }
+
+                    @Override
+                    public void onEventGroup(List<BlocklyEvent> events) {
+                        ++callCounts[index];
+                    }
+                });
+                blocks.add(block);
+            }
+        } catch (BlockLoadingException e) {
+            throw new IllegalStateException(e);
+        }
+
+        Block target = blocks.get(blockCount / 2);
+        BlocklyEvent event = new BlocklyEvent.ChangeEvent(
+                BlocklyEvent.ELEMENT_MUTATE, target, null, "", "");
+        long start = System.nanoTime();
+        for (int i = 0; i < EVENTS_PER_RUN; i++) {
+            mController.addPendingEvent(event);
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        Log.i(TAG, blockCount + " block callbacks: "
+                + (elapsedNanos / EVENTS_PER_RUN) + " ns per event group");
+
+        for (int i = 0; i < blockCount; i++) {
+            assertThat(callCounts[i]).isEqualTo(i == blockCount / 2 ? EVENTS_PER_RUN : 0);
+            blocks.get(i).setEventCallback(null);
+        }
+        assertThat(mController.getCallbackCount()).isEqualTo(0);
+    }
+}
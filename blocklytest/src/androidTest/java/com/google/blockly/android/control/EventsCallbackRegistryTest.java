@@ -0,0 +1,133 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.control;
+
+import com.google.blockly.model.BlocklyEvent;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Tests for {@link EventsCallbackRegistry}.
+ */
+public class EventsCallbackRegistryTest {
+    private static final List<BlocklyEvent> EVENTS = Collections.emptyList();
+
+    private EventsCallbackRegistry mRegistry;
+    private List<String> mCalls;
+
+    @Before
+    public void setUp() {
+        mRegistry = new EventsCallbackRegistry();
+        mCalls = new ArrayList<>();
+    }
+
+    @Test
+    public void testAddAndRemove() {
+        TestCallback create = new TestCallback("create", BlocklyEvent.TYPE_CREATE);
+        TestCallback move = new TestCallback("move", BlocklyEvent.TYPE_MOVE);
+
+        assertThat(mRegistry.add(create)).isTrue();
+        assertThat(mRegistry.add(create)).isFalse();
+        assertThat(mRegistry.add(move)).isTrue();
+        assertThat(mRegistry.size()).isEqualTo(2);
+        assertThat(mRegistry.getTypesMask())
+                .isEqualTo(BlocklyEvent.TYPE_CREATE | BlocklyEvent.TYPE_MOVE);
+
+        assertThat(mRegistry.remove(create)).isTrue();
+        assertThat(mRegistry.remove(create)).isFalse();
+        assertThat(mRegistry.size()).isEqualTo(1);
+        assertThat(mRegistry.getTypesMask()).isEqualTo(BlocklyEvent.TYPE_MOVE);
+    }
+
+    @Test
+    public void testDispatchOnlyVisitsInterestedCallbacks() {
+        mRegistry.add(new TestCallback("create", BlocklyEvent.TYPE_CREATE));
+        mRegistry.add(new TestCallback("move", BlocklyEvent.TYPE_MOVE));
+        mRegistry.add(new TestCallback("create2", BlocklyEvent.TYPE_CREATE));
+        mRegistry.add(new TestCallback("all", BlocklyEvent.TYPE_ALL));
+
+        mRegistry.dispatch(BlocklyEvent.TYPE_CREATE, EVENTS);
+        assertThat(mCalls).containsExactly("create", "create2", "all");
+
+        mCalls.clear();
+        mRegistry.dispatch(BlocklyEvent.TYPE_CHANGE, EVENTS);
+        assertThat(mCalls).containsExactly("all");
+    }
+
+    @Test
+    public void testDispatchInRegistrationOrder() {
+        mRegistry.add(new TestCallback("all", BlocklyEvent.TYPE_ALL));
+        mRegistry.add(new TestCallback("change", BlocklyEvent.TYPE_CHANGE));
+        mRegistry.add(new TestCallback("create", BlocklyEvent.TYPE_CREATE));
+        mRegistry.add(new TestCallback("all2", BlocklyEvent.TYPE_ALL));
+        mRegistry.add(new TestCallback("create2", BlocklyEvent.TYPE_CREATE));
+
+        mRegistry.dispatch(BlocklyEvent.TYPE_CREATE | BlocklyEvent.TYPE_CHANGE, EVENTS);
+        assertThat(mCalls)
+                .containsExactly("all", "change", "create", "all2", "create2")
+                .inOrder();
+    }
+
+    @Test
+    public void testMutationDuringDispatch() {
+        final TestCallback removed = new TestCallback("removed", BlocklyEvent.TYPE_CHANGE);
+        final TestCallback added = new TestCallback("added", BlocklyEvent.TYPE_CHANGE);
+        mRegistry.add(new TestCallback("first", BlocklyEvent.TYPE_CHANGE) {
+            @Override
+            public void onEventGroup(List<BlocklyEvent> events) {
+                super.onEventGroup(events);
+                mRegistry.remove(this);
+                mRegistry.remove(removed);
+                mRegistry.add(added);
+            }
+        });
+        mRegistry.add(removed);
+
+        mRegistry.dispatch(BlocklyEvent.TYPE_CHANGE, EVENTS);
+        assertThat(mCalls).containsExactly("first");
+
+        mCalls.clear();
+        mRegistry.dispatch(BlocklyEvent.TYPE_CHANGE, EVENTS);
+        assertThat(mCalls).containsExactly("added");
+    }
+
+    private class TestCallback implements BlocklyController.EventsCallback {
+        private final String mName;
+        private final int mTypesBitmask;
+
+        TestCallback(String name, int typesBitmask) {
+            mName = name;
+            mTypesBitmask = typesBitmask;
+        }
+
+        @Override
+        public int getTypesBitmask() {
+            return mTypesBitmask;
+        }
+
+        @Override
+        public void onEventGroup(List<BlocklyEvent> events) {
+            mCalls.add(mName);
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.control;
+
+import com.google.blockly.android.BlocklyTestCase;
+import com.google.blockly.model.Block;
+import com.google.blockly.model.BlockTemplate;
+import com.google.blockly.model.BlocklyEvent;
+import com.google.blockly.model.BlocklySerializerException;
+import com.google.blockly.model.Workspace;
+import com.google.blockly.utils.BlockLoadingException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Tests for {@link IncrementalAutosave}.
+ */
+public class IncrementalAutosaveTest extends BlocklyTestCase {
+    private static final String WORKSPACE_XML =
+            "<xml xmlns=\"http://www.w3.org/1999/xhtml\">"
+            + "<block type=\"text\" id=\"text\" x=\"0.0\" y=\"0.0\">"
+            +   "<field name=\"TEXT\">hello</field>"
+            + "</block>"
+            + "<block type=\"statement_no_input\" id=\"first\" x=\"0.0\" y=\"100.0\">"
+            +   "<next><block type=\"statement_no_input\" id=\"second\"/></next>"
+            + "</block>"
+            + "<block type=\"statement_no_input\" id=\"other\" x=\"0.0\" y=\"200.0\"/>"
+            + "</xml>";
+
+    private static final long NEVER_MS = 60 * 60 * 1000;
+
+    private File mDirectory;
+    private BlocklyController mController;
+    private IncrementalAutosave mAutosave;
+
+    @Before
+    public void setUp() throws Exception {
+        configureForUIThread();
+        mDirectory = new File(getContext().getCacheDir(), "IncrementalAutosaveTest");
+        mController = createController();
+        mAutosave = new IncrementalAutosave(mController, mDirectory, NEVER_MS);
+        mAutosave.clear();
+    }
+
+    @After
+    public void tearDown() {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                mAutosave.stop();
+                mAutosave.clear();
+            }
+        });
+    }
+
+    @Test
+    public void testFlushWritesOnlyChangedStacks() {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                loadAndStart();
+                assertThat(mAutosave.getChunksWritten()).isEqualTo(3);
+
+                Block text = getBlock("text");
+                text.getFieldByName("TEXT").setFromString("changed");
+                assertThat(mAutosave.hasUnsavedChanges()).isTrue();
+                flush();
+                assertThat(mAutosave.getChunksWritten()).isEqualTo(4);
+                assertThat(mAutosave.hasUnsavedChanges()).isFalse();
+
+                // Nothing changed since.
+                flush();
+                assertThat(mAutosave.getChunksWritten()).isEqualTo(4);
+                assertThat(countChunkFiles()).isEqualTo(3);
+            }
+        });
+    }
+
+    @Test
+    public void testChildChangeRewritesItsStack() {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                loadAndStart();
+                Block second = getBlock("second");
+                mController.extractBlockAsRoot(second);
+                flush();
+
+                // The "first" stack lost a block, and "second" is a new stack.
+                assertThat(mAutosave.getChunksWritten()).isEqualTo(5);
+                assertThat(countChunkFiles()).isEqualTo(4);
+            }
+        });
+    }
+
+    @Test
+    public void testConnectingStacksRewritesTheTargetStack() {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                loadAndStart();
+                mController.connect(getBlock("other").getPreviousConnection(),
+                        getBlock("second").getNextConnection());
+                flush();
+
+                assertThat(mAutosave.getChunksWritten()).isEqualTo(4);
+                assertThat(countChunkFiles()).isEqualTo(2);
+            }
+        });
+    }
+
+    @Test
+    public void testReattachingExtractedStackRewritesTheTargetStack() {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                loadAndStart();
+                mController.extractBlockAsRoot(getBlock("second"));
+                flush();
+                assertThat(mAutosave.getChunksWritten()).isEqualTo(5);
+
+                // Connecting reports no event. "second" is no longer a root, so "other" is found.
+                mController.connect(getBlock("second").getPreviousConnection(),
+                        getBlock("other").getNextConnection());
+                flush();
+                assertThat(mAutosave.getChunksWritten()).isEqualTo(6);
+                assertThat(countChunkFiles()).isEqualTo(3);
+            }
+        });
+    }
+
+    @Test
+    public void testIgnoresEventsFromOtherWorkspaces() {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                loadAndStart();
+                Block flyoutBlock;
+                try {
+                    flyoutBlock = mController.getBlockFactory().obtainBlockFrom(
+                            new BlockTemplate().ofType("text"));
+                } catch (BlockLoadingException e) {
+                    throw new IllegalStateException(e);
+                }
+                flyoutBlock.setEventWorkspaceId(BlocklyEvent.WORKSPACE_ID_TOOLBOX);
+                flyoutBlock.setCollapsed(true);
+
+                assertThat(mAutosave.hasUnsavedChanges()).isFalse();
+                flush();
+                assertThat(mAutosave.getChunksWritten()).isEqualTo(3);
+            }
+        });
+    }
+
+    @Test
+    public void testDeletedStackIsRemoved() {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                loadAndStart();
+                mController.trashRootBlock(getBlock("other"));
+                flush();
+
+                assertThat(mAutosave.getChunksWritten()).isEqualTo(3);
+                assertThat(countChunkFiles()).isEqualTo(2);
+            }
+        });
+    }
+
+    @Test
+    public void testLoadRestoresSavedWorkspace() {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                loadAndStart();
+                Block text = getBlock("text");
+                text.getFieldByName("TEXT").setFromString("changed");
+                flush();
+                String expectedXml = toXml(mController.getWorkspace());
+
+                BlocklyController restoredController = createController();
+                IncrementalAutosave restored =
+                        new IncrementalAutosave(restoredController, mDirectory, NEVER_MS);
+                try {
+                    assertThat(restored.load()).isTrue();
+                } catch (IOException | BlockLoadingException e) {
+                    throw new IllegalStateException(e);
+                }
+                assertThat(toXml(restoredController.getWorkspace())).isEqualTo(expectedXml);
+
+                // Loaded blocks are tracked, too.
+                restored.start();
+                restoredController.getBlockFactory().getBlock("first").setCollapsed(true);
+                try {
+                    restored.flush();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                restored.stop();
+                assertThat(restored.getChunksWritten()).isEqualTo(1);
+            }
+        });
+    }
+
+    @Test
+    public void testLoadWithoutSavedWorkspace() throws Exception {
+        assertThat(mAutosave.hasSavedWorkspace()).isFalse();
+        assertThat(mAutosave.load()).isFalse();
+    }
+
+    @Test
+    public void testBurstOfEditsIsSavedOnce() throws InterruptedException {
+        final IncrementalAutosave[] autosave = {null};
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                loadWorkspace();
+                autosave[0] = new IncrementalAutosave(mController, mDirectory, 0);
+                autosave[0].start();
+
+                Block text = getBlock("text");
+                text.getFieldByName("TEXT").setFromString("one");
+                text.getFieldByName("TEXT").setFromString("two");
+                text.getFieldByName("TEXT").setFromString("three");
+                assertThat(autosave[0].getChunksWritten()).isEqualTo(0);
+                assertThat(autosave[0].hasUnsavedChanges()).isTrue();
+            }
+        });
+        // Give the main looper time to run the scheduled save.
+        Thread.sleep(100);
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                // The scheduled save has run, writing every stack the first time.
+                assertThat(autosave[0].hasUnsavedChanges()).isFalse();
+                assertThat(autosave[0].getChunksWritten()).isEqualTo(3);
+                autosave[0].stop();
+            }
+        });
+    }
+
+    private BlocklyController createController() {
+        return new BlocklyController.Builder(getContext())
+                .addBlockDefinitionsFromAsset("default/test_blocks.json")
+                .build();
+    }
+
+    private void loadWorkspace() {
+        try {
+            mController.loadWorkspaceContents(WORKSPACE_XML);
+        } catch (BlockLoadingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void loadAndStart() {
+        loadWorkspace();
+        mAutosave.start();
+        flush();
+    }
+
+    private void flush() {
+        try {
+            mAutosave.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Block getBlock(String id) {
+        return mController.getBlockFactory().getBlock(id);
+    }
+
+    private int countChunkFiles() {
+        int count = 0;
+        for (File file : mDirectory.listFiles()) {
+            if (file.getName().endsWith(".chunk")) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    private static String toXml(Workspace workspace) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            workspace.serializeToXml(out);
+        } catch (BlocklySerializerException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+}
@@ -21,6 +21,10 @@ import com.google.blockly.model.Block;
 import com.google.blockly.model.BlockFactory;
 import com.google.blockly.model.BlockTemplate;
 import com.google.blockly.model.FieldInput;
+import com.google.blockly.model.FieldLabel;
+import com.google.blockly.model.Input;
+import com.google.blockly.model.ProcedureInfo;
+import com.google.blockly.model.mutator.ProcedureCallMutator;
 import com.google.blockly.utils.BlockLoadingException;
 
 import org.junit.Before;
@@ -28,6 +32,8 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static com.google.common.truth.Truth.assertThat;
@@ -158,6 +164,64 @@ public class ProcedureManagerTest extends BlocklyTestCase {
         mProcedureManager.removeReference(mProcedureReference);
     }
 
+    @Test
+    public void testMutateProcedureKeepsArgumentValues() throws BlockLoadingException {
+        final Block definition = buildBlock(ProcedureManager.DEFINE_NO_RETURN_BLOCK_TYPE,
+                "<mutation name=\"proc\"><arg name=\"x\"/></mutation>");
+        final Block caller = buildBlock(ProcedureManager.CALL_NO_RETURN_BLOCK_TYPE,
+                "<mutation name=\"proc\"><arg name=\"x\"/></mutation>");
+        final Block value = buildBlock(ProcedureManager.CALL_WITH_RETURN_BLOCK_TYPE,
+                "<mutation name=\"other\"/>");
+        final Input argInput = caller.getInputByName("ARG0");
+        argInput.getConnection().connect(value.getOutputConnection());
+        mProcedureManager.addDefinition(definition);
+        mProcedureManager.addReference(caller);
+
+        // Renaming the procedure and its argument reuses the argument input.
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                mProcedureManager.mutateProcedure("proc",
+                        new ProcedureInfo("renamed", Arrays.asList("y"), true),
+                        Arrays.asList(new ProcedureManager.ArgumentIndexUpdate(0, 0)));
+            }
+        });
+        ProcedureCallMutator callMutator = (ProcedureCallMutator) caller.getMutator();
+        assertThat(callMutator.getProcedureName()).isEqualTo("renamed");
+        assertThat(caller.getInputs()).hasSize(2);
+        assertThat(caller.getInputByName("ARG0")).isSameAs(argInput);
+        assertThat(((FieldLabel) argInput.getFields().get(0)).getText()).isEqualTo("y");
+        assertThat(value.getParentBlock()).isSameAs(caller);
+
+        // Removing the argument disconnects its value.
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                mProcedureManager.mutateProcedure("renamed",
+                        new ProcedureInfo("renamed", Collections.<String>emptyList(), true),
+                        null);
+            }
+        });
+        assertThat(caller.getInputs()).hasSize(1);
+        assertThat(value.getParentBlock()).isNull();
+    }
+
+    private Block buildBlock(final String type, final String mutation) {
+        final Block[] result = {null};
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result[0] = mFactory.obtainBlockFrom(
+                            new BlockTemplate(type).withMutation(mutation));
+                } catch (BlockLoadingException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        return result[0];
+    }
+
     private Block buildCaller(final String procName) throws BlockLoadingException {
         final Block[] result = {null};
         runAndSync(new Runnable() {
@@ -0,0 +1,157 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.control;
+
+import android.support.test.filters.LargeTest;
+import android.util.Log;
+
+import com.google.blockly.android.BlocklyTestCase;
+import com.google.blockly.android.TestUtils;
+import com.google.blockly.model.Block;
+import com.google.blockly.model.BlocklyEvent;
+import com.google.blockly.model.Connection;
+import com.google.blockly.utils.BlockLoadingException;
+import com.google.blockly.utils.BlocklyXmlHelper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Measures loading large workspaces shaped like the demo's {@code workspace_spaghetti.xml}: deeply
+ * nested statement blocks, each followed by a value block, with many references to one variable.
+ * Compares {@link BlocklyController#loadWorkspaceContents(String)}, which indexes all blocks in
+ * one batch, against adding the same root blocks one at a time. Timings are written to the log
+ * under {@link #TAG}. Runs only when enabled with {@link TestUtils#BENCHMARK_ARGUMENT}.
+ */
+@LargeTest
+public class WorkspaceLoadBenchmark extends BlocklyTestCase {
+    private static final String TAG = "WorkspaceLoadBenchmark";
+
+    private static final int NESTING_DEPTH = 16;
+    private static final int BLOCKS_PER_STACK = NESTING_DEPTH * 3;
+    private static final int[] STACK_COUNTS = {20, 100, 210};  // About 1k, 5k and 10k blocks.
+
+    private BlocklyController mController;
+    private int mCreateEventGroups;
+    private int mCreateEvents;
+
+    @Before
+    public void setUp() throws Exception {
+        TestUtils.assumeBenchmarksEnabled();
+        configureForUIThread();
+        testTimeoutMs = 300000L;
+
+        mController = new BlocklyController.Builder(getContext())
+                .addBlockDefinitionsFromAsset("default/test_blocks.json")
+                .build();
+        mController.addCallback(new BlocklyController.EventsCallback() {
+            @Override
+            public int getTypesBitmask() {
+                return BlocklyEvent.TYPE_CREATE;
+            }
+
+            @Override
+            public void onEventGroup(List<BlocklyEvent> events) {
+                ++mCreateEventGroups;
+                mCreateEvents += events.size();
+            }
+        });
+    }
+
+    @Test
+    public void benchmarkLoad() {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int stackCount : STACK_COUNTS) {
+                        runComparison(stackCount);
+                    }
+                } catch (BlockLoadingException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+    }
+
+    private void runComparison(int stackCount) throws BlockLoadingException {
+        String xml = buildWorkspaceXml(stackCount);
+        int blockCount = stackCount * BLOCKS_PER_STACK;
+
+        mCreateEventGroups = 0;
+        mCreateEvents = 0;
+        long start = System.nanoTime();
+        mController.loadWorkspaceContents(xml);
+        long bulkNanos = System.nanoTime() - start;
+
+        assertThat(mController.getWorkspace().getRootBlocks()).hasSize(stackCount);
+        assertThat(mCreateEventGroups).isEqualTo(1);
+        assertThat(mCreateEvents).isEqualTo(stackCount);
+        // Each level has three next connections: two statement blocks' next connections and one
+        // statement input. The value blocks have none.
+        int nextCount = mController.getWorkspace().getConnectionManager()
+                .getConnections(Connection.CONNECTION_TYPE_NEXT).size();
+        assertThat(nextCount).isEqualTo(blockCount);
+
+        mController.resetWorkspace();
+        start = System.nanoTime();
+        List<Block> rootBlocks = BlocklyXmlHelper.loadFromXml(
+                new ByteArrayInputStream(xml.getBytes()), mController.getBlockFactory());
+        for (int i = 0; i < rootBlocks.size(); i++) {
+            mController.addRootBlock(rootBlocks.get(i));
+        }
+        long incrementalNanos = System.nanoTime() - start;
+
+        assertThat(mController.getWorkspace().getRootBlocks()).hasSize(stackCount);
+        mController.resetWorkspace();
+
+        Log.i(TAG, blockCount + " blocks: bulk load " + (bulkNanos / 1000000)
+                + "ms, one root at a time " + (incrementalNanos / 1000000) + "ms");
+    }
+
+    /**
+     * Builds stacks of nested statement blocks. Each level holds the next level in its statement
+     * input, and is followed by a value block holding either a number or a reference to a
+     * variable shared by the whole workspace.
+     */
+    private static String buildWorkspaceXml(int stackCount) {
+        StringBuilder sb = new StringBuilder("<xml xmlns=\"http://www.w3.org/1999/xhtml\">");
+        for (int stack = 0; stack < stackCount; stack++) {
+            sb.append("<block type=\"statement_statement_input\" x=\"").append(stack * 40)
+                    .append("\" y=\"").append(stack * 1000).append("\">");
+            for (int level = 1; level < NESTING_DEPTH; level++) {
+                sb.append("<statement name=\"statement input\">")
+                        .append("<block type=\"statement_statement_input\">");
+            }
+            for (int level = NESTING_DEPTH - 1; level >= 0; level--) {
+                sb.append("<next><block type=\"statement_value_input\"><value name=\"value\">");
+                if (level % 2 == 0) {
+                    sb.append("<block type=\"math_number\"><field name=\"NUM\">").append(level);
+                } else {
+                    sb.append("<block type=\"get_variable\"><field name=\"variable\">item");
+                }
+                sb.append("</field></block></value></block></next>");
+                sb.append(level > 0 ? "</block></statement>" : "</block>");
+            }
+        }
+        return sb.append("</xml>").toString();
+    }
+}
@@ -183,6 +183,48 @@ public class WorkspaceStatsTest extends BlocklyTestCase {
                 .isEqualTo(1);
     }
 
+    @Test
+    public void testCollectAndCleanupLongSequence() throws JSONException, BlockLoadingException {
+        final int length = 50000;
+        BlockDefinition variableWithNextAndPrev = new BlockDefinition(
+            "{" +
+                "\"type\":\"variableWithNextAndPrev\"," +
+                "\"message0\":\"%1\"," +
+                "\"args0\":[{" +
+                    "\"type\":\"field_variable\"," +
+                    "\"name\":\"nameid\"," +
+                    "\"variable\":\"item\"" +
+                "}]," +
+                "\"previousStatement\":null," +
+                "\"nextStatement\":null" +
+            "}"
+        );
+
+        Block first = mFactory.obtainBlockFrom(
+                new BlockTemplate().fromDefinition(variableWithNextAndPrev));
+        Block last = first;
+        for (int i = 1; i < length; i++) {
+            Block block = mFactory.obtainBlockFrom(
+                    new BlockTemplate().fromDefinition(variableWithNextAndPrev));
+            block.getPreviousConnection().connect(last.getNextConnection());
+            last = block;
+        }
+
+        mStats.collectStats(first, true);
+        assertThat(mStats.getVariableInfo("item").getFields()).hasSize(length);
+        assertThat(mConnectionManager.getConnections(Connection.CONNECTION_TYPE_PREVIOUS).size())
+                .isEqualTo(length);
+        assertThat(mConnectionManager.getConnections(Connection.CONNECTION_TYPE_NEXT).size())
+                .isEqualTo(length);
+
+        mStats.cleanupStats(first);
+        assertThat(mStats.getVariableInfo("item").getFields()).isEmpty();
+        assertThat(mConnectionManager.getConnections(Connection.CONNECTION_TYPE_PREVIOUS).size())
+                .isEqualTo(0);
+        assertThat(mConnectionManager.getConnections(Connection.CONNECTION_TYPE_NEXT).size())
+                .isEqualTo(0);
+    }
+
     // TODO: testCollectConnectionStatsValueInputRecursion()
 
     // TODO: testCollectConnectionStatsStatementInputRecursion()
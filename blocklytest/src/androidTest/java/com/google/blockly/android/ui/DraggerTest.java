@@ -19,6 +19,7 @@ import android.content.ClipDescription;
 import android.content.Context;
 import android.support.annotation.Nullable;
 import android.util.Pair;
+import android.view.Choreographer;
 import android.view.DragEvent;
 import android.view.MotionEvent;
 
@@ -56,6 +57,7 @@ import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.stub;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.when;
 
 /**
@@ -71,6 +73,7 @@ public class DraggerTest extends BlocklyTestCase {
     private DragEvent mDragStartedEvent;
     private DragEvent mDragLocationEvent;
     private DragEvent mDropEvent;
+    private DragEvent mDragEndedEvent;
 
     private ViewPoint mTempViewPoint = new ViewPoint();
     private WorkspaceHelper mWorkspaceHelper;
@@ -131,6 +134,7 @@ public class DraggerTest extends BlocklyTestCase {
         mDragStartedEvent = mock(DragEvent.class);
         mDragLocationEvent = mock(DragEvent.class);
         mDropEvent = mock(DragEvent.class);
+        mDragEndedEvent = mock(DragEvent.class);
         
         runAndSync(new Runnable() {
             @Override
@@ -175,6 +179,8 @@ public class DraggerTest extends BlocklyTestCase {
                 when(mDragStartedEvent.getAction()).thenReturn(DragEvent.ACTION_DRAG_STARTED);
                 when(mDragLocationEvent.getAction()).thenReturn(DragEvent.ACTION_DRAG_LOCATION);
                 when(mDropEvent.getAction()).thenReturn(DragEvent.ACTION_DROP);
+                when(mDragEndedEvent.getAction()).thenReturn(DragEvent.ACTION_DRAG_ENDED);
+                when(mDragEndedEvent.getResult()).thenReturn(false);
             }
         });
 
@@ -314,6 +320,104 @@ public class DraggerTest extends BlocklyTestCase {
         }
     }
 
+    /** Several drag location events within one frame only update the drag once. */
+    @Test
+    public void testDragLocationsCoalescedPerFrame() throws BlockLoadingException {
+        setupDragToTarget();
+        dragTouch();
+        dragMove();
+
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 3; i++) {
+                    mDragger.getDragEventListener().onDrag(mWorkspaceView, mDragLocationEvent);
+                }
+            }
+        });
+        awaitNextFrame();
+
+        Mockito.verify(mMockConnectionManager, times(1))
+                .findBestConnection(Matchers.same(mTouchedBlock), anyInt());
+    }
+
+    /** A drop applies the pending frame update immediately instead of waiting for the frame. */
+    @Test
+    public void testDropFlushesPendingDragFrame() throws BlockLoadingException {
+        setupDragToTarget();
+        dragTouch();
+        dragMove();
+
+        finishDragWithinFrame(mDropEvent);
+
+        // Once to find the connection on drop. The frame update was cancelled.
+        Mockito.verify(mMockConnectionManager, times(1))
+                .findBestConnection(Matchers.same(mTouchedBlock), anyInt());
+        Mockito.verify(mMockController).connect(
+                mTouchedBlock.getOnlyValueInput().getConnection(),
+                mTargetBlock.getOutputConnection());
+    }
+
+    /** A cancelled drag (ended without a drop) also flushes the pending frame update. */
+    @Test
+    public void testCancelFlushesPendingDragFrame() throws BlockLoadingException {
+        setupDragToTarget();
+        dragTouch();
+        dragMove();
+
+        finishDragWithinFrame(mDragEndedEvent);
+
+        Mockito.verify(mMockConnectionManager, times(1))
+                .findBestConnection(Matchers.same(mTouchedBlock), anyInt());
+    }
+
+    private void setupDragToTarget() throws BlockLoadingException {
+        mTouchedBlock = mDraggedBlock = mBlockFactory.obtainBlockFrom(
+                new BlockTemplate().ofType("simple_input_output"));
+        mTargetBlock = mBlockFactory.obtainBlockFrom(new BlockTemplate().ofType("output_no_input"));
+
+        Mockito.when(mMockBlockClipDataHelper.isBlockData(any(ClipDescription.class)))
+                .thenReturn(true);
+        Mockito.when(
+                mMockConnectionManager.findBestConnection(Matchers.same(mTouchedBlock), anyInt()))
+                .thenReturn(Pair.create(mTouchedBlock.getOnlyValueInput().getConnection(),
+                        mTargetBlock.getOutputConnection()));
+
+        setupDrag();
+    }
+
+    /**
+     * Sends a drag location event followed by {@code endEvent} before the next frame, and then
+     * waits for a frame to pass.
+     */
+    private void finishDragWithinFrame(final DragEvent endEvent) {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                mDragger.getDragEventListener().onDrag(mWorkspaceView, mDragLocationEvent);
+                mDragger.getDragEventListener().onDrag(mWorkspaceView, endEvent);
+            }
+        });
+        awaitNextFrame();
+    }
+
+    /** Waits until a frame callback posted after any pending drag update has run. */
+    private void awaitNextFrame() {
+        final CountDownLatch frameLatch = new CountDownLatch(1);
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        frameLatch.countDown();
+                    }
+                });
+            }
+        });
+        awaitTimeout(frameLatch);
+    }
+
     private void setupDrag() {
         if (mTouchedBlock == null || mDraggedBlock == null || mTargetBlock == null) {
             throw new IllegalStateException("Blocks must not be null");
@@ -0,0 +1,97 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.ui;
+
+import android.content.ComponentCallbacks2;
+
+import com.google.blockly.android.BlocklyTestCase;
+import com.google.blockly.android.ui.fieldview.FieldView;
+import com.google.blockly.model.Field;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link ViewPool}.
+ */
+public class ViewPoolTest extends BlocklyTestCase {
+    private ViewPool mPool;
+
+    @Before
+    public void setUp() {
+        mPool = new ViewPool(4);
+    }
+
+    @Test
+    public void testViewsAreKeyedByFieldType() {
+        FieldView label = mock(FieldView.class);
+        FieldView input = mock(FieldView.class);
+        assertThat(mPool.recycleFieldView(Field.TYPE_LABEL, label)).isTrue();
+        assertThat(mPool.recycleFieldView(Field.TYPE_INPUT, input)).isTrue();
+
+        assertThat(mPool.obtainFieldView(Field.TYPE_DROPDOWN)).isNull();
+        assertThat(mPool.obtainFieldView(Field.TYPE_INPUT)).isSameAs(input);
+        assertThat(mPool.obtainFieldView(Field.TYPE_INPUT)).isNull();
+        assertThat(mPool.obtainFieldView(Field.TYPE_LABEL)).isSameAs(label);
+    }
+
+    @Test
+    public void testCapacityIsPerType() {
+        for (int i = 0; i < 4; i++) {
+            assertThat(mPool.recycleFieldView(Field.TYPE_LABEL, mock(FieldView.class))).isTrue();
+        }
+        assertThat(mPool.recycleFieldView(Field.TYPE_LABEL, mock(FieldView.class))).isFalse();
+        assertThat(mPool.recycleFieldView(Field.TYPE_INPUT, mock(FieldView.class))).isTrue();
+        assertThat(mPool.getPooledViewCount(Field.TYPE_LABEL)).isEqualTo(4);
+
+        mPool.setMaxViewsPerType(2);
+        assertThat(mPool.getPooledViewCount(Field.TYPE_LABEL)).isEqualTo(2);
+        assertThat(mPool.recycleFieldView(Field.TYPE_LABEL, mock(FieldView.class))).isFalse();
+    }
+
+    @Test
+    public void testBoundViewsAreRejected() {
+        FieldView view = mock(FieldView.class);
+        when(view.getField()).thenReturn(mock(Field.class));
+        try {
+            mPool.recycleFieldView(Field.TYPE_LABEL, view);
+            fail("Expected IllegalArgumentException.");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        assertThat(mPool.getPooledViewCount(Field.TYPE_LABEL)).isEqualTo(0);
+    }
+
+    @Test
+    public void testOnTrimMemory() {
+        for (int i = 0; i < 4; i++) {
+            mPool.recycleFieldView(Field.TYPE_LABEL, mock(FieldView.class));
+        }
+        mPool.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        assertThat(mPool.getPooledViewCount(Field.TYPE_LABEL)).isEqualTo(4);
+
+        mPool.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertThat(mPool.getPooledViewCount(Field.TYPE_LABEL)).isEqualTo(2);
+
+        mPool.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertThat(mPool.getPooledViewCount(Field.TYPE_LABEL)).isEqualTo(0);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.ui;
+
+import android.content.Context;
+import android.graphics.Rect;
+import android.support.test.InstrumentationRegistry;
+import android.view.View;
+
+import com.google.blockly.android.BlocklyTestCase;
+import com.google.blockly.android.control.BlocklyController;
+import com.google.blockly.android.testui.TestableBlockViewFactory;
+import com.google.blockly.model.Block;
+import com.google.blockly.model.BlockTemplate;
+import com.google.blockly.utils.BlockLoadingException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.AdditionalAnswers;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for {@link WorkspaceView}.
+ */
+public class WorkspaceViewTest extends BlocklyTestCase {
+    private static final int VIEW_SIZE = 500;
+    private static final int FAR_AWAY = 100000;  // In workspace units.
+
+    private BlocklyController mController;
+    private WorkspaceHelper mHelper;
+    private WorkspaceView mWorkspaceView;
+
+    @Before
+    public void setUp() throws Exception {
+        configureForThemes();
+        configureForUIThread();
+
+        Context mockContext = mock(Context.class, AdditionalAnswers.delegatesTo(getContext()));
+        doReturn(InstrumentationRegistry.getTargetContext().getMainLooper())
+                .when(mockContext).getMainLooper();
+
+        mHelper = new WorkspaceHelper(mockContext);
+        mController = new BlocklyController.Builder(mockContext)
+                .setWorkspaceHelper(mHelper)
+                .setBlockViewFactory(new TestableBlockViewFactory(mockContext, mHelper))
+                .addBlockDefinitionsFromAsset("default/test_blocks.json")
+                .build();
+        mWorkspaceView = new WorkspaceView(getContext());
+    }
+
+    @Test
+    public void testCullingHidesGroupsOutsideView() {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                Block near = addRootBlockAt(0, 0);
+                Block far = addRootBlockAt(FAR_AWAY, FAR_AWAY);
+                mController.initWorkspaceView(mWorkspaceView);
+                BlockGroup nearGroup = mHelper.getRootBlockGroup(near);
+                BlockGroup farGroup = mHelper.getRootBlockGroup(far);
+
+                mWorkspaceView.setCullingEnabled(true);
+                measureAndLayout();
+                assertThat(nearGroup.isCulled()).isFalse();
+                assertThat(nearGroup.getVisibility()).isEqualTo(View.VISIBLE);
+                assertThat(farGroup.isCulled()).isTrue();
+                assertThat(farGroup.getVisibility()).isEqualTo(View.INVISIBLE);
+
+                // Culled groups are still included in the bounds.
+                ViewPoint farViewPoint = new ViewPoint();
+                mHelper.workspaceToVirtualViewDelta(far.getPosition(), farViewPoint);
+                Rect bounds = mWorkspaceView.getBlocksBoundingBox(new Rect());
+                assertThat(bounds.contains(farViewPoint.x, farViewPoint.y)).isTrue();
+
+                // Scroll to the far block.
+                mHelper.setVirtualWorkspaceViewOffset(farViewPoint.x, farViewPoint.y);
+                measureAndLayout();
+                assertThat(nearGroup.isCulled()).isTrue();
+                assertThat(farGroup.isCulled()).isFalse();
+                assertThat(farGroup.getVisibility()).isEqualTo(View.VISIBLE);
+                assertThat(farGroup.getLeft()).isEqualTo(0);
+                assertThat(farGroup.getTop()).isEqualTo(0);
+
+                mWorkspaceView.setCullingEnabled(false);
+                measureAndLayout();
+                assertThat(nearGroup.isCulled()).isFalse();
+                assertThat(nearGroup.getVisibility()).isEqualTo(View.VISIBLE);
+            }
+        });
+    }
+
+    @Test
+    public void testScrollingMovesGroupsWithoutRelayout() {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                Block block = addRootBlockAt(10, 10);
+                mController.initWorkspaceView(mWorkspaceView);
+                BlockGroup group = mHelper.getRootBlockGroup(block);
+                measureAndLayout();
+                int left = group.getLeft();
+                int top = group.getTop();
+
+                mHelper.setVirtualWorkspaceViewOffset(-20, -30);
+                measureAndLayout();
+                assertThat(group.isLayoutValidAt(block.getPosition(),
+                        group.getMeasuredWidth(), group.getMeasuredHeight())).isTrue();
+                assertThat(group.getLeft()).isEqualTo(left + 20);
+                assertThat(group.getTop()).isEqualTo(top + 30);
+
+                // Moving the block itself invalidates the previous layout.
+                block.setPosition(50, 50);
+                assertThat(group.isLayoutValidAt(block.getPosition(),
+                        group.getMeasuredWidth(), group.getMeasuredHeight())).isFalse();
+            }
+        });
+    }
+
+    private Block addRootBlockAt(int x, int y) {
+        try {
+            Block block = mController.getBlockFactory().obtainBlockFrom(
+                    new BlockTemplate().ofType("statement_no_input").atPosition(x, y));
+            mController.addRootBlock(block);
+            return block;
+        } catch (BlockLoadingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void measureAndLayout() {
+        mWorkspaceView.measure(
+                View.MeasureSpec.makeMeasureSpec(VIEW_SIZE, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(VIEW_SIZE, View.MeasureSpec.EXACTLY));
+        mWorkspaceView.layout(0, 0, VIEW_SIZE, VIEW_SIZE);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.android.ui.vertical;
+
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.view.View;
+
+import com.google.blockly.android.BlocklyTestCase;
+import com.google.blockly.android.control.ConnectionManager;
+import com.google.blockly.android.ui.BlockGroup;
+import com.google.blockly.android.ui.WorkspaceHelper;
+import com.google.blockly.model.Block;
+import com.google.blockly.model.BlockFactory;
+import com.google.blockly.model.BlockTemplate;
+import com.google.blockly.model.FieldInput;
+import com.google.blockly.utils.BlockLoadingException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for the patch layout of the vertical {@link BlockView}.
+ */
+public class BlockViewTest extends BlocklyTestCase {
+    private static final Rect SENTINEL_BOUNDS = new Rect(-1, -1, -1, -1);
+
+    private BlockFactory mBlockFactory;
+    private VerticalBlockViewFactory mViewFactory;
+    private ConnectionManager mMockConnectionManager;
+
+    @Before
+    public void setUp() throws Exception {
+        configureForThemes();
+        configureForUIThread();
+
+        mMockConnectionManager = mock(ConnectionManager.class);
+        mBlockFactory = new BlockFactory();
+        mBlockFactory.addJsonDefinitions(getContext().getAssets()
+                .open("default/test_blocks.json"));
+        mViewFactory =
+                new VerticalBlockViewFactory(getContext(), new WorkspaceHelper(getContext()));
+    }
+
+    @Test
+    public void testMovedBlockKeepsPatchLayout() {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                BlockView blockView = buildBlockView("text");
+                measureAndLayout(blockView, 0, 0);
+                markPatchBounds(blockView);
+
+                // Moving the block does not change its shape, so the patches are not laid out.
+                measureAndLayout(blockView, 50, 80);
+                for (Drawable patch : blockView.getBlockPatches()) {
+                    assertThat(patch.getBounds()).isEqualTo(SENTINEL_BOUNDS);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testFieldWidthChangeInvalidatesPatchLayout() {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                BlockView blockView = buildBlockView("text");
+                measureAndLayout(blockView, 0, 0);
+                int width = blockView.getMeasuredWidth();
+                int fillRight = getFillBounds(blockView).right;
+                markPatchBounds(blockView);
+
+                FieldInput field = (FieldInput) blockView.getBlock().getFieldByName("TEXT");
+                field.setText("a considerably longer piece of text");
+                measureAndLayout(blockView, 0, 0);
+
+                assertThat(blockView.getMeasuredWidth()).isGreaterThan(width);
+                assertThat(getFillBounds(blockView).right).isGreaterThan(fillRight);
+                assertPatchesLaidOut(blockView);
+            }
+        });
+    }
+
+    @Test
+    public void testConnectedBlockInvalidatesPatchLayout() {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                BlockView blockView = buildBlockView("simple_input_output");
+                measureAndLayout(blockView, 0, 0);
+                int width = blockView.getMeasuredWidth();
+                markPatchBounds(blockView);
+
+                // Reshape the block by filling its value input.
+                BlockGroup childGroup = mViewFactory.buildBlockGroup();
+                buildBlockView("output_foo", childGroup);
+                blockView.getInputView(0).setConnectedBlockGroup(childGroup);
+                measureAndLayout(blockView, 0, 0);
+
+                assertThat(blockView.getMeasuredWidth()).isGreaterThan(width);
+                assertPatchesLaidOut(blockView);
+            }
+        });
+    }
+
+    @Test
+    public void testRecycledPatchesNotSharedBetweenBlocks() {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                BlockView first = buildBlockView("text");
+                BlockView second = buildBlockView("text");
+                measureAndLayout(first, 0, 0);
+                measureAndLayout(second, 0, 100);
+                assertNotShared(first.getBlockPatches(), second.getBlockPatches());
+                assertNotShared(first.getFillRects(), second.getFillRects());
+
+                // Laying out the first block again recycles only its own patches and rects.
+                ((FieldInput) first.getBlock().getFieldByName("TEXT")).setText("longer text");
+                measureAndLayout(first, 0, 0);
+                assertNotShared(first.getBlockPatches(), second.getBlockPatches());
+                assertNotShared(first.getFillRects(), second.getFillRects());
+            }
+        });
+    }
+
+    private BlockView buildBlockView(String type) {
+        return buildBlockView(type, mViewFactory.buildBlockGroup());
+    }
+
+    private BlockView buildBlockView(String type, BlockGroup group) {
+        try {
+            Block block = mBlockFactory.obtainBlockFrom(new BlockTemplate().ofType(type));
+            return mViewFactory.buildBlockViewTree(block, group, mMockConnectionManager, null);
+        } catch (BlockLoadingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void measureAndLayout(BlockView blockView, int left, int top) {
+        int unspecified = View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED);
+        blockView.measure(unspecified, unspecified);
+        blockView.layout(left, top, left + blockView.getMeasuredWidth(),
+                top + blockView.getMeasuredHeight());
+    }
+
+    /**
+     * Overwrites the bounds of every patch, so a following layout of the patches can be detected.
+     */
+    private static void markPatchBounds(BlockView blockView) {
+        List<Drawable> patches = blockView.getBlockPatches();
+        assertThat(patches).isNotEmpty();
+        for (Drawable patch : patches) {
+            patch.setBounds(SENTINEL_BOUNDS);
+        }
+    }
+
+    private static void assertPatchesLaidOut(BlockView blockView) {
+        List<Drawable> patches = blockView.getBlockPatches();
+        assertThat(patches).isNotEmpty();
+        for (Drawable patch : patches) {
+            assertThat(patch.getBounds()).isNotEqualTo(SENTINEL_BOUNDS);
+        }
+    }
+
+    private static Rect getFillBounds(BlockView blockView) {
+        Rect bounds = new Rect();
+        for (Rect rect : blockView.getFillRects()) {
+            bounds.union(rect);
+        }
+        return bounds;
+    }
+
+    private static <T> void assertNotShared(List<T> first, List<T> second) {
+        Set<T> firstItems = Collections.newSetFromMap(new IdentityHashMap<T, Boolean>());
+        firstItems.addAll(first);
+        for (T item : second) {
+            assertThat(firstItems.contains(item)).isFalse();
+        }
+    }
+}
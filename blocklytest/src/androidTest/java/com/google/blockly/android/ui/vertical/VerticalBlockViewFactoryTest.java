@@ -16,15 +16,19 @@
 package com.google.blockly.android.ui.vertical;
 
 import android.support.annotation.NonNull;
+import android.view.View;
 
 import com.google.blockly.android.BlocklyTestCase;
 import com.google.blockly.android.control.BlocklyController;
 import com.google.blockly.android.control.ConnectionManager;
 import com.google.blockly.android.ui.BlockGroup;
+import com.google.blockly.android.ui.ViewPool;
 import com.google.blockly.android.ui.WorkspaceHelper;
+import com.google.blockly.android.ui.fieldview.FieldView;
 import com.google.blockly.model.Block;
 import com.google.blockly.model.BlockFactory;
 import com.google.blockly.model.BlockTemplate;
+import com.google.blockly.model.Field;
 import com.google.blockly.utils.BlockLoadingException;
 
 import org.junit.Before;
@@ -84,6 +88,57 @@ public class VerticalBlockViewFactoryTest extends BlocklyTestCase {
         }
     }
 
+    // Verify field views are rebound to the fields of new blocks after their views are unlinked.
+    @Test
+    public void testFieldViewsAreRecycled() throws BlockLoadingException {
+        Mockito.when(mMockWorkspaceHelper.getBlockViewFactory()).thenReturn(mViewFactory);
+        ViewPool pool = mViewFactory.getViewPool();
+
+        final Block first = mBlockFactory.obtainBlockFrom(new BlockTemplate().ofType("text"));
+        FieldView textView = (FieldView) makeBlockView(first).getInputView(0).getChildAt(1);
+        assertThat(textView.getField()).isSameAs(first.getFieldByName("TEXT"));
+
+        mBlockGroup.unlinkModel();
+        assertThat(textView.getField()).isNull();
+        assertThat(((View) textView).getParent()).isNull();
+        assertThat(pool.getPooledViewCount(Field.TYPE_INPUT)).isEqualTo(1);
+        assertThat(pool.getPooledViewCount(Field.TYPE_IMAGE)).isEqualTo(2);
+
+        final Block second = mBlockFactory.obtainBlockFrom(new BlockTemplate().ofType("text"));
+        BlockView secondView = makeBlockView(second);
+        assertThat(secondView.getInputView(0).getChildAt(1)).isSameAs(textView);
+        assertThat(textView.getField()).isSameAs(second.getFieldByName("TEXT"));
+        assertThat(pool.getPooledViewCount(Field.TYPE_INPUT)).isEqualTo(0);
+        assertThat(pool.getPooledViewCount(Field.TYPE_IMAGE)).isEqualTo(0);
+    }
+
+    // Verify factories that disable pooling do not rebind unlinked views.
+    @Test
+    public void testFieldViewsNotPooledWhenPoolingDisabled() throws BlockLoadingException {
+        mViewFactory = new VerticalBlockViewFactory(getContext(), mMockWorkspaceHelper) {
+            @Override
+            protected boolean isFieldViewPoolingEnabled() {
+                return false;
+            }
+        };
+        mBlockGroup = mViewFactory.buildBlockGroup();
+        Mockito.when(mMockWorkspaceHelper.getBlockViewFactory()).thenReturn(mViewFactory);
+        ViewPool pool = mViewFactory.getViewPool();
+
+        final Block first = mBlockFactory.obtainBlockFrom(new BlockTemplate().ofType("text"));
+        FieldView textView = (FieldView) makeBlockView(first).getInputView(0).getChildAt(1);
+
+        mBlockGroup.unlinkModel();
+        assertThat(textView.getField()).isNull();
+        assertThat(((View) textView).getParent()).isNull();
+        assertThat(pool.getPooledViewCount(Field.TYPE_INPUT)).isEqualTo(0);
+
+        final Block second = mBlockFactory.obtainBlockFrom(new BlockTemplate().ofType("text"));
+        BlockView secondView = makeBlockView(second);
+        assertThat(secondView.getInputView(0).getChildAt(1)).isNotSameAs(textView);
+        assertThat(textView.getField()).isNull();
+    }
+
     // Make a BlockView for the given Block and default mock objects otherwise.
     @NonNull
     private BlockView makeBlockView(Block block) {
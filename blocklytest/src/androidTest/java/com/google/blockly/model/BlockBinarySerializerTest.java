@@ -0,0 +1,200 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.model;
+
+import com.google.blockly.android.BlocklyTestCase;
+import com.google.blockly.android.control.BlocklyController;
+import com.google.blockly.model.mutator.IfElseMutator;
+import com.google.blockly.utils.BlockLoadingException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link BlockBinarySerializer}.
+ */
+public class BlockBinarySerializerTest extends BlocklyTestCase {
+    private static final String WORKSPACE_XML =
+            "<xml xmlns=\"http://www.w3.org/1999/xhtml\">"
+            + "<block type=\"controls_if\" id=\"if\" x=\"-10.5\" y=\"20.25\">"
+            +   "<mutation elseif=\"1\" else=\"1\"></mutation>"
+            +   "<statement name=\"DO0\">"
+            +     "<block type=\"statement_value_input\" id=\"svi\" inline=\"true\">"
+            +       "<value name=\"value\">"
+            +         "<shadow type=\"math_number\" id=\"shadow\"><field name=\"NUM\">7</field>"
+            +         "</shadow>"
+            +         "<block type=\"math_number\" id=\"num\"><field name=\"NUM\">42</field>"
+            +         "</block>"
+            +       "</value>"
+            +       "<next>"
+            +         "<block type=\"statement_no_input\" id=\"sni\" collapsed=\"true\""
+            +             " disabled=\"true\">"
+            +           "<next><block type=\"statement_statement_input\" id=\"ssi\""
+            +               " inline=\"false\">"
+            +             "<statement name=\"statement input\">"
+            +               "<block type=\"statement_no_input\" id=\"locked\" editable=\"false\"/>"
+            +             "</statement>"
+            +           "</block></next>"
+            +         "</block>"
+            +       "</next>"
+            +     "</block>"
+            +   "</statement>"
+            +   "<statement name=\"ELSE\">"
+            +     "<block type=\"statement_no_input\" id=\"fixed\" deletable=\"false\""
+            +         " movable=\"false\"/>"
+            +   "</statement>"
+            +   "<next><shadow type=\"statement_no_input\" id=\"next_shadow\"/></next>"
+            + "</block>"
+            + "<block type=\"text\" id=\"text\" x=\"300.0\" y=\"0.0\">"
+            +   "<field name=\"TEXT\">&lt;café &amp; 漢字&gt;</field>"
+            + "</block>"
+            + "<block type=\"text\" id=\"same_text\" x=\"300.0\" y=\"50.0\">"
+            +   "<field name=\"TEXT\">&lt;café &amp; 漢字&gt;</field>"
+            + "</block>"
+            + "</xml>";
+
+    private BlocklyController mController;
+    private BlocklyController mOtherController;
+
+    @Before
+    public void setUp() throws Exception {
+        configureForUIThread();
+        mController = createController();
+        mOtherController = createController();
+    }
+
+    @Test
+    public void testRoundTripMatchesXml() {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Workspace workspace = mController.getWorkspace();
+                    workspace.loadWorkspaceContents(WORKSPACE_XML);
+                    byte[] binary = toBinary(workspace);
+
+                    Workspace restored = mOtherController.getWorkspace();
+                    restored.loadWorkspaceContentsFromBinary(new ByteArrayInputStream(binary));
+
+                    assertThat(restored.getRootBlocks()).hasSize(3);
+                    assertThat(toXml(restored)).isEqualTo(toXml(workspace));
+                    assertThat(binary.length).isLessThan(toXml(workspace).length());
+                } catch (BlockLoadingException | BlocklySerializerException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testCommentsAreRestored() throws Exception {
+        Block block = mController.getBlockFactory().obtainBlockFrom(
+                new BlockTemplate().ofType("statement_no_input").withComment("Remember me"));
+        byte[] binary = BlockBinarySerializer.writeToBinary(Arrays.asList(block));
+
+        Block restored = BlockBinarySerializer.loadFromBinary(
+                new ByteArrayInputStream(binary), mOtherController.getBlockFactory()).get(0);
+        assertThat(restored.getId()).isEqualTo(block.getId());
+        assertThat(restored.getComment()).isEqualTo("Remember me");
+    }
+
+    @Test
+    public void testIdsAreRestoredExactly() throws Exception {
+        String[] ids = {
+                "0f8fad5b-d9cb-469f-a165-70867728950e",  // Stored as a UUID.
+                "0F8FAD5B-D9CB-469F-A165-70867728950E",  // Not in UUID.toString() form.
+                "0f8fad5b-d9cb-469f-a165-70867728950"};
+        BlockFactory factory = mController.getBlockFactory();
+        Block[] blocks = new Block[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            blocks[i] = factory.obtainBlockFrom(
+                    new BlockTemplate().ofType("statement_no_input").withId(ids[i]));
+        }
+        byte[] binary = BlockBinarySerializer.writeToBinary(Arrays.asList(blocks));
+
+        List<Block> restored = BlockBinarySerializer.loadFromBinary(
+                new ByteArrayInputStream(binary), mOtherController.getBlockFactory());
+        assertThat(restored).hasSize(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            assertThat(restored.get(i).getId()).isEqualTo(ids[i]);
+        }
+    }
+
+    @Test
+    public void testDuplicateIdsAreReplaced() throws Exception {
+        Block block = mController.getBlockFactory().obtainBlockFrom(
+                new BlockTemplate().ofType("statement_no_input"));
+        byte[] binary = BlockBinarySerializer.writeToBinary(Arrays.asList(block));
+
+        // Loading into the same factory, where the id is already in use.
+        Block restored = BlockBinarySerializer.loadFromBinary(
+                new ByteArrayInputStream(binary), mController.getBlockFactory()).get(0);
+        assertThat(restored.getId()).isNotEqualTo(block.getId());
+    }
+
+    @Test
+    public void testRejectsMalformedData() throws Exception {
+        Block block = mController.getBlockFactory().obtainBlockFrom(
+                new BlockTemplate().ofType("statement_no_input"));
+        byte[] binary = BlockBinarySerializer.writeToBinary(Arrays.asList(block));
+        BlockFactory otherFactory = mOtherController.getBlockFactory();
+
+        assertLoadingFails(WORKSPACE_XML.getBytes(), otherFactory);
+        assertLoadingFails(Arrays.copyOf(binary, binary.length - 1), otherFactory);
+
+        byte[] futureVersion = binary.clone();
+        futureVersion[4] = (byte) (BlockBinarySerializer.VERSION + 1);
+        assertLoadingFails(futureVersion, otherFactory);
+    }
+
+    private static void assertLoadingFails(byte[] bytes, BlockFactory factory) {
+        try {
+            BlockBinarySerializer.loadFromBinary(new ByteArrayInputStream(bytes), factory);
+            fail("Expected BlockLoadingException.");
+        } catch (BlockLoadingException e) {
+            // Expected.
+        }
+    }
+
+    private BlocklyController createController() {
+        BlocklyController controller = new BlocklyController.Builder(getContext())
+                .addBlockDefinitionsFromAsset("default/test_blocks.json")
+                .build();
+        controller.getBlockFactory().registerMutator(
+                IfElseMutator.MUTATOR_ID, IfElseMutator.FACTORY);
+        return controller;
+    }
+
+    private static byte[] toBinary(Workspace workspace) throws BlocklySerializerException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        workspace.serializeToBinary(out);
+        return out.toByteArray();
+    }
+
+    private static String toXml(Workspace workspace) throws BlocklySerializerException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        workspace.serializeToXml(out);
+        return out.toString();
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.model;
+
+import android.support.test.filters.LargeTest;
+import android.util.Log;
+
+import com.google.blockly.android.BlocklyTestCase;
+import com.google.blockly.android.TestUtils;
+import com.google.blockly.android.control.BlocklyController;
+import com.google.blockly.utils.BlockLoadingException;
+import com.google.blockly.utils.BlocklyXmlHelper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Compares copying a block tree with {@link Block#deepCopy()}, which copies the blocks directly,
+ * against the XML round trip it replaced. Results are written to the log under {@link #TAG}.
+ * Runs only when enabled with {@link TestUtils#BENCHMARK_ARGUMENT}.
+ */
+@LargeTest
+public class BlockCopyBenchmark extends BlocklyTestCase {
+    private static final String TAG = "BlockCopyBench";
+
+    private static final int STATEMENT_COUNT = 500;  // Each with a number block, 1000 blocks.
+    private static final int RUNS = 5;
+
+    private BlockFactory mBlockFactory;
+
+    @Before
+    public void setUp() throws Exception {
+        TestUtils.assumeBenchmarksEnabled();
+        configureForUIThread();
+        testTimeoutMs = 120000L;
+
+        mBlockFactory = new BlocklyController.Builder(getContext())
+                .addBlockDefinitionsFromAsset("default/test_blocks.json")
+                .build()
+                .getBlockFactory();
+    }
+
+    @Test
+    public void benchmarkDeepCopy() {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runComparison();
+                } catch (BlockLoadingException | BlocklySerializerException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+    }
+
+    private void runComparison() throws BlockLoadingException, BlocklySerializerException {
+        Block original = BlocklyXmlHelper.loadOneBlockFromXml(buildTreeXml(), mBlockFactory);
+        String expectedXml = toXmlWithoutIds(original);
+
+        // The first run of each warms up.
+        long directNanos = 0;
+        long xmlNanos = 0;
+        for (int run = 0; run <= RUNS; run++) {
+            long start = System.nanoTime();
+            Block directCopy = original.deepCopy();
+            long direct = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            Block xmlCopy = BlocklyXmlHelper.loadOneBlockFromXml(
+                    BlocklyXmlHelper.writeBlockToXml(
+                            original, IOOptions.WRITE_ALL_BLOCKS_WITHOUT_ID),
+                    mBlockFactory);
+            long xml = System.nanoTime() - start;
+
+            if (run > 0) {
+                directNanos += direct;
+                xmlNanos += xml;
+            }
+            assertThat(toXmlWithoutIds(directCopy)).isEqualTo(expectedXml);
+            assertThat(toXmlWithoutIds(xmlCopy)).isEqualTo(expectedXml);
+            mBlockFactory.removeBlockReferences(directCopy);
+            mBlockFactory.removeBlockReferences(xmlCopy);
+        }
+
+        Log.i(TAG, (STATEMENT_COUNT * 2) + " blocks: direct copy "
+                + (directNanos / RUNS / 1000000) + "ms, XML round trip "
+                + (xmlNanos / RUNS / 1000000) + "ms");
+    }
+
+    /**
+     * Builds a stack of statement blocks, each with a number in its value input.
+     */
+    private static String buildTreeXml() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < STATEMENT_COUNT; i++) {
+            sb.append(i == 0 ? "<block type=\"statement_value_input\">"
+                    : "<next><block type=\"statement_value_input\">");
+            sb.append("<value name=\"value\"><block type=\"math_number\"><field name=\"NUM\">")
+                    .append(i).append("</field></block></value>");
+        }
+        for (int i = STATEMENT_COUNT - 1; i >= 0; i--) {
+            sb.append(i > 0 ? "</block></next>" : "</block>");
+        }
+        return sb.toString();
+    }
+
+    private static String toXmlWithoutIds(Block block) throws BlocklySerializerException {
+        return BlocklyXmlHelper.writeBlockToXml(block, IOOptions.WRITE_ALL_BLOCKS_WITHOUT_ID);
+    }
+}
@@ -14,11 +14,14 @@
  */
 package com.google.blockly.model;
 
+import android.text.TextUtils;
+
 import com.google.blockly.android.BlocklyTestCase;
 import com.google.blockly.android.control.BlocklyController;
 import com.google.blockly.utils.BlockLoadingException;
 
 import org.json.JSONException;
+import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -26,10 +29,13 @@ import org.junit.rules.ExpectedException;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
+import org.xmlpull.v1.XmlSerializer;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static com.google.blockly.utils.MoreAsserts.assertStringNotEmpty;
@@ -72,6 +78,69 @@ public class BlockFactoryTest extends BlocklyTestCase {
                 .that(block.getInputs().get(0).getFields().size()).isEqualTo(9);
     }
 
+    @Test
+    public void testBlocksOfSameTypeHaveTheirOwnInputsAndFields() throws BlockLoadingException {
+        Block first = mBlockFactory.obtainBlockFrom(new BlockTemplate().ofType("frankenblock"));
+        Block second = mBlockFactory.obtainBlockFrom(new BlockTemplate().ofType("frankenblock"));
+
+        assertThat(second.getInputs().size()).isEqualTo(first.getInputs().size());
+        for (int i = 0; i < first.getInputs().size(); i++) {
+            Input firstInput = first.getInputs().get(i);
+            Input secondInput = second.getInputs().get(i);
+            assertThat(secondInput).isNotSameAs(firstInput);
+            assertThat(secondInput.getBlock()).isSameAs(second);
+            assertThat(secondInput.getName()).isEqualTo(firstInput.getName());
+            if (firstInput.getConnection() != null) {
+                assertThat(secondInput.getConnection()).isNotSameAs(firstInput.getConnection());
+                assertThat(secondInput.getConnection().getBlock()).isSameAs(second);
+            }
+            assertThat(secondInput.getFields().size()).isEqualTo(firstInput.getFields().size());
+            for (int j = 0; j < firstInput.getFields().size(); j++) {
+                assertThat(secondInput.getFields().get(j))
+                        .isNotSameAs(firstInput.getFields().get(j));
+            }
+        }
+
+        FieldInput firstText = (FieldInput) first.getFieldByName("text_input");
+        firstText.setText("changed");
+        assertThat(((FieldInput) second.getFieldByName("text_input")).getText())
+                .isNotEqualTo("changed");
+    }
+
+    @Test
+    public void testDropdownOptionsNotSharedBetweenBlocks() throws BlockLoadingException {
+        Block first = mBlockFactory.obtainBlockFrom(new BlockTemplate().ofType("frankenblock"));
+        Block second = mBlockFactory.obtainBlockFrom(new BlockTemplate().ofType("frankenblock"));
+        FieldDropdown firstDropdown = (FieldDropdown) first.getFieldByName("dropdown");
+        FieldDropdown secondDropdown = (FieldDropdown) second.getFieldByName("dropdown");
+        assertThat(secondDropdown.getOptions()).isNotSameAs(firstDropdown.getOptions());
+        int optionCount = firstDropdown.getOptions().size();
+
+        // As with options parsed from JSON, the latest block's options are updated.
+        List<FieldDropdown.Option> newOptions = Arrays.asList(
+                new FieldDropdown.Option("NEW1", "new option 1"),
+                new FieldDropdown.Option("NEW2", "new option 2"));
+        mBlockFactory.updateDropdownOptions("frankenblock", "dropdown", newOptions);
+        assertThat(secondDropdown.getOptions().size()).isEqualTo(2);
+        assertThat(secondDropdown.getSelectedValue()).isEqualTo("NEW1");
+        assertThat(firstDropdown.getOptions().size()).isEqualTo(optionCount);
+    }
+
+    @Test
+    public void testFieldsWithoutCloneAreLoadedForEachBlock() throws Exception {
+        BlockFactory factory = newTagsFieldFactory();
+        factory.addJsonDefinitions("[{\"type\": \"tagged\", \"message0\": \"%1\", "
+                + "\"args0\": [{\"type\": \"field_input\", \"name\": \"TAGS\"}]}]");
+        Block first = factory.obtainBlockFrom(new BlockTemplate().ofType("tagged"));
+        Block second = factory.obtainBlockFrom(new BlockTemplate().ofType("tagged"));
+
+        TagsField firstTags = (TagsField) first.getFieldByName("TAGS");
+        TagsField secondTags = (TagsField) second.getFieldByName("TAGS");
+        assertThat(secondTags).isNotSameAs(firstTags);
+        firstTags.setFromString("red,green");
+        assertThat(secondTags.mTags).isEmpty();
+    }
+
     @Test
     public void testLoadBlocks() {
         List<BlockDefinition> definitions = mBlockFactory.getAllBlockDefinitions();
@@ -443,6 +512,136 @@ public class BlockFactoryTest extends BlocklyTestCase {
         mBlockFactory.fromXml(parser);
     }
 
+    @Test
+    public void testCopyCustomFieldsAndMutation() throws Exception {
+        final BlockFactory factory = newTagsFieldFactory();
+        factory.registerMutator(TagRowsMutator.MUTATOR_ID, new TagRowsMutator.Factory());
+        factory.addJsonDefinitions("[{\"type\": \"tagged\", \"message0\": \"%1\", "
+                + "\"args0\": [{\"type\": \"field_input\", \"name\": \"TAGS\"}], "
+                + "\"mutator\": \"" + TagRowsMutator.MUTATOR_ID + "\"}]");
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Block original = factory.obtainBlockFrom(new BlockTemplate().ofType("tagged"));
+                    original.setMutation("<mutation rows=\"2\"></mutation>");
+                    TagsField originalTags = (TagsField) original.getFieldByName("TAGS");
+                    originalTags.setFromString("red,green");
+                    ((TagsField) original.getFieldByName("ROW1")).setFromString("blue");
+
+                    // The mutation is applied before the custom field values are copied.
+                    Block copy = original.deepCopy();
+                    assertThat(copy.getInputs()).hasSize(3);
+                    TagsField copyTags = (TagsField) copy.getFieldByName("TAGS");
+                    assertThat(copyTags).isNotSameAs(originalTags);
+                    assertThat(copyTags.mTags).containsExactly("red", "green").inOrder();
+                    assertThat(((TagsField) copy.getFieldByName("ROW0")).mTags).isEmpty();
+                    assertThat(((TagsField) copy.getFieldByName("ROW1")).mTags)
+                            .containsExactly("blue");
+
+                    // The copied values do not share state with the original.
+                    originalTags.setFromString("yellow");
+                    assertThat(copyTags.mTags).containsExactly("red", "green").inOrder();
+                } catch (BlockLoadingException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return A factory that loads {@link TagsField}s in place of text input fields.
+     */
+    private BlockFactory newTagsFieldFactory() {
+        BlockFactory factory = new BlockFactory() {
+            @Override
+            public Field loadFieldFromJson(String blockType, JSONObject json)
+                    throws BlockLoadingException {
+                if (Field.TYPE_INPUT_STRING.equals(json.optString("type"))) {
+                    return new TagsField(json.optString("name"));
+                }
+                return super.loadFieldFromJson(blockType, json);
+            }
+        };
+        factory.setController(mController);
+        return factory;
+    }
+
+    /**
+     * A custom field with mutable state, which does not override {@link Field#clone()}.
+     */
+    private static class TagsField extends Field {
+        final List<String> mTags = new ArrayList<>();
+
+        TagsField(String name) {
+            super(name, TYPE_UNKNOWN);
+        }
+
+        @Override
+        public boolean setFromString(String text) {
+            mTags.clear();
+            if (!text.isEmpty()) {
+                mTags.addAll(Arrays.asList(text.split(",")));
+            }
+            return true;
+        }
+
+        @Override
+        public String getSerializedValue() {
+            return TextUtils.join(",", mTags);
+        }
+    }
+
+    /**
+     * A mutator that only supports {@code <mutation>} XML, adding a row of {@link TagsField}s for
+     * each of its rows.
+     */
+    private static class TagRowsMutator extends Mutator {
+        static final String MUTATOR_ID = "tag_rows_mutator";
+
+        static class Factory implements Mutator.Factory<TagRowsMutator> {
+            @Override
+            public TagRowsMutator newMutator(BlocklyController controller) {
+                return new TagRowsMutator(this);
+            }
+
+            @Override
+            public String getMutatorId() {
+                return MUTATOR_ID;
+            }
+        }
+
+        private int mRows = 0;
+
+        TagRowsMutator(Mutator.Factory factory) {
+            super(factory);
+        }
+
+        @Override
+        public void serialize(XmlSerializer serializer) throws IOException {
+            serializer.startTag(null, TAG_MUTATION);
+            serializer.attribute(null, "rows", Integer.toString(mRows));
+            serializer.endTag(null, TAG_MUTATION);
+        }
+
+        @Override
+        public void update(XmlPullParser parser)
+                throws BlockLoadingException, IOException, XmlPullParserException {
+            parser.next();
+            String rows = parser.getAttributeValue(null, "rows");
+            mRows = rows == null ? 0 : Integer.parseInt(rows);
+
+            List<Input> inputs = new ArrayList<>();
+            inputs.add(mBlock.getInputs().get(0));
+            for (int i = 0; i < mRows; i++) {
+                List<Field> fields = new ArrayList<>();
+                fields.add(new TagsField("ROW" + i));
+                inputs.add(new Input.InputDummy(null, fields, Input.ALIGN_LEFT));
+            }
+            mBlock.reshape(inputs);
+        }
+    }
+
     /**
      * Creates a pull parser with the given input and gobbles up to the first start tag that equals
      * {@code returnFirstInstanceOf}.
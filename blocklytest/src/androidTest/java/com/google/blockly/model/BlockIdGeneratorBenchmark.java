@@ -0,0 +1,96 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.model;
+
+import android.support.test.filters.LargeTest;
+import android.util.Log;
+
+import com.google.blockly.android.TestUtils;
+import com.google.blockly.android.control.BlocklyController;
+import com.google.blockly.utils.BlockLoadingException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Measures generating block ids with {@link BlockIdGenerator.SessionCounter} against
+ * {@link BlockIdGenerator#UUID_GENERATOR}, both directly and when creating blocks through a
+ * {@link BlockFactory}. Timings are written to the log under {@link #TAG}. Runs only when
+ * enabled with {@link TestUtils#BENCHMARK_ARGUMENT}.
+ */
+@LargeTest
+public class BlockIdGeneratorBenchmark {
+    private static final String TAG = "BlockIdGeneratorBench";
+
+    private static final int ID_COUNT = 100000;
+    private static final int BLOCK_COUNT = 10000;
+    private static final int ROUNDS = 3;  // The first round warms up.
+
+    @Before
+    public void setUp() {
+        TestUtils.assumeBenchmarksEnabled();
+    }
+
+    @Test
+    public void benchmarkGenerateId() {
+        BlockIdGenerator sessionCounter = new BlockIdGenerator.SessionCounter();
+        for (int round = 0; round < ROUNDS; round++) {
+            long uuidNanos = timeGenerateIds(BlockIdGenerator.UUID_GENERATOR);
+            long counterNanos = timeGenerateIds(sessionCounter);
+            Log.i(TAG, ID_COUNT + " ids: UUID " + (uuidNanos / 1000000) + "ms, session counter "
+                    + (counterNanos / 1000000) + "ms");
+        }
+    }
+
+    @Test
+    public void benchmarkObtainBlocks() throws BlockLoadingException {
+        BlockIdGenerator sessionCounter = new BlockIdGenerator.SessionCounter();
+        for (int round = 0; round < ROUNDS; round++) {
+            long uuidNanos = timeObtainBlocks(BlockIdGenerator.UUID_GENERATOR);
+            long counterNanos = timeObtainBlocks(sessionCounter);
+            Log.i(TAG, BLOCK_COUNT + " blocks: UUID ids " + (uuidNanos / 1000000)
+                    + "ms, session counter ids " + (counterNanos / 1000000) + "ms");
+        }
+    }
+
+    private static long timeGenerateIds(BlockIdGenerator generator) {
+        int totalLength = 0;  // Keeps the ids from being optimized away.
+        long start = System.nanoTime();
+        for (int i = 0; i < ID_COUNT; i++) {
+            totalLength += generator.generateId().length();
+        }
+        long nanos = System.nanoTime() - start;
+        if (totalLength == 0) {
+            throw new IllegalStateException();
+        }
+        return nanos;
+    }
+
+    private static long timeObtainBlocks(BlockIdGenerator generator)
+            throws BlockLoadingException {
+        BlockFactory factory = new BlockFactory();
+        factory.setController(Mockito.mock(BlocklyController.class));
+        factory.addDefinition(new BlockDefinition("{\"type\": \"empty\"}"));
+        factory.setBlockIdGenerator(generator);
+        BlockTemplate template = new BlockTemplate().ofType("empty");
+        long start = System.nanoTime();
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            factory.obtainBlockFrom(template);
+        }
+        return System.nanoTime() - start;
+    }
+}
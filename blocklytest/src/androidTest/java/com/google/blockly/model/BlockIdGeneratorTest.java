@@ -0,0 +1,80 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.model;
+
+import com.google.blockly.android.control.BlocklyController;
+import com.google.blockly.utils.BlockLoadingException;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Tests for {@link BlockIdGenerator}.
+ */
+public class BlockIdGeneratorTest {
+    @Test
+    public void testSessionCounterIds() {
+        BlockIdGenerator generator = new BlockIdGenerator.SessionCounter();
+        Set<String> ids = new HashSet<>();
+        String prefix = null;
+        for (int i = 0; i < 10000; i++) {
+            String id = generator.generateId();
+            assertThat(id.length()).isEqualTo(BlockIdGenerator.SessionCounter.ID_LENGTH);
+            for (int j = 0; j < id.length(); j++) {
+                assertThat(BlockIdGenerator.SessionCounter.ALPHABET.indexOf(id.charAt(j)))
+                        .isAtLeast(0);
+            }
+            String idPrefix = id.substring(0, BlockIdGenerator.SessionCounter.PREFIX_LENGTH);
+            if (prefix == null) {
+                prefix = idPrefix;
+            }
+            assertThat(idPrefix).isEqualTo(prefix);
+            assertThat(ids.add(id)).isTrue();
+        }
+
+        String otherId = new BlockIdGenerator.SessionCounter().generateId();
+        assertThat(otherId.substring(0, BlockIdGenerator.SessionCounter.PREFIX_LENGTH))
+                .isNotEqualTo(prefix);
+    }
+
+    @Test
+    public void testFactorySkipsIdsInUse() throws BlockLoadingException {
+        BlockFactory factory = new BlockFactory();
+        factory.setController(Mockito.mock(BlocklyController.class));
+        factory.addDefinition(new BlockDefinition("{\"type\": \"empty\"}"));
+        factory.setBlockIdGenerator(new BlockIdGenerator() {
+            private int mCount = 0;
+
+            @Override
+            public String generateId() {
+                return "id" + (mCount++ / 2);  // Each id is generated twice.
+            }
+        });
+
+        Block first = factory.obtainBlockFrom(new BlockTemplate().ofType("empty"));
+        Block second = factory.obtainBlockFrom(new BlockTemplate().ofType("empty"));
+        Block requested = factory.obtainBlockFrom(new BlockTemplate().ofType("empty").withId("id0"));
+
+        assertThat(first.getId()).isEqualTo("id0");
+        assertThat(second.getId()).isEqualTo("id1");
+        assertThat(requested.getId()).isEqualTo("id2");
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.model;
+
+import com.google.blockly.android.BlocklyTestCase;
+import com.google.blockly.android.control.BlocklyController;
+import com.google.blockly.utils.BlockLoadingException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Tests for {@link BlockRegistry}.
+ */
+public class BlockRegistryTest extends BlocklyTestCase {
+    private BlockFactory mBlockFactory;
+
+    @Before
+    public void setUp() throws Exception {
+        configureForUIThread();
+
+        BlocklyController controller = new BlocklyController.Builder(getContext())
+                .addBlockDefinitionsFromAsset("default/test_blocks.json")
+                .build();
+        mBlockFactory = controller.getBlockFactory();
+    }
+
+    @Test
+    public void testClearWorkspaceBlockReferences() {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                Block first = obtainBlock("first");
+                Block second = obtainBlock("second");
+                Block detached = obtainBlock("detached");
+                first.setEventWorkspaceId("workspace1");
+                second.setEventWorkspaceId("workspace2");
+
+                mBlockFactory.clearWorkspaceBlockReferences("workspace1");
+                assertThat(mBlockFactory.getBlock("first")).isNull();
+                assertThat(mBlockFactory.getBlock("second")).isSameAs(second);
+                assertThat(mBlockFactory.getBlock("detached")).isSameAs(detached);
+
+                // Moving a block moves it in the workspace index.
+                second.setEventWorkspaceId("workspace1");
+                mBlockFactory.clearWorkspaceBlockReferences("workspace2");
+                assertThat(mBlockFactory.getBlock("second")).isSameAs(second);
+                mBlockFactory.clearWorkspaceBlockReferences("workspace1");
+                assertThat(mBlockFactory.getBlock("second")).isNull();
+                assertThat(mBlockFactory.getBlock("detached")).isSameAs(detached);
+            }
+        });
+    }
+
+    @Test
+    public void testExpungesCollectedBlocks() {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                BlockRegistry registry = new BlockRegistry();
+                Block collected = obtainBlock("collected");
+                Block kept = obtainBlock("kept");
+                collected.setEventWorkspaceId("workspace");
+                registry.put(collected);
+                registry.put(kept);
+                assertThat(registry.size()).isEqualTo(2);
+
+                // Simulate the garbage collector clearing and enqueuing the reference.
+                registry.getReference("collected").enqueue();
+                assertThat(registry.get("kept")).isSameAs(kept);
+                assertThat(registry.size()).isEqualTo(1);
+                assertThat(registry.containsId("collected")).isFalse();
+
+                registry.removeWorkspace("workspace");
+                assertThat(registry.get("kept")).isSameAs(kept);
+            }
+        });
+    }
+
+    private Block obtainBlock(String id) {
+        try {
+            return mBlockFactory.obtainBlockFrom(
+                    new BlockTemplate().ofType("statement_no_input").withId(id));
+        } catch (BlockLoadingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -17,6 +17,7 @@ package com.google.blockly.model;
 
 import com.google.blockly.android.BlocklyTestCase;
 import com.google.blockly.android.control.BlocklyController;
+import com.google.blockly.model.mutator.IfElseMutator;
 import com.google.blockly.utils.BlockLoadingException;
 import com.google.blockly.utils.BlocklyXmlHelper;
 import com.google.blockly.utils.StringOutputStream;
@@ -47,6 +48,33 @@ import static com.google.common.truth.Truth.assertWithMessage;
 public class BlockTest extends BlocklyTestCase {
     private static final String FAKE_WORKSPACE_ID = "FAKE_WORKSPACE_ID";
 
+    /** A tree with a mutator, fields, shadows, statements, and a next sequence. */
+    private static final String COPY_SOURCE_XML =
+            "<block type=\"controls_if\" x=\"10.0\" y=\"20.0\">"
+            + "<mutation elseif=\"1\" else=\"1\"></mutation>"
+            + "<statement name=\"DO0\">"
+            +   "<block type=\"statement_value_input\" inline=\"true\">"
+            +     "<value name=\"value\">"
+            +       "<shadow type=\"math_number\"><field name=\"NUM\">7</field></shadow>"
+            +       "<block type=\"math_number\"><field name=\"NUM\">42</field></block>"
+            +     "</value>"
+            +     "<next>"
+            +       "<block type=\"statement_no_input\" collapsed=\"true\" disabled=\"true\">"
+            +         "<next><block type=\"statement_statement_input\">"
+            +           "<statement name=\"statement input\">"
+            +             "<block type=\"statement_no_input\" editable=\"false\"/>"
+            +           "</statement>"
+            +         "</block></next>"
+            +       "</block>"
+            +     "</next>"
+            +   "</block>"
+            + "</statement>"
+            + "<statement name=\"ELSE\">"
+            +   "<block type=\"statement_no_input\" deletable=\"false\" movable=\"false\"/>"
+            + "</statement>"
+            + "<next><shadow type=\"statement_no_input\"/></next>"
+            + "</block>";
+
     private XmlPullParserFactory xmlPullParserFactory;
     private BlockFactory mBlockFactory;
     private BlocklyController mController;
@@ -103,6 +131,63 @@ public class BlockTest extends BlocklyTestCase {
                 .isNotSameAs(copy.getOnlyValueInput().getConnection().getShadowBlock());
     }
 
+    @Test
+    public void testCopyBlockMatchesSourceTree() {
+        mBlockFactory.registerMutator(IfElseMutator.MUTATOR_ID, IfElseMutator.FACTORY);
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                Block original = fromXml(COPY_SOURCE_XML);
+                Block copy = original.deepCopy();
+
+                assertThat(toXmlWithoutIds(copy)).isEqualTo(toXmlWithoutIds(original));
+
+                List<String> originalIds = getBlockIdsRecursive(original);
+                List<String> copyIds = getBlockIdsRecursive(copy);
+                assertThat(copyIds).hasSize(originalIds.size());
+                for (String id : copyIds) {
+                    assertWithMessage("Copied blocks must have new ids.")
+                            .that(originalIds).doesNotContain(id);
+                    assertThat(mBlockFactory.isBlockIdInUse(id)).isTrue();
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testCopyOfCopiesOnlyTheRootBlock() {
+        mBlockFactory.registerMutator(IfElseMutator.MUTATOR_ID, IfElseMutator.FACTORY);
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                Block original = fromXml(COPY_SOURCE_XML);
+                Block copy;
+                try {
+                    copy = mBlockFactory.obtainBlockFrom(
+                            new BlockTemplate().copyOf(original).withId("copy"));
+                } catch (BlockLoadingException e) {
+                    throw new IllegalStateException(e);
+                }
+
+                assertThat(copy.getId()).isEqualTo("copy");
+                assertThat(copy.getType()).isEqualTo(original.getType());
+                assertThat(copy.getInputByName("IF1")).isNotNull();
+                assertThat(copy.getInputByName("ELSE")).isNotNull();
+                assertThat(copy.getPosition().x).isEqualTo(original.getPosition().x);
+                assertThat(copy.getPosition().y).isEqualTo(original.getPosition().y);
+
+                List<Connection> connections = new ArrayList<>();
+                copy.getAllConnectionsRecursive(connections);
+                for (Connection connection : connections) {
+                    if (connection != copy.getPreviousConnection()) {
+                        assertThat(connection.getTargetBlock()).isNull();
+                        assertThat(connection.getShadowBlock()).isNull();
+                    }
+                }
+            }
+        });
+    }
+
     @Test
     public void testMessageTokenizer() {
         String testMessage = "%%5 should have %1 %12 6 tokens %999 in the end";
@@ -1289,6 +1374,209 @@ public class BlockTest extends BlocklyTestCase {
         });
     }
 
+    @Test
+    public void testEventCallbackOnlyReceivesEventsNamingBlock() throws BlockLoadingException {
+        final Block first = mBlockFactory.obtainBlockFrom(new BlockTemplate().ofType("text"));
+        final Block second = mBlockFactory.obtainBlockFrom(new BlockTemplate().ofType("text"));
+        final TestEventsCallback firstCallback = new TestEventsCallback();
+        final TestEventsCallback secondCallback = new TestEventsCallback();
+
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                first.setEventWorkspaceId("Fake Workspace Id");
+                second.setEventWorkspaceId("Fake Workspace Id");
+                first.setEventCallback(firstCallback);
+                second.setEventCallback(secondCallback);
+                assertThat(mController.getCallbackCount()).isEqualTo(2);
+
+                final BlocklyEvent firstEvent = new BlocklyEvent.ChangeEvent(
+                        BlocklyEvent.ELEMENT_MUTATE, first, null, "", "");
+                mController.addPendingEvent(firstEvent);
+                assertThat(firstCallback.mEventsReceived).hasSize(1);
+                assertThat(secondCallback.mEventsReceived).isEmpty();
+
+                // Both blocks named in one group. Each callback sees the whole group once.
+                firstCallback.mEventsReceived.clear();
+                mController.groupAndFireEvents(new Runnable() {
+                    @Override
+                    public void run() {
+                        mController.addPendingEvent(firstEvent);
+                        mController.addPendingEvent(new BlocklyEvent.ChangeEvent(
+                                BlocklyEvent.ELEMENT_MUTATE, second, null, "", ""));
+                        mController.addPendingEvent(firstEvent);
+                    }
+                });
+                assertThat(firstCallback.mEventsReceived).hasSize(1);
+                assertThat(firstCallback.mEventsReceived.get(0)).hasSize(3);
+                assertThat(secondCallback.mEventsReceived).hasSize(1);
+                assertThat(secondCallback.mEventsReceived.get(0)).hasSize(3);
+
+                first.setEventCallback(null);
+                second.setEventCallback(null);
+                assertThat(mController.getCallbackCount()).isEqualTo(0);
+            }
+        });
+    }
+
+    @Test
+    public void testEventCallbackRemovedAfterBlockCollected() {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                assertThat(mController.getCallbackCount()).isEqualTo(0);
+                addBlockWithCallback();
+                assertThat(mController.getCallbackCount()).isEqualTo(1);
+
+                // Collection is not guaranteed by a single System.gc() call.
+                for (int i = 0; i < 50 && mController.getCallbackCount() > 0; i++) {
+                    System.gc();
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {} // Ignored.
+                }
+                assertThat(mController.getCallbackCount()).isEqualTo(0);
+            }
+        });
+    }
+
+    @Test
+    public void testEventCallbackOrder() throws BlockLoadingException {
+        final Block first = mBlockFactory.obtainBlockFrom(new BlockTemplate().ofType("text"));
+        final Block second = mBlockFactory.obtainBlockFrom(new BlockTemplate().ofType("text"));
+        final List<String> calls = new ArrayList<>();
+
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                first.setEventWorkspaceId("Fake Workspace Id");
+                second.setEventWorkspaceId("Fake Workspace Id");
+                first.setEventCallback(new OrderedEventsCallback("first", calls));
+                second.setEventCallback(new OrderedEventsCallback("second", calls));
+                mController.addCallback(new OrderedEventsCallback("listener", calls));
+
+                // Block callbacks run after listeners, in order of the events naming them.
+                mController.groupAndFireEvents(new Runnable() {
+                    @Override
+                    public void run() {
+                        mController.addPendingEvent(new BlocklyEvent.ChangeEvent(
+                                BlocklyEvent.ELEMENT_MUTATE, second, null, "", ""));
+                        mController.addPendingEvent(new BlocklyEvent.ChangeEvent(
+                                BlocklyEvent.ELEMENT_MUTATE, first, null, "", ""));
+                    }
+                });
+                assertThat(calls).containsExactly("listener", "second", "first").inOrder();
+
+                first.setEventCallback(null);
+                second.setEventCallback(null);
+            }
+        });
+    }
+
+    @Test
+    public void testEventCallbackCalledOncePerGroup() throws BlockLoadingException {
+        final Block block = mBlockFactory.obtainBlockFrom(new BlockTemplate().ofType("text"));
+        final List<String> calls = new ArrayList<>();
+
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                block.setEventWorkspaceId("Fake Workspace Id");
+                block.setEventCallback(new OrderedEventsCallback("block", calls));
+
+                mController.groupAndFireEvents(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < 3; i++) {
+                            mController.addPendingEvent(new BlocklyEvent.ChangeEvent(
+                                    BlocklyEvent.ELEMENT_MUTATE, block, null, "", ""));
+                        }
+                    }
+                });
+                assertThat(calls).containsExactly("block");
+
+                block.setEventCallback(null);
+            }
+        });
+    }
+
+    /**
+     * Creates a block with an event callback, without keeping any reference to the block.
+     */
+    private void addBlockWithCallback() {
+        try {
+            Block block = mBlockFactory.obtainBlockFrom(new BlockTemplate().ofType("text"));
+            block.setEventCallback(new TestEventsCallback());
+        } catch (BlockLoadingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    public void testLongSequenceDoesNotRecurse() {
+        final int length = 50000;
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < length; i++) {
+                    sb.append("<block type=\"statement_no_input\" id=\"").append(i).append('"');
+                    sb.append(i == 0 ? " x=\"0.0\" y=\"0.0\"><next>" : "><next>");
+                }
+                sb.setLength(sb.length() - "<next>".length());
+                for (int i = length - 1; i > 0; i--) {
+                    sb.append("</block></next>");
+                }
+                sb.append("</block>");
+                String xml = sb.toString();
+
+                Block first = fromXml(xml);
+                assertThat(first.getLastBlockInSequence().getId())
+                        .isEqualTo(Integer.toString(length - 1));
+
+                List<String> ids = new ArrayList<>();
+                first.addAllBlockIds(ids);
+                assertThat(ids).hasSize(length);
+                assertThat(ids.get(1)).isEqualTo("1");
+
+                List<Connection> connections = new ArrayList<>();
+                first.getAllConnectionsRecursive(connections);
+                assertThat(connections).hasSize(length * 2);  // Previous and next.
+
+                first.setEventWorkspaceId(FAKE_WORKSPACE_ID);
+                assertThat(first.getLastBlockInSequence().getEventWorkspaceId())
+                        .isEqualTo(FAKE_WORKSPACE_ID);
+
+                String written = toXml(first);
+                assertThat(written.length()).isGreaterThan(xml.length());
+                assertThat(fromXmlWithoutId(written).getLastBlockInSequence().getType())
+                        .isEqualTo("statement_no_input");
+            }
+        });
+    }
+
+    @Test
+    public void testBlockTreeIteratorOrder() {
+        mBlockFactory.registerMutator(IfElseMutator.MUTATOR_ID, IfElseMutator.FACTORY);
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                Block root = fromXml(COPY_SOURCE_XML);
+                List<String> types = new ArrayList<>();
+                BlockTreeIterator iter = new BlockTreeIterator(root);
+                while (iter.hasNext()) {
+                    types.add(iter.next().getType());
+                }
+                assertThat(types).containsExactly("controls_if", "statement_value_input",
+                        "math_number", "statement_no_input", "statement_statement_input",
+                        "statement_no_input", "statement_no_input", "statement_no_input")
+                        .inOrder();
+
+                assertThat(iter.reset(null).hasNext()).isFalse();
+            }
+        });
+    }
+
     private String toXml(Block block) {
         StringOutputStream out = new StringOutputStream();
         try {
@@ -1299,6 +1587,35 @@ public class BlockTest extends BlocklyTestCase {
         return out.toString();
     }
 
+    private static String toXmlWithoutIds(Block block) {
+        try {
+            return BlocklyXmlHelper.writeBlockToXml(block, IOOptions.WRITE_ALL_BLOCKS_WITHOUT_ID);
+        } catch (BlocklySerializerException e) {
+            throw new IllegalArgumentException("Failed to serialize block.", e);
+        }
+    }
+
+    private static List<String> getBlockIdsRecursive(Block root) {
+        List<Connection> connections = new ArrayList<>();
+        root.getAllConnectionsRecursive(connections);
+        List<String> ids = new ArrayList<>();
+        ids.add(root.getId());
+        for (Connection connection : connections) {
+            int type = connection.getType();
+            if (type == Connection.CONNECTION_TYPE_NEXT || type == Connection.CONNECTION_TYPE_INPUT) {
+                Block shadow = connection.getShadowBlock();
+                Block target = connection.getTargetBlock();
+                if (shadow != null) {
+                    ids.add(shadow.getId());
+                }
+                if (target != null && target != shadow) {
+                    ids.add(target.getId());
+                }
+            }
+        }
+        return ids;
+    }
+
     // TODO: Replace with IOOption
     private Block fromXmlWithoutId(String xml) {
         xml = xml.replaceAll("id=\\\"[^\\\"]*\\\"", "");  // Remove id attributes.
@@ -1313,4 +1630,24 @@ public class BlockTest extends BlocklyTestCase {
             throw new IllegalStateException(e);
         }
     }
+
+    private static class OrderedEventsCallback implements BlocklyController.EventsCallback {
+        private final String mName;
+        private final List<String> mCalls;
+
+        OrderedEventsCallback(String name, List<String> calls) {
+            mName = name;
+            mCalls = calls;
+        }
+
+        @Override
+        public int getTypesBitmask() {
+            return BlocklyEvent.TYPE_CHANGE;
+        }
+
+        @Override
+        public void onEventGroup(List<BlocklyEvent> events) {
+            mCalls.add(mName);
+        }
+    }
 }
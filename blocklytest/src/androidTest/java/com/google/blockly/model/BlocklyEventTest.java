@@ -160,4 +160,42 @@ public class BlocklyEventTest extends BlocklyTestCase {
 //        assertThat(position.x).isEqualTo(NEW_POSITION.x);
 //        assertThat(position.y).isEqualTo(NEW_POSITION.y);
     }
+
+    @Test
+    public void testCreateEventCapturesXmlOnDemand() {
+        mField.setFromString("UNTIL");
+        BlocklyEvent.CreateEvent event = new BlocklyEvent.CreateEvent(mBlock);
+        mField.setFromString("WHILE");
+
+        // Nothing was captured at construction.
+        assertThat(event.getXml()).contains(">WHILE<");
+
+        // Once captured, later changes are not reflected.
+        mField.setFromString("UNTIL");
+        assertThat(event.getXml()).contains(">WHILE<");
+        assertThat(event.getIds()).containsExactly(BLOCK_ID);
+    }
+
+    @Test
+    public void testCreateEventIdsDoNotCaptureXml() {
+        mField.setFromString("UNTIL");
+        BlocklyEvent.CreateEvent event = new BlocklyEvent.CreateEvent(mBlock);
+        assertThat(event.getIds()).containsExactly(BLOCK_ID);
+        mField.setFromString("WHILE");
+
+        // Reading the ids did not serialize the block.
+        assertThat(event.getXml()).contains(">WHILE<");
+    }
+
+    @Test
+    public void testDeleteEventCaptureState() {
+        mField.setFromString("WHILE");
+        BlocklyEvent.DeleteEvent event = new BlocklyEvent.DeleteEvent(WORKSPACE_ID, mBlock);
+        event.captureState();
+        mField.setFromString("UNTIL");
+
+        assertThat(event.getXml()).contains(">WHILE<");
+        assertThat(event.getXml()).doesNotContain(">UNTIL<");
+        assertThat(event.getIds()).containsExactly(BLOCK_ID);
+    }
 }
@@ -16,6 +16,7 @@ package com.google.blockly.model;
 
 import com.google.blockly.android.control.BlocklyController;
 import com.google.blockly.utils.BlockLoadingException;
+import com.google.common.truth.Truth;
 
 import org.json.JSONException;
 import org.junit.Before;
@@ -150,6 +151,63 @@ public class ConnectionTest {
         assertThat(input).connectingTo(output).returnsReason(REASON_CHECKS_FAILED);
     }
 
+    @Test
+    public void testConnectionChecksAreInterned() {
+        ConnectionChecks checks = ConnectionChecks.intern(new String[]{"String", "int"});
+        Truth.assertThat(ConnectionChecks.intern(new String[]{"String", "int"})).isSameAs(checks);
+        Truth.assertThat(ConnectionChecks.intern(null)).isNull();
+
+        Connection connection = new Connection(Connection.CONNECTION_TYPE_INPUT,
+                new String[]{"String", "int"});
+        Truth.assertThat(connection.clone().getConnectionChecks()).asList()
+                .containsExactly("String", "int").inOrder();
+
+        // Empty checks never match, not even themselves.
+        ConnectionChecks empty = ConnectionChecks.intern(new String[0]);
+        Truth.assertThat(ConnectionChecks.isCompatible(empty, empty)).isFalse();
+        Truth.assertThat(ConnectionChecks.isCompatible(empty, null)).isTrue();
+    }
+
+    @Test
+    public void testConnectionChecksWithManyTypes() {
+        String[] manyTypes = new String[150];
+        for (int i = 0; i < manyTypes.length; i++) {
+            manyTypes[i] = "ConnectionTest type " + i;
+        }
+        ConnectionChecks all = ConnectionChecks.intern(manyTypes);
+        ConnectionChecks last = ConnectionChecks.intern(new String[]{manyTypes[149]});
+        ConnectionChecks other = ConnectionChecks.intern(new String[]{"ConnectionTest other"});
+
+        Truth.assertThat(ConnectionChecks.isCompatible(all, last)).isTrue();
+        Truth.assertThat(ConnectionChecks.isCompatible(last, all)).isTrue();
+        Truth.assertThat(ConnectionChecks.isCompatible(all, other)).isFalse();
+        Truth.assertThat(ConnectionChecks.isCompatible(other, last)).isFalse();
+    }
+
+    @Test
+    public void testConnectionChecksReleasedAfterCollected() {
+        final String collectedCheck = "ConnectionTest collected";
+        ConnectionChecks live = ConnectionChecks.intern(new String[]{"ConnectionTest live"});
+        internUnreferenced(collectedCheck);
+        Truth.assertThat(ConnectionChecks.hasTypeId(collectedCheck)).isTrue();
+
+        // Collection is not guaranteed by a single System.gc() call.
+        for (int i = 0; i < 50 && ConnectionChecks.hasTypeId(collectedCheck); i++) {
+            System.gc();
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {} // Ignored.
+        }
+        Truth.assertThat(ConnectionChecks.hasTypeId(collectedCheck)).isFalse();
+        Truth.assertThat(ConnectionChecks.hasTypeId("ConnectionTest live")).isTrue();
+
+        // Released type ids may be reused, without matching the checks still alive.
+        ConnectionChecks reused = ConnectionChecks.intern(new String[]{"ConnectionTest reused"});
+        Truth.assertThat(ConnectionChecks.isCompatible(live, reused)).isFalse();
+        Truth.assertThat(ConnectionChecks.isCompatible(live,
+                ConnectionChecks.intern(new String[]{"ConnectionTest live"}))).isTrue();
+    }
+
     @Test
     public void testCanConnectWithReason_shadows() {
         // Verify a shadow can connect
@@ -344,4 +402,8 @@ public class ConnectionTest {
         thrown.reportMissingExceptionWithMessage("Input cannot connect to previous!");
         shadowInput.checkConnection(shadowPrevious);
     }
+
+    private static void internUnreferenced(String check) {
+        ConnectionChecks.intern(new String[]{check});
+    }
 }
@@ -115,6 +115,41 @@ public class MutatorTest extends BlocklyTestCase {
         }
     }
 
+    @Test
+    public void testApplyStateFallsBackToXml() throws Exception {
+        final Block block = mFactory.obtainBlockFrom(new BlockTemplate().ofType(BLOCK_TYPE));
+
+        final Exception[] innerException = {null};  // Runner interface does not support exceptions.
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                // ExampleMutator only supports XML, so the state is applied through update().
+                try {
+                    block.setMutationState(new Mutator.State() {
+                        @Override
+                        public void serialize(XmlSerializer serializer) throws IOException {
+                            serializer.startTag("", "mutation");
+                            serializer.attribute("", "attr", UPDATED_ATTR);
+                            serializer.text(UPDATED_TEXT);
+                            serializer.endTag("", "mutation");
+                        }
+                    });
+                } catch (BlockLoadingException e) {
+                    innerException[0] = e;
+                    return;
+                }
+                ExampleMutator mutator = (ExampleMutator) block.getMutator();
+                assertThat(mutator.mAttrib).isEqualTo(UPDATED_ATTR);
+                assertThat(mutator.mText).isEqualTo(UPDATED_TEXT);
+                assertThat(block.getMutation()).contains(UPDATED_TEXT);
+            }
+        });
+
+        if (innerException[0] != null) {
+            throw innerException[0];
+        }
+    }
+
     public static class ExampleMutator extends Mutator {
         static class Factory implements Mutator.Factory<ExampleMutator> {
             @Override
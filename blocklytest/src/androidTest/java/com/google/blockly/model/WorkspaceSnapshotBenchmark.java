@@ -0,0 +1,158 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.model;
+
+import android.support.test.filters.LargeTest;
+import android.util.Log;
+
+import com.google.blockly.android.BlocklyTestCase;
+import com.google.blockly.android.TestUtils;
+import com.google.blockly.android.control.BlocklyController;
+import com.google.blockly.utils.BlockLoadingException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Compares the size and speed of the {@link BlockBinarySerializer} workspace snapshots against
+ * {@link com.google.blockly.utils.BlocklyXmlHelper XML}. Results are written to the log under
+ * {@link #TAG}. Runs only when enabled with {@link TestUtils#BENCHMARK_ARGUMENT}.
+ */
+@LargeTest
+public class WorkspaceSnapshotBenchmark extends BlocklyTestCase {
+    private static final String TAG = "WorkspaceSnapshotBench";
+
+    private static final int[] STACK_COUNTS = {10, 100, 500};
+    private static final int BLOCKS_PER_STACK = 10;
+    private static final int RUNS = 5;
+
+    private Workspace mWorkspace;
+
+    @Before
+    public void setUp() throws Exception {
+        TestUtils.assumeBenchmarksEnabled();
+        configureForUIThread();
+        testTimeoutMs = 120000L;
+
+        mWorkspace = newWorkspace();
+    }
+
+    @Test
+    public void benchmarkSnapshotFormats() {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int stackCount : STACK_COUNTS) {
+                        runComparison(stackCount);
+                    }
+                } catch (BlockLoadingException | IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+    }
+
+    private void runComparison(int stackCount) throws BlockLoadingException, IOException {
+        mWorkspace.loadWorkspaceContents(buildWorkspaceXml(stackCount));
+        String expectedXml = toXml(mWorkspace);
+
+        long xmlWriteNanos = 0;
+        long xmlReadNanos = 0;
+        long binaryWriteNanos = 0;
+        long binaryReadNanos = 0;
+        byte[] xml = null;
+        byte[] binary = null;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            mWorkspace.serializeToXml(out);
+            xml = out.toByteArray();
+            xmlWriteNanos += System.nanoTime() - start;
+
+            // Restore into new workspaces, as after process death, so the ids are not in use.
+            Workspace restored = newWorkspace();
+            start = System.nanoTime();
+            restored.loadWorkspaceContents(new ByteArrayInputStream(xml));
+            xmlReadNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            out = new ByteArrayOutputStream();
+            mWorkspace.serializeToBinary(out);
+            binary = out.toByteArray();
+            binaryWriteNanos += System.nanoTime() - start;
+
+            restored = newWorkspace();
+            start = System.nanoTime();
+            restored.loadWorkspaceContentsFromBinary(new ByteArrayInputStream(binary));
+            binaryReadNanos += System.nanoTime() - start;
+            assertThat(toXml(restored)).isEqualTo(expectedXml);
+        }
+
+        Log.i(TAG, (stackCount * BLOCKS_PER_STACK * 2) + " blocks: "
+                + "XML " + xml.length + " bytes, write " + toMillis(xmlWriteNanos) + "ms, read "
+                + toMillis(xmlReadNanos) + "ms; binary " + binary.length + " bytes, write "
+                + toMillis(binaryWriteNanos) + "ms, read " + toMillis(binaryReadNanos) + "ms");
+
+        assertThat(binary.length).isLessThan(xml.length);
+    }
+
+    /**
+     * Builds stacks of statement blocks, each with a number in its value input, similar to a
+     * simple user program.
+     */
+    private static String buildWorkspaceXml(int stackCount) {
+        StringBuilder sb = new StringBuilder("<xml xmlns=\"http://www.w3.org/1999/xhtml\">");
+        for (int stack = 0; stack < stackCount; stack++) {
+            sb.append("<block type=\"statement_value_input\" x=\"").append(stack * 20)
+                    .append("\" y=\"").append(stack * 300).append("\">");
+            for (int i = 0; i < BLOCKS_PER_STACK; i++) {
+                if (i > 0) {
+                    sb.append("<next><block type=\"statement_value_input\">");
+                }
+                sb.append("<value name=\"value\"><block type=\"math_number\"><field name=\"NUM\">")
+                        .append(i).append("</field></block></value>");
+            }
+            for (int i = BLOCKS_PER_STACK - 1; i >= 0; i--) {
+                sb.append(i > 0 ? "</block></next>" : "</block>");
+            }
+        }
+        return sb.append("</xml>").toString();
+    }
+
+    private Workspace newWorkspace() {
+        return new BlocklyController.Builder(getContext())
+                .addBlockDefinitionsFromAsset("default/test_blocks.json")
+                .build()
+                .getWorkspace();
+    }
+
+    private static String toXml(Workspace workspace) throws BlocklySerializerException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        workspace.serializeToXml(out);
+        return out.toString();
+    }
+
+    private static long toMillis(long totalNanos) {
+        return totalNanos / RUNS / 1000000;
+    }
+}
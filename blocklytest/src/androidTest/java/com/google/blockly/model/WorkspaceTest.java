@@ -28,9 +28,12 @@ import org.junit.rules.ExpectedException;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assertWithMessage;
+import static org.junit.Assert.fail;
 
 /**
  * Tests for {@link Workspace}.
@@ -46,6 +49,7 @@ public class WorkspaceTest extends BlocklyTestCase {
 
     private static final String EMPTY_WORKSPACE =
             "\r\n<xml xmlns=\"http://www.w3.org/1999/xhtml\" />";
+    private BlockFactory mBlockFactory;
     private Workspace mWorkspace;
 
     @Rule
@@ -58,6 +62,7 @@ public class WorkspaceTest extends BlocklyTestCase {
         BlocklyController.Builder builder = new BlocklyController.Builder(context);
         builder.addBlockDefinitionsFromAsset("default/test_blocks.json");
         BlocklyController controller = builder.build();
+        mBlockFactory = controller.getBlockFactory();
         mWorkspace = controller.getWorkspace();
     }
 
@@ -93,6 +98,157 @@ public class WorkspaceTest extends BlocklyTestCase {
         assertThat(os.toString()).isEqualTo(EMPTY_WORKSPACE);
     }
 
+    @Test
+    public void testTrashUnlimitedByDefault() {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                int count = Workspace.DEFAULT_MAX_LIVE_TRASH_ENTRIES + 5;
+                for (int i = 0; i < count; i++) {
+                    mWorkspace.addBlockToTrash(newBlock("trashed" + i));
+                }
+
+                // Nothing is discarded, but older blocks are compacted.
+                assertThat(mWorkspace.getMaxTrashEntries())
+                        .isEqualTo(Workspace.UNLIMITED_TRASH_ENTRIES);
+                assertThat(mWorkspace.getTrashEntryCount()).isEqualTo(count);
+                assertThat(getTrashedIds()).hasSize(Workspace.DEFAULT_MAX_LIVE_TRASH_ENTRIES);
+
+                mWorkspace.restoreCompactTrash();
+                assertThat(getTrashedIds()).hasSize(count);
+            }
+        });
+    }
+
+    @Test
+    public void testTrashLimits() {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                mWorkspace.setTrashLimits(3, 1);
+                for (int i = 0; i < 4; i++) {
+                    mWorkspace.addBlockToTrash(newBlock("trashed" + i));
+                }
+
+                // The first block was discarded, and only the last is kept as a Block.
+                assertThat(mWorkspace.getTrashEntryCount()).isEqualTo(3);
+                assertThat(mWorkspace.hasDeletedBlocks()).isTrue();
+                assertThat(getTrashedIds()).containsExactly("trashed3");
+                assertThat(mBlockFactory.getBlock("trashed1")).isNull();
+
+                mWorkspace.restoreCompactTrash();
+                assertThat(getTrashedIds())
+                        .containsExactly("trashed3", "trashed2", "trashed1").inOrder();
+                assertThat(mWorkspace.getTrashEntryCount()).isEqualTo(3);
+
+                Block restored = mBlockFactory.getBlock("trashed1");
+                assertThat(restored.getEventWorkspaceId())
+                        .isEqualTo(BlocklyEvent.WORKSPACE_ID_TRASH);
+                mWorkspace.addBlockFromTrash(restored);
+                assertThat(mWorkspace.isRootBlock(restored)).isTrue();
+                assertThat(mWorkspace.getTrashEntryCount()).isEqualTo(2);
+
+                // Compacting again keeps only the newest block live.
+                mWorkspace.compactTrash();
+                assertThat(getTrashedIds()).containsExactly("trashed3");
+                assertThat(mWorkspace.getTrashEntryCount()).isEqualTo(2);
+
+                mWorkspace.resetWorkspace();
+                assertThat(mWorkspace.hasDeletedBlocks()).isFalse();
+            }
+        });
+    }
+
+    @Test
+    public void testRootBlocksKeepInsertionOrder() {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                Block first = newBlock("first");
+                Block second = newBlock("second");
+                Block third = newBlock("third");
+                mWorkspace.addRootBlock(first, true);
+                mWorkspace.addRootBlock(second, true);
+                mWorkspace.addRootBlock(third, true);
+
+                ArrayList<Block> rootBlocks = mWorkspace.getRootBlocks();
+                assertThat(rootBlocks).containsExactly(first, second, third).inOrder();
+                assertThat(rootBlocks.get(1)).isSameAs(second);
+
+                assertThat(mWorkspace.getRootBlocks()).isSameAs(rootBlocks);
+
+                // Earlier lists are not changed by later updates.
+                assertThat(mWorkspace.removeRootBlock(second, false)).isTrue();
+                assertThat(mWorkspace.isRootBlock(second)).isFalse();
+                assertThat(rootBlocks).containsExactly(first, second, third).inOrder();
+                rootBlocks = mWorkspace.getRootBlocks();
+                assertThat(rootBlocks).containsExactly(first, third).inOrder();
+                assertThat(rootBlocks.get(1)).isSameAs(third);
+                assertThat(mWorkspace.removeRootBlock(second, false)).isFalse();
+
+                mWorkspace.addRootBlock(second, false);
+                assertThat(mWorkspace.getRootBlocks())
+                        .containsExactly(first, third, second).inOrder();
+                try {
+                    mWorkspace.addRootBlock(second, false);
+                    fail("Root blocks cannot be added twice.");
+                } catch (IllegalArgumentException expected) {
+                    // expected
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testRootBlocksNotMutable() {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                Block block = newBlock("block");
+                mWorkspace.addRootBlock(block, true);
+                ArrayList<Block> rootBlocks = mWorkspace.getRootBlocks();
+
+                try {
+                    rootBlocks.remove(block);
+                    fail("Root blocks must be removed through the workspace.");
+                } catch (UnsupportedOperationException expected) {
+                    // expected
+                }
+                try {
+                    rootBlocks.add(newBlock("other"));
+                    fail("Root blocks must be added through the workspace.");
+                } catch (UnsupportedOperationException expected) {
+                    // expected
+                }
+                try {
+                    rootBlocks.clear();
+                    fail("Root blocks must be removed through the workspace.");
+                } catch (UnsupportedOperationException expected) {
+                    // expected
+                }
+                assertThat(mWorkspace.getRootBlocks()).containsExactly(block);
+                assertThat(mWorkspace.isRootBlock(block)).isTrue();
+            }
+        });
+    }
+
+    private Block newBlock(String id) {
+        try {
+            return mBlockFactory.obtainBlockFrom(
+                    new BlockTemplate().ofType("statement_no_input").withId(id));
+        } catch (BlockLoadingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private List<String> getTrashedIds() {
+        List<String> ids = new ArrayList<>();
+        for (BlocklyCategory.CategoryItem item : mWorkspace.getTrashCategory().getItems()) {
+            ids.add(((BlocklyCategory.BlockItem) item).getBlock().getId());
+        }
+        return ids;
+    }
+
     private static ByteArrayInputStream assembleWorkspace(String interior) {
         return new ByteArrayInputStream(
                 (WORKSPACE_XML_START + interior + WORKSPACE_XML_END).getBytes());
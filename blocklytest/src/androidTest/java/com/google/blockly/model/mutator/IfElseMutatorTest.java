@@ -180,6 +180,40 @@ public class IfElseMutatorTest extends BlocklyTestCase {
         });
     }
 
+    @Test
+    public void test_mutationState() {
+        runAndSync(new Runnable() {
+            @Override
+            public void run() {
+                mBlock.setEventWorkspaceId("Fake Workspace");  // Required for events to fire.
+
+                IfElseMutator mutator = (IfElseMutator) mBlock.getMutator();
+                assertThat(mutator.getState()).isEqualTo(new IfElseMutator.IfElseState(0, false));
+
+                try {
+                    mBlock.setMutationState(new IfElseMutator.IfElseState(2, true));
+                } catch (BlockLoadingException e) {
+                    Truth.THROW_ASSERTION_ERROR.fail("Error applying mutation state.", e);
+                }
+                assertThat(mutator.getElseIfCount()).isEqualTo(2);
+                assertThat(mutator.hasElse()).isTrue();
+                assertThat(mBlock.getInputByName("IF2")).isNotNull();
+                assertThat(mBlock.getInputByName("ELSE")).isNotNull();
+
+                // The XML form is only written when requested.
+                assertThat(mBlock.getMutation())
+                        .isEqualTo(IfElseMutator.writeMutationString(2, true));
+
+                // Copies share the typed state.
+                Block copy = mBlock.deepCopy();
+                assertThat(copy.getMutator().getState())
+                        .isEqualTo(new IfElseMutator.IfElseState(2, true));
+                assertThat(copy.getInputByName("IF2")).isNotNull();
+                assertThat(copy.getInputByName("ELSE")).isNotNull();
+            }
+        });
+    }
+
     private XmlSerializer getXmlSerializer(ByteArrayOutputStream os)
             throws BlocklySerializerException
     {
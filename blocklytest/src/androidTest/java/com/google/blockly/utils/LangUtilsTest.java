@@ -0,0 +1,123 @@
+/*
+ *  Copyright 2017 Google Inc. All Rights Reserved.
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.blockly.utils;
+
+import com.google.blockly.android.control.BlocklyController;
+import com.google.blockly.model.Block;
+import com.google.blockly.model.BlockFactory;
+import com.google.blockly.model.BlockTemplate;
+import com.google.blockly.model.FieldLabel;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link LangUtils}.
+ */
+public class LangUtilsTest {
+    @After
+    public void tearDown() {
+        LangUtils.setLangMap(new HashMap<String, String>());
+    }
+
+    @Test
+    public void testParseMessagesResolvesAliases() {
+        Map<String, String> messages = new HashMap<>();
+        messages.put("CONTROLS_IF_MSG_THEN", "do");  // Default, overridden below.
+        LangUtils.parseMessages(
+                "Blockly.Msg[\"CONTROLS_IF_MSG_ELSEIF\"] = Blockly.Msg[\"CONTROLS_IF_MSG_ELSE\"];\n"
+                + "Blockly.Msg[\"CONTROLS_IF_MSG_ELSE\"] = Blockly.Msg[\"CONTROLS_IF_MSG_THEN\"];\n"
+                + "  Blockly.Msg[\"CONTROLS_IF_MSG_THEN\"] = \"then\";\n"
+                + "// Blockly.Msg[\"IGNORED\"] = \"comment\";\n",
+                messages);
+
+        assertThat(messages).containsEntry("CONTROLS_IF_MSG_THEN", "then");
+        assertThat(messages).containsEntry("CONTROLS_IF_MSG_ELSE", "then");
+        assertThat(messages).containsEntry("CONTROLS_IF_MSG_ELSEIF", "then");
+        assertThat(messages).doesNotContainKey("IGNORED");
+
+        try {
+            LangUtils.parseMessages("Blockly.Msg[\"A\"] = Blockly.Msg[\"MISSING\"];", messages);
+            fail("Aliases to undefined messages must throw.");
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testInterpolate() {
+        Map<String, String> messages = new HashMap<>();
+        messages.put("IF", "if");
+        messages.put("DO", "do");
+        messages.put("IF_DO", "%{BKY_IF} %1 %{BKY_DO}");
+        LangUtils.setLangMap(messages);
+
+        assertThat(LangUtils.interpolate("no references")).isEqualTo("no references");
+        assertThat(LangUtils.interpolate("%{BKY_IF}")).isEqualTo("if");
+        assertThat(LangUtils.interpolate("%{BKY_IF}%{BKY_IF}, %{BKY_DO}."))
+                .isEqualTo("ifif, do.");
+        assertThat(LangUtils.interpolate("%{BKY_IF_DO}")).isEqualTo("if %1 do");
+        assertThat(LangUtils.interpolate("%{BKY_UNKNOWN} %{BKY_DO}"))
+                .isEqualTo("%{BKY_UNKNOWN} do");
+        assertThat(LangUtils.interpolate("%{BKY_DO")).isEqualTo("%{BKY_DO");
+
+        // Memoized results are dropped when the translations change.
+        Map<String, String> otherMessages = new HashMap<>();
+        otherMessages.put("IF", "si");
+        LangUtils.setLangMap(otherMessages);
+        assertThat(LangUtils.interpolate("%{BKY_IF}")).isEqualTo("si");
+    }
+
+    @Test
+    public void testNewBlocksUseCurrentTranslations() throws Exception {
+        Map<String, String> messages = new HashMap<>();
+        messages.put("GREETING", "hello");
+        LangUtils.setLangMap(messages);
+
+        BlockFactory factory = new BlockFactory();
+        factory.setController(Mockito.mock(BlocklyController.class));
+        factory.addJsonDefinitions(
+                "[{\"type\": \"greeting\", \"message0\": \"%{BKY_GREETING}\"}]");
+        Block english = factory.obtainBlockFrom(new BlockTemplate().ofType("greeting"));
+        assertThat(getLabelText(english)).isEqualTo("hello");
+
+        // Blocks created after the translations change do not reuse the earlier labels.
+        Map<String, String> otherMessages = new HashMap<>();
+        otherMessages.put("GREETING", "hola");
+        int generation = LangUtils.getGeneration();
+        LangUtils.setLangMap(otherMessages);
+        assertThat(LangUtils.getGeneration()).isNotEqualTo(generation);
+        Block spanish = factory.obtainBlockFrom(new BlockTemplate().ofType("greeting"));
+        assertThat(getLabelText(spanish)).isEqualTo("hola");
+        assertThat(getLabelText(english)).isEqualTo("hello");
+
+        // Setting the same translations again keeps the generation.
+        generation = LangUtils.getGeneration();
+        LangUtils.setLangMap(otherMessages);
+        assertThat(LangUtils.getGeneration()).isEqualTo(generation);
+    }
+
+    private static String getLabelText(Block block) {
+        return ((FieldLabel) block.getInputs().get(0).getFields().get(0)).getText();
+    }
+}